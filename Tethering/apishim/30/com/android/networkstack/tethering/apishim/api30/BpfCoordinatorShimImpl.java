@@ -20,6 +20,7 @@ import android.net.INetd;
 import android.net.TetherStatsParcel;
 import android.os.RemoteException;
 import android.os.ServiceSpecificException;
+import android.util.ArrayMap;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
@@ -34,6 +35,8 @@ import com.android.networkstack.tethering.BpfCoordinator.Dependencies;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6DownstreamRule;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6UpstreamRule;
 
+import java.net.Inet4Address;
+
 /**
  * Bpf coordinator class for API shims.
  */
@@ -158,6 +161,12 @@ public class BpfCoordinatorShimImpl
         return true;
     }
 
+    @Override
+    public boolean tetherOffloadRuleExists(boolean downstream, @NonNull Tether4Key key) {
+        /* no op */
+        return false;
+    }
+
     @Override
     public void tetherOffloadRuleForEach(boolean downstream,
             @NonNull ThrowingBiConsumer<Tether4Key, Tether4Value> action) {
@@ -182,6 +191,12 @@ public class BpfCoordinatorShimImpl
         return false;
     }
 
+    @Override
+    public int getIpv4RuleCount() {
+        /* no op */
+        return 0;
+    }
+
     @Override
     public boolean addDevMap(int ifIndex) {
         /* no op */
@@ -194,6 +209,32 @@ public class BpfCoordinatorShimImpl
         return false;
     }
 
+    @Override
+    public boolean tetherOffloadClientStatsAdd(@NonNull Inet4Address client) {
+        /* no op */
+        return false;
+    }
+
+    @Override
+    @Nullable
+    public TetherStatsValue tetherOffloadClientStatsRemove(@NonNull Inet4Address client) {
+        /* no op */
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public ArrayMap<Inet4Address, TetherStatsValue> tetherOffloadGetClientStats() {
+        /* no op */
+        return new ArrayMap<>();
+    }
+
+    @Override
+    public boolean tetherOffloadSetClientQuota(@NonNull Inet4Address client, long quotaBytes) {
+        /* no op */
+        return false;
+    }
+
     @Override
     public String toString() {
         return "Netd used";
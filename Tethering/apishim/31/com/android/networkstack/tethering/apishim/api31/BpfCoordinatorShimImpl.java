@@ -24,6 +24,7 @@ import static com.android.networkstack.tethering.TetheringConfiguration.TETHER_A
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -42,6 +43,7 @@ import com.android.networkstack.tethering.BpfCoordinator.Ipv6DownstreamRule;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6UpstreamRule;
 import com.android.networkstack.tethering.BpfUtils;
 import com.android.networkstack.tethering.Tether6Value;
+import com.android.networkstack.tethering.TetherClient4Key;
 import com.android.networkstack.tethering.TetherDevKey;
 import com.android.networkstack.tethering.TetherDevValue;
 import com.android.networkstack.tethering.TetherDownstream6Key;
@@ -51,6 +53,7 @@ import com.android.networkstack.tethering.TetherUpstream6Key;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.net.Inet4Address;
 
 /**
  * Bpf coordinator class for API shims.
@@ -95,6 +98,15 @@ public class BpfCoordinatorShimImpl
     @Nullable
     private final IBpfMap<TetherDevKey, TetherDevValue> mBpfDevMap;
 
+    // BPF map of tethering statistics of the IPv4 client since its accounting was started.
+    // Optional. Per-client accounting is not supported if null.
+    @Nullable
+    private final IBpfMap<TetherClient4Key, TetherStatsValue> mBpfClient4StatsMap;
+
+    // BPF map of per-client quota for tethering offload. Optional.
+    @Nullable
+    private final IBpfMap<TetherClient4Key, TetherLimitValue> mBpfClient4LimitMap;
+
     // Tracking IPv4 rule count while any rule is using the given upstream interfaces. Used for
     // reducing the BPF map iteration query. The count is increased or decreased when the rule is
     // added or removed successfully on mBpfDownstream4Map. Counting the rules on downstream4 map
@@ -109,6 +121,10 @@ public class BpfCoordinatorShimImpl
     // TODO: Add IPv6 rule count.
     private final SparseArray<Integer> mRule4CountOnUpstream = new SparseArray<>();
 
+    // Tracking the total IPv4 rule count on mBpfDownstream4Map, i.e. the sum of the counts in
+    // mRule4CountOnUpstream. Used for the occupancy of the IPv4 maps.
+    private int mRule4Count = 0;
+
     private final boolean mSupportActiveSessionsMetrics;
     /**
      * Tracks the current number of tethering connections and the maximum
@@ -135,6 +151,8 @@ public class BpfCoordinatorShimImpl
         mBpfStatsMap = deps.getBpfStatsMap();
         mBpfLimitMap = deps.getBpfLimitMap();
         mBpfDevMap = deps.getBpfDevMap();
+        mBpfClient4StatsMap = deps.getBpfClient4StatsMap();
+        mBpfClient4LimitMap = deps.getBpfClient4LimitMap();
 
         // Clear the stubs of the maps for handling the system service crash if any.
         // Doesn't throw the exception and clear the stubs as many as possible.
@@ -173,6 +191,16 @@ public class BpfCoordinatorShimImpl
         } catch (ErrnoException e) {
             mLog.e("Could not clear mBpfDevMap: " + e);
         }
+        try {
+            if (mBpfClient4StatsMap != null) mBpfClient4StatsMap.clear();
+        } catch (ErrnoException e) {
+            mLog.e("Could not clear mBpfClient4StatsMap: " + e);
+        }
+        try {
+            if (mBpfClient4LimitMap != null) mBpfClient4LimitMap.clear();
+        } catch (ErrnoException e) {
+            mLog.e("Could not clear mBpfClient4LimitMap: " + e);
+        }
 
         mSupportActiveSessionsMetrics = deps.isFeatureEnabled(deps.getContext(),
                 TETHER_ACTIVE_SESSIONS_METRICS);
@@ -370,6 +398,7 @@ public class BpfCoordinatorShimImpl
                 final int upstreamIfindex = (int) key.iif;
                 int count = mRule4CountOnUpstream.get(upstreamIfindex, 0 /* default */);
                 mRule4CountOnUpstream.put(upstreamIfindex, ++count);
+                mRule4Count++;
 
                 if (mSupportActiveSessionsMetrics) {
                     mCurrentConnectionCount++;
@@ -411,6 +440,7 @@ public class BpfCoordinatorShimImpl
                 } else {
                     mRule4CountOnUpstream.put(upstreamIfindex, count);
                 }
+                mRule4Count--;
 
                 if (mSupportActiveSessionsMetrics) {
                     mCurrentConnectionCount--;
@@ -425,6 +455,17 @@ public class BpfCoordinatorShimImpl
         return true;
     }
 
+    @Override
+    public boolean tetherOffloadRuleExists(boolean downstream, @NonNull Tether4Key key) {
+        try {
+            return downstream ? mBpfDownstream4Map.containsKey(key)
+                    : mBpfUpstream4Map.containsKey(key);
+        } catch (ErrnoException e) {
+            mLog.e("Could not look up entry (key: " + key + ")", e);
+            return false;
+        }
+    }
+
     @Override
     public void tetherOffloadRuleForEach(boolean downstream,
             @NonNull ThrowingBiConsumer<Tether4Key, Tether4Value> action) {
@@ -467,6 +508,11 @@ public class BpfCoordinatorShimImpl
         return mRule4CountOnUpstream.get(ifIndex) != null;
     }
 
+    @Override
+    public int getIpv4RuleCount() {
+        return mRule4Count;
+    }
+
     @Override
     public boolean addDevMap(int ifIndex) {
         try {
@@ -489,6 +535,86 @@ public class BpfCoordinatorShimImpl
         return true;
     }
 
+    @Override
+    public boolean tetherOffloadClientStatsAdd(@NonNull Inet4Address client) {
+        if (mBpfClient4StatsMap == null) return false;
+
+        try {
+            // BpfMap#insertEntry use BPF_NOEXIST to create the entry. The existing stats are kept
+            // if the client is added again.
+            mBpfClient4StatsMap.insertEntry(new TetherClient4Key(client), new TetherStatsValue(
+                    0 /* rxPackets */, 0 /* rxBytes */, 0 /* rxErrors */, 0 /* txPackets */,
+                    0 /* txBytes */, 0 /* txErrors */));
+        } catch (ErrnoException | IllegalArgumentException e) {
+            mLog.e("Could not create client stats entry: ", e);
+            return false;
+        } catch (IllegalStateException e) {
+            // Silent if the entry already exists. See BpfMap#insertEntry.
+        }
+        return true;
+    }
+
+    @Override
+    @Nullable
+    public TetherStatsValue tetherOffloadClientStatsRemove(@NonNull Inet4Address client) {
+        if (mBpfClient4StatsMap == null || mBpfClient4LimitMap == null) return null;
+
+        final TetherClient4Key key = new TetherClient4Key(client);
+        TetherStatsValue statsValue = null;
+        try {
+            statsValue = mBpfClient4StatsMap.getValue(key);
+            mBpfClient4StatsMap.deleteEntry(key);
+            mBpfClient4LimitMap.deleteEntry(key);
+        } catch (ErrnoException e) {
+            mLog.e("Could not delete client stats entry for " + client + ": ", e);
+        }
+        return statsValue;
+    }
+
+    @Override
+    @Nullable
+    public ArrayMap<Inet4Address, TetherStatsValue> tetherOffloadGetClientStats() {
+        final ArrayMap<Inet4Address, TetherStatsValue> clientStats = new ArrayMap<>();
+        if (mBpfClient4StatsMap == null) return clientStats;
+
+        try {
+            mBpfClient4StatsMap.forEach((key, value) -> clientStats.put(key.addr4, value));
+        } catch (ErrnoException e) {
+            mLog.e("Fail to fetch client stats from BPF map: ", e);
+            return null;
+        }
+        return clientStats;
+    }
+
+    @Override
+    public boolean tetherOffloadSetClientQuota(@NonNull Inet4Address client, long quotaBytes) {
+        if (mBpfClient4StatsMap == null || mBpfClient4LimitMap == null) return false;
+
+        final TetherClient4Key key = new TetherClient4Key(client);
+        try {
+            if (quotaBytes == QUOTA_UNLIMITED) {
+                // No limit entry means no limit. See offload.c.
+                mBpfClient4LimitMap.deleteEntry(key);
+                return true;
+            }
+
+            final TetherStatsValue statsValue = mBpfClient4StatsMap.getValue(key);
+            if (statsValue == null) {
+                mLog.e("Could not set quota for " + client + " without stats entry");
+                return false;
+            }
+            final long usedBytes = statsValue.rxBytes + statsValue.txBytes;
+            long newLimit = usedBytes + quotaBytes;
+            // If adding limit caused overflow: clamp to 'infinity'.
+            if (newLimit < usedBytes) newLimit = Long.MAX_VALUE;
+            mBpfClient4LimitMap.updateEntry(key, new TetherLimitValue(newLimit));
+        } catch (ErrnoException e) {
+            mLog.e("Fail to set quota " + quotaBytes + " for client " + client + ": ", e);
+            return false;
+        }
+        return true;
+    }
+
     private String mapStatus(IBpfMap m, String name) {
         return name + "{" + (m != null ? "OK" : "ERROR") + "}";
     }
@@ -503,6 +629,8 @@ public class BpfCoordinatorShimImpl
             mapStatus(mBpfStatsMap, "mBpfStatsMap"),
             mapStatus(mBpfLimitMap, "mBpfLimitMap"),
             mapStatus(mBpfDevMap, "mBpfDevMap"),
+            mapStatus(mBpfClient4StatsMap, "mBpfClient4StatsMap"),
+            mapStatus(mBpfClient4LimitMap, "mBpfClient4LimitMap"),
             "mCurrentConnectionCount=" + mCurrentConnectionCount,
             "mLastMaxConnectionCount=" + mLastMaxConnectionCount
         });
@@ -16,6 +16,7 @@
 
 package com.android.networkstack.tethering.apishim.common;
 
+import android.util.ArrayMap;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
@@ -29,6 +30,8 @@ import com.android.networkstack.tethering.BpfCoordinator.Dependencies;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6DownstreamRule;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6UpstreamRule;
 
+import java.net.Inet4Address;
+
 /**
  * Bpf coordinator class for API shims.
  */
@@ -155,6 +158,14 @@ public abstract class BpfCoordinatorShim {
      */
     public abstract boolean tetherOffloadRuleRemove(boolean downstream, @NonNull Tether4Key key);
 
+    /**
+     * Whether a tethering IPv4 offload rule exists in the appropriate BPF map.
+     *
+     * @param downstream true if downstream, false if upstream.
+     * @param key the key to look up.
+     */
+    public abstract boolean tetherOffloadRuleExists(boolean downstream, @NonNull Tether4Key key);
+
     /**
      * Iterate through the map and handle each key -> value retrieved base on the given BiConsumer.
      *
@@ -171,6 +182,12 @@ public abstract class BpfCoordinatorShim {
      */
     public abstract boolean isAnyIpv4RuleOnUpstream(int ifIndex);
 
+    /**
+     * Return the number of IPv4 offload rules, counted on the downstream map. Each offloaded
+     * connection has one rule on each of the upstream and downstream maps.
+     */
+    public abstract int getIpv4RuleCount();
+
     /**
      * Attach BPF program.
      *
@@ -203,6 +220,39 @@ public abstract class BpfCoordinatorShim {
      */
     public abstract boolean removeDevMap(int ifIndex);
 
+    /**
+     * Start per-client statistics accounting for a given IPv4 client.
+     *
+     * The offloaded traffic of a client is only accounted once its stats entry has been created.
+     */
+    public abstract boolean tetherOffloadClientStatsAdd(@NonNull Inet4Address client);
+
+    /**
+     * Return the statistics of a given IPv4 client and stop accounting it. The stats and the
+     * limit of the client will be deleted.
+     */
+    @Nullable
+    public abstract TetherStatsValue tetherOffloadClientStatsRemove(@NonNull Inet4Address client);
+
+    /**
+     * Return per-client BPF tethering offload statistics.
+     *
+     * @return a map of the IPv4 client address to its tethering statistics since the client's
+     *         accounting was started, or null if there was an error.
+     */
+    @Nullable
+    public abstract ArrayMap<Inet4Address, TetherStatsValue> tetherOffloadGetClientStats();
+
+    /**
+     * Set a per-client quota for tethering offload.
+     *
+     * @param client IPv4 address of the client.
+     * @param quotaBytes The quota defined as the number of bytes, starting from zero and counting
+     *       from *now*. A value of QUOTA_UNLIMITED (-1) indicates there is no limit.
+     */
+    public abstract boolean tetherOffloadSetClientQuota(@NonNull Inet4Address client,
+            long quotaBytes);
+
     /** Get last max connection count and reset to current count. */
     public abstract int getLastMaxConnectionAndResetToCurrent();
 
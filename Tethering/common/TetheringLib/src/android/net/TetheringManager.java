@@ -2246,4 +2246,69 @@ public class TetheringManager {
             }
         }, this);
     }
+
+    /**
+     * Set the quota of offloaded traffic for a tethered client, counted since tethering started.
+     * Once the client has exceeded the quota, its IPv4 traffic is dropped. A value of {@code -1}
+     * removes the quota. The per-client traffic statistics are returned by
+     * {@link #getTetheredClientStats} and reported in the tethering dumpsys.
+     *
+     * @return {@link #TETHER_ERROR_NO_ERROR} if the quota was set, or
+     *         {@link #TETHER_ERROR_UNSUPPORTED} if offload is not in use.
+     * @throws IllegalArgumentException If the quota is less than {@code -1}.
+     * @throws SecurityException If the caller doesn't have the NETWORK_SETTINGS permission.
+     * @hide
+     */
+    @RequiresPermission(android.Manifest.permission.NETWORK_SETTINGS)
+    public int setTetheredClientDataLimit(@NonNull final MacAddress clientMac,
+            final long quotaBytes) {
+        Objects.requireNonNull(clientMac);
+        if (quotaBytes < -1) {
+            throw new IllegalArgumentException("Invalid quota " + quotaBytes);
+        }
+        Log.i(TAG, "setTetheredClientDataLimit caller: " + mContext.getOpPackageName());
+
+        final RequestDispatcher dispatcher = new RequestDispatcher();
+        return dispatcher.waitForResult((connector, listener) -> {
+            try {
+                connector.setTetheredClientDataLimit(clientMac.toString(), quotaBytes, listener);
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+        }, this);
+    }
+
+    /**
+     * Get the offloaded traffic statistics and the quota of a tethered client, counted since
+     * tethering started.
+     *
+     * @return the statistics, or {@code null} if offload is not in use.
+     * @throws SecurityException If the caller doesn't have the NETWORK_SETTINGS permission.
+     * @hide
+     */
+    @RequiresPermission(android.Manifest.permission.NETWORK_SETTINGS)
+    @Nullable
+    public TetheredClientStatsParcel getTetheredClientStats(@NonNull final MacAddress clientMac) {
+        Objects.requireNonNull(clientMac);
+        final ConditionVariable waiting = new ConditionVariable();
+        final int[] result = new int[1];
+        final TetheredClientStatsParcel[] stats = new TetheredClientStatsParcel[1];
+        final ITetheredClientStatsListener listener = new ITetheredClientStatsListener.Stub() {
+            @Override
+            public void onResult(int resultCode, TetheredClientStatsParcel clientStats) {
+                result[0] = resultCode;
+                stats[0] = clientStats;
+                waiting.open();
+            }
+        };
+
+        getConnector(c -> c.getTetheredClientStats(clientMac.toString(), listener));
+        if (!waiting.block(DEFAULT_TIMEOUT_MS)) {
+            throw new IllegalStateException("Callback timeout");
+        }
+        if (result[0] == TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION) {
+            throw new SecurityException("No android.permission.NETWORK_SETTINGS permission");
+        }
+        return result[0] == TETHER_ERROR_NO_ERROR ? stats[0] : null;
+    }
 }
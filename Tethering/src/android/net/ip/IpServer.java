@@ -82,6 +82,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.internal.util.MessageUtils;
 import com.android.internal.util.State;
 import com.android.modules.utils.build.SdkLevel;
@@ -428,6 +429,11 @@ public class IpServer extends StateMachineShim {
         return mServingMode;
     }
 
+    /** Dump the state of the router advertisement daemon, if running. */
+    public void dumpRaDaemon(IndentingPrintWriter pw) {
+        if (mRaDaemon != null) mRaDaemon.dump(pw);
+    }
+
     /** The properties of the network link which IpServer is serving. */
     public LinkProperties linkProperties() {
         return new LinkProperties(mLinkProperties);
@@ -38,6 +38,7 @@ import android.net.LinkAddress;
 import android.net.MacAddress;
 import android.net.TrafficStats;
 import android.net.util.SocketUtils;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.StructTimeval;
@@ -45,6 +46,8 @@ import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.net.module.util.InterfaceParams;
 import com.android.net.module.util.structs.Icmpv6Header;
 import com.android.net.module.util.structs.LlaOption;
@@ -63,13 +66,16 @@ import java.net.SocketException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -104,23 +110,34 @@ public class RouterAdvertisementDaemon {
 
     private static final int DAY_IN_SECONDS = 86_400;
 
+    // Unicast responses to Router Solicitations are limited by a token bucket, so that a burst
+    // of solicitations (e.g. many clients joining a hotspot at once) cannot turn into an
+    // unbounded burst of RAs.
+    @VisibleForTesting
+    static final int MAX_UNICAST_RA_BURST = 10;
+    @VisibleForTesting
+    static final int UNICAST_RA_REFILL_INTERVAL_MS = 100;
+
     private final InterfaceParams mInterface;
     private final InetSocketAddress mAllNodes;
 
-    // This lock is to protect the RA from being updated while being
-    // transmitted on another thread  (multicast or unicast).
-    //
-    // TODO: This should be handled with a more RCU-like approach.
+    // This lock serializes updates to the RA parameters and the assembly of new RAs. Senders
+    // never take it: every assembly publishes a new immutable RaSnapshot, which the multicast
+    // and unicast threads read without locking.
     private final Object mLock = new Object();
+    // Scratch buffer used to assemble the RA before it is copied into a snapshot.
     @GuardedBy("mLock")
     private final byte[] mRA = new byte[IPV6_MIN_MTU];
     @GuardedBy("mLock")
-    private int mRaLength;
-    @GuardedBy("mLock")
     private final DeprecatedInfoTracker mDeprecatedInfoTracker;
     @GuardedBy("mLock")
     private RaParams mRaParams;
 
+    private volatile RaSnapshot mRaSnapshot = RaSnapshot.EMPTY;
+    // Time of the last multicast RA, used to delay multicast responses to solicitations.
+    private volatile long mLastMulticastRaMs;
+    private final RaStats mStats = new RaStats();
+
     private volatile FileDescriptor mSocket;
     private volatile MulticastTransmitter mMulticastTransmitter;
     private volatile UnicastResponder mUnicastResponder;
@@ -181,6 +198,76 @@ public class RouterAdvertisementDaemon {
         }
     }
 
+    /** An immutable, fully encoded RA that can be sent without holding any lock. */
+    private static final class RaSnapshot {
+        static final RaSnapshot EMPTY = new RaSnapshot(new byte[0], false);
+
+        // The encoded RA, or an empty array if there is nothing worth announcing.
+        public final byte[] packet;
+        public final boolean deprecationInProgress;
+
+        RaSnapshot(byte[] packet, boolean deprecationInProgress) {
+            this.packet = packet;
+            this.deprecationInProgress = deprecationInProgress;
+        }
+
+        boolean hasRa() {
+            return packet.length >= ICMPV6_RA_HEADER_LEN;
+        }
+    }
+
+    /** Counters describing the RAs sent by this daemon. */
+    private static final class RaStats {
+        public final AtomicLong solicitationsReceived = new AtomicLong();
+        public final AtomicLong multicastRasSent = new AtomicLong();
+        public final AtomicLong unicastRasSent = new AtomicLong();
+        public final AtomicLong solicitedMulticastRasDelayed = new AtomicLong();
+        public final AtomicLong unicastRasRateLimited = new AtomicLong();
+        public final AtomicLong sendErrors = new AtomicLong();
+        public final AtomicLong rasAssembled = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "solicitations: " + solicitationsReceived.get()
+                    + ", multicast RAs: " + multicastRasSent.get()
+                    + ", unicast RAs: " + unicastRasSent.get()
+                    + ", delayed multicast responses: " + solicitedMulticastRasDelayed.get()
+                    + ", rate limited unicast responses: " + unicastRasRateLimited.get()
+                    + ", send errors: " + sendErrors.get()
+                    + ", RAs assembled: " + rasAssembled.get();
+        }
+    }
+
+    /**
+     * A simple token bucket. Not thread-safe; only used by the UnicastResponder thread.
+     */
+    @VisibleForTesting
+    static final class TokenBucket {
+        private final int mCapacity;
+        private final long mRefillIntervalMs;
+        private int mTokens;
+        private long mLastRefillMs;
+
+        TokenBucket(int capacity, long refillIntervalMs, long nowMs) {
+            mCapacity = capacity;
+            mRefillIntervalMs = refillIntervalMs;
+            mTokens = capacity;
+            mLastRefillMs = nowMs;
+        }
+
+        /** Take one token if available. */
+        boolean tryAcquire(long nowMs) {
+            final long refills = (nowMs - mLastRefillMs) / mRefillIntervalMs;
+            if (refills > 0) {
+                mTokens = (int) Math.min(mCapacity, mTokens + refills);
+                mLastRefillMs += refills * mRefillIntervalMs;
+            }
+            if (mTokens == 0) return false;
+            mTokens--;
+            return true;
+        }
+    }
+
     private static class DeprecatedInfoTracker {
         private final HashMap<IpPrefix, Integer> mPrefixes = new HashMap<>();
         private final HashMap<Inet6Address, Integer> mDnses = new HashMap<>();
@@ -251,6 +338,16 @@ public class RouterAdvertisementDaemon {
         mDeprecatedInfoTracker = new DeprecatedInfoTracker();
     }
 
+    /** Dump the RA daemon state. */
+    public void dump(IndentingPrintWriter pw) {
+        final RaSnapshot snapshot = mRaSnapshot;
+        pw.println("RA daemon on " + mInterface.name + ": RA length " + snapshot.packet.length
+                + (snapshot.deprecationInProgress ? " (deprecation in progress)" : ""));
+        pw.increaseIndent();
+        pw.println(mStats);
+        pw.decreaseIndent();
+    }
+
     /** Build new RA.*/
     public void buildNewRa(RaParams deprecatedParams, RaParams newParams) {
         synchronized (mLock) {
@@ -304,12 +401,13 @@ public class RouterAdvertisementDaemon {
 
         final boolean haveRaParams = (mRaParams != null);
         boolean shouldSendRA = false;
+        int raLength = 0;
 
         try {
             putHeader(ra, haveRaParams && mRaParams.hasDefaultRoute,
                     haveRaParams ? mRaParams.hopLimit : RaParams.DEFAULT_HOPLIMIT);
             putSlla(ra, mInterface.macAddr.toByteArray());
-            mRaLength = ra.position();
+            raLength = ra.position();
 
             // https://tools.ietf.org/html/rfc5175#section-4 says:
             //
@@ -320,44 +418,46 @@ public class RouterAdvertisementDaemon {
 
             if (haveRaParams) {
                 putMtu(ra, mRaParams.mtu);
-                mRaLength = ra.position();
+                raLength = ra.position();
 
                 for (IpPrefix ipp : mRaParams.prefixes) {
                     putPio(ra, ipp, DEFAULT_LIFETIME, DEFAULT_LIFETIME);
-                    mRaLength = ra.position();
+                    raLength = ra.position();
                     shouldSendRA = true;
                 }
 
                 if (mRaParams.dnses.size() > 0) {
                     putRdnss(ra, mRaParams.dnses, DEFAULT_LIFETIME);
-                    mRaLength = ra.position();
+                    raLength = ra.position();
                     shouldSendRA = true;
                 }
             }
 
             for (IpPrefix ipp : mDeprecatedInfoTracker.getPrefixes()) {
                 putPio(ra, ipp, 0, 0);
-                mRaLength = ra.position();
+                raLength = ra.position();
                 shouldSendRA = true;
             }
 
             final Set<Inet6Address> deprecatedDnses = mDeprecatedInfoTracker.getDnses();
             if (!deprecatedDnses.isEmpty()) {
                 putRdnss(ra, deprecatedDnses, 0);
-                mRaLength = ra.position();
+                raLength = ra.position();
                 shouldSendRA = true;
             }
         } catch (BufferOverflowException e) {
-            // The packet up to mRaLength  is valid, since it has been updated
+            // The packet up to raLength is valid, since it has been updated
             // progressively as the RA was built. Log an error, and continue
             // on as best as possible.
             Log.e(TAG, "Could not construct new RA: " + e);
         }
 
-        // We have nothing worth announcing; indicate as much to maybeSendRA().
-        if (!shouldSendRA) {
-            mRaLength = 0;
-        }
+        // If we have nothing worth announcing, publish an empty RA to indicate as much to
+        // maybeSendRA().
+        mRaSnapshot = new RaSnapshot(
+                shouldSendRA ? Arrays.copyOf(mRA, raLength) : new byte[0],
+                !mDeprecatedInfoTracker.isEmpty());
+        mStats.rasAssembled.incrementAndGet();
     }
 
     private void maybeNotifyMulticastTransmitter() {
@@ -546,32 +646,69 @@ public class RouterAdvertisementDaemon {
     }
 
     private void maybeSendRA(InetSocketAddress dest) {
-        if (dest == null || !isSuitableDestination(dest)) {
-            dest = mAllNodes;
+        final RaSnapshot snapshot = mRaSnapshot;
+        if (!snapshot.hasRa()) {
+            // No actual RA to send.
+            return;
         }
+        final boolean multicast = mAllNodes.equals(dest);
 
         try {
-            synchronized (mLock) {
-                if (mRaLength < ICMPV6_RA_HEADER_LEN) {
-                    // No actual RA to send.
-                    return;
-                }
-                Os.sendto(mSocket, mRA, 0, mRaLength, 0, dest);
+            Os.sendto(mSocket, snapshot.packet, 0, snapshot.packet.length, 0, dest);
+            if (multicast) {
+                mLastMulticastRaMs = SystemClock.elapsedRealtime();
+                mStats.multicastRasSent.incrementAndGet();
+            } else {
+                mStats.unicastRasSent.incrementAndGet();
             }
             Log.d(TAG, "RA sendto " + dest.getAddress().getHostAddress());
         } catch (ErrnoException | SocketException e) {
             if (isSocketValid()) {
+                mStats.sendErrors.incrementAndGet();
                 Log.e(TAG, "sendto error: " + e);
             }
         }
     }
 
+    /**
+     * Respond to a Router Solicitation, subject to rate limiting.
+     *
+     * Solicitations that cannot be answered by unicast are answered by multicast. Per
+     * https://tools.ietf.org/html/rfc4861#section-6.2.6 multicast RAs are not sent more than
+     * once every MIN_DELAY_BETWEEN_RAS_SEC, so a response that would be sent earlier is scheduled
+     * MIN_DELAY_BETWEEN_RAS_SEC after the previous multicast RA instead. Unicast responses are
+     * limited by the given token bucket.
+     */
+    private void maybeRespondToSolicitation(InetSocketAddress solicitor, TokenBucket bucket) {
+        final long now = SystemClock.elapsedRealtime();
+        if (solicitor == null || !isSuitableDestination(solicitor)) {
+            final long earliestMulticastRaMs =
+                    mLastMulticastRaMs + MIN_DELAY_BETWEEN_RAS_SEC * 1000L;
+            final MulticastTransmitter m = mMulticastTransmitter;
+            if (now < earliestMulticastRaMs && m != null) {
+                mStats.solicitedMulticastRasDelayed.incrementAndGet();
+                m.scheduleSolicitedRa(earliestMulticastRaMs);
+                return;
+            }
+            maybeSendRA(mAllNodes);
+            return;
+        }
+
+        if (!bucket.tryAcquire(now)) {
+            mStats.unicastRasRateLimited.incrementAndGet();
+            return;
+        }
+        maybeSendRA(solicitor);
+    }
+
     private final class UnicastResponder extends Thread {
         private final InetSocketAddress mSolicitor = new InetSocketAddress(0);
         // The recycled buffer for receiving Router Solicitations from clients.
         // If the RS is larger than IPV6_MIN_MTU the packets are truncated.
         // This is fine since currently only byte 0 is examined anyway.
         private final byte[] mSolicitation = new byte[IPV6_MIN_MTU];
+        private final TokenBucket mUnicastBucket = new TokenBucket(MAX_UNICAST_RA_BURST,
+                UNICAST_RA_REFILL_INTERVAL_MS, SystemClock.elapsedRealtime());
 
         @Override
         public void run() {
@@ -591,7 +728,8 @@ public class RouterAdvertisementDaemon {
                     continue;
                 }
 
-                maybeSendRA(mSolicitor);
+                mStats.solicitationsReceived.incrementAndGet();
+                maybeRespondToSolicitation(mSolicitor, mUnicastBucket);
             }
         }
     }
@@ -601,15 +739,19 @@ public class RouterAdvertisementDaemon {
     private final class MulticastTransmitter extends Thread {
         private final Random mRandom = new Random();
         private final AtomicInteger mUrgentAnnouncements = new AtomicInteger(0);
+        // Whether the thread was interrupted to send an RA immediately.
+        private final AtomicBoolean mSendNow = new AtomicBoolean(false);
+        // Time at which a multicast response to a solicitation is due, or 0 if there is none.
+        private final AtomicLong mSolicitedRaTimeMs = new AtomicLong(0);
 
         @Override
         public void run() {
             while (isSocketValid()) {
-                try {
-                    Thread.sleep(getNextMulticastTransmitDelayMs());
-                } catch (InterruptedException ignored) {
-                    // Stop sleeping, immediately send an RA, and continue.
-                }
+                final long nextRaTimeMs =
+                        SystemClock.elapsedRealtime() + getNextMulticastTransmitDelayMs();
+                waitUntilNextRa(nextRaTimeMs);
+                // The RA sent below also answers any pending solicitation.
+                mSolicitedRaTimeMs.set(0);
 
                 maybeSendRA(mAllNodes);
                 synchronized (mLock) {
@@ -622,24 +764,54 @@ public class RouterAdvertisementDaemon {
             }
         }
 
+        /**
+         * Sleep until the given time or until a pending solicited RA is due, whichever comes
+         * first. Returns early if {@link #hup} is called.
+         */
+        private void waitUntilNextRa(long nextRaTimeMs) {
+            while (isSocketValid()) {
+                final long solicitedRaTimeMs = mSolicitedRaTimeMs.get();
+                final long wakeupTimeMs = (solicitedRaTimeMs != 0)
+                        ? Math.min(nextRaTimeMs, solicitedRaTimeMs) : nextRaTimeMs;
+                final long sleepMs = wakeupTimeMs - SystemClock.elapsedRealtime();
+                if (sleepMs <= 0) return;
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException ignored) {
+                    // Either stop sleeping and immediately send an RA, or recompute the wakeup
+                    // time because a solicited RA was scheduled.
+                    if (mSendNow.getAndSet(false)) return;
+                }
+            }
+        }
+
         public void hup() {
             // Set to one fewer that the desired number, because as soon as
             // the thread interrupt is processed we immediately send an RA
             // and mUrgentAnnouncements is not examined until the subsequent
             // sleep interval computation (i.e. this way we send 3 and not 4).
             mUrgentAnnouncements.set(MAX_URGENT_RTR_ADVERTISEMENTS - 1);
+            mSendNow.set(true);
             interrupt();
         }
 
+        /**
+         * Send a multicast RA at the given time, unless one is sent before. If a solicited RA is
+         * already scheduled, it also answers this solicitation.
+         */
+        public void scheduleSolicitedRa(long timeMs) {
+            if (mSolicitedRaTimeMs.compareAndSet(0, timeMs)) {
+                interrupt();
+            }
+        }
+
         private int getNextMulticastTransmitDelaySec() {
-            boolean deprecationInProgress = false;
-            synchronized (mLock) {
-                if (mRaLength < ICMPV6_RA_HEADER_LEN) {
-                    // No actual RA to send; just sleep for 1 day.
-                    return DAY_IN_SECONDS;
-                }
-                deprecationInProgress = !mDeprecatedInfoTracker.isEmpty();
+            final RaSnapshot snapshot = mRaSnapshot;
+            if (!snapshot.hasRa()) {
+                // No actual RA to send; just sleep for 1 day.
+                return DAY_IN_SECONDS;
             }
+            final boolean deprecationInProgress = snapshot.deprecationInProgress;
 
             final int urgentPending = mUrgentAnnouncements.getAndDecrement();
             if ((urgentPending > 0) || deprecationInProgress) {
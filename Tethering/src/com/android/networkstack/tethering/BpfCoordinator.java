@@ -35,6 +35,7 @@ import static com.android.networkstack.tethering.BpfUtils.DOWNSTREAM;
 import static com.android.networkstack.tethering.BpfUtils.UPSTREAM;
 import static com.android.networkstack.tethering.TetheringConfiguration.DEFAULT_TETHER_OFFLOAD_POLL_INTERVAL_MS;
 import static com.android.networkstack.tethering.TetheringConfiguration.TETHER_ACTIVE_SESSIONS_METRICS;
+import static com.android.networkstack.tethering.TetheringConfiguration.TETHER_CONNTRACK_EVENT_COALESCING;
 import static com.android.networkstack.tethering.UpstreamNetworkState.isVcnInterface;
 import static com.android.networkstack.tethering.util.TetheringUtils.getTetheringJniLibraryName;
 
@@ -97,6 +98,7 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -137,6 +139,8 @@ public class BpfCoordinator {
     private static final String TETHER_LIMIT_MAP_PATH = makeMapPath("limit");
     private static final String TETHER_ERROR_MAP_PATH = makeMapPath("error");
     private static final String TETHER_DEV_MAP_PATH = makeMapPath("dev");
+    private static final String TETHER_CLIENT4_STATS_MAP_PATH = makeMapPath("client4_stats");
+    private static final String TETHER_CLIENT4_LIMIT_MAP_PATH = makeMapPath("client4_limit");
     private static final String DUMPSYS_RAWMAP_ARG_STATS = "--stats";
     private static final String DUMPSYS_RAWMAP_ARG_UPSTREAM4 = "--upstream4";
 
@@ -164,6 +168,28 @@ public class BpfCoordinator {
     static final int NF_CONNTRACK_TCP_TIMEOUT_ESTABLISHED = 432_000;
     @VisibleForTesting
     static final int NF_CONNTRACK_UDP_TIMEOUT_STREAM = 180;
+    // The window in which conntrack events are queued and coalesced before they are applied to
+    // the IPv4 BPF maps. Only used if TETHER_CONNTRACK_EVENT_COALESCING is enabled.
+    @VisibleForTesting
+    static final int CONNTRACK_EVENT_COALESCING_WINDOW_MS = 100;
+    // The maximum number of queued conntrack events. The queue is flushed immediately once it
+    // reaches this size, so that a connection storm can't hold the rules back indefinitely.
+    @VisibleForTesting
+    static final int MAX_PENDING_CONNTRACK_EVENTS = 512;
+    // The capacity of the tether4 BPF maps. See tether_{downstream,upstream}4_map in offload.c.
+    @VisibleForTesting
+    static final int TETHER4_MAP_CAPACITY = 1024;
+    // When the number of IPv4 rules reaches the high watermark, the least recently used rules are
+    // evicted until the number drops to the low watermark. Evicting a batch rather than a single
+    // rule avoids walking the maps for every new connection while the maps are nearly full.
+    @VisibleForTesting
+    static final int TETHER4_MAP_HIGH_WATERMARK = TETHER4_MAP_CAPACITY * 9 / 10;
+    @VisibleForTesting
+    static final int TETHER4_MAP_LOW_WATERMARK = TETHER4_MAP_CAPACITY * 8 / 10;
+    // The maximum number of disconnected clients whose statistics are kept. Matches the size of
+    // tether_client4_stats_map in offload.c.
+    @VisibleForTesting
+    static final int MAX_CLIENT_STATS_HISTORY = 64;
     @VisibleForTesting
     static final int INVALID_MTU = 0;
     static final int NO_UPSTREAM = 0;
@@ -277,6 +303,13 @@ public class BpfCoordinator {
     private final ArrayMap<IpServer, ArraySet<Ipv6UpstreamRule>>
             mIpv6UpstreamRules = new ArrayMap<>();
 
+    // Index of the downstreams which have IPv6 upstream rules, keyed by upstream interface index.
+    // This is a reverse index of mIpv6UpstreamRules and must be updated together with it. It
+    // allows upstream-wide queries (e.g. whether any rule is on a given upstream, or which
+    // upstream a given interface name refers to) without walking the rules of every downstream.
+    private final SparseArray<ArraySet<IpServer>> mIpv6DownstreamsByUpstream =
+            new SparseArray<>();
+
     // Map of downstream client maps. Each of these maps represents the IPv4 clients for a given
     // downstream. Needed to build IPv4 forwarding rules when conntrack events are received.
     // Each map:
@@ -295,6 +328,18 @@ public class BpfCoordinator {
     // is okay for now because there have only one upstream generally.
     private final HashMap<Inet4Address, Integer> mIpv4UpstreamIndices = new HashMap<>();
 
+    // Maps client MAC address to the per-client quota. Like mInterfaceQuotas, always contains
+    // the latest value regardless of whether the client is currently connected. Uses the MAC
+    // address as the index because the client IPv4 address may change across reconnections.
+    private final ArrayMap<MacAddress, Long> mClientQuotas = new ArrayMap<>();
+
+    // Maps client MAC address to the offloaded traffic statistics of the client's previous IPv4
+    // addresses. The statistics of the current address are read from the BPF map and added on
+    // top when queried. Kept in the order the clients were last removed, bounded by
+    // MAX_CLIENT_STATS_HISTORY and cleared when tethering stops.
+    private final LinkedHashMap<MacAddress, ForwardedStats> mClientStatsHistory =
+            new LinkedHashMap<>();
+
     // Map for upstream and downstream pair.
     private final HashMap<String, HashSet<String>> mForwardingPairs = new HashMap<>();
 
@@ -314,6 +359,20 @@ public class BpfCoordinator {
     // The IpServers that are currently served by BpfCoordinator.
     private final ArraySet<IpServer> mServedIpServers = new ArraySet<>();
 
+    // Counters of forwarding rule changes. Only used for dump.
+    private final RuleChurnCounters mRuleChurnCounters = new RuleChurnCounters();
+
+    // Counters of the IPv4 rule eviction. Only used for dump.
+    private int mMaxIpv4RuleCount = 0;
+    private long mIpv4EvictionRuns = 0;
+    private long mIpv4EvictedRules = 0;
+
+    // Maps the upstream key of each offloaded IPv4 connection to the time its rules were added,
+    // from elapsedRealtimeNanos. The BPF program only fills lastUsed once the connection
+    // forwards a packet, so the eviction uses this time for the connections which have not
+    // forwarded any packet yet.
+    private final HashMap<Tether4Key, Long> mIpv4RuleAddedTimes = new HashMap<>();
+
     // Runnable that used by scheduling next polling of stats.
     private final Runnable mScheduledPollingStats = () -> {
         updateForwardedStats();
@@ -328,6 +387,9 @@ public class BpfCoordinator {
 
     private final boolean mSupportActiveSessionsMetrics;
 
+    // True if conntrack events are queued and coalesced before applied to the BPF maps.
+    private final boolean mConntrackEventCoalescingEnabled;
+
     // Runnable that used by scheduling next refreshing of conntrack metrics sampling.
     private final Runnable mScheduledConntrackMetricsSampling = () -> {
         uploadConntrackMetricsSample();
@@ -495,6 +557,30 @@ public class BpfCoordinator {
             }
         }
 
+        /** Get client4 stats BPF map. */
+        @Nullable public IBpfMap<TetherClient4Key, TetherStatsValue> getBpfClient4StatsMap() {
+            if (!isAtLeastS()) return null;
+            try {
+                return new BpfMap<>(TETHER_CLIENT4_STATS_MAP_PATH,
+                    TetherClient4Key.class, TetherStatsValue.class);
+            } catch (ErrnoException e) {
+                Log.e(TAG, "Cannot create client4 stats map: " + e);
+                return null;
+            }
+        }
+
+        /** Get client4 limit BPF map. */
+        @Nullable public IBpfMap<TetherClient4Key, TetherLimitValue> getBpfClient4LimitMap() {
+            if (!isAtLeastS()) return null;
+            try {
+                return new BpfMap<>(TETHER_CLIENT4_LIMIT_MAP_PATH,
+                    TetherClient4Key.class, TetherLimitValue.class);
+            } catch (ErrnoException e) {
+                Log.e(TAG, "Cannot create client4 limit map: " + e);
+                return null;
+            }
+        }
+
         /** Send a TetheringActiveSessionsReported event. */
         public void sendTetheringActiveSessionsReported(int lastMaxSessionCount) {
             ConnectivityStatsLog.write(ConnectivityStatsLog.TETHERING_ACTIVE_SESSIONS_REPORTED,
@@ -547,6 +633,8 @@ public class BpfCoordinator {
         // BPF IPv4 forwarding only supports on S+.
         mSupportActiveSessionsMetrics = mDeps.isAtLeastS()
                 && mDeps.isFeatureEnabled(mDeps.getContext(), TETHER_ACTIVE_SESSIONS_METRICS);
+        mConntrackEventCoalescingEnabled = mDeps.isAtLeastS()
+                && mDeps.isFeatureEnabled(mDeps.getContext(), TETHER_CONNTRACK_EVENT_COALESCING);
     }
 
     /**
@@ -652,6 +740,9 @@ public class BpfCoordinator {
         if (!mDeps.isAtLeastS()) return;
 
         mConntrackMonitor.stop();
+        // Drop the queued events. The rules are not needed anymore once the last downstream
+        // has gone away.
+        mBpfConntrackEventConsumer.clearPendingEvents();
         mLog.i("Conntrack monitoring stopped.");
     }
 
@@ -678,6 +769,14 @@ public class BpfCoordinator {
         ArraySet<Ipv6UpstreamRule> rules = mIpv6UpstreamRules.computeIfAbsent(
                 ipServer, k -> new ArraySet<Ipv6UpstreamRule>());
         rules.add(rule);
+
+        ArraySet<IpServer> downstreams = mIpv6DownstreamsByUpstream.get(rule.upstreamIfindex);
+        if (downstreams == null) {
+            downstreams = new ArraySet<>();
+            mIpv6DownstreamsByUpstream.put(rule.upstreamIfindex, downstreams);
+        }
+        downstreams.add(ipServer);
+        mRuleChurnCounters.ipv6UpstreamRulesAdded++;
     }
 
     /**
@@ -698,6 +797,7 @@ public class BpfCoordinator {
             }
             upstreamIfindex = rule.upstreamIfindex;
             mBpfCoordinatorShim.removeIpv6UpstreamRule(rule);
+            mRuleChurnCounters.ipv6UpstreamRulesRemoved++;
         }
         // Clear the limit if there are no more rules on the given upstream.
         // Using upstreamIfindex outside the loop is fine because all the rules for a given IpServer
@@ -710,6 +810,11 @@ public class BpfCoordinator {
             Log.wtf(TAG, "BUG: upstream rules have empty Set or rule.upstreamIfindex == 0");
             return;
         }
+        final ArraySet<IpServer> downstreams = mIpv6DownstreamsByUpstream.get(upstreamIfindex);
+        if (downstreams != null) {
+            downstreams.remove(ipServer);
+            if (downstreams.isEmpty()) mIpv6DownstreamsByUpstream.remove(upstreamIfindex);
+        }
         maybeClearLimit(upstreamIfindex);
     }
 
@@ -728,6 +833,7 @@ public class BpfCoordinator {
                 mIpv6DownstreamRules.computeIfAbsent(ipServer,
                         k -> new LinkedHashMap<Inet6Address, Ipv6DownstreamRule>());
         rules.put(rule.address, rule);
+        mRuleChurnCounters.ipv6DownstreamRulesAdded++;
     }
 
     /**
@@ -746,6 +852,7 @@ public class BpfCoordinator {
         // If no rule is removed, return early. Avoid unnecessary work on a non-existent rule which
         // may have never been added or removed already.
         if (rules.remove(rule.address) == null) return;
+        mRuleChurnCounters.ipv6DownstreamRulesRemoved++;
 
         // Remove the downstream entry if it has no more rule.
         if (rules.isEmpty()) {
@@ -764,6 +871,7 @@ public class BpfCoordinator {
         if (downstreamRules == null) return null;
 
         final Collection<Ipv6DownstreamRule> removedRules = downstreamRules.values();
+        mRuleChurnCounters.ipv6DownstreamRulesRemoved += removedRules.size();
         for (final Ipv6DownstreamRule rule : removedRules) {
             if (rule.upstreamIfindex == NO_UPSTREAM) continue;
             mBpfCoordinatorShim.removeIpv6DownstreamRule(rule);
@@ -865,7 +973,114 @@ public class BpfCoordinator {
         }
 
         HashMap<Inet4Address, ClientInfo> clients = mTetherClients.get(ipServer);
-        clients.put(client.clientAddress, client);
+        final ClientInfo prev = clients.put(client.clientAddress, client);
+        if (prev != null && prev.clientMac.equals(client.clientMac)) return;
+
+        // The same address may be reused by another client. Start its accounting from scratch.
+        if (prev != null) clearClientStats(prev);
+        startClientStats(client);
+    }
+
+    private void startClientStats(@NonNull final ClientInfo client) {
+        if (!mBpfCoordinatorShim.tetherOffloadClientStatsAdd(client.clientAddress)) return;
+
+        final Long quota = mClientQuotas.get(client.clientMac);
+        if (quota != null) {
+            final ForwardedStats used = getClientStats(client.clientMac);
+            mBpfCoordinatorShim.tetherOffloadSetClientQuota(client.clientAddress,
+                    Math.max(0, quota - used.rxBytes - used.txBytes));
+        }
+    }
+
+    private void clearClientStats(@NonNull final ClientInfo client) {
+        final TetherStatsValue statsValue =
+                mBpfCoordinatorShim.tetherOffloadClientStatsRemove(client.clientAddress);
+        if (statsValue == null) return;
+
+        final ForwardedStats history = mClientStatsHistory.remove(client.clientMac);
+        final ForwardedStats stats = new ForwardedStats(statsValue);
+        mClientStatsHistory.put(client.clientMac, history == null ? stats : history.add(stats));
+        maybePruneClientStatsHistory();
+    }
+
+    // Drop the statistics of the least recently removed clients beyond MAX_CLIENT_STATS_HISTORY.
+    // The statistics of clients with a quota are dropped last because the quota is counted from
+    // them.
+    private void maybePruneClientStatsHistory() {
+        while (mClientStatsHistory.size() > MAX_CLIENT_STATS_HISTORY) {
+            MacAddress victim = null;
+            for (final MacAddress mac : mClientStatsHistory.keySet()) {
+                if (!mClientQuotas.containsKey(mac)) {
+                    victim = mac;
+                    break;
+                }
+            }
+            if (victim == null) victim = mClientStatsHistory.keySet().iterator().next();
+            mClientStatsHistory.remove(victim);
+        }
+    }
+
+    /**
+     * Return the offloaded traffic statistics of a given client since tethering started,
+     * including the statistics of the client's previous IPv4 addresses.
+     * Note that this can be only called on handler thread.
+     */
+    @NonNull
+    public ForwardedStats getClientStats(@NonNull final MacAddress clientMac) {
+        ForwardedStats stats = mClientStatsHistory.getOrDefault(clientMac, new ForwardedStats());
+        final ArrayMap<Inet4Address, TetherStatsValue> current =
+                mBpfCoordinatorShim.tetherOffloadGetClientStats();
+        if (current == null) return stats;
+
+        for (final HashMap<Inet4Address, ClientInfo> clients : mTetherClients.values()) {
+            for (final ClientInfo c : clients.values()) {
+                if (!c.clientMac.equals(clientMac)) continue;
+                final TetherStatsValue value = current.get(c.clientAddress);
+                if (value != null) stats = stats.add(new ForwardedStats(value));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Return the quota of a given client, or QUOTA_UNLIMITED (-1) if it has none.
+     * Note that this can be only called on handler thread.
+     */
+    public long getClientDataLimit(@NonNull final MacAddress clientMac) {
+        return mClientQuotas.getOrDefault(clientMac, QUOTA_UNLIMITED);
+    }
+
+    /**
+     * Set the quota of a given client, counted from the start of tethering. Once the client has
+     * forwarded more than the quota, its IPv4 traffic is dropped, whether it is offloaded or
+     * not. A value of QUOTA_UNLIMITED (-1) removes the quota.
+     * Note that this can be only called on handler thread.
+     *
+     * @return false if BPF offload is not in use or the quota is invalid.
+     */
+    public boolean setClientDataLimit(@NonNull final MacAddress clientMac, long quotaBytes) {
+        if (!isUsingBpf()) return false;
+        if (quotaBytes < QUOTA_UNLIMITED) {
+            mLog.e("Invalid quota value " + quotaBytes + " for client " + clientMac);
+            return false;
+        }
+
+        if (quotaBytes == QUOTA_UNLIMITED) {
+            mClientQuotas.remove(clientMac);
+        } else {
+            mClientQuotas.put(clientMac, quotaBytes);
+        }
+
+        final ForwardedStats used = getClientStats(clientMac);
+        for (final HashMap<Inet4Address, ClientInfo> clients : mTetherClients.values()) {
+            for (final ClientInfo c : clients.values()) {
+                if (!c.clientMac.equals(clientMac)) continue;
+                mBpfCoordinatorShim.tetherOffloadSetClientQuota(c.clientAddress,
+                        quotaBytes == QUOTA_UNLIMITED ? QUOTA_UNLIMITED
+                                : Math.max(0, quotaBytes - used.rxBytes - used.txBytes));
+            }
+        }
+        return true;
     }
 
     /**
@@ -881,7 +1096,9 @@ public class BpfCoordinator {
         if (clients == null) return;
 
         // No client is removed, return early.
-        if (clients.remove(client.clientAddress) == null) return;
+        final ClientInfo removed = clients.remove(client.clientAddress);
+        if (removed == null) return;
+        clearClientStats(removed);
 
         // Remove the client's rules. Removing the client implies that its rules are not used
         // anymore.
@@ -950,6 +1167,8 @@ public class BpfCoordinator {
             stopConntrackMonitoring();
             mIpNeighborMonitor.stop();
             mLog.i("Neighbor monitoring stopped.");
+            // Client statistics are counted since tethering started.
+            mClientStatsHistory.clear();
         }
     }
 
@@ -1049,22 +1268,47 @@ public class BpfCoordinator {
      * Note that this can be only called on handler thread.
      */
     private void tetherOffloadRuleClear(@NonNull final ClientInfo clientInfo) {
+        final Set<Inet4Address> clientAddrs = new ArraySet<>();
+        clientAddrs.add(clientInfo.clientAddress);
+        tetherOffloadRuleClear(clientAddrs, 0 /* any upstream */);
+    }
+
+    /**
+     * Clear the forwarding IPv4 rules of the given clients in one walk of the IPv4 BPF maps.
+     * If upstreamIfindex is nonzero, only the rules which forward to or from that upstream are
+     * removed. Otherwise, the rules on any upstream are removed.
+     * Note that this can be only called on handler thread.
+     */
+    private void tetherOffloadRuleClear(@NonNull final Set<Inet4Address> clientAddrs,
+            int upstreamIfindex) {
+        if (clientAddrs.isEmpty()) return;
+
         // TODO: consider removing the rules in #tetherOffloadRuleForEach once BpfMap#forEach
         // can guarantee that deleting some pass-in rules in the BPF map iteration can still
         // walk through every entry.
-        final Inet4Address clientAddr = clientInfo.clientAddress;
         final Set<Integer> upstreamIndiceSet = new ArraySet<Integer>();
         final Set<Tether4Key> deleteUpstreamRuleKeys = new ArraySet<Tether4Key>();
         final Set<Tether4Key> deleteDownstreamRuleKeys = new ArraySet<Tether4Key>();
 
-        // Find the rules which are related with the given client.
+        // The BPF maps store the client address as raw bytes (upstream key) and as IPv4-mapped
+        // IPv6 bytes (downstream value). Build both lookup forms once rather than per rule.
+        final Set<ByteBuffer> clientSrc4Set = new ArraySet<>();
+        final Set<ByteBuffer> clientDst46Set = new ArraySet<>();
+        for (final Inet4Address addr : clientAddrs) {
+            clientSrc4Set.add(ByteBuffer.wrap(addr.getAddress()));
+            clientDst46Set.add(ByteBuffer.wrap(toIpv4MappedAddressBytes(addr)));
+        }
+
+        // Find the rules which are related with the given clients.
         mBpfCoordinatorShim.tetherOffloadRuleForEach(UPSTREAM, (k, v) -> {
-            if (Arrays.equals(k.src4, clientAddr.getAddress())) {
+            if (upstreamIfindex != 0 && v.oif != upstreamIfindex) return;
+            if (clientSrc4Set.contains(ByteBuffer.wrap(k.src4))) {
                 deleteUpstreamRuleKeys.add(k);
             }
         });
         mBpfCoordinatorShim.tetherOffloadRuleForEach(DOWNSTREAM, (k, v) -> {
-            if (Arrays.equals(v.dst46, toIpv4MappedAddressBytes(clientAddr))) {
+            if (upstreamIfindex != 0 && k.iif != upstreamIfindex) return;
+            if (clientDst46Set.contains(ByteBuffer.wrap(v.dst46))) {
                 deleteDownstreamRuleKeys.add(k);
                 upstreamIndiceSet.add((int) k.iif);
             }
@@ -1080,13 +1324,15 @@ public class BpfCoordinator {
             return;
         }
 
-        // Delete the rules which are related with the given client.
+        // Delete the rules which are related with the given clients.
         for (final Tether4Key k : deleteUpstreamRuleKeys) {
             mBpfCoordinatorShim.tetherOffloadRuleRemove(UPSTREAM, k);
+            mIpv4RuleAddedTimes.remove(k);
         }
         for (final Tether4Key k : deleteDownstreamRuleKeys) {
             mBpfCoordinatorShim.tetherOffloadRuleRemove(DOWNSTREAM, k);
         }
+        mRuleChurnCounters.ipv4RulesRemoved += deleteUpstreamRuleKeys.size();
 
         // Cleanup each upstream interface by a set which avoids duplicated work on the same
         // upstream interface. Cleaning up the same interface twice (or more) here may raise
@@ -1096,21 +1342,79 @@ public class BpfCoordinator {
         }
     }
 
+    /** An offloaded IPv4 connection. Used for the IPv4 rule eviction. */
+    private static final class Ipv4Flow {
+        public final Tether4Key upstreamKey;
+        public final Tether4Key downstreamKey;
+        // The last time either direction of the connection was forwarded, or the time its rules
+        // were added if later.
+        public final long lastUsed;
+
+        Ipv4Flow(@NonNull Tether4Key upstreamKey, @NonNull Tether4Key downstreamKey,
+                long lastUsed) {
+            this.upstreamKey = upstreamKey;
+            this.downstreamKey = downstreamKey;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // Build the downstream key of the connection from its upstream rule. This is the reverse of
+    // BpfConntrackEventConsumer#makeTetherUpstream4Value.
+    @NonNull
+    private static Tether4Key makeDownstream4KeyFromUpstreamRule(@NonNull Tether4Key k,
+            @NonNull Tether4Value v) {
+        return new Tether4Key(v.oif, NULL_MAC_ADDRESS /* dstMac (rawip) */, k.l4proto,
+                k.dst4, Arrays.copyOfRange(v.src46, 12, 16), k.dstPort, v.srcPort);
+    }
+
     /**
-     * Clear all forwarding IPv4 rules for a given downstream. Needed because the client may still
-     * connect on the downstream but the existing rules are not required anymore. Ex: upstream
-     * changed.
+     * Evict the least recently used IPv4 rules if the tether4 maps are nearly full. A connection
+     * whose rules are evicted is still forwarded by the core stack, and its rules are not added
+     * again until conntrack reports a new connection.
+     * Note that this can be only called on handler thread.
      */
-    private void tetherOffloadRule4Clear(@NonNull final IpServer ipServer) {
-        if (!isUsingBpf()) return;
+    private void maybeEvictIdleIpv4Rules() {
+        final int ruleCount = mBpfCoordinatorShim.getIpv4RuleCount();
+        if (ruleCount < TETHER4_MAP_HIGH_WATERMARK) return;
 
-        final HashMap<Inet4Address, ClientInfo> clients = mTetherClients.get(ipServer);
-        if (clients == null) return;
+        final HashMap<Tether4Key, Long> downstreamLastUsed = new HashMap<>();
+        mBpfCoordinatorShim.tetherOffloadRuleForEach(DOWNSTREAM, (k, v) -> {
+            downstreamLastUsed.put(k, v.lastUsed);
+        });
+        final ArrayList<Ipv4Flow> flows = new ArrayList<>();
+        final HashMap<Tether4Key, Long> addedTimes = new HashMap<>();
+        mBpfCoordinatorShim.tetherOffloadRuleForEach(UPSTREAM, (k, v) -> {
+            // Drop the added times of the rules which are no longer in the map.
+            final Long addedTime = mIpv4RuleAddedTimes.get(k);
+            if (addedTime != null) addedTimes.put(k, addedTime);
+
+            final Tether4Key downstreamKey = makeDownstream4KeyFromUpstreamRule(k, v);
+            final Long lastUsed = downstreamLastUsed.get(downstreamKey);
+            if (lastUsed == null) return;
+            final long lastActive = Math.max(Math.max(v.lastUsed, lastUsed),
+                    addedTime == null ? 0 : addedTime);
+            flows.add(new Ipv4Flow(k, downstreamKey, lastActive));
+        });
+        mIpv4RuleAddedTimes.clear();
+        mIpv4RuleAddedTimes.putAll(addedTimes);
+        flows.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+
+        final int evictCount = Math.min(ruleCount - TETHER4_MAP_LOW_WATERMARK, flows.size());
+        final Set<Integer> upstreamIndiceSet = new ArraySet<>();
+        for (int i = 0; i < evictCount; i++) {
+            final Ipv4Flow flow = flows.get(i);
+            mBpfCoordinatorShim.tetherOffloadRuleRemove(UPSTREAM, flow.upstreamKey);
+            mBpfCoordinatorShim.tetherOffloadRuleRemove(DOWNSTREAM, flow.downstreamKey);
+            mIpv4RuleAddedTimes.remove(flow.upstreamKey);
+            upstreamIndiceSet.add((int) flow.downstreamKey.iif);
+        }
+        mIpv4EvictionRuns++;
+        mIpv4EvictedRules += evictCount;
+        mRuleChurnCounters.ipv4RulesRemoved += evictCount;
+        mLog.i("Evicted " + evictCount + " idle IPv4 rules (rule count: " + ruleCount + ")");
 
-        // The value should be unique as its key because currently the key was using from its
-        // client address of ClientInfo. See #tetherOffloadClientAdd.
-        for (final ClientInfo client : clients.values()) {
-            tetherOffloadRuleClear(client);
+        for (final int upstreamIndex : upstreamIndiceSet) {
+            maybeClearLimit(upstreamIndex);
         }
     }
 
@@ -1182,11 +1486,15 @@ public class BpfCoordinator {
         // IPv6TetheringCoordinator#updateUpstreamNetworkState because the IpServer may not
         // handle the upstream changing notification before changing upstream index mapping.
         if (mLastIPv4UpstreamIfindex != 0) {
-            // Clear all forwarding IPv4 rules for all downstreams.
-            for (final IpServer ipserver : mTetherClients.keySet()) {
-                tetherOffloadRule4Clear(ipserver);
+            // Clear the forwarding IPv4 rules on the previous upstream for all downstreams. Walk
+            // the BPF maps once for all clients rather than once per client.
+            final Set<Inet4Address> clientAddrs = new ArraySet<>();
+            for (final HashMap<Inet4Address, ClientInfo> clients : mTetherClients.values()) {
+                clientAddrs.addAll(clients.keySet());
             }
+            tetherOffloadRuleClear(clientAddrs, mLastIPv4UpstreamIfindex);
         }
+        mRuleChurnCounters.ipv4UpstreamChanges++;
 
         // Don't update mLastIPv4UpstreamIfindex before clearing existing rules if any. Need that
         // to tell if it is required to clean the out-of-date rules.
@@ -1339,6 +1647,11 @@ public class BpfCoordinator {
         }
         pw.decreaseIndent();
 
+        pw.println("Client stats:");
+        pw.increaseIndent();
+        dumpClientStats(pw);
+        pw.decreaseIndent();
+
         pw.println("IPv4 Upstream Indices:");
         pw.increaseIndent();
         if (mIpv4UpstreamIndices.isEmpty()) {
@@ -1351,16 +1664,70 @@ public class BpfCoordinator {
         pw.println("IPv4 Upstream Information: "
                 + (mIpv4UpstreamInfo != null ? mIpv4UpstreamInfo : "<empty>"));
 
+        pw.println("IPv6 downstreams by upstream:");
+        pw.increaseIndent();
+        dumpIpv6DownstreamsByUpstream(pw);
+        pw.decreaseIndent();
+
+        pw.println("Rule churn: " + mRuleChurnCounters);
+        pw.println(String.format("IPv4 map occupancy: %d/%d (max: %d, watermarks: %d/%d)",
+                mBpfCoordinatorShim.getIpv4RuleCount(), TETHER4_MAP_CAPACITY, mMaxIpv4RuleCount,
+                TETHER4_MAP_LOW_WATERMARK, TETHER4_MAP_HIGH_WATERMARK));
+        pw.println(String.format("IPv4 eviction: runs %d, evicted rules %d", mIpv4EvictionRuns,
+                mIpv4EvictedRules));
+
         pw.println();
         pw.println("Forwarding counters:");
         pw.increaseIndent();
         dumpCounters(pw);
         pw.decreaseIndent();
 
+        pw.println();
+        pw.println("Conntrack events:");
+        pw.increaseIndent();
+        mBpfConntrackEventConsumer.dump(pw);
+        pw.decreaseIndent();
+
         pw.println();
         pw.println("mSupportActiveSessionsMetrics: " + mSupportActiveSessionsMetrics);
     }
 
+    private void dumpClientStats(@NonNull IndentingPrintWriter pw) {
+        final ArraySet<MacAddress> clientMacs = new ArraySet<>(mClientStatsHistory.keySet());
+        clientMacs.addAll(mClientQuotas.keySet());
+        for (final HashMap<Inet4Address, ClientInfo> clients : mTetherClients.values()) {
+            for (final ClientInfo c : clients.values()) clientMacs.add(c.clientMac);
+        }
+        if (clientMacs.isEmpty()) {
+            pw.println("<empty>");
+            return;
+        }
+        for (final MacAddress mac : clientMacs) {
+            final ForwardedStats stats = getClientStats(mac);
+            final Long quota = mClientQuotas.get(mac);
+            pw.println(String.format("%s: rxBytes %d, rxPackets %d, txBytes %d, txPackets %d, "
+                    + "quota %s", mac, stats.rxBytes, stats.rxPackets, stats.txBytes,
+                    stats.txPackets, quota == null ? "unlimited" : quota.toString()));
+        }
+    }
+
+    private void dumpIpv6DownstreamsByUpstream(@NonNull IndentingPrintWriter pw) {
+        if (mIpv6DownstreamsByUpstream.size() == 0) {
+            pw.println("<empty>");
+            return;
+        }
+        for (int i = 0; i < mIpv6DownstreamsByUpstream.size(); i++) {
+            final int upstreamIfindex = mIpv6DownstreamsByUpstream.keyAt(i);
+            final StringBuilder sb = new StringBuilder();
+            for (final IpServer ipServer : mIpv6DownstreamsByUpstream.valueAt(i)) {
+                if (sb.length() > 0) sb.append(", ");
+                sb.append(ipServer.interfaceName());
+            }
+            pw.println(String.format("%d(%s): [%s]", upstreamIfindex,
+                    getIfName(upstreamIfindex), sb));
+        }
+    }
+
     private void dumpStats(@NonNull IndentingPrintWriter pw) {
         for (int i = 0; i < mStats.size(); i++) {
             final int upstreamIfindex = mStats.keyAt(i);
@@ -1954,6 +2321,27 @@ public class BpfCoordinator {
         }
     }
 
+    /** Counters of forwarding rule changes since the coordinator was created. */
+    private static final class RuleChurnCounters {
+        public long ipv4RulesAdded;
+        public long ipv4RulesRemoved;
+        public long ipv4UpstreamChanges;
+        public long ipv6UpstreamRulesAdded;
+        public long ipv6UpstreamRulesRemoved;
+        public long ipv6DownstreamRulesAdded;
+        public long ipv6DownstreamRulesRemoved;
+
+        @Override
+        public String toString() {
+            return String.format("ipv4 added: %d, ipv4 removed: %d, ipv4 upstream changes: %d, "
+                    + "ipv6 upstream added: %d, ipv6 upstream removed: %d, "
+                    + "ipv6 downstream added: %d, ipv6 downstream removed: %d",
+                    ipv4RulesAdded, ipv4RulesRemoved, ipv4UpstreamChanges,
+                    ipv6UpstreamRulesAdded, ipv6UpstreamRulesRemoved,
+                    ipv6DownstreamRulesAdded, ipv6DownstreamRulesRemoved);
+        }
+    }
+
     /**
      * A BPF tethering stats provider to provide network statistics to the system.
      * Note that this class' data may only be accessed on the handler thread.
@@ -2151,25 +2539,123 @@ public class BpfCoordinator {
                     NON_OFFLOADED_UPSTREAM_IPV4_TCP_PORTS, e.tupleOrig.dstPort);
         }
 
+        // Queued conntrack events keyed by original direction tuple. At most one event is queued
+        // per connection. LinkedHashMap keeps the events in arrival order.
+        private final LinkedHashMap<ConntrackMessage.Tuple, ConntrackEvent> mPendingEvents =
+                new LinkedHashMap<>();
+
+        private final Runnable mFlushPendingEvents = this::flushPendingEvents;
+
+        // Counters of the event queue. Only used for dump.
+        private long mReceivedEvents = 0;
+        private long mCoalescedEvents = 0;
+        private long mAppliedEvents = 0;
+        private long mDroppedEvents = 0;
+        private int mMaxQueueDepth = 0;
+
+        private boolean isDeleteEvent(@NonNull ConntrackEvent e) {
+            return e.msgType == (NetlinkConstants.NFNL_SUBSYS_CTNETLINK << 8
+                    | NetlinkConstants.IPCTNL_MSG_CT_DELETE);
+        }
+
         public void accept(ConntrackEvent e) {
-            if (!allowOffload(e)) return;
+            mReceivedEvents++;
+            if (!mConntrackEventCoalescingEnabled) {
+                applyEvent(e);
+                return;
+            }
 
+            if (!allowOffload(e)) {
+                mDroppedEvents++;
+                return;
+            }
+
+            // A DELETE of a connection whose NEW is still queued cancels both if the connection
+            // was never offloaded. Conntrack also reports updates as NEW, so if the rules are
+            // already in the map the DELETE must still be applied. Any other event supersedes
+            // the queued one.
+            final ConntrackEvent pending = mPendingEvents.remove(e.tupleOrig);
+            if (pending != null) {
+                if (isDeleteEvent(e) && !isDeleteEvent(pending) && !isOffloaded(e)) {
+                    mCoalescedEvents += 2;
+                    return;
+                }
+                mCoalescedEvents++;
+            }
+            mPendingEvents.put(e.tupleOrig, e);
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingEvents.size());
+
+            if (mPendingEvents.size() >= MAX_PENDING_CONNTRACK_EVENTS) {
+                flushPendingEvents();
+            } else if (!mHandler.hasCallbacks(mFlushPendingEvents)) {
+                mHandler.postDelayed(mFlushPendingEvents, CONNTRACK_EVENT_COALESCING_WINDOW_MS);
+            }
+        }
+
+        // Whether the upstream rule of the connection is in the BPF map.
+        private boolean isOffloaded(@NonNull ConntrackEvent e) {
             final ClientInfo tetherClient = getClientInfo(e.tupleOrig.srcIp);
-            if (tetherClient == null) return;
+            if (tetherClient == null) return false;
+            return mBpfCoordinatorShim.tetherOffloadRuleExists(UPSTREAM,
+                    makeTetherUpstream4Key(e, tetherClient));
+        }
+
+        /** Apply all queued events to the BPF maps. */
+        void flushPendingEvents() {
+            mHandler.removeCallbacks(mFlushPendingEvents);
+            if (mPendingEvents.isEmpty()) return;
+
+            final ArrayList<ConntrackEvent> events = new ArrayList<>(mPendingEvents.values());
+            mPendingEvents.clear();
+            for (final ConntrackEvent e : events) {
+                applyEvent(e);
+            }
+        }
+
+        /** Drop all queued events without applying them. */
+        void clearPendingEvents() {
+            mHandler.removeCallbacks(mFlushPendingEvents);
+            mDroppedEvents += mPendingEvents.size();
+            mPendingEvents.clear();
+        }
+
+        void dump(@NonNull IndentingPrintWriter pw) {
+            pw.println("Coalescing " + (mConntrackEventCoalescingEnabled ? "enabled" : "disabled"));
+            pw.println(String.format("Queue depth: %d, max: %d", mPendingEvents.size(),
+                    mMaxQueueDepth));
+            pw.println(String.format("Received: %d, coalesced: %d, applied: %d, dropped: %d",
+                    mReceivedEvents, mCoalescedEvents, mAppliedEvents, mDroppedEvents));
+        }
+
+        private void applyEvent(@NonNull ConntrackEvent e) {
+            if (!allowOffload(e)) {
+                mDroppedEvents++;
+                return;
+            }
+
+            final ClientInfo tetherClient = getClientInfo(e.tupleOrig.srcIp);
+            if (tetherClient == null) {
+                mDroppedEvents++;
+                return;
+            }
 
             final Integer upstreamIndex = mIpv4UpstreamIndices.get(e.tupleReply.dstIp);
-            if (upstreamIndex == null) return;
+            if (upstreamIndex == null) {
+                mDroppedEvents++;
+                return;
+            }
+            mAppliedEvents++;
 
             final Tether4Key upstream4Key = makeTetherUpstream4Key(e, tetherClient);
             final Tether4Key downstream4Key = makeTetherDownstream4Key(e, tetherClient,
                     upstreamIndex);
 
-            if (e.msgType == (NetlinkConstants.NFNL_SUBSYS_CTNETLINK << 8
-                    | NetlinkConstants.IPCTNL_MSG_CT_DELETE)) {
+            if (isDeleteEvent(e)) {
                 final boolean deletedUpstream = mBpfCoordinatorShim.tetherOffloadRuleRemove(
                         UPSTREAM, upstream4Key);
                 final boolean deletedDownstream = mBpfCoordinatorShim.tetherOffloadRuleRemove(
                         DOWNSTREAM, downstream4Key);
+                mIpv4RuleAddedTimes.remove(upstream4Key);
 
                 if (!deletedUpstream && !deletedDownstream) {
                     // The rules may have been already removed by losing client or losing upstream.
@@ -2183,6 +2669,7 @@ public class BpfCoordinator {
                     return;
                 }
 
+                mRuleChurnCounters.ipv4RulesRemoved++;
                 maybeClearLimit(upstreamIndex);
                 return;
             }
@@ -2193,6 +2680,9 @@ public class BpfCoordinator {
             final Tether4Value downstream4Value = makeTetherDownstream4Value(e, tetherClient,
                     mIpv4UpstreamInfo);
 
+            // Evict before setting the limit because evicting the last rules on the upstream
+            // clears its limit.
+            maybeEvictIdleIpv4Rules();
             maybeAddDevMap(upstreamIndex, tetherClient.downstreamIfindex);
             maybeSetLimit(upstreamIndex);
 
@@ -2206,6 +2696,12 @@ public class BpfCoordinator {
                         + ", downstream: " + addedDownstream + ")");
                 return;
             }
+            if (addedUpstream) {
+                mRuleChurnCounters.ipv4RulesAdded++;
+                mIpv4RuleAddedTimes.put(upstream4Key, mDeps.elapsedRealtimeNanos());
+            }
+            mMaxIpv4RuleCount = Math.max(mMaxIpv4RuleCount,
+                    mBpfCoordinatorShim.getIpv4RuleCount());
         }
     }
 
@@ -2229,12 +2725,10 @@ public class BpfCoordinator {
     }
 
     private int getInterfaceIndexFromRules(@NonNull String ifName) {
-        for (ArraySet<Ipv6UpstreamRule> rules : mIpv6UpstreamRules.values()) {
-            for (Ipv6UpstreamRule rule : rules) {
-                final int upstreamIfindex = rule.upstreamIfindex;
-                if (TextUtils.equals(ifName, mInterfaceNames.get(upstreamIfindex))) {
-                    return upstreamIfindex;
-                }
+        for (int i = 0; i < mIpv6DownstreamsByUpstream.size(); i++) {
+            final int upstreamIfindex = mIpv6DownstreamsByUpstream.keyAt(i);
+            if (TextUtils.equals(ifName, mInterfaceNames.get(upstreamIfindex))) {
+                return upstreamIfindex;
             }
         }
         return 0;
@@ -2322,12 +2816,7 @@ public class BpfCoordinator {
     // TODO: Rename to isAnyIpv6RuleOnUpstream and define an isAnyRuleOnUpstream method that called
     // both isAnyIpv6RuleOnUpstream and mBpfCoordinatorShim.isAnyIpv4RuleOnUpstream.
     private boolean isAnyRuleOnUpstream(int upstreamIfindex) {
-        for (ArraySet<Ipv6UpstreamRule> rules : mIpv6UpstreamRules.values()) {
-            for (Ipv6UpstreamRule rule : rules) {
-                if (upstreamIfindex == rule.upstreamIfindex) return true;
-            }
-        }
-        return false;
+        return mIpv6DownstreamsByUpstream.get(upstreamIfindex) != null;
     }
 
     // TODO: remove the index from map while the interface has been removed because the map size
@@ -52,6 +52,7 @@ import static android.net.TetheringManager.TETHER_ERROR_UNAVAIL_IFACE;
 import static android.net.TetheringManager.TETHER_ERROR_UNKNOWN_IFACE;
 import static android.net.TetheringManager.TETHER_ERROR_UNKNOWN_REQUEST;
 import static android.net.TetheringManager.TETHER_ERROR_UNKNOWN_TYPE;
+import static android.net.TetheringManager.TETHER_ERROR_UNSUPPORTED;
 import static android.net.TetheringManager.TETHER_HARDWARE_OFFLOAD_FAILED;
 import static android.net.TetheringManager.TETHER_HARDWARE_OFFLOAD_STARTED;
 import static android.net.TetheringManager.TETHER_HARDWARE_OFFLOAD_STOPPED;
@@ -101,14 +102,17 @@ import android.net.ConnectivityManager;
 import android.net.EthernetManager;
 import android.net.IIntResultListener;
 import android.net.INetd;
+import android.net.ITetheredClientStatsListener;
 import android.net.ITetheringEventCallback;
 import android.net.IpPrefix;
 import android.net.LinkAddress;
 import android.net.LinkProperties;
+import android.net.MacAddress;
 import android.net.Network;
 import android.net.NetworkInfo;
 import android.net.TetherStatesParcel;
 import android.net.TetheredClient;
+import android.net.TetheredClientStatsParcel;
 import android.net.TetheringCallbackStartedParcel;
 import android.net.TetheringConfigurationParcel;
 import android.net.TetheringInterface;
@@ -165,6 +169,7 @@ import com.android.networkstack.tethering.metrics.TetheringMetrics;
 import com.android.networkstack.tethering.metrics.TetheringStatsLog;
 import com.android.networkstack.tethering.util.InterfaceSet;
 import com.android.networkstack.tethering.util.PrefixUtils;
+import com.android.networkstack.tethering.util.TetheringUtils.ForwardedStats;
 import com.android.networkstack.tethering.util.VersionedBroadcastListener;
 import com.android.networkstack.tethering.wear.WearableConnectionManager;
 
@@ -2925,6 +2930,9 @@ public class Tethering {
                     break;
             }
             pw.println(" - lastError = " + tetherState.lastError);
+            pw.increaseIndent();
+            tetherState.ipServer.dumpRaDaemon(pw);
+            pw.decreaseIndent();
         }
         pw.println("Upstream wanted: " + mTetherMainSM.upstreamWanted());
         pw.println("Current upstream interface(s): " + mCurrentUpstreamIfaceSet);
@@ -3139,6 +3147,42 @@ public class Tethering {
         });
     }
 
+    void setTetheredClientDataLimit(@NonNull final MacAddress clientMac, final long quotaBytes,
+            IIntResultListener listener) {
+        mHandler.post(() -> {
+            final boolean success = mBpfCoordinator.setClientDataLimit(clientMac, quotaBytes);
+            sendTetherResult(listener, success ? TETHER_ERROR_NO_ERROR : TETHER_ERROR_UNSUPPORTED);
+        });
+    }
+
+    void getTetheredClientStats(@NonNull final MacAddress clientMac,
+            ITetheredClientStatsListener listener) {
+        mHandler.post(() -> {
+            if (!mBpfCoordinator.isUsingBpfOffload()) {
+                sendTetheredClientStats(listener, TETHER_ERROR_UNSUPPORTED, null /* stats */);
+                return;
+            }
+            final ForwardedStats stats = mBpfCoordinator.getClientStats(clientMac);
+            final TetheredClientStatsParcel parcel = new TetheredClientStatsParcel();
+            parcel.rxBytes = stats.rxBytes;
+            parcel.rxPackets = stats.rxPackets;
+            parcel.txBytes = stats.txBytes;
+            parcel.txPackets = stats.txPackets;
+            parcel.quotaBytes = mBpfCoordinator.getClientDataLimit(clientMac);
+            sendTetheredClientStats(listener, TETHER_ERROR_NO_ERROR, parcel);
+        });
+    }
+
+    private void sendTetheredClientStats(final ITetheredClientStatsListener listener,
+            final int result, @Nullable final TetheredClientStatsParcel stats) {
+        if (listener != null) {
+            try {
+                listener.onResult(result, stats);
+            } catch (RemoteException e) {
+            }
+        }
+    }
+
     @VisibleForTesting
     public TetherMainSM getTetherMainSMForTesting() {
         return mTetherMainSM;
@@ -148,6 +148,13 @@ public class TetheringConfiguration {
      */
     public static final String TETHER_ACTIVE_SESSIONS_METRICS = "tether_active_sessions_metrics";
 
+    /**
+     * A feature flag to control whether conntrack events are coalesced before the IPv4 offload
+     * rules are updated. Disabled by default.
+     */
+    public static final String TETHER_CONNTRACK_EVENT_COALESCING =
+            "tether_conntrack_event_coalescing";
+
     /**
      * A feature flag to control whether the tethering local network agent should be enabled.
      * Disabled by default.
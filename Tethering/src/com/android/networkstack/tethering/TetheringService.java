@@ -23,11 +23,13 @@ import static android.Manifest.permission.TETHER_PRIVILEGED;
 import static android.content.pm.PackageManager.PERMISSION_GRANTED;
 import static android.net.NetworkStack.PERMISSION_MAINLINE_NETWORK_STACK;
 import static android.net.TetheringManager.TETHERING_WIFI;
+import static android.net.TetheringManager.TETHER_ERROR_INTERNAL_ERROR;
 import static android.net.TetheringManager.TETHER_ERROR_NO_ACCESS_TETHERING_PERMISSION;
 import static android.net.TetheringManager.TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION;
 import static android.net.TetheringManager.TETHER_ERROR_NO_ERROR;
 import static android.net.TetheringManager.TETHER_ERROR_UNSUPPORTED;
 import static android.net.dhcp.IDhcpServer.STATUS_UNKNOWN_ERROR;
+import static android.net.netstats.provider.NetworkStatsProvider.QUOTA_UNLIMITED;
 
 import android.app.AppOpsManager;
 import android.app.Service;
@@ -37,8 +39,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.IIntResultListener;
 import android.net.INetworkStackConnector;
+import android.net.ITetheredClientStatsListener;
 import android.net.ITetheringConnector;
 import android.net.ITetheringEventCallback;
+import android.net.MacAddress;
 import android.net.NetworkStack;
 import android.net.TetheringManager.TetheringRequest;
 import android.net.TetheringRequestParcel;
@@ -296,6 +300,63 @@ public class TetheringService extends Service {
             mTethering.setPreferTestNetworks(prefer, listener);
         }
 
+        @Override
+        public void setTetheredClientDataLimit(String clientMac, long quotaBytes,
+                IIntResultListener listener) {
+            if (!checkCallingOrSelfPermission(NETWORK_SETTINGS)) {
+                try {
+                    listener.onResult(TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION);
+                } catch (RemoteException e) { }
+                return;
+            }
+
+            // Validate the arguments here rather than on the handler thread, so that a bad call
+            // can't crash the tethering process.
+            final MacAddress mac = parseMacAddressOrNull(clientMac);
+            if (mac == null || quotaBytes < QUOTA_UNLIMITED) {
+                try {
+                    listener.onResult(TETHER_ERROR_INTERNAL_ERROR);
+                } catch (RemoteException e) { }
+                return;
+            }
+
+            mTethering.setTetheredClientDataLimit(mac, quotaBytes, listener);
+        }
+
+        @Override
+        public void getTetheredClientStats(String clientMac,
+                ITetheredClientStatsListener listener) {
+            if (listener == null) return;
+            if (!checkCallingOrSelfPermission(NETWORK_SETTINGS)) {
+                try {
+                    listener.onResult(TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION,
+                            null /* stats */);
+                } catch (RemoteException e) { }
+                return;
+            }
+
+            final MacAddress mac = parseMacAddressOrNull(clientMac);
+            if (mac == null) {
+                try {
+                    listener.onResult(TETHER_ERROR_INTERNAL_ERROR, null /* stats */);
+                } catch (RemoteException e) { }
+                return;
+            }
+
+            mTethering.getTetheredClientStats(mac, listener);
+        }
+
+        @Nullable
+        private MacAddress parseMacAddressOrNull(@Nullable String mac) {
+            if (mac == null) return null;
+            try {
+                return MacAddress.fromString(mac);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Invalid MAC address " + mac);
+                return null;
+            }
+        }
+
         @Override
         protected void dump(@NonNull FileDescriptor fd, @NonNull PrintWriter writer,
                     @Nullable String[] args) {
@@ -30,7 +30,11 @@ import static com.android.net.module.util.NetworkStackConstants.IPV6_HEADER_LEN;
 import static com.android.net.module.util.NetworkStackConstants.PIO_FLAG_AUTONOMOUS;
 import static com.android.net.module.util.NetworkStackConstants.PIO_FLAG_ON_LINK;
 
+import static android.net.ip.RouterAdvertisementDaemon.MAX_UNICAST_RA_BURST;
+import static android.net.ip.RouterAdvertisementDaemon.UNICAST_RA_REFILL_INTERVAL_MS;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -41,6 +45,7 @@ import android.net.INetd;
 import android.net.IpPrefix;
 import android.net.MacAddress;
 import android.net.ip.RouterAdvertisementDaemon.RaParams;
+import android.net.ip.RouterAdvertisementDaemon.TokenBucket;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
@@ -340,4 +345,26 @@ public final class RouterAdvertisementDaemonTest {
         mTetheredPacketReader.sendResponse(rs);
         assertUnicastRaPacket(new TestRaPacket(null, params1));
     }
+
+    @Test
+    public void testUnicastResponseTokenBucket() {
+        final TokenBucket bucket = new TokenBucket(MAX_UNICAST_RA_BURST,
+                UNICAST_RA_REFILL_INTERVAL_MS, 1000 /* nowMs */);
+        for (int i = 0; i < MAX_UNICAST_RA_BURST; i++) {
+            assertTrue(bucket.tryAcquire(1000));
+        }
+        assertFalse(bucket.tryAcquire(1000));
+
+        // One token is refilled per interval.
+        final long next = 1000 + UNICAST_RA_REFILL_INTERVAL_MS;
+        assertTrue(bucket.tryAcquire(next));
+        assertFalse(bucket.tryAcquire(next));
+
+        // The bucket never holds more than its capacity.
+        final long later = next + 100L * UNICAST_RA_REFILL_INTERVAL_MS;
+        for (int i = 0; i < MAX_UNICAST_RA_BURST; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
 }
@@ -48,12 +48,16 @@ import static com.android.net.module.util.netlink.NetlinkConstants.RTM_NEWNEIGH;
 import static com.android.net.module.util.netlink.StructNdMsg.NUD_FAILED;
 import static com.android.net.module.util.netlink.StructNdMsg.NUD_REACHABLE;
 import static com.android.net.module.util.netlink.StructNdMsg.NUD_STALE;
+import static com.android.networkstack.tethering.BpfCoordinator.CONNTRACK_EVENT_COALESCING_WINDOW_MS;
 import static com.android.networkstack.tethering.BpfCoordinator.CONNTRACK_METRICS_UPDATE_INTERVAL_MS;
 import static com.android.networkstack.tethering.BpfCoordinator.CONNTRACK_TIMEOUT_UPDATE_INTERVAL_MS;
 import static com.android.networkstack.tethering.BpfCoordinator.INVALID_MTU;
+import static com.android.networkstack.tethering.BpfCoordinator.MAX_CLIENT_STATS_HISTORY;
 import static com.android.networkstack.tethering.BpfCoordinator.NF_CONNTRACK_TCP_TIMEOUT_ESTABLISHED;
 import static com.android.networkstack.tethering.BpfCoordinator.NF_CONNTRACK_UDP_TIMEOUT_STREAM;
 import static com.android.networkstack.tethering.BpfCoordinator.NON_OFFLOADED_UPSTREAM_IPV4_TCP_PORTS;
+import static com.android.networkstack.tethering.BpfCoordinator.TETHER4_MAP_HIGH_WATERMARK;
+import static com.android.networkstack.tethering.BpfCoordinator.TETHER4_MAP_LOW_WATERMARK;
 import static com.android.networkstack.tethering.BpfCoordinator.StatsType;
 import static com.android.networkstack.tethering.BpfCoordinator.StatsType.STATS_PER_IFACE;
 import static com.android.networkstack.tethering.BpfCoordinator.StatsType.STATS_PER_UID;
@@ -62,6 +66,7 @@ import static com.android.networkstack.tethering.BpfUtils.DOWNSTREAM;
 import static com.android.networkstack.tethering.BpfUtils.UPSTREAM;
 import static com.android.networkstack.tethering.TetheringConfiguration.DEFAULT_TETHER_OFFLOAD_POLL_INTERVAL_MS;
 import static com.android.networkstack.tethering.TetheringConfiguration.TETHER_ACTIVE_SESSIONS_METRICS;
+import static com.android.networkstack.tethering.TetheringConfiguration.TETHER_CONNTRACK_EVENT_COALESCING;
 import static com.android.testutils.MiscAsserts.assertSameElements;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -138,6 +143,7 @@ import com.android.networkstack.tethering.BpfCoordinator.BpfConntrackEventConsum
 import com.android.networkstack.tethering.BpfCoordinator.ClientInfo;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6DownstreamRule;
 import com.android.networkstack.tethering.BpfCoordinator.Ipv6UpstreamRule;
+import com.android.networkstack.tethering.util.TetheringUtils.ForwardedStats;
 import com.android.testutils.DevSdkIgnoreRule;
 import com.android.testutils.DevSdkIgnoreRule.IgnoreAfter;
 import com.android.testutils.DevSdkIgnoreRule.IgnoreUpTo;
@@ -488,6 +494,10 @@ public class BpfCoordinatorTest {
             spy(new TestBpfMap<>(TetherDevKey.class, TetherDevValue.class));
     private final IBpfMap<S32, S32> mBpfErrorMap =
             spy(new TestBpfMap<>(S32.class, S32.class));
+    private final IBpfMap<TetherClient4Key, TetherStatsValue> mBpfClient4StatsMap =
+            new TestBpfMap<>(TetherClient4Key.class, TetherStatsValue.class);
+    private final IBpfMap<TetherClient4Key, TetherLimitValue> mBpfClient4LimitMap =
+            new TestBpfMap<>(TetherClient4Key.class, TetherLimitValue.class);
     private BpfCoordinator.Dependencies mDeps =
             spy(new BpfCoordinator.Dependencies() {
                     @NonNull
@@ -573,6 +583,16 @@ public class BpfCoordinatorTest {
                         return mBpfErrorMap;
                     }
 
+                    @Nullable
+                    public IBpfMap<TetherClient4Key, TetherStatsValue> getBpfClient4StatsMap() {
+                        return mBpfClient4StatsMap;
+                    }
+
+                    @Nullable
+                    public IBpfMap<TetherClient4Key, TetherLimitValue> getBpfClient4LimitMap() {
+                        return mBpfClient4LimitMap;
+                    }
+
                     @Override
                     public void sendTetheringActiveSessionsReported(int lastMaxSessionCount) {
                         // No-op.
@@ -2507,6 +2527,171 @@ public class BpfCoordinatorTest {
         checkRule4ExistInUpstreamDownstreamMap();
     }
 
+    @FeatureFlag(name = TETHER_CONNTRACK_EVENT_COALESCING)
+    // BPF IPv4 forwarding only supports on S+.
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    @Test
+    public void testConntrackEventCoalescing() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        initBpfCoordinatorForRule4(coordinator);
+
+        final ConntrackEvent newEvent1 = new TestConntrackEvent.Builder()
+                .setMsgType(IPCTNL_MSG_CT_NEW).setProto(IPPROTO_TCP).setRemotePort(1).build();
+        final ConntrackEvent delEvent1 = new TestConntrackEvent.Builder()
+                .setMsgType(IPCTNL_MSG_CT_DELETE).setProto(IPPROTO_TCP).setRemotePort(1).build();
+        final ConntrackEvent newEvent2 = new TestConntrackEvent.Builder()
+                .setMsgType(IPCTNL_MSG_CT_NEW).setProto(IPPROTO_TCP).setRemotePort(2).build();
+
+        // The events are queued until the coalescing window expires.
+        mConsumer.accept(newEvent1);
+        mConsumer.accept(delEvent1);
+        mConsumer.accept(newEvent2);
+        verify(mBpfUpstream4Map, never()).insertEntry(any(), any());
+        verify(mBpfDownstream4Map, never()).insertEntry(any(), any());
+
+        // The NEW/DELETE pair of the first connection cancels out. Only the rules of the second
+        // connection are added.
+        mTestLooper.moveTimeForward(CONNTRACK_EVENT_COALESCING_WINDOW_MS);
+        waitForIdle();
+        verify(mBpfUpstream4Map).insertEntry(any(), any());
+        verify(mBpfDownstream4Map).insertEntry(any(), any());
+        verify(mBpfUpstream4Map, never()).deleteEntry(any());
+        verify(mBpfDownstream4Map, never()).deleteEntry(any());
+    }
+
+    @FeatureFlag(name = TETHER_CONNTRACK_EVENT_COALESCING)
+    // BPF IPv4 forwarding only supports on S+.
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    @Test
+    public void testConntrackEventCoalescing_updateThenDeleteOffloadedConnection()
+            throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        initBpfCoordinatorForRule4(coordinator);
+
+        final ConntrackEvent newEvent = new TestConntrackEvent.Builder()
+                .setMsgType(IPCTNL_MSG_CT_NEW).setProto(IPPROTO_TCP).setRemotePort(1).build();
+        final ConntrackEvent delEvent = new TestConntrackEvent.Builder()
+                .setMsgType(IPCTNL_MSG_CT_DELETE).setProto(IPPROTO_TCP).setRemotePort(1).build();
+
+        // Offload the connection.
+        mConsumer.accept(newEvent);
+        mTestLooper.moveTimeForward(CONNTRACK_EVENT_COALESCING_WINDOW_MS);
+        waitForIdle();
+        assertEquals(1, countEntries(mBpfUpstream4Map));
+        assertEquals(1, countEntries(mBpfDownstream4Map));
+
+        // Conntrack reports updates as NEW. A DELETE following an update of an offloaded
+        // connection replaces the queued update instead of cancelling it.
+        mConsumer.accept(newEvent);
+        mConsumer.accept(delEvent);
+        mTestLooper.moveTimeForward(CONNTRACK_EVENT_COALESCING_WINDOW_MS);
+        waitForIdle();
+        verify(mBpfUpstream4Map).deleteEntry(any());
+        verify(mBpfDownstream4Map).deleteEntry(any());
+        assertEquals(0, countEntries(mBpfUpstream4Map));
+        assertEquals(0, countEntries(mBpfDownstream4Map));
+    }
+
+    private int countEntries(IBpfMap<Tether4Key, Tether4Value> map) throws Exception {
+        final int[] count = new int[1];
+        map.forEach((k, v) -> count[0]++);
+        return count[0];
+    }
+
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testEvictIdleIpv4RulesAtHighWatermark() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        initBpfCoordinatorForRule4(coordinator);
+
+        // Add the first connection and mark it as recently used.
+        mConsumer.accept(new TestConntrackEvent.Builder().setRemotePort(1).build());
+        final Tether4Key[] busyKey = new Tether4Key[1];
+        final Tether4Value[] busyValue = new Tether4Value[1];
+        mBpfUpstream4Map.forEach((k, v) -> {
+            busyKey[0] = k;
+            busyValue[0] = v;
+        });
+        final Tether4Value v = busyValue[0];
+        mBpfUpstream4Map.updateEntry(busyKey[0], new Tether4Value(v.oif, v.ethDstMac, v.ethSrcMac,
+                v.ethProto, v.pmtu, v.src46, v.dst46, v.srcPort, v.dstPort, 1000 /* lastUsed */));
+
+        // Fill the maps up to the high watermark. Nothing is evicted yet.
+        for (int port = 2; port <= TETHER4_MAP_HIGH_WATERMARK; port++) {
+            mConsumer.accept(new TestConntrackEvent.Builder().setRemotePort(port).build());
+        }
+        assertEquals(TETHER4_MAP_HIGH_WATERMARK, countEntries(mBpfUpstream4Map));
+        assertEquals(TETHER4_MAP_HIGH_WATERMARK, countEntries(mBpfDownstream4Map));
+
+        // The next connection evicts the idle rules down to the low watermark, but keeps the
+        // recently used one.
+        mConsumer.accept(new TestConntrackEvent.Builder()
+                .setRemotePort(TETHER4_MAP_HIGH_WATERMARK + 1).build());
+        assertEquals(TETHER4_MAP_LOW_WATERMARK + 1, countEntries(mBpfUpstream4Map));
+        assertEquals(TETHER4_MAP_LOW_WATERMARK + 1, countEntries(mBpfDownstream4Map));
+        assertNotNull(mBpfUpstream4Map.getValue(busyKey[0]));
+    }
+
+    private void setUpstream4LastUsed(int remotePort, long lastUsed) throws Exception {
+        final ArrayMap<Tether4Key, Tether4Value> entries = new ArrayMap<>();
+        mBpfUpstream4Map.forEach((k, v) -> {
+            if (remotePort == 0 || k.dstPort == remotePort) entries.put(k, v);
+        });
+        for (int i = 0; i < entries.size(); i++) {
+            final Tether4Value v = entries.valueAt(i);
+            mBpfUpstream4Map.updateEntry(entries.keyAt(i), new Tether4Value(v.oif, v.ethDstMac,
+                    v.ethSrcMac, v.ethProto, v.pmtu, v.src46, v.dst46, v.srcPort, v.dstPort,
+                    lastUsed));
+        }
+    }
+
+    private boolean hasUpstream4Rule(int remotePort) throws Exception {
+        final boolean[] found = new boolean[1];
+        mBpfUpstream4Map.forEach((k, v) -> {
+            if (k.dstPort == remotePort) found[0] = true;
+        });
+        return found[0];
+    }
+
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testEvictIdleIpv4Rules_order() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        initBpfCoordinatorForRule4(coordinator);
+        final int busyPort = 1;
+        final int newPort = TETHER4_MAP_HIGH_WATERMARK;
+
+        // Add connections which last forwarded a packet at 5us. One of them is busy.
+        setElapsedRealtimeNanos(1_000);
+        for (int port = 1; port < newPort; port++) {
+            mConsumer.accept(new TestConntrackEvent.Builder().setRemotePort(port).build());
+        }
+        setUpstream4LastUsed(0 /* all ports */, 5_000);
+        setUpstream4LastUsed(busyPort, 10_000);
+
+        // Add a connection which has not forwarded any packet yet. Its lastUsed is still 0.
+        setElapsedRealtimeNanos(20_000);
+        mConsumer.accept(new TestConntrackEvent.Builder().setRemotePort(newPort).build());
+        assertEquals(TETHER4_MAP_HIGH_WATERMARK, countEntries(mBpfUpstream4Map));
+
+        // The next connection evicts the least recently used rules. The new connection counts as
+        // used when its rules were added, so it is kept like the busy one.
+        setElapsedRealtimeNanos(30_000);
+        mConsumer.accept(new TestConntrackEvent.Builder().setRemotePort(newPort + 1).build());
+        assertEquals(TETHER4_MAP_LOW_WATERMARK + 1, countEntries(mBpfUpstream4Map));
+        assertEquals(TETHER4_MAP_LOW_WATERMARK + 1, countEntries(mBpfDownstream4Map));
+        assertTrue(hasUpstream4Rule(busyPort));
+        assertTrue(hasUpstream4Rule(newPort));
+        assertTrue(hasUpstream4Rule(newPort + 1));
+
+        // Only the idle connections were evicted.
+        int idleLeft = 0;
+        for (int port = busyPort + 1; port < newPort; port++) {
+            if (hasUpstream4Rule(port)) idleLeft++;
+        }
+        assertEquals(TETHER4_MAP_LOW_WATERMARK - 2, idleLeft);
+    }
+
     @Test
     @IgnoreUpTo(Build.VERSION_CODES.R)
     public void testTetherOffloadRule4Clear_RemoveDownstream() throws Exception {
@@ -2603,6 +2788,41 @@ public class BpfCoordinatorTest {
         assertClientInfoExists(mIpServer2, CLIENT_INFO_B);
     }
 
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testTetherOffloadRule4Clear_ChangeUpstreamKeepsRulesOnOtherUpstream()
+            throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        addDownstreamAndClientInformationTo(coordinator, DOWNSTREAM_IFINDEX);
+        addDownstreamAndClientInformationTo(coordinator, DOWNSTREAM_IFINDEX2);
+
+        setUpstreamInformationTo(coordinator, UPSTREAM_IFINDEX);
+        addAndCheckRule4ForDownstreams();
+
+        // Add a rule pair of the client A which is on another upstream.
+        final short otherPort = (short) 43210;
+        final Tether4Key upstream4Key = makeUpstream4Key(
+                DOWNSTREAM_IFINDEX, DOWNSTREAM_MAC, PRIVATE_ADDR, otherPort);
+        final Tether4Value upstream4Value = new Tether4Value(UPSTREAM_IFINDEX2,
+                MacAddress.ALL_ZEROS_ADDRESS, MacAddress.ALL_ZEROS_ADDRESS, ETH_P_IP,
+                NetworkStackConstants.ETHER_MTU, toIpv4MappedAddressBytes(PUBLIC_ADDR),
+                toIpv4MappedAddressBytes(REMOTE_ADDR), otherPort, REMOTE_PORT,
+                0 /* lastUsed */);
+        final Tether4Key downstream4Key = new Tether4Key(UPSTREAM_IFINDEX2,
+                MacAddress.ALL_ZEROS_ADDRESS, (short) IPPROTO_TCP, REMOTE_ADDR.getAddress(),
+                PUBLIC_ADDR.getAddress(), REMOTE_PORT, otherPort);
+        final Tether4Value downstream4Value = makeDownstream4Value(
+                DOWNSTREAM_IFINDEX, MAC_A, DOWNSTREAM_MAC, PRIVATE_ADDR, otherPort);
+        mBpfUpstream4Map.insertEntry(upstream4Key, upstream4Value);
+        mBpfDownstream4Map.insertEntry(downstream4Key, downstream4Value);
+
+        // Losing the upstream clears the rules on that upstream only.
+        setUpstreamInformationTo(coordinator, NO_UPSTREAM);
+        checkRule4NotExistInUpstreamDownstreamMap();
+        assertEquals(upstream4Value, mBpfUpstream4Map.getValue(upstream4Key));
+        assertEquals(downstream4Value, mBpfDownstream4Map.getValue(downstream4Key));
+    }
+
     @Test
     @IgnoreUpTo(Build.VERSION_CODES.R)
     public void testTetherOffloadClientAddRemove() throws Exception {
@@ -2658,6 +2878,89 @@ public class BpfCoordinatorTest {
         assertNull(mBpfDownstream4Map.getValue(downstream4KeyB));
     }
 
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testTetherOffloadClientStatsAndLimit() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        final ClientInfo clientA = new ClientInfo(DOWNSTREAM_IFINDEX, DOWNSTREAM_MAC,
+                PRIVATE_ADDR, MAC_A);
+        final TetherClient4Key keyA = new TetherClient4Key(PRIVATE_ADDR);
+
+        // [1] Adding a client starts its accounting without any limit.
+        coordinator.tetherOffloadClientAdd(mIpServer, clientA);
+        assertEquals(new TetherStatsValue(0, 0, 0, 0, 0, 0), mBpfClient4StatsMap.getValue(keyA));
+        assertNull(mBpfClient4LimitMap.getValue(keyA));
+
+        // [2] Set a limit. The limit is counted from the bytes already forwarded.
+        mBpfClient4StatsMap.updateEntry(keyA, new TetherStatsValue(10, 1000, 0, 20, 2000, 0));
+        coordinator.setClientDataLimit(MAC_A, 5000);
+        assertEquals(new TetherLimitValue(5000), mBpfClient4LimitMap.getValue(keyA));
+
+        // [3] Removing the client keeps its stats and the limit is applied again when the
+        // client comes back with another address.
+        coordinator.tetherOffloadClientRemove(mIpServer, clientA);
+        assertNull(mBpfClient4StatsMap.getValue(keyA));
+        assertNull(mBpfClient4LimitMap.getValue(keyA));
+        final ForwardedStats stats = coordinator.getClientStats(MAC_A);
+        assertEquals(1000, stats.rxBytes);
+        assertEquals(2000, stats.txBytes);
+
+        final ClientInfo clientA2 = new ClientInfo(DOWNSTREAM_IFINDEX, DOWNSTREAM_MAC,
+                PRIVATE_ADDR2, MAC_A);
+        final TetherClient4Key keyA2 = new TetherClient4Key(PRIVATE_ADDR2);
+        coordinator.tetherOffloadClientAdd(mIpServer, clientA2);
+        assertEquals(new TetherLimitValue(2000), mBpfClient4LimitMap.getValue(keyA2));
+
+        // [4] Remove the limit.
+        coordinator.setClientDataLimit(MAC_A, QUOTA_UNLIMITED);
+        assertNull(mBpfClient4LimitMap.getValue(keyA2));
+    }
+
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testSetClientDataLimit_invalidQuota() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+
+        assertFalse(coordinator.setClientDataLimit(MAC_A, -2));
+        assertEquals(QUOTA_UNLIMITED, coordinator.getClientDataLimit(MAC_A));
+        assertTrue(coordinator.setClientDataLimit(MAC_A, 5000));
+        assertEquals(5000, coordinator.getClientDataLimit(MAC_A));
+    }
+
+    private static MacAddress makeClientMac(int i) {
+        return MacAddress.fromBytes(new byte[] {2, 0, 0, 0, (byte) (i >> 8), (byte) i});
+    }
+
+    @Test
+    @IgnoreUpTo(Build.VERSION_CODES.R)
+    public void testClientStatsHistoryBoundedAndCleared() throws Exception {
+        final BpfCoordinator coordinator = makeBpfCoordinator();
+        final TetherClient4Key key = new TetherClient4Key(PRIVATE_ADDR);
+        // The first client has a quota, so its statistics are kept the longest.
+        coordinator.setClientDataLimit(makeClientMac(0), 5000);
+
+        // Connect and disconnect one more client than the history can hold.
+        for (int i = 0; i <= MAX_CLIENT_STATS_HISTORY; i++) {
+            final ClientInfo client = new ClientInfo(DOWNSTREAM_IFINDEX, DOWNSTREAM_MAC,
+                    PRIVATE_ADDR, makeClientMac(i));
+            coordinator.tetherOffloadClientAdd(mIpServer, client);
+            mBpfClient4StatsMap.updateEntry(key, new TetherStatsValue(1, 100, 0, 1, 200, 0));
+            coordinator.tetherOffloadClientRemove(mIpServer, client);
+        }
+
+        // The oldest client without a quota is dropped.
+        assertEquals(100, coordinator.getClientStats(makeClientMac(0)).rxBytes);
+        assertEquals(0, coordinator.getClientStats(makeClientMac(1)).rxBytes);
+        assertEquals(100, coordinator.getClientStats(makeClientMac(2)).rxBytes);
+        assertEquals(100,
+                coordinator.getClientStats(makeClientMac(MAX_CLIENT_STATS_HISTORY)).rxBytes);
+
+        // Statistics are counted since tethering started.
+        coordinator.removeIpServer(mIpServer);
+        assertEquals(0, coordinator.getClientStats(makeClientMac(0)).rxBytes);
+        assertEquals(0, coordinator.getClientStats(makeClientMac(2)).rxBytes);
+    }
+
     @Test
     public void testIpv6ForwardingRuleToString() throws Exception {
         final Ipv6DownstreamRule downstreamRule = buildTestDownstreamRule(UPSTREAM_IFINDEX, NEIGH_A,
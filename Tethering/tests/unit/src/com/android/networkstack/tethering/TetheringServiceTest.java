@@ -24,6 +24,7 @@ import static android.content.pm.PackageManager.PERMISSION_DENIED;
 import static android.net.TetheringManager.TETHERING_USB;
 import static android.net.TetheringManager.TETHERING_VIRTUAL;
 import static android.net.TetheringManager.TETHERING_WIFI;
+import static android.net.TetheringManager.TETHER_ERROR_INTERNAL_ERROR;
 import static android.net.TetheringManager.TETHER_ERROR_NO_ACCESS_TETHERING_PERMISSION;
 import static android.net.TetheringManager.TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION;
 import static android.net.TetheringManager.TETHER_ERROR_NO_ERROR;
@@ -40,6 +41,7 @@ import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
@@ -50,8 +52,10 @@ import android.app.AppOpsManager;
 import android.app.UiAutomation;
 import android.content.Intent;
 import android.net.IIntResultListener;
+import android.net.ITetheredClientStatsListener;
 import android.net.ITetheringConnector;
 import android.net.ITetheringEventCallback;
+import android.net.MacAddress;
 import android.net.TetheringManager;
 import android.net.TetheringManager.TetheringRequest;
 import android.net.TetheringRequestParcel;
@@ -90,6 +94,7 @@ public final class TetheringServiceTest {
     private static final int TEST_CALLER_UID = 1234;
     private static final String TEST_ATTRIBUTION_TAG = null;
     private static final String TEST_WRONG_PACKAGE = "wrong.package";
+    private static final MacAddress TEST_CLIENT_MAC = MacAddress.fromString("02:03:04:05:06:07");
     private static final int NO_RESULT = -1;
     private static final TetheringRequest USB_REQUEST =
             new TetheringRequest.Builder(TETHERING_USB).build();
@@ -612,6 +617,70 @@ public final class TetheringServiceTest {
         });
     }
 
+    @Test
+    public void testSetTetheredClientDataLimit() throws Exception {
+        runAsTetherPrivileged((result) -> {
+            mTetheringConnector.setTetheredClientDataLimit(TEST_CLIENT_MAC.toString(), 1000L,
+                    result);
+            result.assertResult(TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION);
+            verifyNoMoreInteractionsForTethering();
+        });
+
+        runAsNetworkSettings((result) -> {
+            mTetheringConnector.setTetheredClientDataLimit(TEST_CLIENT_MAC.toString(), 1000L,
+                    result);
+            verify(mTethering).setTetheredClientDataLimit(eq(TEST_CLIENT_MAC), eq(1000L),
+                    eq(result));
+            verifyNoMoreInteractionsForTethering();
+        });
+    }
+
+    @Test
+    public void testSetTetheredClientDataLimit_invalidArguments() throws Exception {
+        runAsNetworkSettings((result) -> {
+            mTetheringConnector.setTetheredClientDataLimit("not a MAC address", 1000L, result);
+            result.assertResult(TETHER_ERROR_INTERNAL_ERROR);
+            verifyNoMoreInteractionsForTethering();
+        });
+
+        runAsNetworkSettings((result) -> {
+            mTetheringConnector.setTetheredClientDataLimit(null /* clientMac */, 1000L, result);
+            result.assertResult(TETHER_ERROR_INTERNAL_ERROR);
+            verifyNoMoreInteractionsForTethering();
+        });
+
+        runAsNetworkSettings((result) -> {
+            mTetheringConnector.setTetheredClientDataLimit(TEST_CLIENT_MAC.toString(), -2L,
+                    result);
+            result.assertResult(TETHER_ERROR_INTERNAL_ERROR);
+            verifyNoMoreInteractionsForTethering();
+        });
+    }
+
+    @Test
+    public void testGetTetheredClientStats() throws Exception {
+        runAsTetherPrivileged((none) -> {
+            final ITetheredClientStatsListener listener = mock(ITetheredClientStatsListener.class);
+            mTetheringConnector.getTetheredClientStats(TEST_CLIENT_MAC.toString(), listener);
+            verify(listener).onResult(TETHER_ERROR_NO_CHANGE_TETHERING_PERMISSION, null);
+            verifyNoMoreInteractionsForTethering();
+        });
+
+        runAsNetworkSettings((none) -> {
+            final ITetheredClientStatsListener listener = mock(ITetheredClientStatsListener.class);
+            mTetheringConnector.getTetheredClientStats("not a MAC address", listener);
+            verify(listener).onResult(TETHER_ERROR_INTERNAL_ERROR, null);
+            verifyNoMoreInteractionsForTethering();
+        });
+
+        runAsNetworkSettings((none) -> {
+            final ITetheredClientStatsListener listener = mock(ITetheredClientStatsListener.class);
+            mTetheringConnector.getTetheredClientStats(TEST_CLIENT_MAC.toString(), listener);
+            verify(mTethering).getTetheredClientStats(eq(TEST_CLIENT_MAC), any());
+            verifyNoMoreInteractionsForTethering();
+        });
+    }
+
     private void verifyStopTetheringRequestSucceeds(final TetheringRequest request,
             final TestTetheringResult result) throws Exception {
         mTetheringConnector.stopTetheringRequest(request, TEST_CALLER_PKG,
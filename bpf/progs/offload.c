@@ -303,6 +303,16 @@ DEFINE_BPF_MAP_GRW(tether_downstream4_map, HASH, Tether4Key, Tether4Value, 1024,
 
 DEFINE_BPF_MAP_GRW(tether_upstream4_map, HASH, Tether4Key, Tether4Value, 1024, AID_NETWORK_STACK)
 
+// Tethering stats, indexed by client IPv4 address. Only the clients which have an entry are
+// accounted, and entries are only created by userspace.
+DEFINE_BPF_MAP_GRW(tether_client4_stats_map, HASH, TetherClient4Key, TetherStatsValue, 64,
+                   AID_NETWORK_STACK)
+
+// Tethering data limit, indexed by client IPv4 address.
+// (tethering allowed when there is no limit or client_stats.rxBytes + client_stats.txBytes < limit)
+DEFINE_BPF_MAP_GRW(tether_client4_limit_map, HASH, TetherClient4Key, TetherLimitValue, 64,
+                   AID_NETWORK_STACK)
+
 static inline __always_inline int do_forward4_bottom(struct __sk_buff* skb,
         const int l2_header_size, void* data, const void* data_end,
         struct ethhdr* eth, struct iphdr* ip, const struct rawip_bool rawip,
@@ -412,6 +422,23 @@ static inline __always_inline int do_forward4_bottom(struct __sk_buff* skb,
     // since we don't offload all traffic in both directions)
     if (stat_v->rxBytes + stat_v->txBytes + L3_bytes > *limit_v) TC_PUNT(LIMIT_REACHED);
 
+    // The client is the destination of downstream traffic (after NAT) and the source of upstream
+    // traffic (before NAT).
+    TetherClient4Key client_k = {
+            .addr4.s_addr = stream.down ? v->dst46.s6_addr32[3] : k.src4.s_addr,
+    };
+    TetherStatsValue* client_stat_v = bpf_tether_client4_stats_map_lookup_elem(&client_k);
+
+    // Unlike the interface limit, the client limit is not enforced by the core stack, so the
+    // packet is dropped rather than punted.
+    if (client_stat_v) {
+        uint64_t* client_limit_v = bpf_tether_client4_limit_map_lookup_elem(&client_k);
+        if (client_limit_v &&
+            client_stat_v->rxBytes + client_stat_v->txBytes + L3_bytes > *client_limit_v) {
+            TC_DROP(CLIENT_LIMIT_REACHED);
+        }
+    }
+
     if (!is_ethernet) {
         // Try to inject an ethernet header, and simply return if we fail.
         // We do this even if TX interface is RAWIP and thus does not need an ethernet header,
@@ -488,6 +515,13 @@ static inline __always_inline int do_forward4_bottom(struct __sk_buff* skb,
     __sync_fetch_and_add(stream.down ? &stat_v->rxPackets : &stat_v->txPackets, packets);
     __sync_fetch_and_add(stream.down ? &stat_v->rxBytes : &stat_v->txBytes, L3_bytes);
 
+    if (client_stat_v) {
+        __sync_fetch_and_add(stream.down ? &client_stat_v->rxPackets : &client_stat_v->txPackets,
+                             packets);
+        __sync_fetch_and_add(stream.down ? &client_stat_v->rxBytes : &client_stat_v->txBytes,
+                             L3_bytes);
+    }
+
     // Redirect to forwarded interface.
     //
     // Note that bpf_redirect() cannot fail unless you pass invalid flags.
@@ -532,6 +566,18 @@ static inline __always_inline int do_forward4(struct __sk_buff* skb,
     // IP version must be 4
     if (ip->version != 4) TC_PUNT(INVALID_IPV4_VERSION);
 
+    // Once a client has used up its quota, none of its forwarded traffic is allowed, whether it
+    // could be offloaded or not. Traffic to the tethering gateway and other local clients is
+    // still allowed: tethering downstream IPv4 prefixes are /24 (see PrivateAddressCoordinator).
+    if (!stream.down && ((ip->saddr ^ ip->daddr) & htonl(0xFFFFFF00))) {
+        TetherClient4Key client_k = { .addr4.s_addr = ip->saddr };
+        TetherStatsValue* client_stat_v = bpf_tether_client4_stats_map_lookup_elem(&client_k);
+        uint64_t* client_limit_v = client_stat_v
+                ? bpf_tether_client4_limit_map_lookup_elem(&client_k) : NULL;
+        if (client_limit_v && client_stat_v->rxBytes + client_stat_v->txBytes >= *client_limit_v)
+            TC_DROP(CLIENT_LIMIT_REACHED);
+    }
+
     // We cannot handle IP options, just standard 20 byte == 5 dword minimal IPv4 header
     if (ip->ihl != 5) TC_PUNT(HAS_IP_OPTIONS);
 
@@ -53,6 +53,7 @@
     ERR(SHORT_UDP_HEADER)     \
     ERR(UDP_CSUM_ZERO)        \
     ERR(TRUNCATED_IPV4)       \
+    ERR(CLIENT_LIMIT_REACHED) \
     ERR(_MAX)
 
 #define ERR(x) BPF_TETHER_ERR_ ##x,
@@ -90,6 +91,12 @@ STRUCT_SIZE(TetherStatsValue, 6 * 8);  // 48
 typedef uint32_t TetherLimitKey;    // upstream ifindex
 typedef uint64_t TetherLimitValue;  // in bytes
 
+// Per-client IPv4 stats and limits. The values are TetherStatsValue and TetherLimitValue.
+typedef struct {
+    struct in_addr addr4;  // The tethered client IPv4 address
+} TetherClient4Key;
+STRUCT_SIZE(TetherClient4Key, 4);  // 4
+
 // For now tethering offload only needs to support downstreams that use 6-byte MAC addresses,
 // because all downstream types that are currently supported (WiFi, USB, Bluetooth and
 // Ethernet) have 6-byte MAC addresses.
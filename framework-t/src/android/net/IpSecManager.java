@@ -17,6 +17,7 @@ package android.net;
 
 import static android.annotation.SystemApi.Client.MODULE_LIBRARIES;
 
+import android.annotation.CallbackExecutor;
 import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.RequiresFeature;
@@ -28,6 +29,7 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.OutcomeReceiver;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.os.ServiceSpecificException;
@@ -48,7 +50,10 @@ import java.lang.annotation.RetentionPolicy;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 /**
  * This class contains methods for managing IPsec sessions. Once configured, the kernel will apply
@@ -1090,6 +1095,43 @@ public class IpSecManager {
         return mService.getTransformState(transformId);
     }
 
+    /**
+     * Retrieve the current state of several IpSecTransforms at once.
+     *
+     * <p>This is the bulk variant of {@link IpSecTransform#requestIpSecTransformState}. The
+     * states of all transforms are read from the kernel with a single query, which is much
+     * cheaper than one query per transform when polling many transforms.
+     *
+     * @param transforms the transforms to query.
+     * @param executor The {@link Executor} on which to call the supplied callback.
+     * @param callback Callback that's called with the states of the transforms, in the same
+     *     order as {@code transforms}, or when an error occurs. The state of a transform whose
+     *     SA no longer exists in the kernel is null.
+     * @hide
+     */
+    public void requestIpSecTransformStates(@NonNull List<IpSecTransform> transforms,
+            @CallbackExecutor @NonNull Executor executor,
+            @NonNull OutcomeReceiver<List<IpSecTransformState>, RuntimeException> callback) {
+        Objects.requireNonNull(transforms);
+        Objects.requireNonNull(executor);
+        Objects.requireNonNull(callback);
+
+        final int[] transformIds = new int[transforms.size()];
+        for (int i = 0; i < transformIds.length; i++) {
+            transformIds[i] = transforms.get(i).getResourceId();
+        }
+
+        try {
+            final List<IpSecTransformState> states =
+                    Arrays.asList(mService.getTransformStates(transformIds));
+            executor.execute(() -> callback.onResult(states));
+        } catch (IllegalStateException e) {
+            executor.execute(() -> callback.onError(e));
+        } catch (RemoteException e) {
+            executor.execute(() -> callback.onError(e.rethrowFromSystemServer()));
+        }
+    }
+
     /**
      * Construct an instance of IpSecManager within an application context.
      *
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.net.module.util.LruCacheWithExpiry;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A per-process cache of the addresses returned by {@link DnsResolver#query}.
+ *
+ * Answers are cached per {@link Network} and keyed by name, query type and flags. Each answer is
+ * only returned until its own TTL expires, including negative answers. Entries are evicted in
+ * LRU order when a network has more than {@link #MAX_ENTRIES_PER_NETWORK} answers, and all the
+ * answers of a network are dropped by {@link #invalidate} when its configuration changes.
+ *
+ * Each invalidation changes the generation of the network. Callers pass the generation read
+ * with {@link #getGeneration} before sending a query to {@link #put}, so that answers to queries
+ * sent before an invalidation are not cached.
+ *
+ * @hide
+ */
+public final class DnsAnswerCache {
+    /** Maximum number of answers cached for each network. */
+    public static final int MAX_ENTRIES_PER_NETWORK = 64;
+    /** Maximum time an answer is cached, whatever its TTL. */
+    public static final long MAX_TTL_MS = 10 * 60 * 1000L;
+
+    private final LongSupplier mTimeSupplier;
+    @GuardedBy("mCaches")
+    private final ArrayMap<Network, LruCacheWithExpiry<Key, Answer>> mCaches = new ArrayMap<>();
+    // Generation of the networks that were invalidated since the last clear().
+    @GuardedBy("mCaches")
+    private final ArrayMap<Network, Long> mGenerations = new ArrayMap<>();
+    // Generation of the networks that were not invalidated since the last clear().
+    @GuardedBy("mCaches")
+    private long mClearGeneration = 0;
+    @GuardedBy("mCaches")
+    private long mLastGeneration = 0;
+
+    /**
+     * A cached answer.
+     */
+    public static final class Answer {
+        /** The addresses of the answer, empty for a negative answer. */
+        @NonNull
+        public final List<InetAddress> addresses;
+        /** The response code of the answer. */
+        public final int rcode;
+        private final long mExpiryTimeMs;
+
+        Answer(@NonNull List<InetAddress> addresses, int rcode, long expiryTimeMs) {
+            this.addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+            this.rcode = rcode;
+            mExpiryTimeMs = expiryTimeMs;
+        }
+    }
+
+    private static final class Key {
+        // Includes the private DNS bypass bit, which Network#equals ignores.
+        private final long mNetIdForResolv;
+        @NonNull
+        private final String mDomain;
+        private final int mNsType;
+        private final int mFlags;
+
+        Key(@NonNull Network network, @NonNull String domain, int nsType, int flags) {
+            mNetIdForResolv = network.getNetIdForResolv();
+            // Domain names are case-insensitive.
+            mDomain = domain.toLowerCase(Locale.ROOT);
+            mNsType = nsType;
+            mFlags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return mNetIdForResolv == other.mNetIdForResolv && mDomain.equals(other.mDomain)
+                    && mNsType == other.mNsType && mFlags == other.mFlags;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mNetIdForResolv, mDomain, mNsType, mFlags);
+        }
+    }
+
+    /**
+     * Constructs a new {@link DnsAnswerCache}.
+     *
+     * @param timeSupplier supplies the current time in milliseconds.
+     */
+    public DnsAnswerCache(@NonNull LongSupplier timeSupplier) {
+        mTimeSupplier = timeSupplier;
+    }
+
+    /**
+     * Returns the cached answer of a query, or {@code null} if there is none or it expired.
+     */
+    @Nullable
+    public Answer get(@NonNull Network network, @NonNull String domain, int nsType, int flags) {
+        final LruCacheWithExpiry<Key, Answer> cache;
+        synchronized (mCaches) {
+            cache = mCaches.get(network);
+        }
+        if (cache == null) return null;
+        final Answer answer = cache.get(new Key(network, domain, nsType, flags));
+        if (answer == null || answer.mExpiryTimeMs <= mTimeSupplier.getAsLong()) return null;
+        return answer;
+    }
+
+    /**
+     * Returns the generation of a network, which changes every time its answers are dropped.
+     */
+    public long getGeneration(@NonNull Network network) {
+        synchronized (mCaches) {
+            return getGenerationLocked(network);
+        }
+    }
+
+    @GuardedBy("mCaches")
+    private long getGenerationLocked(@NonNull Network network) {
+        final Long generation = mGenerations.get(network);
+        return generation == null ? mClearGeneration : generation;
+    }
+
+    /**
+     * Caches the answer of a query.
+     *
+     * @param ttlSeconds how long the answer can be cached. Answers with a TTL of 0 are not cached.
+     */
+    public void put(@NonNull Network network, @NonNull String domain, int nsType, int flags,
+            @NonNull List<InetAddress> addresses, int rcode, long ttlSeconds) {
+        put(network, domain, nsType, flags, addresses, rcode, ttlSeconds,
+                getGeneration(network));
+    }
+
+    /**
+     * Caches the answer of a query, unless the answers of its network were dropped since the
+     * query was sent.
+     *
+     * @param ttlSeconds how long the answer can be cached. Answers with a TTL of 0 are not cached.
+     * @param generation the generation of the network when the query was sent, see
+     *        {@link #getGeneration}.
+     */
+    public void put(@NonNull Network network, @NonNull String domain, int nsType, int flags,
+            @NonNull List<InetAddress> addresses, int rcode, long ttlSeconds, long generation) {
+        if (ttlSeconds <= 0) return;
+        final long ttlMs = Math.min(ttlSeconds * 1000, MAX_TTL_MS);
+        final LruCacheWithExpiry<Key, Answer> cache;
+        synchronized (mCaches) {
+            if (generation != getGenerationLocked(network)) return;
+            LruCacheWithExpiry<Key, Answer> networkCache = mCaches.get(network);
+            if (networkCache == null) {
+                networkCache = new LruCacheWithExpiry<>(mTimeSupplier, MAX_TTL_MS,
+                        MAX_ENTRIES_PER_NETWORK, answer -> true);
+                mCaches.put(network, networkCache);
+            }
+            cache = networkCache;
+        }
+        cache.put(new Key(network, domain, nsType, flags),
+                new Answer(addresses, rcode, mTimeSupplier.getAsLong() + ttlMs));
+    }
+
+    /**
+     * Drops all the answers cached for a network.
+     */
+    public void invalidate(@NonNull Network network) {
+        synchronized (mCaches) {
+            mCaches.remove(network);
+            mGenerations.put(network, ++mLastGeneration);
+        }
+    }
+
+    /**
+     * Drops all the cached answers.
+     */
+    public void clear() {
+        synchronized (mCaches) {
+            mCaches.clear();
+            mGenerations.clear();
+            mClearGeneration = ++mLastGeneration;
+        }
+    }
+}
@@ -28,23 +28,34 @@ import static android.os.MessageQueue.OnFileDescriptorEventListener.EVENT_ERROR;
 import static android.os.MessageQueue.OnFileDescriptorEventListener.EVENT_INPUT;
 import static android.system.OsConstants.ENONET;
 
+import static com.android.net.module.util.DnsPacket.ANSECTION;
+import static com.android.net.module.util.DnsPacket.NSSECTION;
+import static com.android.net.module.util.DnsPacket.QDSECTION;
+
 import android.annotation.CallbackExecutor;
 import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.content.Context;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.net.module.util.DnsPacket;
+import com.android.net.module.util.DnsPacketView;
 
 import java.io.FileDescriptor;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -128,8 +139,72 @@ public final class DnsResolver {
         return sInstance;
     }
 
+    private final Object mAnswerCacheLock = new Object();
+    @Nullable
+    private volatile DnsAnswerCache mAnswerCache;
+    @GuardedBy("mAnswerCacheLock")
+    @Nullable
+    private ConnectivityManager mAnswerCacheConnectivityManager;
+    @GuardedBy("mAnswerCacheLock")
+    @Nullable
+    private ConnectivityManager.NetworkCallback mAnswerCacheCallback;
+
     private DnsResolver() {}
 
+    /**
+     * Enable a per-process cache of the addresses returned by {@link #query query()}.
+     *
+     * Answers, including negative ones, are cached per network until their TTL expires, and
+     * dropped when the {@link LinkProperties} of their network change or the network is lost.
+     * Queries with {@link #FLAG_NO_CACHE_LOOKUP} bypass the cache, and answers to queries with
+     * {@link #FLAG_NO_CACHE_STORE} are not cached. Raw queries are never cached.
+     *
+     * @param context used to track the networks. The caller needs the
+     *    {@link android.Manifest.permission#ACCESS_NETWORK_STATE} permission.
+     *
+     * @hide
+     */
+    public void enableAnswerCache(@NonNull Context context) {
+        synchronized (mAnswerCacheLock) {
+            if (mAnswerCache != null) return;
+            final DnsAnswerCache cache = new DnsAnswerCache(SystemClock::elapsedRealtime);
+            final ConnectivityManager cm = context.getSystemService(ConnectivityManager.class);
+            final ConnectivityManager.NetworkCallback callback =
+                    new ConnectivityManager.NetworkCallback() {
+                        @Override
+                        public void onLinkPropertiesChanged(@NonNull Network network,
+                                @NonNull LinkProperties linkProperties) {
+                            cache.invalidate(network);
+                        }
+
+                        @Override
+                        public void onLost(@NonNull Network network) {
+                            cache.invalidate(network);
+                        }
+                    };
+            cm.registerNetworkCallback(new NetworkRequest.Builder().clearCapabilities().build(),
+                    callback);
+            mAnswerCacheConnectivityManager = cm;
+            mAnswerCacheCallback = callback;
+            mAnswerCache = cache;
+        }
+    }
+
+    /**
+     * Disable the cache enabled by {@link #enableAnswerCache} and drop all cached answers.
+     *
+     * @hide
+     */
+    public void disableAnswerCache() {
+        synchronized (mAnswerCacheLock) {
+            if (mAnswerCache == null) return;
+            mAnswerCacheConnectivityManager.unregisterNetworkCallback(mAnswerCacheCallback);
+            mAnswerCacheConnectivityManager = null;
+            mAnswerCacheCallback = null;
+            mAnswerCache = null;
+        }
+    }
+
     /**
      * Base interface for answer callbacks
      *
@@ -257,18 +332,87 @@ public final class DnsResolver {
         }
     }
 
-    private class InetAddressAnswerAccumulator implements Callback<byte[]> {
+    private static int[] queryTypes(boolean queryIpv6, boolean queryIpv4) {
+        if (queryIpv6 && queryIpv4) return new int[] { TYPE_AAAA, TYPE_A };
+        return queryIpv6 ? new int[] { TYPE_AAAA } : new int[] { TYPE_A };
+    }
+
+    private static DnsException toDnsException(@NonNull DnsPacket.ParseException e) {
+        // Convert the com.android.net.module.util.DnsPacket.ParseException to an
+        // android.net.ParseException. This is the type that was used in Q and is implied
+        // by the public documentation of ERROR_PARSE.
+        //
+        // DnsPacket cannot throw android.net.ParseException directly because it's @hide.
+        ParseException pe = new ParseException(e.reason, e.getCause());
+        pe.setStackTrace(e.getStackTrace());
+        return new DnsException(ERROR_PARSE, pe);
+    }
+
+    // Delivers the answer from the cache if the answers of all nsTypes are cached.
+    private static boolean maybeAnswerFromCache(@Nullable DnsAnswerCache cache,
+            @NonNull Network network, @NonNull String domain, @QueryFlag int flags,
+            @NonNull int[] nsTypes, @NonNull Executor executor,
+            @Nullable CancellationSignal cancellationSignal,
+            @NonNull Callback<? super List<InetAddress>> callback) {
+        if (cache == null || (flags & FLAG_NO_CACHE_LOOKUP) != 0) return false;
+        final List<InetAddress> addresses = new ArrayList<>();
+        int rcode = 0;
+        for (int i = 0; i < nsTypes.length; i++) {
+            final DnsAnswerCache.Answer answer = cache.get(network, domain, nsTypes[i], flags);
+            if (answer == null) return false;
+            // Same rcode as InetAddressAnswerAccumulator.
+            if (i == 0 || answer.rcode == 0) {
+                rcode = answer.rcode;
+            }
+            addresses.addAll(answer.addresses);
+        }
+        final List<InetAddress> answers =
+                addresses.isEmpty() ? addresses : rfc6724Sort(network, addresses);
+        final int answerRcode = rcode;
+        executor.execute(() -> {
+            if (cancellationSignal != null && cancellationSignal.isCanceled()) return;
+            callback.onAnswer(answers, answerRcode);
+        });
+        return true;
+    }
+
+    // The generation is read when the query is sent, so that answers to queries sent before the
+    // network was invalidated are not cached.
+    private static long getCacheGeneration(@Nullable DnsAnswerCache cache,
+            @NonNull Network network) {
+        return cache == null ? 0 : cache.getGeneration(network);
+    }
+
+    private static void maybeCacheAnswer(@Nullable DnsAnswerCache cache, long cacheGeneration,
+            @NonNull Network network, @NonNull String domain, @QueryFlag int flags,
+            @NonNull DnsAddressAnswer answer, @NonNull List<InetAddress> addresses, int rcode) {
+        if (cache == null || (flags & FLAG_NO_CACHE_STORE) != 0) return;
+        cache.put(network, domain, answer.getQueryType(), flags, addresses, rcode,
+                answer.getCacheTtlSeconds(rcode), cacheGeneration);
+    }
+
+    private static class InetAddressAnswerAccumulator implements Callback<byte[]> {
         private final List<InetAddress> mAllAnswers;
+        @Nullable
+        private final DnsAnswerCache mAnswerCache;
+        private final long mCacheGeneration;
         private final Network mNetwork;
+        private final String mDomain;
+        private final int mFlags;
         private int mRcode;
         private DnsException mDnsException;
         private final Callback<? super List<InetAddress>> mUserCallback;
         private final int mTargetAnswerCount;
         private int mReceivedAnswerCount = 0;
 
-        InetAddressAnswerAccumulator(@NonNull Network network, int size,
+        InetAddressAnswerAccumulator(@Nullable DnsAnswerCache answerCache, long cacheGeneration,
+                @NonNull Network network, @NonNull String domain, @QueryFlag int flags, int size,
                 @NonNull Callback<? super List<InetAddress>> callback) {
+            mAnswerCache = answerCache;
+            mCacheGeneration = cacheGeneration;
             mNetwork = network;
+            mDomain = domain;
+            mFlags = flags;
             mTargetAnswerCount = size;
             mAllAnswers = new ArrayList<>();
             mUserCallback = callback;
@@ -300,16 +444,13 @@ public final class DnsResolver {
                 mRcode = rcode;
             }
             try {
-                mAllAnswers.addAll(new DnsAddressAnswer(answer).getAddresses());
+                final DnsAddressAnswer dnsAnswer = new DnsAddressAnswer(answer);
+                final List<InetAddress> addresses = dnsAnswer.getAddresses();
+                mAllAnswers.addAll(addresses);
+                maybeCacheAnswer(mAnswerCache, mCacheGeneration, mNetwork, mDomain, mFlags,
+                        dnsAnswer, addresses, rcode);
             } catch (DnsPacket.ParseException e) {
-                // Convert the com.android.net.module.util.DnsPacket.ParseException to an
-                // android.net.ParseException. This is the type that was used in Q and is implied
-                // by the public documentation of ERROR_PARSE.
-                //
-                // DnsPacket cannot throw android.net.ParseException directly because it's @hide.
-                ParseException pe = new ParseException(e.reason, e.getCause());
-                pe.setStackTrace(e.getStackTrace());
-                mDnsException = new DnsException(ERROR_PARSE, pe);
+                mDnsException = toDnsException(e);
             }
             maybeReportAnswer();
         }
@@ -367,6 +508,12 @@ public final class DnsResolver {
                     new DnsException(ERROR_SYSTEM, new ErrnoException("resNetworkQuery", ENONET))));
             return;
         }
+        final DnsAnswerCache cache = mAnswerCache;
+        if (maybeAnswerFromCache(cache, queryNetwork, domain, flags,
+                queryTypes(queryIpv6, queryIpv4), executor, cancellationSignal, callback)) {
+            return;
+        }
+        final long cacheGeneration = getCacheGeneration(cache, queryNetwork);
 
         final FileDescriptor v4fd;
         final FileDescriptor v6fd;
@@ -404,7 +551,8 @@ public final class DnsResolver {
         } else v4fd = null;
 
         final InetAddressAnswerAccumulator accumulator =
-                new InetAddressAnswerAccumulator(queryNetwork, queryCount, callback);
+                new InetAddressAnswerAccumulator(cache, cacheGeneration, queryNetwork, domain,
+                        flags, queryCount, callback);
 
         synchronized (lock)  {
             if (queryIpv6) {
@@ -423,6 +571,363 @@ public final class DnsResolver {
         }
     }
 
+    /**
+     * Latency metrics of a query sent with {@link #queryOnResolverThread}.
+     *
+     * @hide
+     */
+    public static final class QueryMetrics {
+        /** Time until the AAAA answer was received in milliseconds, or -1 if it was not. */
+        public final long ipv6LatencyMs;
+        /** Time until the A answer was received in milliseconds, or -1 if it was not. */
+        public final long ipv4LatencyMs;
+        /** Time until the answer was delivered to the callback executor in milliseconds. */
+        public final long totalLatencyMs;
+        /** Whether the answer was delivered without waiting for all address families. */
+        public final boolean deliveredEarly;
+
+        public QueryMetrics(long ipv6LatencyMs, long ipv4LatencyMs, long totalLatencyMs,
+                boolean deliveredEarly) {
+            this.ipv6LatencyMs = ipv6LatencyMs;
+            this.ipv4LatencyMs = ipv4LatencyMs;
+            this.totalLatencyMs = totalLatencyMs;
+            this.deliveredEarly = deliveredEarly;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryMetrics{ipv6LatencyMs=" + ipv6LatencyMs
+                    + ", ipv4LatencyMs=" + ipv4LatencyMs
+                    + ", totalLatencyMs=" + totalLatencyMs
+                    + ", deliveredEarly=" + deliveredEarly + "}";
+        }
+    }
+
+    /**
+     * Listener for the {@link QueryMetrics} of queries sent with {@link #queryOnResolverThread}.
+     *
+     * @hide
+     */
+    public interface QueryMetricsListener {
+        /** Called on the callback executor after the answer or error was delivered. */
+        void onQueryMetrics(@NonNull QueryMetrics metrics);
+    }
+
+    /**
+     * Dependencies of {@link AddressQueryRace}, for injection in tests.
+     *
+     * @hide
+     */
+    @VisibleForTesting
+    public static class Dependencies {
+        /** @see NetworkUtils#resNetworkQuery */
+        public FileDescriptor resNetworkQuery(int netId, @NonNull String dname, int nsClass,
+                int nsType, int flags) throws ErrnoException {
+            return NetworkUtils.resNetworkQuery(netId, dname, nsClass, nsType, flags);
+        }
+
+        /** @see NetworkUtils#resNetworkResult */
+        public DnsResponse resNetworkResult(@NonNull FileDescriptor fd) throws ErrnoException {
+            return NetworkUtils.resNetworkResult(fd);
+        }
+
+        /** @see NetworkUtils#resNetworkCancel */
+        public void resNetworkCancel(@NonNull FileDescriptor fd) {
+            NetworkUtils.resNetworkCancel(fd);
+        }
+
+        /** @see SystemClock#elapsedRealtime */
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    }
+
+    // A class implementing the lazy holder idiom: the resolver thread is only started the first
+    // time a query is sent with queryOnResolverThread.
+    private static class ResolverThread {
+        private static final Handler HANDLER = createHandler();
+        private static final Dependencies DEPS = new Dependencies();
+
+        private static Handler createHandler() {
+            final HandlerThread thread = new HandlerThread("DnsResolverThread");
+            thread.start();
+            return new Handler(thread.getLooper());
+        }
+    }
+
+    /**
+     * Send A and AAAA queries with the specified name like
+     * {@link #query(Network, String, int, Executor, CancellationSignal, Callback)}, but poll
+     * the answers on a dedicated resolver thread instead of the main looper.
+     *
+     * The answers are read and parsed on the resolver thread, so the executor only runs the
+     * callback. As soon as one address family returned addresses, the other one is given at
+     * most {@code secondFamilyWaitMs} to answer before the available addresses are delivered
+     * and the outstanding query is cancelled, similarly to the resolution delay of RFC 8305.
+     * The second query is sent from the resolver thread, so the caller does not wait for the
+     * spacing between the two queries.
+     *
+     * @param network {@link Network} specifying which network to query on.
+     *         {@code null} for query on default network.
+     * @param domain domain name to query
+     * @param flags flags as a combination of the FLAGS_* constants
+     * @param secondFamilyWaitMs how long to wait for the second address family once the first
+     *    one returned addresses. 0 to deliver the first addresses immediately, or a negative
+     *    value to always wait for both address families.
+     * @param executor The {@link Executor} that the callback should be executed on.
+     * @param cancellationSignal used by the caller to signal if the query should be
+     *    cancelled. May be {@code null}.
+     * @param callback a {@link Callback} which will be called to notify the
+     *    caller of the result of dns query.
+     * @param metricsListener notified of the latency of the query after the callback was
+     *    called. May be {@code null}.
+     *
+     * @hide
+     */
+    public void queryOnResolverThread(@Nullable Network network, @NonNull String domain,
+            @QueryFlag int flags, long secondFamilyWaitMs,
+            @NonNull @CallbackExecutor Executor executor,
+            @Nullable CancellationSignal cancellationSignal,
+            @NonNull Callback<? super List<InetAddress>> callback,
+            @Nullable QueryMetricsListener metricsListener) {
+        if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+            return;
+        }
+        final Network queryNetwork;
+        try {
+            queryNetwork = (network != null) ? network : getDnsNetwork();
+        } catch (ErrnoException e) {
+            executor.execute(() -> callback.onError(new DnsException(ERROR_SYSTEM, e)));
+            return;
+        }
+        final boolean queryIpv6 = haveIpv6(queryNetwork);
+        final boolean queryIpv4 = haveIpv4(queryNetwork);
+        if (!queryIpv6 && !queryIpv4) {
+            executor.execute(() -> callback.onError(
+                    new DnsException(ERROR_SYSTEM, new ErrnoException("resNetworkQuery", ENONET))));
+            return;
+        }
+        final DnsAnswerCache cache = mAnswerCache;
+        if (maybeAnswerFromCache(cache, queryNetwork, domain, flags,
+                queryTypes(queryIpv6, queryIpv4), executor, cancellationSignal, callback)) {
+            return;
+        }
+
+        final AddressQueryRace race = new AddressQueryRace(ResolverThread.HANDLER,
+                ResolverThread.DEPS, cache, queryNetwork, domain, flags, queryIpv6, queryIpv4,
+                secondFamilyWaitMs, executor, cancellationSignal, callback, metricsListener);
+        ResolverThread.HANDLER.post(race::start);
+        if (cancellationSignal == null) return;
+        cancellationSignal.setOnCancelListener(() -> ResolverThread.HANDLER.post(race::cancel));
+    }
+
+    /**
+     * Races the A and AAAA queries of {@link #queryOnResolverThread}.
+     *
+     * All methods except the constructor run on the resolver thread, so the state does not need
+     * to be locked.
+     *
+     * @hide
+     */
+    @VisibleForTesting
+    public static class AddressQueryRace {
+        private final Handler mHandler;
+        private final Dependencies mDeps;
+        private final MessageQueue mQueue;
+        @Nullable
+        private final DnsAnswerCache mAnswerCache;
+        private final long mCacheGeneration;
+        private final Network mNetwork;
+        private final String mDomain;
+        private final int mFlags;
+        private final boolean mQueryIpv6;
+        private final boolean mQueryIpv4;
+        private final long mSecondFamilyWaitMs;
+        private final Executor mExecutor;
+        @Nullable
+        private final CancellationSignal mCancellationSignal;
+        private final Callback<? super List<InetAddress>> mUserCallback;
+        @Nullable
+        private final QueryMetricsListener mMetricsListener;
+        private final long mStartTimeMs;
+        private final Runnable mSendIpv4Query = () -> sendQuery(TYPE_A);
+        private final Runnable mDeliverEarly = () -> deliver(true /* early */);
+
+        private final List<InetAddress> mAllAnswers = new ArrayList<>();
+        @Nullable
+        private FileDescriptor mV6fd;
+        @Nullable
+        private FileDescriptor mV4fd;
+        private long mV6LatencyMs = -1;
+        private long mV4LatencyMs = -1;
+        private int mPendingQueryCount;
+        private int mReceivedAnswerCount;
+        private int mRcode;
+        @Nullable
+        private DnsException mDnsException;
+        private boolean mDone;
+
+        public AddressQueryRace(@NonNull Handler handler, @NonNull Dependencies deps,
+                @Nullable DnsAnswerCache answerCache, @NonNull Network network,
+                @NonNull String domain, int flags, boolean queryIpv6, boolean queryIpv4,
+                long secondFamilyWaitMs, @NonNull Executor executor,
+                @Nullable CancellationSignal cancellationSignal,
+                @NonNull Callback<? super List<InetAddress>> callback,
+                @Nullable QueryMetricsListener metricsListener) {
+            mHandler = handler;
+            mDeps = deps;
+            mQueue = handler.getLooper().getQueue();
+            mAnswerCache = answerCache;
+            mCacheGeneration = getCacheGeneration(answerCache, network);
+            mNetwork = network;
+            mDomain = domain;
+            mFlags = flags;
+            mQueryIpv6 = queryIpv6;
+            mQueryIpv4 = queryIpv4;
+            mSecondFamilyWaitMs = secondFamilyWaitMs;
+            mExecutor = executor;
+            mCancellationSignal = cancellationSignal;
+            mUserCallback = callback;
+            mMetricsListener = metricsListener;
+            mPendingQueryCount = (queryIpv6 ? 1 : 0) + (queryIpv4 ? 1 : 0);
+            mStartTimeMs = deps.elapsedRealtime();
+        }
+
+        /** Sends the queries. */
+        public void start() {
+            if (mQueryIpv6) {
+                sendQuery(TYPE_AAAA);
+                // Avoiding gateways drop packets if queries are sent too close together
+                if (mQueryIpv4) mHandler.postDelayed(mSendIpv4Query, SLEEP_TIME_MS);
+            } else {
+                sendQuery(TYPE_A);
+            }
+        }
+
+        /** Cancels the pending queries, the callback will not be called. */
+        public void cancel() {
+            if (mDone) return;
+            mDone = true;
+            stopPendingQueries();
+        }
+
+        private void sendQuery(int nsType) {
+            if (mDone) return;
+            final FileDescriptor queryfd;
+            try {
+                queryfd = mDeps.resNetworkQuery(mNetwork.getNetIdForResolv(), mDomain, CLASS_IN,
+                        nsType, mFlags);
+            } catch (ErrnoException e) {
+                onResult(nsType, null /* addresses */, 0 /* rcode */,
+                        new DnsException(ERROR_SYSTEM, e));
+                return;
+            }
+            if (nsType == TYPE_AAAA) {
+                mV6fd = queryfd;
+            } else {
+                mV4fd = queryfd;
+            }
+            mQueue.addOnFileDescriptorEventListener(queryfd, FD_EVENTS, (fd, events) -> {
+                // Unregister before resNetworkResult closes the fd, see registerFDListener.
+                mQueue.removeOnFileDescriptorEventListener(fd);
+                onFdReady(nsType, fd);
+                return 0;
+            });
+        }
+
+        private void onFdReady(int nsType, @NonNull FileDescriptor fd) {
+            if (nsType == TYPE_AAAA) {
+                mV6fd = null;
+            } else {
+                mV4fd = null;
+            }
+            final DnsResponse resp;
+            try {
+                resp = mDeps.resNetworkResult(fd);  // Closes fd, marks it invalid.
+            } catch (ErrnoException e) {
+                Log.w(TAG, "resNetworkResult:" + e.toString());
+                onResult(nsType, null /* addresses */, 0 /* rcode */,
+                        new DnsException(ERROR_SYSTEM, e));
+                return;
+            }
+            try {
+                final DnsAddressAnswer answer = new DnsAddressAnswer(resp.answerbuf);
+                final List<InetAddress> addresses = answer.getAddresses();
+                maybeCacheAnswer(mAnswerCache, mCacheGeneration, mNetwork, mDomain, mFlags,
+                        answer, addresses, resp.rcode);
+                onResult(nsType, addresses, resp.rcode, null /* exception */);
+            } catch (DnsPacket.ParseException e) {
+                onResult(nsType, null /* addresses */, resp.rcode, toDnsException(e));
+            }
+        }
+
+        private void onResult(int nsType, @Nullable List<InetAddress> addresses, int rcode,
+                @Nullable DnsException exception) {
+            if (mDone) return;
+            final long latencyMs = mDeps.elapsedRealtime() - mStartTimeMs;
+            if (nsType == TYPE_AAAA) {
+                mV6LatencyMs = latencyMs;
+            } else {
+                mV4LatencyMs = latencyMs;
+            }
+            mPendingQueryCount--;
+            if (exception != null) {
+                mDnsException = exception;
+            } else {
+                // If at least one query succeeded, return an rcode of 0.
+                // Otherwise, arbitrarily return the first rcode received.
+                if (mReceivedAnswerCount == 0 || rcode == 0) {
+                    mRcode = rcode;
+                }
+                mReceivedAnswerCount++;
+                mAllAnswers.addAll(addresses);
+            }
+
+            if (mPendingQueryCount == 0) {
+                deliver(false /* early */);
+            } else if (addresses != null && !addresses.isEmpty() && mSecondFamilyWaitMs >= 0) {
+                mHandler.postDelayed(mDeliverEarly, mSecondFamilyWaitMs);
+            }
+        }
+
+        private void deliver(boolean early) {
+            if (mDone) return;
+            mDone = true;
+            stopPendingQueries();
+
+            final List<InetAddress> answers = mAllAnswers.isEmpty()
+                    ? mAllAnswers : rfc6724Sort(mNetwork, mAllAnswers);
+            final int rcode = mRcode;
+            final DnsException exception = mDnsException;
+            final QueryMetrics metrics = new QueryMetrics(mV6LatencyMs, mV4LatencyMs,
+                    mDeps.elapsedRealtime() - mStartTimeMs, early);
+            mExecutor.execute(() -> {
+                if (mCancellationSignal != null && mCancellationSignal.isCanceled()) return;
+                if (answers.isEmpty() && rcode == 0 && exception != null) {
+                    mUserCallback.onError(exception);
+                } else {
+                    mUserCallback.onAnswer(answers, rcode);
+                }
+                if (mMetricsListener != null) mMetricsListener.onQueryMetrics(metrics);
+            });
+        }
+
+        private void stopPendingQueries() {
+            mHandler.removeCallbacks(mSendIpv4Query);
+            mHandler.removeCallbacks(mDeliverEarly);
+            if (mV6fd != null) cancelQuery(mV6fd);
+            if (mV4fd != null) cancelQuery(mV4fd);
+            mV6fd = null;
+            mV4fd = null;
+        }
+
+        private void cancelQuery(@NonNull FileDescriptor queryfd) {
+            if (!queryfd.valid()) return;
+            mQueue.removeOnFileDescriptorEventListener(queryfd);
+            mDeps.resNetworkCancel(queryfd);  // Closes fd, marks it invalid.
+        }
+    }
+
     /**
      * Send a DNS query with the specified name and query type, get back a set of
      * InetAddresses with rfc6724 sorting style asynchronously.
@@ -449,18 +954,25 @@ public final class DnsResolver {
             return;
         }
         final Object lock = new Object();
+        final DnsAnswerCache cache = mAnswerCache;
         final FileDescriptor queryfd;
         final Network queryNetwork;
+        final long cacheGeneration;
         try {
             queryNetwork = (network != null) ? network : getDnsNetwork();
+            if (maybeAnswerFromCache(cache, queryNetwork, domain, flags,
+                    new int[] { nsType }, executor, cancellationSignal, callback)) {
+                return;
+            }
+            cacheGeneration = getCacheGeneration(cache, queryNetwork);
             queryfd = resNetworkQuery(queryNetwork.getNetIdForResolv(), domain, CLASS_IN, nsType,
                     flags);
         } catch (ErrnoException e) {
             executor.execute(() -> callback.onError(new DnsException(ERROR_SYSTEM, e)));
             return;
         }
-        final InetAddressAnswerAccumulator accumulator =
-                new InetAddressAnswerAccumulator(queryNetwork, 1, callback);
+        final InetAddressAnswerAccumulator accumulator = new InetAddressAnswerAccumulator(cache,
+                cacheGeneration, queryNetwork, domain, flags, 1, callback);
         synchronized (lock)  {
             registerFDListener(executor, queryfd, accumulator, cancellationSignal, lock);
             if (cancellationSignal == null) return;
@@ -543,40 +1055,88 @@ public final class DnsResolver {
         });
     }
 
-    private static class DnsAddressAnswer extends DnsPacket {
+    private static class DnsAddressAnswer {
         private static final String TAG = "DnsResolver.DnsAddressAnswer";
         private static final boolean DBG = false;
+        private static final int TYPE_SOA = 6;
+        private static final int RCODE_NXDOMAIN = 3;
+        // Size of the SERIAL, REFRESH, RETRY, EXPIRE and MINIMUM fields which end the rdata of
+        // SOA records, after the MNAME and RNAME names.
+        private static final int SOA_FIELDS_SIZE = 20;
+        // Smallest size of a name, the root name.
+        private static final int MIN_NAME_SIZE = 1;
 
+        // Only the records read by this class are decoded, see DnsPacketView.
+        private final DnsPacketView mPacket;
         private final int mQueryType;
 
-        DnsAddressAnswer(@NonNull byte[] data) throws ParseException {
-            super(data);
-            if ((mHeader.getFlags() & (1 << 15)) == 0) {
-                throw new ParseException("Not an answer packet");
+        DnsAddressAnswer(@NonNull byte[] data) throws DnsPacket.ParseException {
+            mPacket = new DnsPacketView(data);
+            if ((mPacket.getHeader().getFlags() & (1 << 15)) == 0) {
+                throw new DnsPacket.ParseException("Not an answer packet");
             }
-            if (mHeader.getRecordCount(QDSECTION) == 0) {
-                throw new ParseException("No question found");
+            if (mPacket.getRecordCount(QDSECTION) == 0) {
+                throw new DnsPacket.ParseException("No question found");
             }
             // Expect only one question in question section.
-            mQueryType = mRecords[QDSECTION].get(0).nsType;
+            mQueryType = mPacket.getNsType(QDSECTION, 0);
         }
 
-        public @NonNull List<InetAddress> getAddresses() {
-            final List<InetAddress> results = new ArrayList<InetAddress>();
-            if (mHeader.getRecordCount(ANSECTION) == 0) return results;
+        public int getQueryType() {
+            return mQueryType;
+        }
 
-            for (final DnsRecord ansSec : mRecords[ANSECTION]) {
+        /**
+         * Returns how long this answer can be cached in seconds, or 0 if it cannot be cached.
+         *
+         * Positive answers can be cached for the smallest TTL of their answer records. Negative
+         * answers can be cached for the smaller of the TTL and the MINIMUM field of the SOA record
+         * of their authority section, as described in RFC 2308 section 5.
+         */
+        public long getCacheTtlSeconds(int rcode) {
+            final boolean positive = rcode == 0 && mPacket.getRecordCount(ANSECTION) != 0;
+            if (!positive && rcode != 0 && rcode != RCODE_NXDOMAIN) return 0;
+            final int section = positive ? ANSECTION : NSSECTION;
+            long ttl = -1;
+            for (int i = 0; i < mPacket.getRecordCount(section); i++) {
+                final long recordTtl;
+                if (positive) {
+                    recordTtl = mPacket.getTtl(section, i);
+                } else if (mPacket.getNsType(section, i) == TYPE_SOA) {
+                    recordTtl = getSoaNegativeTtl(i);
+                } else {
+                    continue;
+                }
+                ttl = (ttl < 0) ? recordTtl : Math.min(ttl, recordTtl);
+            }
+            return Math.max(ttl, 0);
+        }
+
+        // Returns the negative caching TTL of the SOA record at the given index of the authority
+        // section, or 0 if the record is malformed.
+        private long getSoaNegativeTtl(int index) {
+            final byte[] rdata = mPacket.getRdata(NSSECTION, index);
+            if (rdata.length < 2 * MIN_NAME_SIZE + SOA_FIELDS_SIZE) return 0;
+            // MINIMUM is the last field of the rdata.
+            final long minimum = Integer.toUnsignedLong(
+                    ByteBuffer.wrap(rdata).getInt(rdata.length - Integer.BYTES));
+            return Math.min(mPacket.getTtl(NSSECTION, index), minimum);
+        }
+
+        public @NonNull List<InetAddress> getAddresses() {
+            final int count = mPacket.getRecordCount(ANSECTION);
+            final List<InetAddress> results = new ArrayList<InetAddress>(count);
+            for (int i = 0; i < count; i++) {
                 // Only support A and AAAA, also ignore answers if query type != answer type.
-                int nsType = ansSec.nsType;
+                final int nsType = mPacket.getNsType(ANSECTION, i);
                 if (nsType != mQueryType || (nsType != TYPE_A && nsType != TYPE_AAAA)) {
                     continue;
                 }
-                try {
-                    results.add(InetAddress.getByAddress(ansSec.getRR()));
-                } catch (UnknownHostException e) {
-                    if (DBG) {
-                        Log.w(TAG, "rr to address fail");
-                    }
+                final InetAddress address = mPacket.getAddress(ANSECTION, i);
+                if (address != null) {
+                    results.add(address);
+                } else if (DBG) {
+                    Log.w(TAG, "rr to address fail");
                 }
             }
             return results;
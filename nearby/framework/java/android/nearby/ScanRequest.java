@@ -87,6 +87,8 @@ public final class ScanRequest implements Parcelable {
             for (int i = 0; i < size; i++) {
                 builder.addScanFilter(ScanFilter.createFromParcel(in));
             }
+            builder.setMinUpdateIntervalMillis(in.readLong())
+                    .setRssiChangeThreshold(in.readInt());
             return builder.build();
         }
 
@@ -102,15 +104,20 @@ public final class ScanRequest implements Parcelable {
     private final boolean mOffloadOnly;
     private final @NonNull WorkSource mWorkSource;
     private final List<ScanFilter> mScanFilters;
+    private final long mMinUpdateIntervalMillis;
+    private final int mRssiChangeThreshold;
 
     private ScanRequest(@ScanType int scanType, @ScanMode int scanMode, boolean bleEnabled,
-            boolean offloadOnly, @NonNull WorkSource workSource, List<ScanFilter> scanFilters) {
+            boolean offloadOnly, @NonNull WorkSource workSource, List<ScanFilter> scanFilters,
+            long minUpdateIntervalMillis, int rssiChangeThreshold) {
         mScanType = scanType;
         mScanMode = scanMode;
         mBleEnabled = bleEnabled;
         mOffloadOnly = offloadOnly;
         mWorkSource = workSource;
         mScanFilters = scanFilters;
+        mMinUpdateIntervalMillis = minUpdateIntervalMillis;
+        mRssiChangeThreshold = rssiChangeThreshold;
     }
 
     /**
@@ -199,6 +206,26 @@ public final class ScanRequest implements Parcelable {
         return mWorkSource;
     }
 
+    /**
+     * Returns the minimum interval between two updates of the same device that only differ in
+     * RSSI. Changes to the advertised data are always reported.
+     *
+     * @hide
+     */
+    public long getMinUpdateIntervalMillis() {
+        return mMinUpdateIntervalMillis;
+    }
+
+    /**
+     * Returns the minimum RSSI change, in dBm, for an update of the same device that only
+     * differs in RSSI to be reported.
+     *
+     * @hide
+     */
+    public int getRssiChangeThreshold() {
+        return mRssiChangeThreshold;
+    }
+
     /**
      * No special parcel contents.
      */
@@ -225,6 +252,10 @@ public final class ScanRequest implements Parcelable {
         }
         stringBuilder.append(", workSource=").append(mWorkSource);
         stringBuilder.append(", scanFilters=").append(mScanFilters);
+        if (mMinUpdateIntervalMillis != 0 || mRssiChangeThreshold != 0) {
+            stringBuilder.append(", minUpdateIntervalMillis=").append(mMinUpdateIntervalMillis);
+            stringBuilder.append(", rssiChangeThreshold=").append(mRssiChangeThreshold);
+        }
         stringBuilder.append("]");
         return stringBuilder.toString();
     }
@@ -241,6 +272,8 @@ public final class ScanRequest implements Parcelable {
         for (int i = 0; i < size; i++) {
             mScanFilters.get(i).writeToParcel(dest, flags);
         }
+        dest.writeLong(mMinUpdateIntervalMillis);
+        dest.writeInt(mRssiChangeThreshold);
     }
 
     @Override
@@ -251,14 +284,17 @@ public final class ScanRequest implements Parcelable {
                     && (mScanMode == otherRequest.mScanMode)
                     && (mBleEnabled == otherRequest.mBleEnabled)
                     && (mOffloadOnly == otherRequest.mOffloadOnly)
-                    && (Objects.equals(mWorkSource, otherRequest.mWorkSource));
+                    && (Objects.equals(mWorkSource, otherRequest.mWorkSource))
+                    && (mMinUpdateIntervalMillis == otherRequest.mMinUpdateIntervalMillis)
+                    && (mRssiChangeThreshold == otherRequest.mRssiChangeThreshold);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mScanType, mScanMode, mBleEnabled, mOffloadOnly, mWorkSource);
+        return Objects.hash(mScanType, mScanMode, mBleEnabled, mOffloadOnly, mWorkSource,
+                mMinUpdateIntervalMillis, mRssiChangeThreshold);
     }
 
     /** @hide **/
@@ -284,6 +320,8 @@ public final class ScanRequest implements Parcelable {
         private boolean mOffloadOnly;
         private WorkSource mWorkSource;
         private List<ScanFilter> mScanFilters;
+        private long mMinUpdateIntervalMillis;
+        private int mRssiChangeThreshold;
 
         /** Creates a new Builder with the given scan type. */
         public Builder() {
@@ -385,6 +423,35 @@ public final class ScanRequest implements Parcelable {
             return this;
         }
 
+        /**
+         * Sets the minimum interval between two updates of the same device that only differ in
+         * RSSI. Defaults to 0, which reports every RSSI change that reaches the
+         * {@link #setRssiChangeThreshold RSSI change threshold}.
+         *
+         * @hide
+         */
+        @NonNull
+        public Builder setMinUpdateIntervalMillis(long minUpdateIntervalMillis) {
+            Preconditions.checkArgument(minUpdateIntervalMillis >= 0,
+                    "minUpdateIntervalMillis must not be negative");
+            mMinUpdateIntervalMillis = minUpdateIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets the minimum RSSI change, in dBm, for an update of the same device that only
+         * differs in RSSI to be reported. Defaults to 0, which reports any RSSI change.
+         *
+         * @hide
+         */
+        @NonNull
+        public Builder setRssiChangeThreshold(int rssiChangeThreshold) {
+            Preconditions.checkArgument(rssiChangeThreshold >= 0,
+                    "rssiChangeThreshold must not be negative");
+            mRssiChangeThreshold = rssiChangeThreshold;
+            return this;
+        }
+
         /**
          * Builds a scan request from this builder.
          *
@@ -400,8 +467,8 @@ public final class ScanRequest implements Parcelable {
             Preconditions.checkState(isValidScanMode(mScanMode),
                     "invalid scan mode : " + mScanMode
                             + ", scan mode must be one of ScanMode#SCAN_MODE_");
-            return new ScanRequest(
-                    mScanType, mScanMode, mBleEnabled, mOffloadOnly, mWorkSource, mScanFilters);
+            return new ScanRequest(mScanType, mScanMode, mBleEnabled, mOffloadOnly, mWorkSource,
+                    mScanFilters, mMinUpdateIntervalMillis, mRssiChangeThreshold);
         }
     }
 }
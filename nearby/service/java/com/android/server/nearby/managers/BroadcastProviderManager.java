@@ -26,6 +26,7 @@ import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.nearby.NearbyConfiguration;
 import com.android.server.nearby.injector.Injector;
@@ -35,6 +36,8 @@ import com.android.server.nearby.presence.FastAdvertisement;
 import com.android.server.nearby.provider.BleBroadcastProvider;
 import com.android.server.nearby.util.ForegroundThread;
 
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.concurrent.Executor;
 
 /**
@@ -43,11 +46,17 @@ import java.util.concurrent.Executor;
 public class BroadcastProviderManager implements BleBroadcastProvider.BroadcastListener {
 
     private static final String TAG = "BroadcastProvider";
+    @VisibleForTesting
+    static final int MAX_CACHED_TEMPLATES = 4;
 
     private final Object mLock;
     private final BleBroadcastProvider mBleBroadcastProvider;
     private final Executor mExecutor;
     private final NearbyConfiguration mNearbyConfiguration;
+    // Templates of the recent V1 broadcasts, most recently used first, so that restarting a
+    // broadcast with a rotated salt does not derive the keys and encode the data elements again.
+    @GuardedBy("mTemplates")
+    private final ArrayDeque<ExtendedAdvertisement.Template> mTemplates = new ArrayDeque<>();
 
     private IBroadcastListener mBroadcastListener;
     // Used with mBroadcastListener. Now we only support single client, for multi clients, a map
@@ -127,12 +136,45 @@ public class BroadcastProviderManager implements BleBroadcastProvider.BroadcastL
             case BroadcastRequest.PRESENCE_VERSION_V0:
                 return FastAdvertisement.createFromRequest(request);
             case BroadcastRequest.PRESENCE_VERSION_V1:
-                return ExtendedAdvertisement.createFromRequest(request);
+                ExtendedAdvertisement.Template template = getTemplate(request);
+                return template == null ? null : template.withSalt(request.getSalt());
             default:
                 return null;
         }
     }
 
+    @Nullable
+    private ExtendedAdvertisement.Template getTemplate(PresenceBroadcastRequest request) {
+        synchronized (mTemplates) {
+            for (Iterator<ExtendedAdvertisement.Template> it = mTemplates.iterator();
+                    it.hasNext(); ) {
+                ExtendedAdvertisement.Template template = it.next();
+                if (template.matches(request)) {
+                    it.remove();
+                    mTemplates.addFirst(template);
+                    return template;
+                }
+            }
+            ExtendedAdvertisement.Template template =
+                    ExtendedAdvertisement.Template.createFromRequest(request);
+            if (template == null) {
+                return null;
+            }
+            mTemplates.addFirst(template);
+            if (mTemplates.size() > MAX_CACHED_TEMPLATES) {
+                mTemplates.removeLast();
+            }
+            return template;
+        }
+    }
+
+    @VisibleForTesting
+    int getCachedTemplateCount() {
+        synchronized (mTemplates) {
+            return mTemplates.size();
+        }
+    }
+
     /**
      * Stops the nearby broadcast.
      */
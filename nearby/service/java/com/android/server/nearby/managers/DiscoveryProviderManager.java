@@ -31,6 +31,7 @@ import android.nearby.PresenceScanFilter;
 import android.nearby.ScanFilter;
 import android.nearby.ScanRequest;
 import android.nearby.aidl.IOffloadCallback;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -69,6 +70,8 @@ public class DiscoveryProviderManager extends
     private final Injector mInjector;
     private final Executor mExecutor;
     private final NearbyConfiguration mNearbyConfiguration;
+    @GuardedBy("mMultiplexerLock")
+    private final ScanResultDeduplicator mDeduplicator = new ScanResultDeduplicator();
 
     public DiscoveryProviderManager(Context context, Injector injector) {
         Log.v(TAG, "DiscoveryProviderManager: ");
@@ -117,6 +120,9 @@ public class DiscoveryProviderManager extends
     @Override
     public void onNearbyDeviceDiscovered(NearbyDeviceParcelable nearbyDevice) {
         synchronized (mMultiplexerLock) {
+            if (!mDeduplicator.shouldForward(nearbyDevice, SystemClock.elapsedRealtime())) {
+                return;
+            }
             Log.d(TAG, "Found device" + nearbyDevice);
             deliverToListeners(registration -> {
                 try {
@@ -272,6 +278,9 @@ public class DiscoveryProviderManager extends
     private void stopProviders() {
         stopBleProvider();
         stopChreProvider();
+        synchronized (mMultiplexerLock) {
+            mDeduplicator.clear();
+        }
     }
 
     private void stopBleProvider() {
@@ -300,6 +309,8 @@ public class DiscoveryProviderManager extends
             @NonNull Collection<DiscoveryRegistration> registrations) {
         MergedDiscoveryRequest.Builder builder = new MergedDiscoveryRequest.Builder();
         int scanMode = ScanRequest.SCAN_MODE_NO_POWER;
+        long minUpdateIntervalMillis = Long.MAX_VALUE;
+        int rssiChangeThreshold = Integer.MAX_VALUE;
         for (DiscoveryRegistration registration : registrations) {
             builder.addActions(registration.getActions());
             builder.addScanFilters(registration.getPresenceScanFilters());
@@ -313,13 +324,25 @@ public class DiscoveryProviderManager extends
             if (scanMode < requestScanMode) {
                 scanMode = requestScanMode;
             }
+            minUpdateIntervalMillis = Math.min(minUpdateIntervalMillis,
+                    registration.getScanRequest().getMinUpdateIntervalMillis());
+            rssiChangeThreshold = Math.min(rssiChangeThreshold,
+                    registration.getScanRequest().getRssiChangeThreshold());
         }
         builder.setScanMode(scanMode);
+        if (!registrations.isEmpty()) {
+            builder.setMinUpdateIntervalMillis(minUpdateIntervalMillis)
+                    .setRssiChangeThreshold(rssiChangeThreshold);
+        }
         return builder.build();
     }
 
     @Override
     public void onMergedRegistrationsUpdated() {
+        mDeduplicator.setThresholds(mMerged.getMinUpdateIntervalMillis(),
+                mMerged.getRssiChangeThreshold());
+        // Let new registrations see the devices in range without waiting for a change.
+        mDeduplicator.clear();
         invalidateProviderScanMode();
     }
 
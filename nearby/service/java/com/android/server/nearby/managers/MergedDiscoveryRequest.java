@@ -34,21 +34,28 @@ public class MergedDiscoveryRequest {
             /* scanTypes= */ ImmutableSet.of(),
             /* actions= */ ImmutableSet.of(),
             /* scanFilters= */ ImmutableSet.of(),
-            /* mediums= */ ImmutableSet.of());
+            /* mediums= */ ImmutableSet.of(),
+            /* minUpdateIntervalMillis= */ 0,
+            /* rssiChangeThreshold= */ 0);
     @ScanRequest.ScanMode
     private final int mScanMode;
     private final Set<Integer> mScanTypes;
     private final Set<Integer> mActions;
     private final Set<ScanFilter> mScanFilters;
     private final Set<Integer> mMediums;
+    private final long mMinUpdateIntervalMillis;
+    private final int mRssiChangeThreshold;
 
     private MergedDiscoveryRequest(@ScanRequest.ScanMode int scanMode, Set<Integer> scanTypes,
-            Set<Integer> actions, Set<ScanFilter> scanFilters, Set<Integer> mediums) {
+            Set<Integer> actions, Set<ScanFilter> scanFilters, Set<Integer> mediums,
+            long minUpdateIntervalMillis, int rssiChangeThreshold) {
         mScanMode = scanMode;
         mScanTypes = scanTypes;
         mActions = actions;
         mScanFilters = scanFilters;
         mMediums = mediums;
+        mMinUpdateIntervalMillis = minUpdateIntervalMillis;
+        mRssiChangeThreshold = rssiChangeThreshold;
     }
 
     /**
@@ -90,6 +97,22 @@ public class MergedDiscoveryRequest {
         return ImmutableSet.copyOf(mMediums);
     }
 
+    /**
+     * Returns the smallest minimum update interval of the requests, see
+     * {@link ScanRequest#getMinUpdateIntervalMillis()}.
+     */
+    public long getMinUpdateIntervalMillis() {
+        return mMinUpdateIntervalMillis;
+    }
+
+    /**
+     * Returns the smallest RSSI change threshold of the requests, see
+     * {@link ScanRequest#getRssiChangeThreshold()}.
+     */
+    public int getRssiChangeThreshold() {
+        return mRssiChangeThreshold;
+    }
+
     /**
      * The medium where the broadcast request should be sent.
      *
@@ -108,6 +131,8 @@ public class MergedDiscoveryRequest {
         private final Set<Integer> mMediums;
         @ScanRequest.ScanMode
         private int mScanMode;
+        private long mMinUpdateIntervalMillis;
+        private int mRssiChangeThreshold;
 
         public Builder() {
             mScanMode = ScanRequest.SCAN_MODE_NO_POWER;
@@ -153,10 +178,22 @@ public class MergedDiscoveryRequest {
             return this;
         }
 
+        /** Sets the minimum interval between RSSI-only updates of a device. */
+        public Builder setMinUpdateIntervalMillis(long minUpdateIntervalMillis) {
+            mMinUpdateIntervalMillis = minUpdateIntervalMillis;
+            return this;
+        }
+
+        /** Sets the minimum RSSI change for an RSSI-only update of a device. */
+        public Builder setRssiChangeThreshold(int rssiChangeThreshold) {
+            mRssiChangeThreshold = rssiChangeThreshold;
+            return this;
+        }
+
         /** Builds an instance of {@link MergedDiscoveryRequest}. */
         public MergedDiscoveryRequest build() {
             return new MergedDiscoveryRequest(mScanMode, mScanTypes, mActions, mScanFilters,
-                    mMediums);
+                    mMediums, mMinUpdateIntervalMillis, mRssiChangeThreshold);
         }
     }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.nearby.managers;
+
+import android.annotation.Nullable;
+import android.nearby.NearbyDeviceParcelable;
+import android.nearby.PresenceDevice;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Drops scan results that do not carry new information before they are fanned out to the
+ * registered listeners.
+ *
+ * <p>Results are keyed by device id. A result is forwarded when the device is new, when its
+ * payload (everything but the RSSI and the discovery timestamp) changed, or when its RSSI moved
+ * by at least the RSSI change threshold and the minimum update interval has elapsed. The
+ * thresholds are the smallest ones requested by the registrations, so that each registration
+ * still sees every result it asked for.
+ *
+ * <p>Unchanged results are still forwarded every {@link #REFRESH_INTERVAL_MS}, so that the
+ * registrations keep postponing their device lost timeouts while the device is in range.
+ *
+ * <p>This class is not thread-safe; it is only used under the multiplexer lock.
+ */
+public class ScanResultDeduplicator {
+    /**
+     * Interval after which an unchanged result is forwarded anyway. Must be well below the
+     * timeout after which registrations report a device as lost.
+     */
+    @VisibleForTesting
+    static final long REFRESH_INTERVAL_MS = 2500;
+    @VisibleForTesting
+    static final int MAX_TRACKED_DEVICES = 256;
+
+    private static final class Entry {
+        final NearbyDeviceParcelable mDevice;
+        final int mPayloadHash;
+        final long mForwardedTimeMillis;
+
+        Entry(NearbyDeviceParcelable device, int payloadHash, long forwardedTimeMillis) {
+            mDevice = device;
+            mPayloadHash = payloadHash;
+            mForwardedTimeMillis = forwardedTimeMillis;
+        }
+    }
+
+    private final LinkedHashMap<Long, Entry> mEntries =
+            new LinkedHashMap<>(16 /* initialCapacity */, 0.75f /* loadFactor */,
+                    true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    return size() > MAX_TRACKED_DEVICES;
+                }
+            };
+    private long mMinUpdateIntervalMillis;
+    private int mRssiChangeThreshold;
+
+    /** Sets the merged thresholds of the registrations. */
+    public void setThresholds(long minUpdateIntervalMillis, int rssiChangeThreshold) {
+        mMinUpdateIntervalMillis = minUpdateIntervalMillis;
+        mRssiChangeThreshold = rssiChangeThreshold;
+    }
+
+    /**
+     * Returns whether the result should be forwarded to the registrations, and records it as
+     * forwarded if so.
+     *
+     * @param nowMillis the current time, in the elapsed realtime base
+     */
+    public boolean shouldForward(NearbyDeviceParcelable device, long nowMillis) {
+        final long deviceId = device.getDeviceId();
+        final int payloadHash = payloadHashCode(device);
+        final Entry last = mEntries.get(deviceId);
+        if (last != null && !shouldForward(last, device, payloadHash, nowMillis)) {
+            return false;
+        }
+        mEntries.put(deviceId, new Entry(device, payloadHash, nowMillis));
+        return true;
+    }
+
+    private boolean shouldForward(Entry last, NearbyDeviceParcelable device, int payloadHash,
+            long nowMillis) {
+        final long elapsed = nowMillis - last.mForwardedTimeMillis;
+        if (elapsed >= REFRESH_INTERVAL_MS) {
+            return true;
+        }
+        if (last.mPayloadHash != payloadHash || !payloadEquals(last.mDevice, device)) {
+            return true;
+        }
+        final int rssiChange = Math.abs(device.getRssi() - last.mDevice.getRssi());
+        return rssiChange != 0 && rssiChange >= mRssiChangeThreshold
+                && elapsed >= mMinUpdateIntervalMillis;
+    }
+
+    /** Forgets all the devices, e.g. when scanning stops. */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    @VisibleForTesting
+    int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns whether the two results carry the same payload, i.e. are equal apart from their
+     * RSSI and discovery timestamp.
+     */
+    public static boolean payloadEquals(@Nullable NearbyDeviceParcelable a,
+            @Nullable NearbyDeviceParcelable b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return a.getDeviceId() == b.getDeviceId()
+                && a.getScanType() == b.getScanType()
+                && Objects.equals(a.getName(), b.getName())
+                && a.getMedium() == b.getMedium()
+                && a.getTxPower() == b.getTxPower()
+                && a.getAction() == b.getAction()
+                && Objects.equals(a.getPublicCredential(), b.getPublicCredential())
+                && Objects.equals(a.getBluetoothAddress(), b.getBluetoothAddress())
+                && Objects.equals(a.getFastPairModelId(), b.getFastPairModelId())
+                && Arrays.equals(a.getData(), b.getData())
+                && Arrays.equals(a.getSalt(), b.getSalt())
+                && Arrays.equals(a.getEncryptionKeyTag(), b.getEncryptionKeyTag())
+                && presencePayloadEquals(a.getPresenceDevice(), b.getPresenceDevice());
+    }
+
+    private static boolean presencePayloadEquals(@Nullable PresenceDevice a,
+            @Nullable PresenceDevice b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        return Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getMediums(), b.getMediums())
+                && Arrays.equals(a.getSalt(), b.getSalt())
+                && Arrays.equals(a.getSecretId(), b.getSecretId())
+                && Arrays.equals(a.getEncryptedIdentity(), b.getEncryptedIdentity())
+                && Objects.equals(a.getDeviceId(), b.getDeviceId())
+                && a.getDeviceType() == b.getDeviceType()
+                && Objects.equals(a.getDeviceImageUrl(), b.getDeviceImageUrl())
+                && Objects.equals(a.getExtendedProperties(), b.getExtendedProperties());
+    }
+
+    /** Returns a hash code of the payload, consistent with {@link #payloadEquals}. */
+    @VisibleForTesting
+    static int payloadHashCode(NearbyDeviceParcelable device) {
+        int hash = Objects.hash(device.getDeviceId(), device.getScanType(), device.getName(),
+                device.getMedium(), device.getTxPower(), device.getAction(),
+                device.getBluetoothAddress(), device.getFastPairModelId());
+        hash = 31 * hash + Arrays.hashCode(device.getData());
+        hash = 31 * hash + Arrays.hashCode(device.getSalt());
+        hash = 31 * hash + Arrays.hashCode(device.getEncryptionKeyTag());
+        final PresenceDevice presenceDevice = device.getPresenceDevice();
+        if (presenceDevice != null) {
+            hash = 31 * hash + Arrays.hashCode(presenceDevice.getSecretId());
+            hash = 31 * hash + Arrays.hashCode(presenceDevice.getEncryptedIdentity());
+            hash = 31 * hash + Objects.hashCode(presenceDevice.getExtendedProperties());
+        }
+        return hash;
+    }
+}
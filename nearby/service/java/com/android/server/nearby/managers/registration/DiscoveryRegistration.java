@@ -29,6 +29,7 @@ import android.nearby.PresenceScanFilter;
 import android.nearby.ScanCallback;
 import android.nearby.ScanFilter;
 import android.nearby.ScanRequest;
+import android.os.SystemClock;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
@@ -38,6 +39,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.nearby.common.CancelableAlarm;
 import com.android.server.nearby.managers.ListenerMultiplexer;
 import com.android.server.nearby.managers.MergedDiscoveryRequest;
+import com.android.server.nearby.managers.ScanResultDeduplicator;
 import com.android.server.nearby.presence.PresenceDiscoveryResult;
 import com.android.server.nearby.util.identity.CallerIdentity;
 import com.android.server.nearby.util.permissions.DiscoveryPermissions;
@@ -72,6 +74,9 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
     /** Presence devices that are currently discovered, and not lost yet. */
     @GuardedBy("mMultiplexerLock")
     private final Map<Long, NearbyDeviceParcelable> mDiscoveredDevices;
+    /** Elapsed realtime of the last result reported for each discovered device. */
+    @GuardedBy("mMultiplexerLock")
+    private final Map<Long, Long> mLastReportedTimes = new ArrayMap<>();
     /** A map of deviceId and alarms for reporting device lost. */
     @GuardedBy("mMultiplexerLock")
     private final Map<Long, DeviceOnLostAlarm> mDiscoveryOnLostAlarmPerDevice = new ArrayMap<>();
@@ -168,6 +173,7 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
             synchronized (mMultiplexerLock) {
                 // Remove the device from reporting devices after reporting lost.
                 mDiscoveredDevices.remove(deviceId);
+                mLastReportedTimes.remove(deviceId);
                 DeviceOnLostAlarm alarm = mDiscoveryOnLostAlarmPerDevice.remove(deviceId);
                 if (alarm != null) {
                     alarm.cancel();
@@ -191,7 +197,8 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
             scheduleOnLostAlarm(device);
             if (deviceReported) {
                 NearbyDeviceParcelable oldDevice = mDiscoveredDevices.get(deviceId);
-                if (device.equals(oldDevice)) {
+                if (ScanResultDeduplicator.payloadEquals(oldDevice, device)
+                        && !isRssiUpdateDue(oldDevice, device)) {
                     return null;
                 }
                 return reportUpdated(device);
@@ -200,6 +207,22 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
         }
     }
 
+    /**
+     * Returns whether an update that only changes the RSSI should be reported, according to the
+     * thresholds of the scan request.
+     */
+    @GuardedBy("mMultiplexerLock")
+    private boolean isRssiUpdateDue(NearbyDeviceParcelable oldDevice,
+            NearbyDeviceParcelable device) {
+        int rssiChange = Math.abs(device.getRssi() - oldDevice.getRssi());
+        if (rssiChange == 0 || rssiChange < mScanRequest.getRssiChangeThreshold()) {
+            return false;
+        }
+        Long lastReportedTime = mLastReportedTimes.get(device.getDeviceId());
+        return lastReportedTime == null || SystemClock.elapsedRealtime() - lastReportedTime
+                >= mScanRequest.getMinUpdateIntervalMillis();
+    }
+
     @VisibleForTesting
     static boolean presenceFilterMatches(NearbyDeviceParcelable device,
             List<ScanFilter> scanFilters) {
@@ -224,6 +247,7 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
                 // Add the device to discovered devices after reporting device is
                 // discovered.
                 mDiscoveredDevices.put(deviceId, device);
+                mLastReportedTimes.put(deviceId, SystemClock.elapsedRealtime());
                 scheduleOnLostAlarm(device);
             }
         });
@@ -237,6 +261,7 @@ public class DiscoveryRegistration extends BinderListenerRegistration<IScanListe
                 // Update the new device to discovered devices after reporting device is
                 // discovered.
                 mDiscoveredDevices.put(deviceId, device);
+                mLastReportedTimes.put(deviceId, SystemClock.elapsedRealtime());
                 scheduleOnLostAlarm(device);
             }
         });
@@ -32,7 +32,6 @@ import android.nearby.PublicCredential;
 import android.util.Log;
 
 import com.android.server.nearby.util.ArrayUtils;
-import com.android.server.nearby.util.encryption.Cryptor;
 import com.android.server.nearby.util.encryption.CryptorMicImp;
 
 import java.nio.ByteBuffer;
@@ -66,24 +65,18 @@ public class ExtendedAdvertisement extends Advertisement {
     // 0 is reserved, 1 is Salt or Credential Element.
     private static final int CIPHER_START_INDEX = 2;
     private final List<DataElement> mDataElements;
-    private final byte[] mKeySeed;
+    private final Template mTemplate;
 
     private final byte[] mData;
 
-    private ExtendedAdvertisement(
-            @PresenceCredential.IdentityType int identityType,
-            byte[] identity,
-            byte[] salt,
-            byte[] keySeed,
-            List<Integer> actions,
-            List<DataElement> dataElements) {
+    private ExtendedAdvertisement(Template template, byte[] salt) {
         this.mVersion = PRESENCE_VERSION_V1;
-        this.mIdentityType = identityType;
-        this.mIdentity = identity;
+        this.mIdentityType = template.mIdentityType;
+        this.mIdentity = template.mIdentity;
         this.mSalt = salt;
-        this.mKeySeed = keySeed;
-        this.mDataElements = dataElements;
-        this.mActions = actions;
+        this.mDataElements = template.mDataElements;
+        this.mActions = template.mActions;
+        mTemplate = template;
         mData = toBytesInternal();
     }
 
@@ -94,38 +87,346 @@ public class ExtendedAdvertisement extends Advertisement {
      */
     @Nullable
     public static ExtendedAdvertisement createFromRequest(PresenceBroadcastRequest request) {
-        if (request.getVersion() != PRESENCE_VERSION_V1) {
-            Log.v(TAG, "ExtendedAdvertisement only supports V1 now.");
+        Template template = Template.createFromRequest(request);
+        if (template == null) {
             return null;
         }
+        return template.withSalt(request.getSalt());
+    }
 
-        byte[] salt = request.getSalt();
-        if (salt.length != SALT_DATA_LENGTH && salt.length != ENCRYPTION_INFO_LENGTH - 1) {
-            Log.v(TAG, "Salt does not match correct length");
-            return null;
+    /**
+     * The parts of an advertisement that do not depend on the salt.
+     *
+     * <p>The keys derived from the authenticity key and the plaintext of the encrypted section
+     * are computed once, so that advertising the same request with a new salt only costs the
+     * nonce derivation, the encryption of the section and its MIC.
+     */
+    public static final class Template {
+        @PresenceCredential.IdentityType
+        private final int mIdentityType;
+        private final byte[] mIdentity;
+        private final byte[] mKeySeed;
+        private final CryptorMicImp.DerivedKeys mKeys;
+        private final List<Integer> mActions;
+        // The extended properties of the request, without the actions, for matching requests.
+        private final List<DataElement> mExtendedProperties;
+        private final List<DataElement> mDataElements;
+        private final byte[] mIdentityHeaderBytes;
+        // The identity followed by the data elements, to be encrypted.
+        private final byte[] mPlaintext;
+
+        private Template(@PresenceCredential.IdentityType int identityType, byte[] identity,
+                byte[] keySeed, CryptorMicImp.DerivedKeys keys, List<Integer> actions,
+                List<DataElement> extendedProperties, List<DataElement> dataElements) {
+            mIdentityType = identityType;
+            mIdentity = identity;
+            mKeySeed = keySeed;
+            mKeys = keys;
+            mActions = actions;
+            mExtendedProperties = extendedProperties;
+            mDataElements = dataElements;
+            mIdentityHeaderBytes = new DataElementHeader(PRESENCE_VERSION_V1,
+                    toDataType(identityType), identity.length).toBytes();
+            byte[] plaintext = identity;
+            for (DataElement dataElement : dataElements) {
+                plaintext = ArrayUtils.concatByteArrays(plaintext,
+                        ExtendedAdvertisementUtils.convertDataElementToBytes(dataElement));
+            }
+            mPlaintext = plaintext;
         }
 
-        byte[] identity = request.getCredential().getMetadataEncryptionKey();
-        byte[] authenticityKey = request.getCredential().getAuthenticityKey();
-        if (identity.length != IDENTITY_DATA_LENGTH) {
-            Log.v(TAG, "Identity does not match correct length");
-            return null;
+        /**
+         * Creates the template of the advertisements of a Presence Broadcast Request. The salt
+         * of the request is ignored.
+         *
+         * @return the template, or {@code null} when the request is illegal.
+         */
+        @Nullable
+        public static Template createFromRequest(PresenceBroadcastRequest request) {
+            if (request.getVersion() != PRESENCE_VERSION_V1) {
+                Log.v(TAG, "ExtendedAdvertisement only supports V1 now.");
+                return null;
+            }
+
+            byte[] identity = request.getCredential().getMetadataEncryptionKey();
+            byte[] authenticityKey = request.getCredential().getAuthenticityKey();
+            if (identity.length != IDENTITY_DATA_LENGTH) {
+                Log.v(TAG, "Identity does not match correct length");
+                return null;
+            }
+            CryptorMicImp.DerivedKeys keys = CryptorMicImp.DerivedKeys.derive(authenticityKey);
+            if (keys == null) {
+                return null;
+            }
+
+            List<Integer> actions = new ArrayList<>(request.getActions());
+            List<DataElement> extendedProperties =
+                    new ArrayList<>(request.getExtendedProperties());
+            List<DataElement> dataElements = new ArrayList<>(extendedProperties);
+            // DataElements should include actions.
+            for (int action : actions) {
+                dataElements.add(
+                        new DataElement(DataType.ACTION, new byte[]{(byte) action}));
+            }
+            return new Template(request.getCredential().getIdentityType(), identity,
+                    authenticityKey, keys, actions, extendedProperties, dataElements);
+        }
+
+        /**
+         * Returns whether the request only differs from the one the template was created from
+         * by its salt.
+         */
+        public boolean matches(PresenceBroadcastRequest request) {
+            return request.getVersion() == PRESENCE_VERSION_V1
+                    && request.getCredential().getIdentityType() == mIdentityType
+                    && Arrays.equals(request.getCredential().getMetadataEncryptionKey(),
+                            mIdentity)
+                    && Arrays.equals(request.getCredential().getAuthenticityKey(), mKeySeed)
+                    && request.getActions().equals(mActions)
+                    && request.getExtendedProperties().equals(mExtendedProperties);
         }
 
-        List<Integer> actions = request.getActions();
-        List<DataElement> dataElements = request.getExtendedProperties();
-        // DataElements should include actions.
-        for (int action : actions) {
-            dataElements.add(
-                    new DataElement(DataType.ACTION, new byte[]{(byte) action}));
+        /**
+         * Creates an advertisement from the template with the given salt.
+         *
+         * @return the advertisement, or {@code null} when the salt is illegal.
+         */
+        @Nullable
+        public ExtendedAdvertisement withSalt(byte[] salt) {
+            if (salt.length != SALT_DATA_LENGTH && salt.length != ENCRYPTION_INFO_LENGTH - 1) {
+                Log.v(TAG, "Salt does not match correct length");
+                return null;
+            }
+            return new ExtendedAdvertisement(this, salt);
+        }
+
+        @Nullable
+        private byte[] encode(byte[] salt) {
+            // Salt
+            DataElement saltDe;
+            byte[] nonce;
+            try {
+                switch (salt.length) {
+                    case SALT_DATA_LENGTH:
+                        saltDe = new DataElement(DataType.SALT, salt);
+                        nonce = CryptorMicImp.generateAdvNonce(salt);
+                        break;
+                    case ENCRYPTION_INFO_LENGTH - 1:
+                        saltDe = new DataElement(DataType.ENCRYPTION_INFO,
+                                EncryptionInfo.toByte(EncryptionInfo.EncodingScheme.MIC, salt));
+                        nonce = CryptorMicImp.generateAdvNonce(salt, CIPHER_START_INDEX);
+                        break;
+                    default:
+                        Log.w(TAG, "Invalid salt size.");
+                        return null;
+                }
+            } catch (GeneralSecurityException e) {
+                Log.w(TAG, "Failed to generate the IV for encryption.", e);
+                return null;
+            }
+
+            byte[] saltOrEncryptionInfoBytes =
+                    ExtendedAdvertisementUtils.convertDataElementToBytes(saltDe);
+            // 16 bytes encrypted identity followed by the data elements
+            CryptorMicImp cryptor = CryptorMicImp.getInstance();
+            byte[] ciphertext = cryptor.encrypt(mPlaintext, nonce, mKeys);
+            if (ciphertext == null) {
+                return null;
+            }
+            int sectionLength = saltOrEncryptionInfoBytes.length + mIdentityHeaderBytes.length
+                    + ciphertext.length + CryptorMicImp.MIC_LENGTH;
+            if (sectionLength > 255) {
+                Log.e(TAG, "A section should be shorter than 255 bytes.");
+                return null;
+            }
+            // header
+            byte header = ExtendedAdvertisementUtils.constructHeader(PRESENCE_VERSION_V1);
+            // section header
+            byte sectionHeader = (byte) sectionLength;
+            int length = sectionLength + 2 * HEADER_LENGTH;
+
+            // generates mic
+            ByteBuffer micInputBuffer = ByteBuffer.allocate(
+                    length + PRESENCE_UUID_BYTES.length + nonce.length
+                            - CryptorMicImp.MIC_LENGTH);
+            micInputBuffer.put(PRESENCE_UUID_BYTES);
+            micInputBuffer.put(header);
+            micInputBuffer.put(sectionHeader);
+            micInputBuffer.put(saltOrEncryptionInfoBytes);
+            micInputBuffer.put(nonce);
+            micInputBuffer.put(mIdentityHeaderBytes);
+            micInputBuffer.put(ciphertext);
+            byte[] mic = cryptor.sign(micInputBuffer.array(), mKeys);
+            if (mic == null) {
+                return null;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            buffer.put(header);
+            buffer.put(sectionHeader);
+            buffer.put(saltOrEncryptionInfoBytes);
+            buffer.put(mIdentityHeaderBytes);
+            buffer.put(ciphertext);
+            buffer.put(mic);
+            return buffer.array();
+        }
+    }
+
+    /**
+     * The unencrypted fields of an encrypted advertisement section, parsed once so that the
+     * section can be tried against several credentials.
+     */
+    public static final class EncryptedSection {
+        private final byte[] mHeader;
+        private final byte[] mSectionHeader;
+        private final byte[] mFirstHeaderArray;
+        @DataType
+        private final int mFirstType;
+        private final byte[] mFirstDeBytes;
+        // Derived lazily, so that parsing does not cost an HKDF.
+        @Nullable
+        private byte[] mNonce;
+        private final byte[] mSalt;
+        private final byte[] mIdentityHeaderArray;
+        @PresenceCredential.IdentityType
+        private final int mIdentityType;
+        private final byte[] mCiphertext;
+        private final byte[] mHmacTag;
+
+        private EncryptedSection(byte[] header, byte[] sectionHeader, byte[] firstHeaderArray,
+                @DataType int firstType, byte[] firstDeBytes, byte[] salt,
+                byte[] identityHeaderArray, @PresenceCredential.IdentityType int identityType,
+                byte[] ciphertext, byte[] hmacTag) {
+            mHeader = header;
+            mSectionHeader = sectionHeader;
+            mFirstHeaderArray = firstHeaderArray;
+            mFirstType = firstType;
+            mFirstDeBytes = firstDeBytes;
+            mSalt = salt;
+            mIdentityHeaderArray = identityHeaderArray;
+            mIdentityType = identityType;
+            mCiphertext = ciphertext;
+            mHmacTag = hmacTag;
+        }
+
+        /** Returns the salt of the section. */
+        public byte[] getSalt() {
+            return mSalt;
+        }
+
+        @Nullable
+        private byte[] getNonce() {
+            if (mNonce == null) {
+                mNonce = ExtendedAdvertisement.getNonce(mFirstType, mFirstDeBytes);
+            }
+            return mNonce;
+        }
+
+        /**
+         * Parses the unencrypted fields of an advertisement.
+         * Return {@code null} when there is an error in parsing.
+         */
+        @Nullable
+        public static EncryptedSection parse(byte[] bytes) {
+            @BroadcastVersion
+            int version = ExtendedAdvertisementUtils.getVersion(bytes);
+            if (version != PRESENCE_VERSION_V1) {
+                Log.v(TAG, "ExtendedAdvertisement is used in V1 only and version is " + version);
+                return null;
+            }
+
+            int index = 0;
+            // Header
+            byte[] header = new byte[]{bytes[index]};
+            index += HEADER_LENGTH;
+            // Section header
+            byte[] sectionHeader = new byte[]{bytes[index]};
+            index += HEADER_LENGTH;
+            // Salt or Encryption Info
+            byte[] firstHeaderArray = ExtendedAdvertisementUtils.getDataElementHeader(bytes, index);
+            DataElementHeader firstHeader = DataElementHeader.fromBytes(version, firstHeaderArray);
+            if (firstHeader == null) {
+                Log.v(TAG, "Cannot find salt.");
+                return null;
+            }
+            @DataType int firstType = firstHeader.getDataType();
+            if (firstType != DataType.SALT && firstType != DataType.ENCRYPTION_INFO) {
+                Log.v(TAG, "First data element has to be Salt or Encryption Info.");
+                return null;
+            }
+            index += firstHeaderArray.length;
+            byte[] firstDeBytes = new byte[firstHeader.getDataLength()];
+            for (int i = 0; i < firstHeader.getDataLength(); i++) {
+                firstDeBytes[i] = bytes[index++];
+            }
+            byte[] saltBytes;
+            if (firstType == DataType.SALT) {
+                if (firstDeBytes.length != SALT_DATA_LENGTH) {
+                    Log.v(TAG, "Salt DataElement needs to be 2 bytes.");
+                    return null;
+                }
+                saltBytes = firstDeBytes;
+            } else {
+                try {
+                    EncryptionInfo info = new EncryptionInfo(firstDeBytes);
+                    if (info.getEncodingScheme() != EncryptionInfo.EncodingScheme.MIC) {
+                        Log.v(TAG, "Not support Signature yet.");
+                        return null;
+                    }
+                    saltBytes = info.getSalt();
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Salt DataElement needs to be 17 bytes.", e);
+                    return null;
+                }
+            }
+
+            // Identity header
+            byte[] identityHeaderArray =
+                    ExtendedAdvertisementUtils.getDataElementHeader(bytes, index);
+            DataElementHeader identityHeader =
+                    DataElementHeader.fromBytes(version, identityHeaderArray);
+            if (identityHeader == null
+                    || identityHeader.getDataLength() != IDENTITY_DATA_LENGTH) {
+                Log.v(TAG, "The second element has to be a 16-bytes identity.");
+                return null;
+            }
+            index += identityHeaderArray.length;
+            @PresenceCredential.IdentityType int identityType =
+                    toPresenceCredentialIdentityType(identityHeader.getDataType());
+            if (identityType != PresenceCredential.IDENTITY_TYPE_PRIVATE
+                    && identityType != PresenceCredential.IDENTITY_TYPE_TRUSTED) {
+                Log.v(TAG, "Only supports encrypted advertisement.");
+                return null;
+            }
+            // Ciphertext
+            int signatureLength = CryptorMicImp.getInstance().getSignatureLength();
+            byte[] ciphertext = new byte[bytes.length - index - signatureLength];
+            System.arraycopy(bytes, index, ciphertext, 0, ciphertext.length);
+            byte[] hmacTag = new byte[signatureLength];
+            System.arraycopy(bytes, bytes.length - signatureLength, hmacTag, 0, signatureLength);
+            return new EncryptedSection(header, sectionHeader, firstHeaderArray, firstType,
+                    firstDeBytes, saltBytes, identityHeaderArray, identityType, ciphertext,
+                    hmacTag);
+        }
+
+        /**
+         * Decrypts the metadata encryption key, which is the first 16 bytes of the ciphertext.
+         *
+         * <p>The section is encrypted with AES-CTR, so this only costs a single block. The
+         * result can be used to compute the metadata encryption key tag before decrypting and
+         * verifying the whole section.
+         *
+         * @return the metadata encryption key or {@code null} when there is an error
+         */
+        @Nullable
+        public byte[] decryptMetadataEncryptionKey(CryptorMicImp.DerivedKeys keys) {
+            byte[] nonce = getNonce();
+            if (nonce == null || mCiphertext.length < IDENTITY_DATA_LENGTH) {
+                return null;
+            }
+            return CryptorMicImp.getInstance().decrypt(
+                    Arrays.copyOf(mCiphertext, IDENTITY_DATA_LENGTH), nonce, keys);
         }
-        return new ExtendedAdvertisement(
-                request.getCredential().getIdentityType(),
-                identity,
-                salt,
-                authenticityKey,
-                actions,
-                dataElements);
     }
 
     /**
@@ -134,10 +435,8 @@ public class ExtendedAdvertisement extends Advertisement {
      */
     @Nullable
     public static ExtendedAdvertisement fromBytes(byte[] bytes, PublicCredential sharedCredential) {
-        @BroadcastVersion
-        int version = ExtendedAdvertisementUtils.getVersion(bytes);
-        if (version != PRESENCE_VERSION_V1) {
-            Log.v(TAG, "ExtendedAdvertisement is used in V1 only and version is " + version);
+        EncryptedSection section = EncryptedSection.parse(bytes);
+        if (section == null) {
             return null;
         }
 
@@ -146,59 +445,28 @@ public class ExtendedAdvertisement extends Advertisement {
         if (keySeed == null || metadataEncryptionKeyUnsignedAdvTag == null) {
             return null;
         }
-
-        int index = 0;
-        // Header
-        byte[] header = new byte[]{bytes[index]};
-        index += HEADER_LENGTH;
-        // Section header
-        byte[] sectionHeader = new byte[]{bytes[index]};
-        index += HEADER_LENGTH;
-        // Salt or Encryption Info
-        byte[] firstHeaderArray = ExtendedAdvertisementUtils.getDataElementHeader(bytes, index);
-        DataElementHeader firstHeader = DataElementHeader.fromBytes(version, firstHeaderArray);
-        if (firstHeader == null) {
-            Log.v(TAG, "Cannot find salt.");
+        CryptorMicImp.DerivedKeys keys = CryptorMicImp.DerivedKeys.derive(keySeed);
+        if (keys == null) {
             return null;
         }
-        @DataType int firstType = firstHeader.getDataType();
-        if (firstType != DataType.SALT && firstType != DataType.ENCRYPTION_INFO) {
-            Log.v(TAG, "First data element has to be Salt or Encryption Info.");
-            return null;
-        }
-        index += firstHeaderArray.length;
-        byte[] firstDeBytes = new byte[firstHeader.getDataLength()];
-        for (int i = 0; i < firstHeader.getDataLength(); i++) {
-            firstDeBytes[i] = bytes[index++];
-        }
-        byte[] nonce = getNonce(firstType, firstDeBytes);
+        return fromEncryptedSection(section, keySeed, keys, metadataEncryptionKeyUnsignedAdvTag);
+    }
+
+    /**
+     * Decrypts and verifies a parsed section with keys derived from the authenticity key of a
+     * credential.
+     * Return {@code null} when the section does not belong to the credential or is invalid.
+     */
+    @Nullable
+    public static ExtendedAdvertisement fromEncryptedSection(EncryptedSection section,
+            byte[] keySeed, CryptorMicImp.DerivedKeys keys,
+            byte[] metadataEncryptionKeyUnsignedAdvTag) {
+        byte[] nonce = section.getNonce();
         if (nonce == null) {
             return null;
         }
-        byte[] saltBytes = firstType == DataType.SALT
-                ? firstDeBytes : (new EncryptionInfo(firstDeBytes)).getSalt();
-
-        // Identity header
-        byte[] identityHeaderArray = ExtendedAdvertisementUtils.getDataElementHeader(bytes, index);
-        DataElementHeader identityHeader =
-                DataElementHeader.fromBytes(version, identityHeaderArray);
-        if (identityHeader == null || identityHeader.getDataLength() != IDENTITY_DATA_LENGTH) {
-            Log.v(TAG, "The second element has to be a 16-bytes identity.");
-            return null;
-        }
-        index += identityHeaderArray.length;
-        @PresenceCredential.IdentityType int identityType =
-                toPresenceCredentialIdentityType(identityHeader.getDataType());
-        if (identityType != PresenceCredential.IDENTITY_TYPE_PRIVATE
-                && identityType != PresenceCredential.IDENTITY_TYPE_TRUSTED) {
-            Log.v(TAG, "Only supports encrypted advertisement.");
-            return null;
-        }
-        // Ciphertext
-        Cryptor cryptor = CryptorMicImp.getInstance();
-        byte[] ciphertext = new byte[bytes.length - index - cryptor.getSignatureLength()];
-        System.arraycopy(bytes, index, ciphertext, 0, ciphertext.length);
-        byte[] plaintext = cryptor.decrypt(ciphertext, nonce, keySeed);
+        CryptorMicImp cryptor = CryptorMicImp.getInstance();
+        byte[] plaintext = cryptor.decrypt(section.mCiphertext, nonce, keys);
         if (plaintext == null) {
             return null;
         }
@@ -210,8 +478,7 @@ public class ExtendedAdvertisement extends Advertisement {
         System.arraycopy(plaintext, 0, metadataEncryptionKey, 0, IDENTITY_DATA_LENGTH);
         // Verify metadata encryption key tag
         byte[] computedMetadataEncryptionKeyTag =
-                CryptorMicImp.generateMetadataEncryptionKeyTag(metadataEncryptionKey,
-                        keySeed);
+                CryptorMicImp.generateMetadataEncryptionKeyTag(metadataEncryptionKey, keys);
         if (!Arrays.equals(computedMetadataEncryptionKeyTag, metadataEncryptionKeyUnsignedAdvTag)) {
             Log.w(TAG,
                     "The calculated metadata encryption key tag is different from the metadata "
@@ -219,15 +486,11 @@ public class ExtendedAdvertisement extends Advertisement {
             return null;
         }
         // Verify the computed HMAC tag is equal to HMAC tag in advertisement
-        byte[] expectedHmacTag = new byte[cryptor.getSignatureLength()];
-        System.arraycopy(
-                bytes, bytes.length - cryptor.getSignatureLength(),
-                expectedHmacTag, 0, cryptor.getSignatureLength());
         byte[] micInput =  ArrayUtils.concatByteArrays(
-                PRESENCE_UUID_BYTES, header, sectionHeader,
-                firstHeaderArray, firstDeBytes,
-                nonce, identityHeaderArray, ciphertext);
-        if (!cryptor.verify(micInput, keySeed, expectedHmacTag)) {
+                PRESENCE_UUID_BYTES, section.mHeader, section.mSectionHeader,
+                section.mFirstHeaderArray, section.mFirstDeBytes,
+                nonce, section.mIdentityHeaderArray, section.mCiphertext);
+        if (!cryptor.verify(micInput, keys, section.mHmacTag)) {
             Log.e(TAG, "HMAC tag not match.");
             return null;
         }
@@ -235,7 +498,8 @@ public class ExtendedAdvertisement extends Advertisement {
         byte[] otherDataElements = new byte[plaintext.length - IDENTITY_DATA_LENGTH];
         System.arraycopy(plaintext, IDENTITY_DATA_LENGTH,
                 otherDataElements, 0, otherDataElements.length);
-        List<DataElement> dataElements = getDataElementsFromBytes(version, otherDataElements);
+        List<DataElement> dataElements =
+                getDataElementsFromBytes(PRESENCE_VERSION_V1, otherDataElements);
         if (dataElements.isEmpty()) {
             return null;
         }
@@ -243,8 +507,9 @@ public class ExtendedAdvertisement extends Advertisement {
         if (actions == null) {
             return null;
         }
-        return new ExtendedAdvertisement(identityType, metadataEncryptionKey, saltBytes, keySeed,
-                actions, dataElements);
+        return new ExtendedAdvertisement(new Template(section.mIdentityType,
+                metadataEncryptionKey, keySeed, keys, actions, dataElements, dataElements),
+                section.mSalt);
     }
 
     @PresenceCredential.IdentityType
@@ -298,82 +563,11 @@ public class ExtendedAdvertisement extends Advertisement {
     /** Serialize an {@link ExtendedAdvertisement} object into bytes with {@link DataElement}s */
     @Nullable
     public byte[] toBytesInternal() {
-        int sectionLength = 0;
-        // Salt
-        DataElement saltDe;
-        byte[] nonce;
-        try {
-            switch (mSalt.length) {
-                case SALT_DATA_LENGTH:
-                    saltDe = new DataElement(DataType.SALT, mSalt);
-                    nonce = CryptorMicImp.generateAdvNonce(mSalt);
-                    break;
-                case ENCRYPTION_INFO_LENGTH - 1:
-                    saltDe = new DataElement(DataType.ENCRYPTION_INFO,
-                            EncryptionInfo.toByte(EncryptionInfo.EncodingScheme.MIC, mSalt));
-                    nonce = CryptorMicImp.generateAdvNonce(mSalt, CIPHER_START_INDEX);
-                    break;
-                default:
-                    Log.w(TAG, "Invalid salt size.");
-                    return null;
-            }
-        } catch (GeneralSecurityException e) {
-            Log.w(TAG, "Failed to generate the IV for encryption.", e);
-            return null;
+        byte[] bytes = mTemplate.encode(mSalt);
+        if (bytes != null) {
+            mLength = bytes.length;
         }
-
-        byte[] saltOrEncryptionInfoBytes =
-                ExtendedAdvertisementUtils.convertDataElementToBytes(saltDe);
-        sectionLength += saltOrEncryptionInfoBytes.length;
-        // 16 bytes encrypted identity
-        @DataType int identityDataType = toDataType(getIdentityType());
-        byte[] identityHeaderBytes = new DataElementHeader(PRESENCE_VERSION_V1,
-                identityDataType, mIdentity.length).toBytes();
-        sectionLength += identityHeaderBytes.length;
-        final List<DataElement> dataElementList = getDataElements();
-        byte[] ciphertext = getCiphertext(nonce, dataElementList);
-        if (ciphertext == null) {
-            return null;
-        }
-        sectionLength += ciphertext.length;
-        // mic
-        sectionLength += CryptorMicImp.MIC_LENGTH;
-        mLength = sectionLength;
-        // header
-        byte header = ExtendedAdvertisementUtils.constructHeader(getVersion());
-        mLength += HEADER_LENGTH;
-        // section header
-        if (sectionLength > 255) {
-            Log.e(TAG, "A section should be shorter than 255 bytes.");
-            return null;
-        }
-        byte sectionHeader = (byte) sectionLength;
-        mLength += HEADER_LENGTH;
-
-        // generates mic
-        ByteBuffer micInputBuffer = ByteBuffer.allocate(
-                mLength + PRESENCE_UUID_BYTES.length + nonce.length - CryptorMicImp.MIC_LENGTH);
-        micInputBuffer.put(PRESENCE_UUID_BYTES);
-        micInputBuffer.put(header);
-        micInputBuffer.put(sectionHeader);
-        micInputBuffer.put(saltOrEncryptionInfoBytes);
-        micInputBuffer.put(nonce);
-        micInputBuffer.put(identityHeaderBytes);
-        micInputBuffer.put(ciphertext);
-        byte[] micInput = micInputBuffer.array();
-        byte[] mic = CryptorMicImp.getInstance().sign(micInput, mKeySeed);
-        if (mic == null) {
-            return null;
-        }
-
-        ByteBuffer buffer = ByteBuffer.allocate(mLength);
-        buffer.put(header);
-        buffer.put(sectionHeader);
-        buffer.put(saltOrEncryptionInfoBytes);
-        buffer.put(identityHeaderBytes);
-        buffer.put(ciphertext);
-        buffer.put(mic);
-        return buffer.array();
+        return bytes;
     }
 
     /** Returns the {@link DataElement}s in the advertisement. */
@@ -407,17 +601,6 @@ public class ExtendedAdvertisement extends Advertisement {
                 getActions());
     }
 
-    @Nullable
-    private byte[] getCiphertext(byte[] nonce, List<DataElement> dataElements) {
-        Cryptor cryptor = CryptorMicImp.getInstance();
-        byte[] rawDeBytes = mIdentity;
-        for (DataElement dataElement : dataElements) {
-            rawDeBytes = ArrayUtils.concatByteArrays(rawDeBytes,
-                    ExtendedAdvertisementUtils.convertDataElementToBytes(dataElement));
-        }
-        return cryptor.encrypt(rawDeBytes, nonce, mKeySeed);
-    }
-
     private static List<DataElement> getDataElementsFromBytes(
             @BroadcastVersion int version, byte[] bytes) {
         List<DataElement> res = new ArrayList<>();
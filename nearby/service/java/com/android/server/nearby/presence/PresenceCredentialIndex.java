@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.nearby.presence;
+
+import android.annotation.Nullable;
+import android.nearby.PresenceScanFilter;
+import android.nearby.PublicCredential;
+import android.nearby.ScanFilter;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.server.nearby.util.encryption.CryptorMicImp;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Matches encrypted Presence advertisements against the credentials of a set of scan filters.
+ *
+ * <p>Credentials are grouped by authenticity key, and the keys derived from each authenticity
+ * key are computed once when the index is built. For each group, only the first block of the
+ * advertisement is decrypted to compute the metadata encryption key tag, which is then looked
+ * up among the credentials of the group. The full section is only decrypted and verified for a
+ * credential whose tag matches.
+ *
+ * <p>Results are cached by bluetooth address and salt, since a device keeps advertising the
+ * same bytes until it rotates its salt.
+ *
+ * <p>This class is thread-safe.
+ */
+public class PresenceCredentialIndex {
+    @VisibleForTesting
+    static final int MAX_CACHED_RESULTS = 256;
+
+    /** A credential matching an advertisement, and the decrypted advertisement. */
+    public static final class Match {
+        public final ExtendedAdvertisement advertisement;
+        public final PublicCredential credential;
+
+        Match(ExtendedAdvertisement advertisement, PublicCredential credential) {
+            this.advertisement = advertisement;
+            this.credential = credential;
+        }
+    }
+
+    private static final class KeyGroup {
+        final byte[] mKeySeed;
+        final CryptorMicImp.DerivedKeys mKeys;
+        // Credentials by metadata encryption key tag. The first credential wins on duplicates,
+        // like the order in which the scan filters are iterated.
+        final Map<ByteBuffer, PublicCredential> mCredentialsByTag = new HashMap<>();
+
+        KeyGroup(byte[] keySeed, CryptorMicImp.DerivedKeys keys) {
+            mKeySeed = keySeed;
+            mKeys = keys;
+        }
+    }
+
+    private static final class CacheKey {
+        final String mBluetoothAddress;
+        final ByteBuffer mSalt;
+
+        CacheKey(String bluetoothAddress, byte[] salt) {
+            mBluetoothAddress = bluetoothAddress;
+            mSalt = ByteBuffer.wrap(salt);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey that = (CacheKey) o;
+            return Objects.equals(mBluetoothAddress, that.mBluetoothAddress)
+                    && mSalt.equals(that.mSalt);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mBluetoothAddress, mSalt);
+        }
+    }
+
+    private static final class CacheEntry {
+        final byte[] mData;
+        // Null if the advertisement does not match any credential.
+        @Nullable
+        final Match mMatch;
+
+        CacheEntry(byte[] data, @Nullable Match match) {
+            mData = data;
+            mMatch = match;
+        }
+    }
+
+    private final List<KeyGroup> mGroups;
+    private final Object mCacheLock = new Object();
+    @GuardedBy("mCacheLock")
+    private final LinkedHashMap<CacheKey, CacheEntry> mCache =
+            new LinkedHashMap<>(16 /* initialCapacity */, 0.75f /* loadFactor */,
+                    true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+
+    private PresenceCredentialIndex(List<KeyGroup> groups) {
+        mGroups = groups;
+    }
+
+    /** Builds an index of the credentials of the {@link PresenceScanFilter}s. */
+    public static PresenceCredentialIndex create(List<ScanFilter> filters) {
+        final Map<ByteBuffer, KeyGroup> groupsByKey = new LinkedHashMap<>();
+        for (ScanFilter filter : filters) {
+            if (!(filter instanceof PresenceScanFilter)) {
+                continue;
+            }
+            for (PublicCredential credential : ((PresenceScanFilter) filter).getCredentials()) {
+                byte[] keySeed = credential.getAuthenticityKey();
+                byte[] tag = credential.getEncryptedMetadataKeyTag();
+                if (keySeed == null || tag == null) {
+                    continue;
+                }
+                KeyGroup group = groupsByKey.get(ByteBuffer.wrap(keySeed));
+                if (group == null) {
+                    CryptorMicImp.DerivedKeys keys = CryptorMicImp.DerivedKeys.derive(keySeed);
+                    if (keys == null) {
+                        continue;
+                    }
+                    group = new KeyGroup(keySeed, keys);
+                    groupsByKey.put(ByteBuffer.wrap(keySeed), group);
+                }
+                group.mCredentialsByTag.putIfAbsent(ByteBuffer.wrap(tag), credential);
+            }
+        }
+        return new PresenceCredentialIndex(new ArrayList<>(groupsByKey.values()));
+    }
+
+    /** Returns whether the index has no credentials, in which case nothing can match. */
+    public boolean isEmpty() {
+        return mGroups.isEmpty();
+    }
+
+    /**
+     * Finds the credential the advertisement was encrypted with.
+     *
+     * @param bluetoothAddress the address the advertisement was received from
+     * @param data the Presence service data
+     * @return the match, or {@code null} if no credential matches
+     */
+    @Nullable
+    public Match match(String bluetoothAddress, byte[] data) {
+        if (mGroups.isEmpty()) {
+            return null;
+        }
+        ExtendedAdvertisement.EncryptedSection section =
+                ExtendedAdvertisement.EncryptedSection.parse(data);
+        if (section == null) {
+            return null;
+        }
+
+        CacheKey key = new CacheKey(bluetoothAddress, section.getSalt());
+        synchronized (mCacheLock) {
+            CacheEntry entry = mCache.get(key);
+            if (entry != null && Arrays.equals(entry.mData, data)) {
+                return entry.mMatch;
+            }
+        }
+
+        Match match = decrypt(section);
+        synchronized (mCacheLock) {
+            mCache.put(key, new CacheEntry(data.clone(), match));
+        }
+        return match;
+    }
+
+    @Nullable
+    private Match decrypt(ExtendedAdvertisement.EncryptedSection section) {
+        for (KeyGroup group : mGroups) {
+            byte[] metadataEncryptionKey = section.decryptMetadataEncryptionKey(group.mKeys);
+            if (metadataEncryptionKey == null) {
+                continue;
+            }
+            byte[] tag = CryptorMicImp.generateMetadataEncryptionKeyTag(
+                    metadataEncryptionKey, group.mKeys);
+            PublicCredential credential = group.mCredentialsByTag.get(ByteBuffer.wrap(tag));
+            if (credential == null) {
+                continue;
+            }
+            ExtendedAdvertisement advertisement = ExtendedAdvertisement.fromEncryptedSection(
+                    section, group.mKeySeed, group.mKeys,
+                    credential.getEncryptedMetadataKeyTag());
+            if (advertisement != null) {
+                return new Match(advertisement, credential);
+            }
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    int getCacheSize() {
+        synchronized (mCacheLock) {
+            return mCache.size();
+        }
+    }
+}
@@ -34,7 +34,6 @@ import android.nearby.DataElement;
 import android.nearby.NearbyDevice;
 import android.nearby.NearbyDeviceParcelable;
 import android.nearby.PresenceDevice;
-import android.nearby.PresenceScanFilter;
 import android.nearby.PublicCredential;
 import android.nearby.ScanRequest;
 import android.os.ParcelUuid;
@@ -43,6 +42,7 @@ import android.util.Log;
 import com.android.internal.annotations.GuardedBy;
 import com.android.server.nearby.injector.Injector;
 import com.android.server.nearby.presence.ExtendedAdvertisement;
+import com.android.server.nearby.presence.PresenceCredentialIndex;
 import com.android.server.nearby.util.ArrayUtils;
 import com.android.server.nearby.util.ForegroundThread;
 
@@ -68,6 +68,10 @@ public class BleDiscoveryProvider extends AbstractDiscoveryProvider {
     @GuardedBy("mLock")
     @Nullable
     private List<android.nearby.ScanFilter> mScanFilters;
+    // Built from mScanFilters. Null when the filters are never set.
+    @GuardedBy("mLock")
+    @Nullable
+    private PresenceCredentialIndex mCredentialIndex;
     private android.bluetooth.le.ScanCallback mScanCallback =
             new android.bluetooth.le.ScanCallback() {
                 @Override
@@ -90,7 +94,7 @@ public class BleDiscoveryProvider extends AbstractDiscoveryProvider {
                         if (serviceDataMap != null) {
                             byte[] presenceData = serviceDataMap.get(PRESENCE_UUID);
                             if (presenceData != null) {
-                                setPresenceDevice(presenceData, builder, deviceName,
+                                setPresenceDevice(bleAddress, presenceData, builder, deviceName,
                                         scanResult.getRssi());
                             }
                         }
@@ -180,6 +184,7 @@ public class BleDiscoveryProvider extends AbstractDiscoveryProvider {
         synchronized (mLock) {
             if (mScanFilters != null) {
                 mScanFilters = null;
+                mCredentialIndex = null;
             }
         }
     }
@@ -192,8 +197,13 @@ public class BleDiscoveryProvider extends AbstractDiscoveryProvider {
 
     @Override
     protected void onSetScanFilters(List<android.nearby.ScanFilter> filters) {
+        // Derive the credential keys outside of the lock, as it is relatively expensive.
+        List<android.nearby.ScanFilter> scanFilters = filters == null ? null : List.copyOf(filters);
+        PresenceCredentialIndex index =
+                scanFilters == null ? null : PresenceCredentialIndex.create(scanFilters);
         synchronized (mLock) {
-            mScanFilters = filters == null ? null : List.copyOf(filters);
+            mScanFilters = scanFilters;
+            mCredentialIndex = index;
         }
     }
 
@@ -251,33 +261,25 @@ public class BleDiscoveryProvider extends AbstractDiscoveryProvider {
         return mScanCallback;
     }
 
-    private void setPresenceDevice(byte[] data, NearbyDeviceParcelable.Builder builder,
-            String deviceName, int rssi) {
+    private void setPresenceDevice(String bleAddress, byte[] data,
+            NearbyDeviceParcelable.Builder builder, String deviceName, int rssi) {
+        PresenceCredentialIndex index;
         synchronized (mLock) {
-            if (mScanFilters == null) {
-                return;
-            }
-            for (android.nearby.ScanFilter scanFilter : mScanFilters) {
-                if (scanFilter instanceof PresenceScanFilter) {
-                    // Iterate all possible authenticity key and identity combinations to decrypt
-                    // advertisement
-                    PresenceScanFilter presenceFilter = (PresenceScanFilter) scanFilter;
-                    for (PublicCredential credential : presenceFilter.getCredentials()) {
-                        ExtendedAdvertisement advertisement =
-                                ExtendedAdvertisement.fromBytes(data, credential);
-                        if (advertisement == null) {
-                            continue;
-                        }
-                        builder.setPresenceDevice(getPresenceDevice(advertisement, deviceName,
-                                rssi));
-                        builder.setEncryptionKeyTag(credential.getEncryptedMetadataKeyTag());
-                        if (!ArrayUtils.isEmpty(credential.getSecretId())) {
-                            builder.setDeviceId(Arrays.hashCode(credential.getSecretId()));
-                        }
-                        return;
-                    }
-                }
-            }
+            index = mCredentialIndex;
+        }
+        // Decrypt outside of the lock, so that scan filter updates are not blocked.
+        if (index == null) {
+            return;
+        }
+        PresenceCredentialIndex.Match match = index.match(bleAddress, data);
+        if (match == null) {
+            return;
+        }
+        PublicCredential credential = match.credential;
+        builder.setPresenceDevice(getPresenceDevice(match.advertisement, deviceName, rssi));
+        builder.setEncryptionKeyTag(credential.getEncryptedMetadataKeyTag());
+        if (!ArrayUtils.isEmpty(credential.getSecretId())) {
+            builder.setDeviceId(Arrays.hashCode(credential.getSecretId()));
         }
     }
 }
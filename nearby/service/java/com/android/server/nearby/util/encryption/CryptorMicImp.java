@@ -69,6 +69,58 @@ public class CryptorMicImp extends Cryptor {
     @Nullable
     private static CryptorMicImp sCryptor;
 
+    // Cipher.getInstance() is expensive, so each thread reuses its own cipher. Ciphers are not
+    // thread-safe, and every operation re-initializes the cipher with its key and IV.
+    private static final ThreadLocal<Cipher> sCipher = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(CIPHER_ALGORITHM);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            Log.e(TAG, "Failed to get cipher instance.", e);
+            return null;
+        }
+    });
+
+    /**
+     * Keys derived from an authenticity key.
+     *
+     * Deriving each key costs an HKDF, so callers that try the same credential against many
+     * advertisements should derive the keys once and reuse them.
+     */
+    public static final class DerivedKeys {
+        private final SecretKey mAesKey;
+        private final byte[] mMetadataKeyHmacKey;
+        private final byte[] mMicHmacKey;
+
+        private DerivedKeys(byte[] aesKey, byte[] metadataKeyHmacKey, byte[] micHmacKey) {
+            mAesKey = new SecretKeySpec(aesKey, ENCRYPT_ALGORITHM);
+            mMetadataKeyHmacKey = metadataKeyHmacKey;
+            mMicHmacKey = micHmacKey;
+        }
+
+        /**
+         * Derives the keys from the authenticity key.
+         *
+         * @return the derived keys or {@code null} when there is an error
+         */
+        @Nullable
+        public static DerivedKeys derive(byte[] keySeed) {
+            if (keySeed == null) {
+                return null;
+            }
+            try {
+                byte[] aesKey = generateAesKey(keySeed);
+                if (aesKey == null) {
+                    return null;
+                }
+                return new DerivedKeys(aesKey, generateMetadataKeyHmacKey(keySeed),
+                        generateMicHmacKey(keySeed));
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Failed to derive keys.", e);
+                return null;
+            }
+        }
+    }
+
     private CryptorMicImp() {
     }
 
@@ -99,6 +151,17 @@ public class CryptorMicImp extends Cryptor {
         }
     }
 
+    /**
+     * Generate the meta data encryption key tag with keys derived from the authenticity key.
+     *
+     * @return bytes generated by hmac
+     */
+    public static byte[] generateMetadataEncryptionKeyTag(byte[] metadataEncryptionKey,
+            DerivedKeys keys) {
+        return Cryptor.generateHmac(/* algorithm= */ HMAC_SHA256_ALGORITHM, /* input= */
+                metadataEncryptionKey, /* key= */ keys.mMetadataKeyHmacKey);
+    }
+
     /**
      * @param salt from the 2 bytes Salt Data Element
      */
@@ -137,11 +200,8 @@ public class CryptorMicImp extends Cryptor {
         if (input == null || iv == null || keySeed == null) {
             return null;
         }
-        Cipher cipher;
-        try {
-            cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            Log.e(TAG, "Failed to encrypt with secret key.", e);
+        Cipher cipher = sCipher.get();
+        if (cipher == null) {
             return null;
         }
 
@@ -156,7 +216,25 @@ public class CryptorMicImp extends Cryptor {
             Log.i(TAG, "Failed to generate the AES key.");
             return null;
         }
-        SecretKey secretKey = new SecretKeySpec(aesKey, ENCRYPT_ALGORITHM);
+        return doEncrypt(cipher, input, iv, new SecretKeySpec(aesKey, ENCRYPT_ALGORITHM));
+    }
+
+    /** Encrypts with the AES key derived from the authenticity key. */
+    @Nullable
+    public byte[] encrypt(byte[] input, byte[] iv, DerivedKeys keys) {
+        if (input == null || iv == null || keys == null) {
+            return null;
+        }
+        Cipher cipher = sCipher.get();
+        if (cipher == null) {
+            return null;
+        }
+        return doEncrypt(cipher, input, iv, keys.mAesKey);
+    }
+
+    @Nullable
+    private static byte[] doEncrypt(Cipher cipher, byte[] input, byte[] iv,
+            SecretKey secretKey) {
         try {
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
@@ -179,13 +257,6 @@ public class CryptorMicImp extends Cryptor {
             return null;
         }
 
-        Cipher cipher;
-        try {
-            cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            Log.e(TAG, "Failed to get cipher instance.", e);
-            return null;
-        }
         byte[] aesKey;
         try {
             aesKey = generateAesKey(keySeed);
@@ -193,7 +264,24 @@ public class CryptorMicImp extends Cryptor {
             Log.e(TAG, "Decryption failed because failed to generate the AES key.", e);
             return null;
         }
-        SecretKey secretKey = new SecretKeySpec(aesKey, ENCRYPT_ALGORITHM);
+        return doDecrypt(encryptedData, iv, new SecretKeySpec(aesKey, ENCRYPT_ALGORITHM));
+    }
+
+    /** Decrypts with the AES key derived from the authenticity key. */
+    @Nullable
+    public byte[] decrypt(byte[] encryptedData, byte[] iv, DerivedKeys keys) {
+        if (encryptedData == null || iv == null || keys == null) {
+            return null;
+        }
+        return doDecrypt(encryptedData, iv, keys.mAesKey);
+    }
+
+    @Nullable
+    private static byte[] doDecrypt(byte[] encryptedData, byte[] iv, SecretKey secretKey) {
+        Cipher cipher = sCipher.get();
+        if (cipher == null) {
+            return null;
+        }
         try {
             cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
@@ -216,6 +304,20 @@ public class CryptorMicImp extends Cryptor {
         return res;
     }
 
+    /** Generates the MIC with the HMAC key derived from the authenticity key. */
+    @Nullable
+    public byte[] sign(byte[] data, DerivedKeys keys) {
+        if (data == null || keys == null) {
+            return null;
+        }
+        byte[] hmac = Cryptor.generateHmac(/* algorithm= */ HMAC_SHA256_ALGORITHM, /* input= */
+                data, /* key= */ keys.mMicHmacKey);
+        if (ArrayUtils.isEmpty(hmac)) {
+            return null;
+        }
+        return Arrays.copyOf(hmac, MIC_LENGTH);
+    }
+
     @Override
     public int getSignatureLength() {
         return MIC_LENGTH;
@@ -226,6 +328,12 @@ public class CryptorMicImp extends Cryptor {
         return Arrays.equals(sign(data, key), signature);
     }
 
+    /** Verifies the MIC with the HMAC key derived from the authenticity key. */
+    public boolean verify(byte[] data, DerivedKeys keys, byte[] signature) {
+        byte[] mic = sign(data, keys);
+        return mic != null && Arrays.equals(mic, signature);
+    }
+
     /**
      * Generates a 16 bytes HMAC tag. This is used for decryptor to verify if the computed HMAC tag
      * is equal to HMAC tag in advertisement to see data integrity.
@@ -155,6 +155,32 @@ public class ScanRequestTest {
         assertThat(request).isEqualTo(originalRequest);
     }
 
+    /** Verify parceling with result rate limits. */
+    @Test
+    public void testParceling_rateLimits() {
+        ScanRequest originalRequest = new ScanRequest.Builder()
+                .setScanType(SCAN_TYPE_NEARBY_PRESENCE)
+                .setMinUpdateIntervalMillis(1000)
+                .setRssiChangeThreshold(5)
+                .build();
+        assertThat(originalRequest.getMinUpdateIntervalMillis()).isEqualTo(1000);
+        assertThat(originalRequest.getRssiChangeThreshold()).isEqualTo(5);
+
+        ScanRequest request = writeReadFromParcel(originalRequest);
+
+        assertThat(request).isEqualTo(originalRequest);
+        assertThat(request.getMinUpdateIntervalMillis()).isEqualTo(1000);
+        assertThat(request.getRssiChangeThreshold()).isEqualTo(5);
+        assertThat(request).isNotEqualTo(
+                new ScanRequest.Builder().setScanType(SCAN_TYPE_NEARBY_PRESENCE).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScanRequestBuilder_negativeRssiChangeThreshold() {
+        new ScanRequest.Builder().setScanType(SCAN_TYPE_NEARBY_PRESENCE)
+                .setRssiChangeThreshold(-1);
+    }
+
     /** Verify parceling with null WorkSource. */
     @Test
     public void testParceling_nullWorkSource() {
@@ -23,9 +23,12 @@ import static android.Manifest.permission.WRITE_ALLOWLISTED_DEVICE_CONFIG;
 import static com.android.server.nearby.NearbyConfiguration.NEARBY_ENABLE_PRESENCE_BROADCAST_LEGACY;
 import static com.android.server.nearby.NearbyConfiguration.NEARBY_SUPPORT_TEST_APP;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -44,6 +47,7 @@ import androidx.test.core.app.ApplicationProvider;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.android.server.nearby.NearbyConfiguration;
+import com.android.server.nearby.presence.ExtendedAdvertisement;
 import com.android.server.nearby.provider.BleBroadcastProvider;
 
 import com.google.common.util.concurrent.MoreExecutors;
@@ -51,6 +55,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -63,6 +68,8 @@ import java.util.Collections;
 public class BroadcastProviderManagerTest {
     private static final String NAMESPACE = NearbyConfiguration.getNamespace();
     private static final byte[] IDENTITY = new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+    private static final byte[] IDENTITY_16 =
+            new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
     private static final int MEDIUM_TYPE_BLE = 0;
     private static final byte[] SALT = {2, 3};
     private static final byte TX_POWER = 4;
@@ -121,6 +128,36 @@ public class BroadcastProviderManagerTest {
         verify(mBinder).linkToDeath(any(), eq(0));
     }
 
+    @Test
+    public void testStartAdvertising_v1_templateReusedAcrossSaltRotation() throws Exception {
+        PrivateCredential privateCredential = new PrivateCredential.Builder(SECRET_ID,
+                AUTHENTICITY_KEY, IDENTITY_16, DEVICE_NAME)
+                .setIdentityType(PresenceCredential.IDENTITY_TYPE_PRIVATE)
+                .build();
+        PresenceBroadcastRequest.Builder builder =
+                new PresenceBroadcastRequest.Builder(Collections.singletonList(MEDIUM_TYPE_BLE),
+                        SALT, privateCredential)
+                        .setVersion(BroadcastRequest.PRESENCE_VERSION_V1)
+                        .addAction(PRESENCE_ACTION);
+        mBroadcastProviderManager.startBroadcast(builder.build(), mBroadcastListener);
+        mBroadcastProviderManager.stopBroadcast(mBroadcastListener);
+        assertThat(mBroadcastProviderManager.getCachedTemplateCount()).isEqualTo(1);
+
+        PresenceBroadcastRequest rotated =
+                new PresenceBroadcastRequest.Builder(Collections.singletonList(MEDIUM_TYPE_BLE),
+                        new byte[]{4, 5}, privateCredential)
+                        .setVersion(BroadcastRequest.PRESENCE_VERSION_V1)
+                        .addAction(PRESENCE_ACTION).build();
+        mBroadcastProviderManager.startBroadcast(rotated, mBroadcastListener);
+        assertThat(mBroadcastProviderManager.getCachedTemplateCount()).isEqualTo(1);
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(mBleBroadcastProvider, times(2)).start(eq(BroadcastRequest.PRESENCE_VERSION_V1),
+                captor.capture(), any(BleBroadcastProvider.BroadcastListener.class));
+        assertThat(captor.getAllValues().get(1))
+                .isEqualTo(ExtendedAdvertisement.createFromRequest(rotated).toBytes());
+    }
+
     @Test
     public void testStopAdvertising() {
         mBroadcastProviderManager.startBroadcast(mBroadcastRequest, mBroadcastListener);
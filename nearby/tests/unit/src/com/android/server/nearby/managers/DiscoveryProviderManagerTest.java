@@ -43,6 +43,7 @@ import android.os.IBinder;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.android.server.nearby.injector.Injector;
+import com.android.server.nearby.managers.registration.DiscoveryRegistration;
 import com.android.server.nearby.provider.BleDiscoveryProvider;
 import com.android.server.nearby.provider.ChreCommunication;
 import com.android.server.nearby.provider.ChreDiscoveryProvider;
@@ -163,6 +164,23 @@ public class DiscoveryProviderManagerTest {
         mDiscoveryProviderManager.onNearbyDeviceDiscovered(nearbyDeviceParcelable);
     }
 
+    @Test
+    public void testMergeRegistrations_rateLimits() {
+        ScanRequest limited = new ScanRequest.Builder().setScanType(SCAN_TYPE_NEARBY_PRESENCE)
+                .setMinUpdateIntervalMillis(1000).setRssiChangeThreshold(3).build();
+        ScanRequest lessLimited = new ScanRequest.Builder().setScanType(SCAN_TYPE_NEARBY_PRESENCE)
+                .setMinUpdateIntervalMillis(2000).setRssiChangeThreshold(1).build();
+        MergedDiscoveryRequest merged = mDiscoveryProviderManager.mergeRegistrations(List.of(
+                new DiscoveryRegistration(mDiscoveryProviderManager, limited, mScanListener,
+                        mExecutor, mCallerIdentity, new Object(), mAppOpsManager),
+                new DiscoveryRegistration(mDiscoveryProviderManager, lessLimited, mScanListener,
+                        mExecutor, mCallerIdentity, new Object(), mAppOpsManager)));
+
+        // Each registration must still see every result it asked for.
+        assertThat(merged.getMinUpdateIntervalMillis()).isEqualTo(1000);
+        assertThat(merged.getRssiChangeThreshold()).isEqualTo(1);
+    }
+
     @Test
     public void testInvalidateProviderScanMode() {
         mDiscoveryProviderManager.invalidateProviderScanMode();
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.nearby.managers;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.nearby.NearbyDeviceParcelable;
+import android.nearby.PresenceDevice;
+import android.nearby.ScanRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ScanResultDeduplicator} class.
+ */
+public class ScanResultDeduplicatorTest {
+    private static final long DEVICE_ID = 122;
+    private static final int RSSI = -40;
+    private static final byte[] DATA = new byte[]{1, 2, 3};
+
+    private ScanResultDeduplicator mDeduplicator;
+
+    @Before
+    public void setUp() {
+        mDeduplicator = new ScanResultDeduplicator();
+    }
+
+    private static NearbyDeviceParcelable.Builder deviceBuilder() {
+        return new NearbyDeviceParcelable.Builder()
+                .setDeviceId(DEVICE_ID)
+                .setName("test")
+                .setRssi(RSSI)
+                .setScanType(ScanRequest.SCAN_TYPE_NEARBY_PRESENCE)
+                .setData(DATA);
+    }
+
+    private static PresenceDevice presenceDevice(int rssi, long timestampMillis) {
+        return new PresenceDevice.Builder("deviceId", new byte[]{1, 2}, new byte[]{3, 4},
+                new byte[]{5, 6})
+                .setRssi(rssi)
+                .setDiscoveryTimestampMillis(timestampMillis)
+                .build();
+    }
+
+    @Test
+    public void test_duplicatesDropped() {
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 10)).isFalse();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 20)).isFalse();
+        // Other devices are tracked separately.
+        assertThat(mDeduplicator.shouldForward(
+                deviceBuilder().setDeviceId(DEVICE_ID + 1).build(), 20)).isTrue();
+    }
+
+    @Test
+    public void test_payloadChangeForwarded() {
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        assertThat(mDeduplicator.shouldForward(
+                deviceBuilder().setData(new byte[]{1, 2, 4}).build(), 10)).isTrue();
+        assertThat(mDeduplicator.shouldForward(
+                deviceBuilder().setData(new byte[]{1, 2, 4}).build(), 20)).isFalse();
+    }
+
+    @Test
+    public void test_unchangedForwardedAfterRefreshInterval() {
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(),
+                ScanResultDeduplicator.REFRESH_INTERVAL_MS - 1)).isFalse();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(),
+                ScanResultDeduplicator.REFRESH_INTERVAL_MS)).isTrue();
+    }
+
+    @Test
+    public void test_rssiChange_defaultThresholds() {
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().setRssi(RSSI - 1).build(), 0))
+                .isTrue();
+    }
+
+    @Test
+    public void test_rssiChange_thresholds() {
+        mDeduplicator.setThresholds(100 /* minUpdateIntervalMillis */, 5 /* rssiChangeThreshold */);
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        // Large change, but too soon.
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().setRssi(RSSI - 10).build(), 50))
+                .isFalse();
+        // Small change.
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().setRssi(RSSI - 4).build(), 150))
+                .isFalse();
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().setRssi(RSSI - 5).build(), 150))
+                .isTrue();
+        // The RSSI change is relative to the last forwarded result.
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().setRssi(RSSI - 9).build(), 300))
+                .isFalse();
+    }
+
+    @Test
+    public void test_presenceDeviceTimestampIgnored() {
+        assertThat(mDeduplicator.shouldForward(
+                deviceBuilder().setPresenceDevice(presenceDevice(RSSI, 1000)).build(), 0))
+                .isTrue();
+        assertThat(mDeduplicator.shouldForward(
+                deviceBuilder().setPresenceDevice(presenceDevice(RSSI, 2000)).build(), 10))
+                .isFalse();
+    }
+
+    @Test
+    public void test_payloadEquals() {
+        NearbyDeviceParcelable device =
+                deviceBuilder().setPresenceDevice(presenceDevice(RSSI, 1000)).build();
+        NearbyDeviceParcelable sameExceptRssi = deviceBuilder().setRssi(RSSI - 3)
+                .setPresenceDevice(presenceDevice(RSSI - 3, 2000)).build();
+        assertThat(ScanResultDeduplicator.payloadEquals(device, sameExceptRssi)).isTrue();
+        assertThat(ScanResultDeduplicator.payloadHashCode(device))
+                .isEqualTo(ScanResultDeduplicator.payloadHashCode(sameExceptRssi));
+
+        assertThat(ScanResultDeduplicator.payloadEquals(device,
+                deviceBuilder().setName("other").build())).isFalse();
+        assertThat(ScanResultDeduplicator.payloadEquals(device, null)).isFalse();
+    }
+
+    @Test
+    public void test_clear() {
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 0)).isTrue();
+        mDeduplicator.clear();
+        assertThat(mDeduplicator.size()).isEqualTo(0);
+        assertThat(mDeduplicator.shouldForward(deviceBuilder().build(), 10)).isTrue();
+    }
+
+    @Test
+    public void test_bounded() {
+        for (int i = 0; i < ScanResultDeduplicator.MAX_TRACKED_DEVICES + 10; i++) {
+            mDeduplicator.shouldForward(deviceBuilder().setDeviceId(i).build(), 0);
+        }
+        assertThat(mDeduplicator.size()).isEqualTo(ScanResultDeduplicator.MAX_TRACKED_DEVICES);
+    }
+}
@@ -180,6 +180,61 @@ public class DiscoveryRegistrationTest {
         assertThat(mDiscoveryRegistration.getDiscoveryOnLostAlarms().get(deviceId)).isNotNull();
     }
 
+    @Test
+    public void test_onUpdated_rssiChangeThreshold() throws Exception {
+        final long deviceId = 124;
+        ScanRequest scanRequest = new ScanRequest.Builder().setScanType(
+                ScanRequest.SCAN_TYPE_NEARBY_PRESENCE).addScanFilter(mFilter)
+                .setRssiChangeThreshold(5).build();
+        DiscoveryRegistration registration = new DiscoveryRegistration(mOwner, scanRequest,
+                mCallback, Executors.newSingleThreadExecutor(), mIdentity, mMultiplexLock,
+                mAppOpsManager);
+        NearbyDeviceParcelable.Builder builder = new NearbyDeviceParcelable.Builder().setDeviceId(
+                deviceId).setName("test").setTxPower(RSSI + 1).setRssi(RSSI).setScanType(
+                ScanRequest.SCAN_TYPE_NEARBY_PRESENCE).setAction(ACTION).setEncryptionKeyTag(
+                METADATA_ENCRYPTION_KEY_TAG);
+        runOperation(registration.onNearbyDeviceDiscovered(builder.build()));
+        verify(mCallback, times(1)).onDiscovered(eq(builder.build()));
+        reset(mCallback);
+
+        // A small RSSI change is not reported, but still postpones the lost timeout.
+        assertThat(registration.onNearbyDeviceDiscovered(builder.setRssi(RSSI - 4).build()))
+                .isNull();
+        assertThat(registration.getDiscoveryOnLostAlarms().get(deviceId)).isNotNull();
+
+        runOperation(registration.onNearbyDeviceDiscovered(builder.setRssi(RSSI - 5).build()));
+        verify(mCallback, times(1)).onUpdated(eq(builder.build()));
+        reset(mCallback);
+
+        // Payload changes are always reported.
+        runOperation(registration.onNearbyDeviceDiscovered(
+                builder.setRssi(RSSI - 6).setName("test2").build()));
+        verify(mCallback, times(1)).onUpdated(eq(builder.build()));
+    }
+
+    @Test
+    public void test_onUpdated_minUpdateInterval() throws Exception {
+        final long deviceId = 125;
+        ScanRequest scanRequest = new ScanRequest.Builder().setScanType(
+                ScanRequest.SCAN_TYPE_NEARBY_PRESENCE).addScanFilter(mFilter)
+                .setMinUpdateIntervalMillis(60_000).build();
+        DiscoveryRegistration registration = new DiscoveryRegistration(mOwner, scanRequest,
+                mCallback, Executors.newSingleThreadExecutor(), mIdentity, mMultiplexLock,
+                mAppOpsManager);
+        NearbyDeviceParcelable.Builder builder = new NearbyDeviceParcelable.Builder().setDeviceId(
+                deviceId).setName("test").setTxPower(RSSI + 1).setRssi(RSSI).setScanType(
+                ScanRequest.SCAN_TYPE_NEARBY_PRESENCE).setAction(ACTION).setEncryptionKeyTag(
+                METADATA_ENCRYPTION_KEY_TAG);
+        runOperation(registration.onNearbyDeviceDiscovered(builder.build()));
+        verify(mCallback, times(1)).onDiscovered(eq(builder.build()));
+
+        assertThat(registration.onNearbyDeviceDiscovered(builder.setRssi(RSSI - 20).build()))
+                .isNull();
+        runOperation(registration.onNearbyDeviceDiscovered(
+                builder.setName("test2").build()));
+        verify(mCallback, times(1)).onUpdated(eq(builder.build()));
+    }
+
     @Test
     public void test_onLost() throws Exception {
         final long deviceId = 123;
@@ -185,6 +185,40 @@ public class ExtendedAdvertisementTest {
         assertThat(originalAdvertisement.getLength()).isEqualTo(EXTENDED_ADVERTISEMENT_BYTE_LENGTH);
     }
 
+    @Test
+    public void test_template_withSalt() {
+        ExtendedAdvertisement.Template template =
+                ExtendedAdvertisement.Template.createFromRequest(mBuilder.build());
+        assertThat(template.matches(mBuilder.build())).isTrue();
+
+        // The template produces the same bytes as encoding the request from scratch.
+        ExtendedAdvertisement advertisement = template.withSalt(SALT);
+        assertThat(advertisement.toBytes())
+                .isEqualTo(ExtendedAdvertisement.createFromRequest(mBuilder.build()).toBytes());
+
+        byte[] otherSalt = new byte[]{4, 5};
+        PresenceBroadcastRequest rotated =
+                new PresenceBroadcastRequest.Builder(Collections.singletonList(MEDIUM_TYPE_BLE),
+                        otherSalt, mPrivateCredential)
+                        .setVersion(BroadcastRequest.PRESENCE_VERSION_V1)
+                        .addAction(PRESENCE_ACTION_1)
+                        .addAction(PRESENCE_ACTION_2)
+                        .addExtendedProperty(new DataElement(DATA_TYPE_BLE_ADDRESS, BLE_ADDRESS))
+                        .addExtendedProperty(new DataElement(DATA_TYPE_MODEL_ID, MODE_ID_DATA))
+                        .build();
+        assertThat(template.matches(rotated)).isTrue();
+        ExtendedAdvertisement rotatedAdvertisement = template.withSalt(otherSalt);
+        assertThat(rotatedAdvertisement.toBytes())
+                .isEqualTo(ExtendedAdvertisement.createFromRequest(rotated).toBytes());
+        assertThat(rotatedAdvertisement.toBytes()).isNotEqualTo(advertisement.toBytes());
+        assertThat(ExtendedAdvertisement.fromBytes(rotatedAdvertisement.toBytes(),
+                mPublicCredential).getSalt()).isEqualTo(otherSalt);
+
+        assertThat(template.withSalt(new byte[]{1, 2, 3})).isNull();
+        assertThat(template.matches(mBuilder.addAction(3).build())).isFalse();
+        assertThat(template.matches(mBuilderCredentialInfo.build())).isFalse();
+    }
+
     @Test
     public void test_createFromRequest_credentialInfo() {
         ExtendedAdvertisement originalAdvertisement = ExtendedAdvertisement.createFromRequest(
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.nearby.presence;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.nearby.BroadcastRequest;
+import android.nearby.PresenceBroadcastRequest;
+import android.nearby.PresenceCredential;
+import android.nearby.PresenceScanFilter;
+import android.nearby.PrivateCredential;
+import android.nearby.PublicCredential;
+import android.nearby.ScanFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class PresenceCredentialIndexTest {
+    private static final String BLE_ADDRESS = "00:11:22:33:44:55";
+    private static final String BLE_ADDRESS_2 = "00:11:22:33:44:66";
+    private static final int MEDIUM_TYPE_BLE = 0;
+    private static final int PRESENCE_ACTION = 1;
+    private static final byte[] SALT = {2, 3};
+    private static final byte[] SECRET_ID = new byte[]{1, 2, 3, 4};
+    private static final byte[] SECRET_ID_2 = new byte[]{5, 6, 7, 8};
+    private static final byte[] METADATA_ENCRYPTION_KEY =
+            new byte[]{-39, -55, 115, 78, -57, 40, 115, 0, -112, 86, -86, 7, -42, 68, 11, 12};
+    private static final byte[] AUTHENTICITY_KEY =
+            new byte[]{-97, 10, 107, -86, 25, 65, -54, -95, -72, 59, 54, 93, 9, 3, -24, -88};
+    private static final byte[] AUTHENTICITY_KEY_2 =
+            new byte[]{-89, 88, -50, -42, -99, 57, 84, -24, 121, 1, -104, -8, -26, -73, -36, 100};
+    private static final byte[] PUBLIC_KEY = new byte[]{1, 2, 3};
+    private static final byte[] ENCRYPTED_METADATA_BYTES = new byte[]{4, 5, 6};
+    private static final byte[] METADATA_ENCRYPTION_KEY_TAG =
+            new byte[]{-100, 102, -35, -99, 66, -85, -55, -58, -52, 11, -74, 102, 109, -89, 1, -34,
+                    45, 43, 107, -60, 99, -21, 28, 34, 31, -100, -96, 108, 108, -18, 107, 5};
+    private static final byte[] OTHER_METADATA_ENCRYPTION_KEY_TAG =
+            new byte[]{-54, -39, 41, 16, 61, 79, -116, 14, 94, 0, 84, 45, 26, -108, 66, -48, 124,
+                    -81, 61, 56, -98, -47, 14, -19, 116, 106, -27, 123, -81, 49, 83, -42};
+
+    private byte[] mAdvertisement;
+    private PublicCredential mCredential;
+    private PublicCredential mSameKeyCredential;
+    private PublicCredential mOtherKeyCredential;
+
+    @Before
+    public void setUp() {
+        PrivateCredential privateCredential =
+                new PrivateCredential.Builder(
+                        SECRET_ID, AUTHENTICITY_KEY, METADATA_ENCRYPTION_KEY, "test_device")
+                        .setIdentityType(PresenceCredential.IDENTITY_TYPE_PRIVATE)
+                        .build();
+        mAdvertisement = ExtendedAdvertisement.createFromRequest(
+                new PresenceBroadcastRequest.Builder(Collections.singletonList(MEDIUM_TYPE_BLE),
+                        SALT, privateCredential)
+                        .setVersion(BroadcastRequest.PRESENCE_VERSION_V1)
+                        .addAction(PRESENCE_ACTION)
+                        .build()).toBytes();
+
+        mCredential = new PublicCredential.Builder(SECRET_ID, AUTHENTICITY_KEY, PUBLIC_KEY,
+                ENCRYPTED_METADATA_BYTES, METADATA_ENCRYPTION_KEY_TAG).build();
+        mSameKeyCredential = new PublicCredential.Builder(SECRET_ID_2, AUTHENTICITY_KEY,
+                PUBLIC_KEY, ENCRYPTED_METADATA_BYTES, OTHER_METADATA_ENCRYPTION_KEY_TAG).build();
+        mOtherKeyCredential = new PublicCredential.Builder(SECRET_ID_2, AUTHENTICITY_KEY_2,
+                PUBLIC_KEY, ENCRYPTED_METADATA_BYTES, METADATA_ENCRYPTION_KEY_TAG).build();
+    }
+
+    private static List<ScanFilter> filtersOf(PublicCredential... credentials) {
+        PresenceScanFilter.Builder builder = new PresenceScanFilter.Builder()
+                .setMaxPathLoss(1)
+                .addPresenceAction(PRESENCE_ACTION);
+        for (PublicCredential credential : credentials) {
+            builder.addCredential(credential);
+        }
+        return List.of(builder.build());
+    }
+
+    @Test
+    public void test_match() {
+        PresenceCredentialIndex index = PresenceCredentialIndex.create(
+                filtersOf(mOtherKeyCredential, mSameKeyCredential, mCredential));
+
+        PresenceCredentialIndex.Match match = index.match(BLE_ADDRESS, mAdvertisement);
+        assertThat(match).isNotNull();
+        assertThat(match.credential).isSameInstanceAs(mCredential);
+        assertThat(match.advertisement.getIdentity()).isEqualTo(METADATA_ENCRYPTION_KEY);
+        assertThat(match.advertisement.getSalt()).isEqualTo(SALT);
+        assertThat(match.advertisement.getActions()).containsExactly(PRESENCE_ACTION);
+    }
+
+    @Test
+    public void test_match_sameResultAsFromBytes() {
+        PresenceCredentialIndex index = PresenceCredentialIndex.create(filtersOf(mCredential));
+        ExtendedAdvertisement expected = ExtendedAdvertisement.fromBytes(mAdvertisement,
+                mCredential);
+
+        PresenceCredentialIndex.Match match = index.match(BLE_ADDRESS, mAdvertisement);
+        assertThat(match.advertisement.getDataElements())
+                .containsExactlyElementsIn(expected.getDataElements());
+        assertThat(match.advertisement.getIdentityType()).isEqualTo(expected.getIdentityType());
+    }
+
+    @Test
+    public void test_match_noMatchingCredential() {
+        PresenceCredentialIndex index = PresenceCredentialIndex.create(
+                filtersOf(mOtherKeyCredential, mSameKeyCredential));
+        assertThat(index.match(BLE_ADDRESS, mAdvertisement)).isNull();
+
+        assertThat(PresenceCredentialIndex.create(List.of()).isEmpty()).isTrue();
+        assertThat(PresenceCredentialIndex.create(List.of())
+                .match(BLE_ADDRESS, mAdvertisement)).isNull();
+    }
+
+    @Test
+    public void test_match_cached() {
+        PresenceCredentialIndex index = PresenceCredentialIndex.create(filtersOf(mCredential));
+
+        PresenceCredentialIndex.Match match = index.match(BLE_ADDRESS, mAdvertisement);
+        assertThat(index.getCacheSize()).isEqualTo(1);
+        // Same address and salt: the cached result is returned.
+        assertThat(index.match(BLE_ADDRESS, mAdvertisement)).isSameInstanceAs(match);
+        assertThat(index.getCacheSize()).isEqualTo(1);
+
+        // Another address is cached separately.
+        PresenceCredentialIndex.Match match2 = index.match(BLE_ADDRESS_2, mAdvertisement);
+        assertThat(match2).isNotNull();
+        assertThat(match2).isNotSameInstanceAs(match);
+        assertThat(index.getCacheSize()).isEqualTo(2);
+
+        // Failed matches are cached too.
+        PresenceCredentialIndex otherIndex =
+                PresenceCredentialIndex.create(filtersOf(mOtherKeyCredential));
+        assertThat(otherIndex.match(BLE_ADDRESS, mAdvertisement)).isNull();
+        assertThat(otherIndex.getCacheSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_match_cacheBounded() {
+        PresenceCredentialIndex index = PresenceCredentialIndex.create(filtersOf(mCredential));
+        for (int i = 0; i < PresenceCredentialIndex.MAX_CACHED_RESULTS + 10; i++) {
+            index.match("address" + i, mAdvertisement);
+        }
+        assertThat(index.getCacheSize()).isEqualTo(PresenceCredentialIndex.MAX_CACHED_RESULTS);
+    }
+}
@@ -79,4 +79,22 @@ public final class CryptorMicImpTest {
         CryptorMicImp v1Cryptor = CryptorMicImp.getInstance();
         assertThat(v1Cryptor.generateHmacTag(DATA, /* authenticityKey= */ null)).isNull();
     }
+
+    @Test
+    public void test_derivedKeys_sameResult() throws Exception {
+        CryptorMicImp v1Cryptor = CryptorMicImp.getInstance();
+        CryptorMicImp.DerivedKeys keys = CryptorMicImp.DerivedKeys.derive(AUTHENTICITY_KEY);
+        byte[] nonce = CryptorMicImp.generateAdvNonce(SALT);
+
+        assertThat(v1Cryptor.decrypt(getEncryptedData(), nonce, keys)).isEqualTo(DATA);
+        assertThat(v1Cryptor.verify(DATA, keys, v1Cryptor.sign(DATA, AUTHENTICITY_KEY))).isTrue();
+        assertThat(v1Cryptor.verify(DATA, keys, DATA)).isFalse();
+        assertThat(CryptorMicImp.generateMetadataEncryptionKeyTag(DATA, keys))
+                .isEqualTo(CryptorMicImp.generateMetadataEncryptionKeyTag(DATA, AUTHENTICITY_KEY));
+    }
+
+    @Test
+    public void test_derivedKeys_nullKey() {
+        assertThat(CryptorMicImp.DerivedKeys.derive(/* keySeed= */ null)).isNull();
+    }
 }
@@ -30,6 +30,8 @@ import androidx.annotation.VisibleForTesting;
 import com.android.server.net.ct.CertificateTransparencyLogger.CTLogListUpdateState;
 import com.android.server.net.ct.DownloadHelper.DownloadStatus;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
@@ -102,6 +104,16 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
         return downloadId;
     }
 
+    @VisibleForTesting
+    long startDeltaDownload(CompatibilityVersion compatVersion, String installedVersion) {
+        long downloadId = download(compatVersion.getDeltaUrl(installedVersion));
+        if (downloadId != -1) {
+            mDataStore.setPropertyLong(compatVersion.getDeltaPropertyName(), downloadId);
+            mDataStore.store();
+        }
+        return downloadId;
+    }
+
     @Override
     public void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
@@ -132,6 +144,11 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
                 handleContentDownloadCompleted(compatVersion, completedId);
                 return;
             }
+
+            if (getDeltaDownloadId(compatVersion) == completedId) {
+                handleDeltaDownloadCompleted(compatVersion, completedId);
+                return;
+            }
         }
 
         Log.i(TAG, "Download id " + completedId + " is not recognized.");
@@ -173,6 +190,20 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
             handleDownloadFailed(status);
             return;
         }
+
+        // When a log list is already installed, try to download only the changes since then.
+        String installedVersion = compatVersion.getInstalledVersion();
+        if (installedVersion != null
+                && startDeltaDownload(compatVersion, installedVersion) != -1) {
+            if (Config.DEBUG) {
+                Log.d(TAG, "Delta download started for " + compatVersion.getCompatVersion());
+            }
+            return;
+        }
+        startFullContentDownload(compatVersion);
+    }
+
+    private void startFullContentDownload(CompatibilityVersion compatVersion) {
         if (startContentDownload(compatVersion) == -1) {
             Log.e(TAG, "Content download failed for" + compatVersion.getCompatVersion());
         } else if (Config.DEBUG) {
@@ -180,6 +211,56 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
         }
     }
 
+    private void handleDeltaDownloadCompleted(
+            CompatibilityVersion compatVersion, long downloadId) {
+        DownloadStatus status = mDownloadHelper.getDownloadStatus(downloadId);
+        if (!status.isSuccessful()) {
+            // There may be no delta for the installed version, e.g. if it is too old.
+            Log.i(TAG, "Delta download failed with " + status + ", downloading full log list");
+            startFullContentDownload(compatVersion);
+            return;
+        }
+
+        Uri deltaUri = getDeltaDownloadUri(compatVersion);
+        Uri metadataUri = getMetadataDownloadUri(compatVersion);
+        if (deltaUri == null || metadataUri == null) {
+            Log.e(TAG, "Invalid URIs");
+            return;
+        }
+
+        File newLogListFile;
+        try (InputStream deltaStream = mContext.getContentResolver().openInputStream(deltaUri)) {
+            newLogListFile = compatVersion.applyDelta(deltaStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not apply delta, downloading full log list", e);
+            startFullContentDownload(compatVersion);
+            return;
+        }
+
+        try {
+            // The metadata is the signature of the full new log list, so this also verifies that
+            // the delta was applied correctly.
+            LogListUpdateStatus updateStatus =
+                    mSignatureVerifier.verify(Uri.fromFile(newLogListFile), metadataUri);
+            if (!updateStatus.isSignatureVerified()) {
+                Log.w(TAG, "Log list reconstructed from delta did not pass verification");
+                startFullContentDownload(compatVersion);
+                return;
+            }
+
+            try (InputStream inputStream = new FileInputStream(newLogListFile)) {
+                updateStatus = compatVersion.install(inputStream, updateStatus.toBuilder());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not install new content", e);
+                return;
+            }
+
+            mLogger.logCTLogListUpdateStateChangedEvent(updateStatus);
+        } finally {
+            newLogListFile.delete();
+        }
+    }
+
     private void handleContentDownloadCompleted(
             CompatibilityVersion compatVersion, long downloadId) {
         DownloadStatus status = mDownloadHelper.getDownloadStatus(downloadId);
@@ -257,6 +338,12 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
                 compatVersion.getContentPropertyName(), /* defaultValue= */ -1);
     }
 
+    @VisibleForTesting
+    long getDeltaDownloadId(CompatibilityVersion compatVersion) {
+        return mDataStore.getPropertyLong(
+                compatVersion.getDeltaPropertyName(), /* defaultValue= */ -1);
+    }
+
     @VisibleForTesting
     boolean hasPublicKeyDownloadId() {
         return getPublicKeyDownloadId() != -1;
@@ -287,4 +374,8 @@ class CertificateTransparencyDownloader extends BroadcastReceiver {
     private Uri getContentDownloadUri(CompatibilityVersion compatVersion) {
         return mDownloadHelper.getUri(getContentDownloadId(compatVersion));
     }
+
+    private Uri getDeltaDownloadUri(CompatibilityVersion compatVersion) {
+        return mDownloadHelper.getUri(getDeltaDownloadId(compatVersion));
+    }
 }
@@ -15,9 +15,9 @@
  */
 package com.android.server.net.ct;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
+import android.annotation.Nullable;
 import android.annotation.RequiresApi;
+import android.net.Uri;
 import android.os.Build;
 import android.system.ErrnoException;
 import android.system.Os;
@@ -28,13 +28,14 @@ import androidx.annotation.VisibleForTesting;
 import com.android.server.net.ct.CertificateTransparencyLogger.CTLogListUpdateState;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /** Represents a compatibility version directory. */
 @RequiresApi(Build.VERSION_CODES.VANILLA_ICE_CREAM)
@@ -46,6 +47,11 @@ class CompatibilityVersion {
 
     static final String LOGS_DIR_PREFIX = "logs-";
     static final String LOGS_LIST_FILE_NAME = "log_list.json";
+    static final String LOGS_INDEX_FILE_NAME = "log_list.idx";
+    // Temporary files. They do not start with LOGS_DIR_PREFIX, so that they are not removed as
+    // old logs directories.
+    static final String NEW_LOGS_LIST_FILE_NAME = "new_log_list.json";
+    static final String DELTA_LOGS_LIST_FILE_NAME = "delta_log_list.json";
     static final String CURRENT_LOGS_DIR_SYMLINK_NAME = "current";
 
     private final String mCompatVersion;
@@ -79,30 +85,45 @@ class CompatibilityVersion {
      */
     LogListUpdateStatus install(InputStream newContent, LogListUpdateStatus.Builder statusBuilder)
             throws IOException {
-        String content = new String(newContent.readAllBytes(), UTF_8);
+        // Ensure the path to the root and version directories exist and are readable.
+        DirectoryUtils.makeDir(sRootDirectory);
+        DirectoryUtils.makeDir(mVersionDirectory);
+
+        // Stream the log list to disk, then compile the index from the file. This avoids holding
+        // copies of the whole log list in memory.
+        File newLogListFile = new File(mVersionDirectory, NEW_LOGS_LIST_FILE_NAME);
         try {
-            JSONObject contentJson = new JSONObject(content);
-            return install(
-                    new ByteArrayInputStream(content.getBytes()),
-                    contentJson.getString("version"),
-                    statusBuilder.setLogListTimestamp(contentJson.getLong("log_list_timestamp")));
-        } catch (JSONException e) {
-            Log.e(TAG, "invalid log list format", e);
+            Files.copy(newContent, newLogListFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LogListIndex.Compiled compiled;
+            try (InputStream logList =
+                    new BufferedInputStream(new FileInputStream(newLogListFile))) {
+                compiled = LogListIndex.compile(logList);
+            } catch (JSONException e) {
+                Log.e(TAG, "invalid log list format", e);
 
-            return statusBuilder.setState(CTLogListUpdateState.LOG_LIST_INVALID).build();
+                return statusBuilder.setState(CTLogListUpdateState.LOG_LIST_INVALID).build();
+            }
+            return install(
+                    newLogListFile,
+                    compiled.version,
+                    compiled.index,
+                    statusBuilder.setLogListTimestamp(compiled.logListTimestamp));
+        } finally {
+            // No-op if the file was moved to the new logs directory.
+            newLogListFile.delete();
         }
     }
 
-    LogListUpdateStatus install(
-            InputStream newContent, String version, LogListUpdateStatus.Builder statusBuilder)
+    private LogListUpdateStatus install(
+            File newLogListFile,
+            String version,
+            byte[] index,
+            LogListUpdateStatus.Builder statusBuilder)
             throws IOException {
         // To support atomically replacing the old configuration directory with the new
         // there's a bunch of steps. We create a new directory with the logs and then do
         // an atomic update of the current symlink to point to the new directory.
-        // 1. Ensure the path to the root and version directories exist and are readable.
-        DirectoryUtils.makeDir(sRootDirectory);
-        DirectoryUtils.makeDir(mVersionDirectory);
-
+        // 1. The root and version directories were created by the caller.
         File newLogsDir = new File(mVersionDirectory, LOGS_DIR_PREFIX + version);
         // 2. Handle the corner case where the new directory already exists.
         if (newLogsDir.exists()) {
@@ -121,12 +142,13 @@ class CompatibilityVersion {
             // 3. Create a new logs-<new_version>/ directory to store the new list.
             DirectoryUtils.makeDir(newLogsDir);
 
-            // 4. Move the log list json file in logs-<new_version>/ .
+            // 4. Move the log list json file and write its index in logs-<new_version>/ .
             File logListFile = new File(newLogsDir, LOGS_LIST_FILE_NAME);
-            if (Files.copy(newContent, logListFile.toPath()) == 0) {
-                throw new IOException("The log list appears empty");
-            }
+            Files.move(newLogListFile.toPath(), logListFile.toPath());
             DirectoryUtils.setWorldReadable(logListFile);
+            File indexFile = new File(newLogsDir, LOGS_INDEX_FILE_NAME);
+            Files.write(indexFile.toPath(), index);
+            DirectoryUtils.setWorldReadable(indexFile);
 
             // 5. Create temp symlink. We rename to the target symlink for an atomic update.
             File tempSymlink = new File(mVersionDirectory, "new_symlink");
@@ -168,6 +190,48 @@ class CompatibilityVersion {
         return mCompatVersion + "_" + Config.CONTENT_DOWNLOAD_ID;
     }
 
+    String getDeltaUrl(String baseVersion) {
+        return mContentUrl + Config.DELTA_URL_INFIX + Uri.encode(baseVersion);
+    }
+
+    String getDeltaPropertyName() {
+        return mCompatVersion + "_" + Config.DELTA_DOWNLOAD_ID;
+    }
+
+    /** Returns the version of the installed log list, or null if none is installed. */
+    @Nullable
+    String getInstalledVersion() {
+        try {
+            File currentLogsDir = mCurrentLogsDirSymlink.getCanonicalFile();
+            String name = currentLogsDir.getName();
+            if (!name.startsWith(LOGS_DIR_PREFIX) || !getLogsFile().isFile()) {
+                return null;
+            }
+            return name.substring(LOGS_DIR_PREFIX.length());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not resolve the installed logs directory", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reconstructs a new log list from the installed one and a delta.
+     *
+     * @param delta an input stream providing the delta against the installed log list
+     * @return the reconstructed log list, which must be verified before being installed.
+     * @throws IOException if the delta is invalid or cannot be applied.
+     */
+    File applyDelta(InputStream delta) throws IOException {
+        File newLogListFile = new File(mVersionDirectory, DELTA_LOGS_LIST_FILE_NAME);
+        try {
+            LogListDelta.apply(getLogsFile(), delta, newLogListFile);
+        } catch (IOException | RuntimeException e) {
+            newLogListFile.delete();
+            throw e;
+        }
+        return newLogListFile;
+    }
+
     File getVersionDir() {
         return mVersionDirectory;
     }
@@ -180,6 +244,10 @@ class CompatibilityVersion {
         return new File(mCurrentLogsDirSymlink, LOGS_LIST_FILE_NAME);
     }
 
+    File getLogsIndexFile() {
+        return new File(mCurrentLogsDirSymlink, LOGS_INDEX_FILE_NAME);
+    }
+
     void delete() {
         if (!DirectoryUtils.removeDir(mVersionDirectory)) {
             Log.w(TAG, "Could not delete compatibility version directory " + mVersionDirectory);
@@ -46,9 +46,13 @@ final class Config {
     static final String VERSION = "version";
     static final String CONTENT_DOWNLOAD_ID = "content_download_id";
     static final String METADATA_DOWNLOAD_ID = "metadata_download_id";
+    static final String DELTA_DOWNLOAD_ID = "delta_download_id";
     static final String PUBLIC_KEY_DOWNLOAD_ID = "public_key_download_id";
     static final String LOG_LIST_UPDATE_FAILURE_COUNT = "log_list_update_failure_count";
 
+    // Deltas against an installed version are at <log list URL>.delta/<installed version>
+    static final String DELTA_URL_INFIX = ".delta/";
+
     // Public Key URLs
     static final String URL_PUBLIC_KEY = URL_PREFIX + "log_list.pub";
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.net.ct;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reconstructs a log list from the installed log list and a delta.
+ *
+ * <p>A delta is a sequence of operations which copy ranges of the installed log list or insert
+ * new bytes. All values are big-endian. The format of a delta is:
+ *
+ * <pre>
+ * header:     magic (4) | format version (4) | SHA-256 of the base log list (32)
+ *             | length of the new log list (8)
+ * operations: until the end of the delta, each one of
+ *             OP_COPY (1) | offset in the base log list (8) | length (4)
+ *             OP_INSERT (1) | length (4) | bytes to insert
+ * </pre>
+ *
+ * <p>Deltas are not signed. The reconstructed log list must be verified against the signature
+ * of the new log list before being installed, exactly like a downloaded log list.
+ */
+class LogListDelta {
+
+    static final int MAGIC = 0x43544c44; // "CTLD"
+    static final int FORMAT_VERSION = 1;
+    static final int OP_COPY = 0;
+    static final int OP_INSERT = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private LogListDelta() {}
+
+    /**
+     * Applies a delta to a log list.
+     *
+     * @param base the log list the delta was computed against
+     * @param delta the delta
+     * @param output the file the new log list is written to
+     * @throws IOException if the delta is invalid or does not apply to {@code base}, or if the
+     *     files cannot be read or written.
+     */
+    static void apply(File base, InputStream delta, File output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(delta));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a log list delta");
+        }
+        byte[] baseHash = new byte[32];
+        in.readFully(baseHash);
+        if (!MessageDigest.isEqual(baseHash, sha256(base))) {
+            throw new IOException("Delta does not apply to the installed log list");
+        }
+        long newLength = in.readLong();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        try (RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            int op;
+            while ((op = in.read()) != -1) {
+                long offset;
+                int length;
+                switch (op) {
+                    case OP_COPY:
+                        offset = in.readLong();
+                        length = in.readInt();
+                        if (offset < 0 || length < 0 || offset + length > baseFile.length()) {
+                            throw new IOException("Invalid copy operation");
+                        }
+                        baseFile.seek(offset);
+                        break;
+                    case OP_INSERT:
+                        length = in.readInt();
+                        if (length < 0) {
+                            throw new IOException("Invalid insert operation");
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown delta operation " + op);
+                }
+                written += length;
+                if (written > newLength) {
+                    throw new IOException("Delta is longer than the new log list");
+                }
+                while (length > 0) {
+                    int chunk = Math.min(length, buffer.length);
+                    if (op == OP_COPY) {
+                        baseFile.readFully(buffer, 0, chunk);
+                    } else {
+                        in.readFully(buffer, 0, chunk);
+                    }
+                    out.write(buffer, 0, chunk);
+                    length -= chunk;
+                }
+            }
+        }
+        if (written != newLength) {
+            throw new IOException("Delta is shorter than the new log list");
+        }
+    }
+
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+}
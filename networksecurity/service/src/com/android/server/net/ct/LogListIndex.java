@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.net.ct;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.annotation.Nullable;
+import android.annotation.RequiresApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A compact binary index of a log list, compiled from the JSON log list when it is installed.
+ *
+ * <p>The index allows looking up a log by its log ID with a binary search over a memory-mapped
+ * file, without parsing the JSON log list. All values are big-endian. The layout of the file is:
+ *
+ * <pre>
+ * header:    magic (4) | format version (4) | log count (4) | operator count (4)
+ * logs:      one entry per log sorted by log ID, each made of
+ *            log ID (32) | state (4) | state timestamp (8) | operator index (4)
+ *            | key offset (4) | key length (4)
+ * operators: one entry per operator, each made of name offset (4) | name length (4)
+ * data:      the DER encoded log keys and the UTF-8 encoded operator names
+ * </pre>
+ */
+@RequiresApi(Build.VERSION_CODES.VANILLA_ICE_CREAM)
+class LogListIndex {
+
+    static final int MAGIC = 0x43544c49; // "CTLI"
+    static final int FORMAT_VERSION = 1;
+
+    // Log IDs are the SHA-256 hash of the log key.
+    static final int LOG_ID_LENGTH = 32;
+
+    static final int STATE_UNKNOWN = 0;
+    static final int STATE_PENDING = 1;
+    static final int STATE_QUALIFIED = 2;
+    static final int STATE_USABLE = 3;
+    static final int STATE_READONLY = 4;
+    static final int STATE_RETIRED = 5;
+    static final int STATE_REJECTED = 6;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int LOG_ENTRY_SIZE = LOG_ID_LENGTH + 24;
+    private static final int OPERATOR_ENTRY_SIZE = 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mLogCount;
+    private final int mOperatorCount;
+
+    LogListIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a log list index");
+        }
+        mLogCount = buffer.getInt(8);
+        mOperatorCount = buffer.getInt(12);
+        if (mLogCount < 0
+                || mOperatorCount < 0
+                || (long) HEADER_SIZE
+                                + (long) mLogCount * LOG_ENTRY_SIZE
+                                + (long) mOperatorCount * OPERATOR_ENTRY_SIZE
+                        > buffer.capacity()) {
+            throw new IOException("Truncated log list index");
+        }
+    }
+
+    /** Memory-maps the index stored in {@code file}. */
+    static LogListIndex open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new LogListIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    int getLogCount() {
+        return mLogCount;
+    }
+
+    /**
+     * Finds a log by its log ID.
+     *
+     * @return the log, or null if the log list does not contain a log with this ID.
+     */
+    @Nullable
+    LogInfo findLog(byte[] logId) {
+        if (logId.length != LOG_ID_LENGTH) {
+            return null;
+        }
+        int low = 0;
+        int high = mLogCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareLogId(HEADER_SIZE + mid * LOG_ENTRY_SIZE, logId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return readLog(HEADER_SIZE + mid * LOG_ENTRY_SIZE);
+            }
+        }
+        return null;
+    }
+
+    private int compareLogId(int offset, byte[] logId) {
+        for (int i = 0; i < LOG_ID_LENGTH; i++) {
+            int cmp =
+                    Integer.compare(
+                            Byte.toUnsignedInt(mBuffer.get(offset + i)),
+                            Byte.toUnsignedInt(logId[i]));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private LogInfo readLog(int offset) {
+        byte[] logId = readBytes(offset, LOG_ID_LENGTH);
+        int state = mBuffer.getInt(offset + LOG_ID_LENGTH);
+        long stateTimestamp = mBuffer.getLong(offset + LOG_ID_LENGTH + 4);
+        int operatorIndex = mBuffer.getInt(offset + LOG_ID_LENGTH + 12);
+        byte[] key =
+                readBytes(
+                        mBuffer.getInt(offset + LOG_ID_LENGTH + 16),
+                        mBuffer.getInt(offset + LOG_ID_LENGTH + 20));
+
+        String operator = null;
+        if (operatorIndex >= 0 && operatorIndex < mOperatorCount) {
+            int operatorOffset =
+                    HEADER_SIZE + mLogCount * LOG_ENTRY_SIZE + operatorIndex * OPERATOR_ENTRY_SIZE;
+            operator =
+                    new String(
+                            readBytes(
+                                    mBuffer.getInt(operatorOffset),
+                                    mBuffer.getInt(operatorOffset + 4)),
+                            UTF_8);
+        }
+        return new LogInfo(logId, key, state, stateTimestamp, operator);
+    }
+
+    private byte[] readBytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        // Read from a duplicate so that the position of the shared buffer never changes, which
+        // keeps lookups safe from several threads.
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /** A log of the log list. */
+    static final class LogInfo {
+        final byte[] logId;
+        final byte[] key;
+        final int state;
+        final long stateTimestamp;
+        @Nullable final String operator;
+
+        LogInfo(
+                byte[] logId,
+                byte[] key,
+                int state,
+                long stateTimestamp,
+                @Nullable String operator) {
+            this.logId = logId;
+            this.key = key;
+            this.state = state;
+            this.stateTimestamp = stateTimestamp;
+            this.operator = operator;
+        }
+    }
+
+    /** The result of compiling a JSON log list. */
+    static final class Compiled {
+        final String version;
+        final long logListTimestamp;
+        final byte[] index;
+
+        Compiled(String version, long logListTimestamp, byte[] index) {
+            this.version = version;
+            this.logListTimestamp = logListTimestamp;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Compiles a JSON log list into an index.
+     *
+     * <p>The log list is parsed as a stream, so it never needs to be held in memory in full.
+     *
+     * @throws JSONException if the log list is not valid.
+     * @throws IOException if the log list cannot be read.
+     */
+    static Compiled compile(InputStream logList) throws IOException, JSONException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(logList, UTF_8))) {
+            return new Compiler().compile(reader);
+        } catch (MalformedJsonException
+                | EOFException
+                | IllegalStateException
+                | IllegalArgumentException
+                | DateTimeParseException e) {
+            throw new JSONException("Invalid log list", e);
+        }
+    }
+
+    private static final class Compiler {
+        private final List<byte[]> mLogIds = new ArrayList<>();
+        private final List<byte[]> mKeys = new ArrayList<>();
+        private final List<Integer> mStates = new ArrayList<>();
+        private final List<Long> mStateTimestamps = new ArrayList<>();
+        private final List<Integer> mOperatorIndexes = new ArrayList<>();
+        private final List<byte[]> mOperatorNames = new ArrayList<>();
+
+        Compiled compile(JsonReader reader) throws IOException, JSONException {
+            String version = null;
+            Long logListTimestamp = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "version":
+                        version = reader.nextString();
+                        break;
+                    case "log_list_timestamp":
+                        logListTimestamp = readTimestamp(reader);
+                        break;
+                    case "operators":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            readOperator(reader);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (version == null) {
+                throw new JSONException("No value for version");
+            }
+            if (logListTimestamp == null) {
+                throw new JSONException("No value for log_list_timestamp");
+            }
+            return new Compiled(version, logListTimestamp, toIndex());
+        }
+
+        private void readOperator(JsonReader reader) throws IOException, JSONException {
+            int operatorIndex = mOperatorNames.size();
+            String name = "";
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name":
+                        name = reader.nextString();
+                        break;
+                    case "logs":
+                    case "tiled_logs":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            readLog(reader, operatorIndex);
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            mOperatorNames.add(name.getBytes(UTF_8));
+        }
+
+        private void readLog(JsonReader reader, int operatorIndex)
+                throws IOException, JSONException {
+            byte[] logId = null;
+            byte[] key = null;
+            int state = STATE_UNKNOWN;
+            long stateTimestamp = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "log_id":
+                        logId = Base64.getDecoder().decode(reader.nextString());
+                        break;
+                    case "key":
+                        key = Base64.getDecoder().decode(reader.nextString());
+                        break;
+                    case "state":
+                        // The state object has a single member named after the state.
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            state = toState(reader.nextName());
+                            stateTimestamp = readStateTimestamp(reader);
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (logId == null || logId.length != LOG_ID_LENGTH) {
+                throw new JSONException("Invalid log_id");
+            }
+            if (key == null) {
+                throw new JSONException("No value for key");
+            }
+            mLogIds.add(logId);
+            mKeys.add(key);
+            mStates.add(state);
+            mStateTimestamps.add(stateTimestamp);
+            mOperatorIndexes.add(operatorIndex);
+        }
+
+        private static long readStateTimestamp(JsonReader reader) throws IOException {
+            long timestamp = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("timestamp")) {
+                    timestamp = readTimestamp(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return timestamp;
+        }
+
+        // Timestamps are either milliseconds since the epoch or RFC 3339 strings.
+        private static long readTimestamp(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NUMBER) {
+                return reader.nextLong();
+            }
+            String timestamp = reader.nextString();
+            try {
+                return Long.parseLong(timestamp);
+            } catch (NumberFormatException e) {
+                return Instant.parse(timestamp).toEpochMilli();
+            }
+        }
+
+        private static int toState(String state) {
+            switch (state) {
+                case "pending":
+                    return STATE_PENDING;
+                case "qualified":
+                    return STATE_QUALIFIED;
+                case "usable":
+                    return STATE_USABLE;
+                case "readonly":
+                    return STATE_READONLY;
+                case "retired":
+                    return STATE_RETIRED;
+                case "rejected":
+                    return STATE_REJECTED;
+                default:
+                    return STATE_UNKNOWN;
+            }
+        }
+
+        private byte[] toIndex() {
+            int logCount = mLogIds.size();
+            int operatorCount = mOperatorNames.size();
+            int dataOffset =
+                    HEADER_SIZE + logCount * LOG_ENTRY_SIZE + operatorCount * OPERATOR_ENTRY_SIZE;
+            int dataSize = 0;
+            for (byte[] key : mKeys) {
+                dataSize += key.length;
+            }
+            for (byte[] name : mOperatorNames) {
+                dataSize += name.length;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(dataOffset + dataSize);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(logCount).putInt(operatorCount);
+
+            Integer[] order = new Integer[logCount];
+            for (int i = 0; i < logCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(mLogIds.get(a), mLogIds.get(b)));
+
+            ByteBuffer data = buffer.duplicate();
+            data.position(dataOffset);
+            for (int i : order) {
+                byte[] key = mKeys.get(i);
+                buffer.put(mLogIds.get(i))
+                        .putInt(mStates.get(i))
+                        .putLong(mStateTimestamps.get(i))
+                        .putInt(mOperatorIndexes.get(i))
+                        .putInt(data.position())
+                        .putInt(key.length);
+                data.put(key);
+            }
+            for (byte[] name : mOperatorNames) {
+                buffer.putInt(data.position()).putInt(name.length);
+                data.put(name);
+            }
+            return buffer.array();
+        }
+    }
+}
@@ -546,6 +546,113 @@ public class CertificateTransparencyDownloaderTest {
         assertThat(statusValue.logListTimestamp()).isEqualTo(LOG_LIST_TIMESTAMP);
     }
 
+    @Test
+    public void testDownloader_logListInstalled_deltaDownloadSuccess_installsReconstructedList()
+            throws Exception {
+        FakeDownloadHelper downloadHelper = new FakeDownloadHelper();
+        CertificateTransparencyDownloader downloader = makeDownloader(downloadHelper);
+        String installedVersion = "123";
+        String newVersion = "456";
+        installLogList(installedVersion);
+        File newLogListFile = makeLogListFile(newVersion);
+        downloadHelper.serve(mCompatVersion.getMetadataUrl(), sign(newLogListFile));
+        downloadHelper.serve(
+                mCompatVersion.getDeltaUrl(installedVersion),
+                makeDeltaFile(mCompatVersion.getLogsFile(), newLogListFile));
+        mSignatureVerifier.setPublicKey(mPublicKey);
+
+        downloader.startMetadataDownload();
+        completeDownload(downloader, downloader.getMetadataDownloadId(mCompatVersion));
+        completeDownload(downloader, downloader.getDeltaDownloadId(mCompatVersion));
+
+        assertInstallSuccessful(newVersion);
+        assertThat(mCompatVersion.getInstalledVersion()).isEqualTo(newVersion);
+        assertThat(downloadHelper.getRequestedUrls())
+                .doesNotContain(mCompatVersion.getContentUrl());
+        verify(mLogger, times(1))
+                .logCTLogListUpdateStateChangedEvent(mUpdateStatusCaptor.capture());
+        assertThat(mUpdateStatusCaptor.getValue().state()).isEqualTo(CTLogListUpdateState.SUCCESS);
+    }
+
+    @Test
+    public void testDownloader_logListInstalled_deltaNotAvailable_fallsBackToFullDownload()
+            throws Exception {
+        FakeDownloadHelper downloadHelper = new FakeDownloadHelper();
+        CertificateTransparencyDownloader downloader = makeDownloader(downloadHelper);
+        String installedVersion = "123";
+        String newVersion = "456";
+        installLogList(installedVersion);
+        File newLogListFile = makeLogListFile(newVersion);
+        downloadHelper.serve(mCompatVersion.getMetadataUrl(), sign(newLogListFile));
+        downloadHelper.serve(mCompatVersion.getContentUrl(), newLogListFile);
+        mSignatureVerifier.setPublicKey(mPublicKey);
+
+        downloader.startMetadataDownload();
+        completeDownload(downloader, downloader.getMetadataDownloadId(mCompatVersion));
+        completeDownload(downloader, downloader.getDeltaDownloadId(mCompatVersion));
+        assertThat(downloader.hasContentDownloadId()).isTrue();
+        completeDownload(downloader, downloader.getContentDownloadId(mCompatVersion));
+
+        assertInstallSuccessful(newVersion);
+        assertThat(mCompatVersion.getInstalledVersion()).isEqualTo(newVersion);
+    }
+
+    @Test
+    public void testDownloader_logListInstalled_deltaNotVerified_fallsBackToFullDownload()
+            throws Exception {
+        FakeDownloadHelper downloadHelper = new FakeDownloadHelper();
+        CertificateTransparencyDownloader downloader = makeDownloader(downloadHelper);
+        String installedVersion = "123";
+        String newVersion = "456";
+        installLogList(installedVersion);
+        File newLogListFile = makeLogListFile(newVersion);
+        downloadHelper.serve(mCompatVersion.getMetadataUrl(), sign(newLogListFile));
+        // The delta reconstructs a log list which does not match the signature.
+        downloadHelper.serve(
+                mCompatVersion.getDeltaUrl(installedVersion),
+                makeDeltaFile(mCompatVersion.getLogsFile(), makeLogListFile("789")));
+        downloadHelper.serve(mCompatVersion.getContentUrl(), newLogListFile);
+        mSignatureVerifier.setPublicKey(mPublicKey);
+
+        downloader.startMetadataDownload();
+        completeDownload(downloader, downloader.getMetadataDownloadId(mCompatVersion));
+        completeDownload(downloader, downloader.getDeltaDownloadId(mCompatVersion));
+        assertThat(mCompatVersion.getInstalledVersion()).isEqualTo(installedVersion);
+        completeDownload(downloader, downloader.getContentDownloadId(mCompatVersion));
+
+        assertInstallSuccessful(newVersion);
+        assertThat(mCompatVersion.getInstalledVersion()).isEqualTo(newVersion);
+    }
+
+    private CertificateTransparencyDownloader makeDownloader(DownloadHelper downloadHelper) {
+        return new CertificateTransparencyDownloader(
+                mContext,
+                mDataStore,
+                downloadHelper,
+                mSignatureVerifier,
+                mLogger,
+                Arrays.asList(mCompatVersion));
+    }
+
+    private void completeDownload(CertificateTransparencyDownloader downloader, long downloadId) {
+        downloader.onReceive(
+                mContext,
+                new Intent(DownloadManager.ACTION_DOWNLOAD_COMPLETE)
+                        .putExtra(DownloadManager.EXTRA_DOWNLOAD_ID, downloadId));
+    }
+
+    private void installLogList(String version) throws Exception {
+        try (InputStream inputStream = new FileInputStream(makeLogListFile(version))) {
+            assertThat(mCompatVersion.install(inputStream, LogListUpdateStatus.builder()).state())
+                    .isEqualTo(CTLogListUpdateState.SUCCESS);
+        }
+    }
+
+    private File makeDeltaFile(File base, File target)
+            throws IOException, GeneralSecurityException {
+        return writeToFile(LogListDeltaTest.makeDelta(toByteArray(base), toByteArray(target)));
+    }
+
     private void assertNoVersionIsInstalled() {
         assertThat(mCompatVersion.getVersionDir().exists()).isFalse();
     }
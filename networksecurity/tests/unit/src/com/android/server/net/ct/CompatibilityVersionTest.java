@@ -143,6 +143,15 @@ public class CompatibilityVersionTest {
                                                 CompatibilityVersion.CURRENT_LOGS_DIR_SYMLINK_NAME),
                                         CompatibilityVersion.LOGS_LIST_FILE_NAME)
                                 .getAbsolutePath());
+        File indexFile = mCompatVersion.getLogsIndexFile();
+        assertThat(indexFile.exists()).isTrue();
+        assertThat(LogListIndex.open(indexFile).getLogCount()).isEqualTo(0);
+        assertThat(
+                        new File(
+                                        mCompatVersion.getVersionDir(),
+                                        CompatibilityVersion.NEW_LOGS_LIST_FILE_NAME)
+                                .exists())
+                .isFalse();
     }
 
     @Test
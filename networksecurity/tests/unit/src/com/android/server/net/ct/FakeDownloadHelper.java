@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.net.ct;
+
+import android.app.DownloadManager;
+import android.net.Uri;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DownloadHelper} serving local files. Downloads of URLs without a file fail with an
+ * HTTP 404 error.
+ */
+class FakeDownloadHelper extends DownloadHelper {
+
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private final Map<String, File> mFiles = new HashMap<>();
+    private final Map<Long, String> mDownloads = new HashMap<>();
+    private final List<String> mRequestedUrls = new ArrayList<>();
+    private long mNextDownloadId = 1;
+
+    FakeDownloadHelper() {
+        super((DownloadManager) null);
+    }
+
+    /** Serves {@code file} for downloads of {@code url}. */
+    void serve(String url, File file) {
+        mFiles.put(url, file);
+    }
+
+    /** Returns the URLs whose download was started, in order. */
+    List<String> getRequestedUrls() {
+        return mRequestedUrls;
+    }
+
+    @Override
+    public long startDownload(String url) {
+        long downloadId = mNextDownloadId++;
+        mDownloads.put(downloadId, url);
+        mRequestedUrls.add(url);
+        return downloadId;
+    }
+
+    @Override
+    public DownloadStatus getDownloadStatus(long downloadId) {
+        DownloadStatus.Builder builder = DownloadStatus.builder().setDownloadId(downloadId);
+        if (getFile(downloadId) != null) {
+            builder.setStatus(DownloadManager.STATUS_SUCCESSFUL);
+        } else {
+            builder.setStatus(DownloadManager.STATUS_FAILED).setReason(HTTP_NOT_FOUND);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Uri getUri(long downloadId) {
+        File file = getFile(downloadId);
+        return file == null ? null : Uri.fromFile(file);
+    }
+
+    private File getFile(long downloadId) {
+        String url = mDownloads.get(downloadId);
+        return url == null ? null : mFiles.get(url);
+    }
+}
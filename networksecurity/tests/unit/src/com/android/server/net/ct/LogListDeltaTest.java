@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.net.ct;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/** Tests for the {@link LogListDelta}. */
+@RunWith(JUnit4.class)
+public class LogListDeltaTest {
+
+    private static final byte[] BASE = "{\"version\":\"1\",\"logs\":[\"a\",\"b\"]}".getBytes();
+    private static final byte[] TARGET = "{\"version\":\"1\",\"logs\":[\"a\",\"c\"]}".getBytes();
+
+    private File mBaseFile;
+    private File mOutputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mBaseFile = File.createTempFile("base_log_list", "json");
+        Files.write(mBaseFile.toPath(), BASE);
+        mOutputFile = File.createTempFile("new_log_list", "json");
+    }
+
+    @After
+    public void tearDown() {
+        mBaseFile.delete();
+        mOutputFile.delete();
+    }
+
+    @Test
+    public void testApply_reconstructsTarget() throws Exception {
+        LogListDelta.apply(
+                mBaseFile, new ByteArrayInputStream(makeDelta(BASE, TARGET)), mOutputFile);
+
+        assertThat(Files.readAllBytes(mOutputFile.toPath())).isEqualTo(TARGET);
+    }
+
+    @Test
+    public void testApply_wrongBase_throws() throws Exception {
+        byte[] delta = makeDelta("something else".getBytes(), TARGET);
+
+        assertThrows(
+                IOException.class,
+                () -> LogListDelta.apply(mBaseFile, new ByteArrayInputStream(delta), mOutputFile));
+    }
+
+    @Test
+    public void testApply_truncatedDelta_throws() throws Exception {
+        byte[] delta = makeDelta(BASE, TARGET);
+        byte[] truncated = Arrays.copyOf(delta, delta.length - 1);
+
+        assertThrows(
+                IOException.class,
+                () ->
+                        LogListDelta.apply(
+                                mBaseFile, new ByteArrayInputStream(truncated), mOutputFile));
+    }
+
+    @Test
+    public void testApply_copyOutOfBounds_throws() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, BASE, BASE.length + 1);
+        out.writeByte(LogListDelta.OP_COPY);
+        out.writeLong(0);
+        out.writeInt(BASE.length + 1);
+
+        assertThrows(
+                IOException.class,
+                () ->
+                        LogListDelta.apply(
+                                mBaseFile,
+                                new ByteArrayInputStream(bytes.toByteArray()),
+                                mOutputFile));
+    }
+
+    /** Makes a delta copying the common prefix of base and target, then inserting the rest. */
+    static byte[] makeDelta(byte[] base, byte[] target)
+            throws IOException, GeneralSecurityException {
+        int prefixLength = 0;
+        while (prefixLength < base.length
+                && prefixLength < target.length
+                && base[prefixLength] == target[prefixLength]) {
+            prefixLength++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, base, target.length);
+        out.writeByte(LogListDelta.OP_COPY);
+        out.writeLong(0);
+        out.writeInt(prefixLength);
+        out.writeByte(LogListDelta.OP_INSERT);
+        out.writeInt(target.length - prefixLength);
+        out.write(target, prefixLength, target.length - prefixLength);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeHeader(DataOutputStream out, byte[] base, long targetLength)
+            throws IOException, GeneralSecurityException {
+        out.writeInt(LogListDelta.MAGIC);
+        out.writeInt(LogListDelta.FORMAT_VERSION);
+        out.write(MessageDigest.getInstance("SHA-256").digest(base));
+        out.writeLong(targetLength);
+    }
+}
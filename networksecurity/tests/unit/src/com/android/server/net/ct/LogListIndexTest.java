@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.net.ct;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/** Tests for the {@link LogListIndex}. */
+@RunWith(JUnit4.class)
+public class LogListIndexTest {
+
+    private static final String VERSION = "v42";
+    private static final long LOG_LIST_TIMESTAMP = 123456789L;
+
+    private static final byte[] LOG_ID_1 = makeLogId(0x01);
+    private static final byte[] LOG_ID_2 = makeLogId(0xf0);
+    private static final byte[] LOG_ID_3 = makeLogId(0x7f);
+    private static final byte[] KEY_1 = {1, 2, 3};
+    private static final byte[] KEY_2 = {4, 5};
+    private static final byte[] KEY_3 = {6};
+
+    @Test
+    public void testCompile_findsLogs() throws Exception {
+        JSONObject logList =
+                new JSONObject()
+                        .put("version", VERSION)
+                        .put("log_list_timestamp", LOG_LIST_TIMESTAMP)
+                        .put(
+                                "operators",
+                                new JSONArray()
+                                        .put(
+                                                makeOperator(
+                                                        "Operator A",
+                                                        makeLog(LOG_ID_2, KEY_2, "usable", 1000L),
+                                                        makeLog(
+                                                                LOG_ID_1,
+                                                                KEY_1,
+                                                                "retired",
+                                                                "1970-01-01T00:00:02Z")))
+                                        .put(
+                                                makeOperator(
+                                                        "Operator B",
+                                                        makeLog(
+                                                                LOG_ID_3,
+                                                                KEY_3,
+                                                                "qualified",
+                                                                3000L))));
+
+        LogListIndex.Compiled compiled = compile(logList);
+        assertThat(compiled.version).isEqualTo(VERSION);
+        assertThat(compiled.logListTimestamp).isEqualTo(LOG_LIST_TIMESTAMP);
+
+        LogListIndex index = new LogListIndex(ByteBuffer.wrap(compiled.index));
+        assertThat(index.getLogCount()).isEqualTo(3);
+
+        LogListIndex.LogInfo log1 = index.findLog(LOG_ID_1);
+        assertThat(log1.logId).isEqualTo(LOG_ID_1);
+        assertThat(log1.key).isEqualTo(KEY_1);
+        assertThat(log1.state).isEqualTo(LogListIndex.STATE_RETIRED);
+        assertThat(log1.stateTimestamp).isEqualTo(2000L);
+        assertThat(log1.operator).isEqualTo("Operator A");
+
+        LogListIndex.LogInfo log2 = index.findLog(LOG_ID_2);
+        assertThat(log2.key).isEqualTo(KEY_2);
+        assertThat(log2.state).isEqualTo(LogListIndex.STATE_USABLE);
+        assertThat(log2.stateTimestamp).isEqualTo(1000L);
+        assertThat(log2.operator).isEqualTo("Operator A");
+
+        LogListIndex.LogInfo log3 = index.findLog(LOG_ID_3);
+        assertThat(log3.key).isEqualTo(KEY_3);
+        assertThat(log3.state).isEqualTo(LogListIndex.STATE_QUALIFIED);
+        assertThat(log3.operator).isEqualTo("Operator B");
+
+        assertThat(index.findLog(makeLogId(0x02))).isNull();
+        assertThat(index.findLog(new byte[] {1})).isNull();
+    }
+
+    @Test
+    public void testCompile_missingVersion_throws() throws Exception {
+        JSONObject logList = new JSONObject().put("log_list_timestamp", LOG_LIST_TIMESTAMP);
+
+        assertThrows(JSONException.class, () -> compile(logList));
+    }
+
+    @Test
+    public void testCompile_invalidLogId_throws() throws Exception {
+        JSONObject logList =
+                new JSONObject()
+                        .put("version", VERSION)
+                        .put("log_list_timestamp", LOG_LIST_TIMESTAMP)
+                        .put(
+                                "operators",
+                                new JSONArray()
+                                        .put(
+                                                makeOperator(
+                                                        "Operator A",
+                                                        makeLog(
+                                                                new byte[] {1, 2},
+                                                                KEY_1,
+                                                                "usable",
+                                                                1000L))));
+
+        assertThrows(JSONException.class, () -> compile(logList));
+    }
+
+    @Test
+    public void testOpen_notAnIndex_throws() {
+        assertThrows(
+                IOException.class, () -> new LogListIndex(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+    }
+
+    private static LogListIndex.Compiled compile(JSONObject logList)
+            throws IOException, JSONException {
+        try (InputStream in = new ByteArrayInputStream(logList.toString().getBytes())) {
+            return LogListIndex.compile(in);
+        }
+    }
+
+    private static byte[] makeLogId(int firstByte) {
+        byte[] logId = new byte[LogListIndex.LOG_ID_LENGTH];
+        Arrays.fill(logId, (byte) 0x55);
+        logId[0] = (byte) firstByte;
+        return logId;
+    }
+
+    private static JSONObject makeOperator(String name, JSONObject... logs)
+            throws JSONException {
+        JSONArray logsArray = new JSONArray();
+        for (JSONObject log : logs) {
+            logsArray.put(log);
+        }
+        return new JSONObject().put("name", name).put("logs", logsArray);
+    }
+
+    private static JSONObject makeLog(byte[] logId, byte[] key, String state, Object timestamp)
+            throws JSONException {
+        return new JSONObject()
+                .put("log_id", Base64.getEncoder().encodeToString(logId))
+                .put("key", Base64.getEncoder().encodeToString(key))
+                .put(
+                        "state",
+                        new JSONObject()
+                                .put(state, new JSONObject().put("timestamp", timestamp)));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.remoteauth.ranging;
+
+import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_INSIDE;
+import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_OUTSIDE;
+import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_UNKNOWN;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_EWMA;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_KALMAN;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.util.Preconditions;
+import com.android.server.remoteauth.ranging.RangingReport.ProximityState;
+import com.android.server.remoteauth.ranging.SessionParameters.SmoothingMethod;
+
+/**
+ * Turns the distances measured by a {@link RangingSession} into {@link RangingReport}s.
+ *
+ * <p>Distances are smoothed with the configured {@link SmoothingMethod}, and the {@link
+ * ProximityState} is computed with a hysteresis around the proximity boundaries. A report is only
+ * produced when the proximity state changes or when the distance changed significantly since the
+ * last report, so that callers are not woken up on every measurement.
+ *
+ * <p>This class is thread-safe.
+ */
+public class RangingReportFilter {
+    /** Weight of a new measurement in the exponentially weighted moving average. */
+    @VisibleForTesting static final float EWMA_ALPHA = 0.3f;
+
+    /** Variance of the change of the actual distance between two measurements, in m^2. */
+    @VisibleForTesting static final float KALMAN_PROCESS_NOISE = 0.005f;
+
+    /** Variance of the measurement error, in m^2. */
+    @VisibleForTesting static final float KALMAN_MEASUREMENT_NOISE = 0.02f;
+
+    @SmoothingMethod private final int mSmoothingMethod;
+    private final float mLowerProximityBoundaryM;
+    private final float mUpperProximityBoundaryM;
+    private final float mHysteresisM;
+    private final float mMinDistanceChangeM;
+
+    private boolean mHasEstimate;
+    private float mEstimateM;
+    // Variance of mEstimateM, only used by the Kalman filter.
+    private float mEstimateVariance;
+    @ProximityState private int mReportedProximityState = PROXIMITY_STATE_UNKNOWN;
+    private float mReportedDistanceM;
+    private long mMeasurementCount;
+    private long mReportCount;
+
+    public RangingReportFilter(@NonNull SessionParameters sessionParameters) {
+        Preconditions.checkNotNull(sessionParameters);
+        mSmoothingMethod = sessionParameters.getSmoothingMethod();
+        mLowerProximityBoundaryM = sessionParameters.getLowerProximityBoundaryM();
+        mUpperProximityBoundaryM = sessionParameters.getUpperProximityBoundaryM();
+        // Keep the boundaries of the inside state ordered even for a narrow proximity range.
+        mHysteresisM =
+                Math.min(
+                        sessionParameters.getProximityHysteresisM(),
+                        (mUpperProximityBoundaryM - mLowerProximityBoundaryM) / 2);
+        mMinDistanceChangeM = sessionParameters.getMinDistanceChangeM();
+    }
+
+    /** Forgets all previous measurements, e.g. when ranging is restarted. */
+    public synchronized void reset() {
+        mHasEstimate = false;
+        mReportedProximityState = PROXIMITY_STATE_UNKNOWN;
+    }
+
+    /**
+     * Processes a new distance measurement.
+     *
+     * @param distanceM the measured distance in meters.
+     * @return the report to send to callers, or null if the measurement does not change the
+     *     proximity state nor the distance significantly.
+     */
+    @Nullable
+    public synchronized RangingReport onDistanceMeasured(float distanceM) {
+        mMeasurementCount++;
+        float smoothedM = smooth(distanceM);
+        int proximityState = computeProximityState(smoothedM);
+        if (proximityState == mReportedProximityState
+                && Math.abs(smoothedM - mReportedDistanceM) < mMinDistanceChangeM) {
+            return null;
+        }
+        mReportedProximityState = proximityState;
+        mReportedDistanceM = smoothedM;
+        mReportCount++;
+        return new RangingReport.Builder()
+                .setDistanceM(smoothedM)
+                .setProximityState(proximityState)
+                .build();
+    }
+
+    /** Returns the number of measurements processed since this filter was created. */
+    public synchronized long getMeasurementCount() {
+        return mMeasurementCount;
+    }
+
+    /** Returns the number of reports produced since this filter was created. */
+    public synchronized long getReportCount() {
+        return mReportCount;
+    }
+
+    private float smooth(float distanceM) {
+        if (!mHasEstimate) {
+            mHasEstimate = true;
+            mEstimateM = distanceM;
+            mEstimateVariance = KALMAN_MEASUREMENT_NOISE;
+            return mEstimateM;
+        }
+        switch (mSmoothingMethod) {
+            case SMOOTHING_METHOD_EWMA:
+                mEstimateM += EWMA_ALPHA * (distanceM - mEstimateM);
+                break;
+            case SMOOTHING_METHOD_KALMAN:
+                // The distance is modelled as constant with some process noise.
+                float predictedVariance = mEstimateVariance + KALMAN_PROCESS_NOISE;
+                float gain = predictedVariance / (predictedVariance + KALMAN_MEASUREMENT_NOISE);
+                mEstimateM += gain * (distanceM - mEstimateM);
+                mEstimateVariance = (1 - gain) * predictedVariance;
+                break;
+            default:
+                mEstimateM = distanceM;
+        }
+        return mEstimateM;
+    }
+
+    @ProximityState
+    private int computeProximityState(float distanceM) {
+        final float margin;
+        switch (mReportedProximityState) {
+            case PROXIMITY_STATE_INSIDE:
+                // Stay inside until the distance is clearly out of the boundaries.
+                margin = -mHysteresisM;
+                break;
+            case PROXIMITY_STATE_OUTSIDE:
+                // Stay outside until the distance is clearly within the boundaries.
+                margin = mHysteresisM;
+                break;
+            default:
+                margin = 0;
+        }
+        return (mLowerProximityBoundaryM + margin <= distanceM
+                        && distanceM <= mUpperProximityBoundaryM - margin)
+                ? PROXIMITY_STATE_INSIDE
+                : PROXIMITY_STATE_OUTSIDE;
+    }
+}
@@ -117,6 +117,7 @@ public abstract class RangingSession {
     protected int mSyncCounter;
     protected byte[] mDerivedData;
     protected int mDerivedDataLength;
+    protected RangingReportFilter mRangingReportFilter;
 
     protected RangingSession(
             @NonNull Context context,
@@ -133,6 +134,7 @@ public abstract class RangingSession {
         mLowerProximityBoundaryM = sessionParameters.getLowerProximityBoundaryM();
         mUpperProximityBoundaryM = sessionParameters.getUpperProximityBoundaryM();
         mAutoDeriveParams = sessionParameters.getAutoDeriveParams();
+        mRangingReportFilter = new RangingReportFilter(sessionParameters);
         Log.i(
                 TAG,
                 "Creating a new RangingSession {info = "
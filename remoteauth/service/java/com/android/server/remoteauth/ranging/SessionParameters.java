@@ -55,6 +55,31 @@ public class SessionParameters {
     /** Device that responds to ranging. */
     public static final int DEVICE_ROLE_RESPONDER = 0x2;
 
+    /** Smoothing applied to the measured distances before computing {@link RangingReport}s. */
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef(
+            value = {
+                SMOOTHING_METHOD_NONE,
+                SMOOTHING_METHOD_EWMA,
+                SMOOTHING_METHOD_KALMAN,
+            })
+    public @interface SmoothingMethod {}
+
+    /** Raw distances are used. */
+    public static final int SMOOTHING_METHOD_NONE = 0x0;
+
+    /** Distances are smoothed with an exponentially weighted moving average. */
+    public static final int SMOOTHING_METHOD_EWMA = 0x1;
+
+    /** Distances are smoothed with a one dimensional Kalman filter. */
+    public static final int SMOOTHING_METHOD_KALMAN = 0x2;
+
+    /** Default margin around the proximity boundaries, in meters. */
+    public static final float DEFAULT_PROXIMITY_HYSTERESIS_M = 0.1f;
+
+    /** Default distance change which triggers a new {@link RangingReport}, in meters. */
+    public static final float DEFAULT_MIN_DISTANCE_CHANGE_M = 0.1f;
+
     /* Required parameters */
     private final String mDeviceId;
     @RangingMethod private final int mRangingMethod;
@@ -66,6 +91,9 @@ public class SessionParameters {
     private final boolean mAutoDeriveParams;
     private final byte[] mBaseKey;
     private final byte[] mSyncData;
+    @SmoothingMethod private final int mSmoothingMethod;
+    private final float mProximityHysteresisM;
+    private final float mMinDistanceChangeM;
 
     public String getDeviceId() {
         return mDeviceId;
@@ -101,6 +129,19 @@ public class SessionParameters {
         return mSyncData;
     }
 
+    @SmoothingMethod
+    public int getSmoothingMethod() {
+        return mSmoothingMethod;
+    }
+
+    public float getProximityHysteresisM() {
+        return mProximityHysteresisM;
+    }
+
+    public float getMinDistanceChangeM() {
+        return mMinDistanceChangeM;
+    }
+
     private SessionParameters(
             String deviceId,
             @RangingMethod int rangingMethod,
@@ -109,7 +150,10 @@ public class SessionParameters {
             float upperProximityBoundaryM,
             boolean autoDeriveParams,
             byte[] baseKey,
-            byte[] syncData) {
+            byte[] syncData,
+            @SmoothingMethod int smoothingMethod,
+            float proximityHysteresisM,
+            float minDistanceChangeM) {
         mDeviceId = deviceId;
         mRangingMethod = rangingMethod;
         mDeviceRole = deviceRole;
@@ -118,6 +162,9 @@ public class SessionParameters {
         mAutoDeriveParams = autoDeriveParams;
         mBaseKey = baseKey;
         mSyncData = syncData;
+        mSmoothingMethod = smoothingMethod;
+        mProximityHysteresisM = proximityHysteresisM;
+        mMinDistanceChangeM = minDistanceChangeM;
     }
 
     /** Builder class for {@link SessionParameters}. */
@@ -130,6 +177,9 @@ public class SessionParameters {
         private boolean mAutoDeriveParams = false;
         private byte[] mBaseKey = new byte[] {};
         private byte[] mSyncData = new byte[] {};
+        @SmoothingMethod private int mSmoothingMethod = SMOOTHING_METHOD_EWMA;
+        private float mProximityHysteresisM = DEFAULT_PROXIMITY_HYSTERESIS_M;
+        private float mMinDistanceChangeM = DEFAULT_MIN_DISTANCE_CHANGE_M;
 
         /**
          * Sets the device id.
@@ -221,6 +271,39 @@ public class SessionParameters {
             return this;
         }
 
+        /**
+         * Sets the {@link SmoothingMethod} applied to measured distances. Defaults to {@link
+         * SMOOTHING_METHOD_EWMA}.
+         */
+        public Builder setSmoothingMethod(@SmoothingMethod int smoothingMethod) {
+            mSmoothingMethod = smoothingMethod;
+            return this;
+        }
+
+        /**
+         * Sets the margin around the proximity boundaries in meters, must be greater than or
+         * equals to zero. Defaults to {@link #DEFAULT_PROXIMITY_HYSTERESIS_M}.
+         *
+         * <p>The proximity becomes {@link PROXIMITY_STATE_INSIDE} only once the distance is
+         * within the boundaries by this margin, and becomes {@link PROXIMITY_STATE_OUTSIDE} only
+         * once it is beyond them by this margin, so that noise around a boundary does not cause
+         * the state to flap.
+         */
+        public Builder setProximityHysteresisM(float proximityHysteresisM) {
+            mProximityHysteresisM = proximityHysteresisM;
+            return this;
+        }
+
+        /**
+         * Sets the change of distance in meters which causes a new {@link RangingReport} when the
+         * {@link ProximityState} does not change, must be greater than or equals to zero.
+         * Defaults to {@link #DEFAULT_MIN_DISTANCE_CHANGE_M}.
+         */
+        public Builder setMinDistanceChangeM(float minDistanceChangeM) {
+            mMinDistanceChangeM = minDistanceChangeM;
+            return this;
+        }
+
         /**
          * Builds {@link SessionParameters}.
          *
@@ -240,6 +323,16 @@ public class SessionParameters {
                             + mLowerProximityBoundaryM
                             + " > "
                             + mUpperProximityBoundaryM);
+            Preconditions.checkArgument(
+                    mSmoothingMethod >= SMOOTHING_METHOD_NONE
+                            && mSmoothingMethod <= SMOOTHING_METHOD_KALMAN,
+                    "Unknown smoothingMethod: " + mSmoothingMethod);
+            Preconditions.checkArgument(
+                    mProximityHysteresisM >= 0,
+                    "Negative proximityHysteresisM: " + mProximityHysteresisM);
+            Preconditions.checkArgument(
+                    mMinDistanceChangeM >= 0,
+                    "Negative minDistanceChangeM: " + mMinDistanceChangeM);
             // If mAutoDeriveParams is false, mBaseKey and mSyncData will not be used.
             if (mAutoDeriveParams) {
                 Preconditions.checkArgument(
@@ -257,7 +350,10 @@ public class SessionParameters {
                     mUpperProximityBoundaryM,
                     mAutoDeriveParams,
                     mBaseKey,
-                    mSyncData);
+                    mSyncData,
+                    mSmoothingMethod,
+                    mProximityHysteresisM,
+                    mMinDistanceChangeM);
         }
     }
 }
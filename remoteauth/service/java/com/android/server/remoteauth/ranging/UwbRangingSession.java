@@ -20,8 +20,6 @@ import static androidx.core.uwb.backend.impl.internal.Utils.STATUS_OK;
 import static androidx.core.uwb.backend.impl.internal.Utils.SUPPORTED_BPRF_PREAMBLE_INDEX;
 import static androidx.core.uwb.backend.impl.internal.UwbAddress.SHORT_ADDRESS_LENGTH;
 
-import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_INSIDE;
-import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_OUTSIDE;
 import static com.android.server.remoteauth.ranging.SessionParameters.DEVICE_ROLE_INITIATOR;
 
 import static com.google.uwb.support.fira.FiraParams.UWB_CHANNEL_9;
@@ -89,6 +87,7 @@ public class UwbRangingSession extends RangingSession {
         Preconditions.checkNotNull(rangingCallback, "rangingCallback must not be null");
 
         setUwbRangingParameters(rangingParameters);
+        mRangingReportFilter.reset();
         int status =
                 mRangingDevice.startRanging(
                         convertCallback(rangingCallback, executor),
@@ -118,7 +117,13 @@ public class UwbRangingSession extends RangingSession {
             return;
         }
         mRangingCallback = null;
-        Log.i(TAG, "stop");
+        Log.i(
+                TAG,
+                "stop, forwarded "
+                        + mRangingReportFilter.getReportCount()
+                        + " of "
+                        + mRangingReportFilter.getMeasurementCount()
+                        + " measurements");
     }
 
     private void setUwbRangingParameters(RangingParameters rangingParameters) {
@@ -187,17 +192,11 @@ public class UwbRangingSession extends RangingSession {
             @Override
             public void onRangingResult(UwbDevice device, RangingPosition position) {
                 float distanceM = position.getDistance().getValue();
-                int proximityState =
-                        (mLowerProximityBoundaryM <= distanceM
-                                        && distanceM <= mUpperProximityBoundaryM)
-                                ? PROXIMITY_STATE_INSIDE
-                                : PROXIMITY_STATE_OUTSIDE;
-                position.getDistance().getValue();
-                RangingReport rangingReport =
-                        new RangingReport.Builder()
-                                .setDistanceM(distanceM)
-                                .setProximityState(proximityState)
-                                .build();
+                RangingReport rangingReport = mRangingReportFilter.onDistanceMeasured(distanceM);
+                if (rangingReport == null) {
+                    // Neither the proximity state nor the distance changed significantly.
+                    return;
+                }
                 executor.execute(() -> callback.onRangingReport(mSessionInfo, rangingReport));
             }
 
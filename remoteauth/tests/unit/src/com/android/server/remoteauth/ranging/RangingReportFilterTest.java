@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.remoteauth.ranging;
+
+import static com.android.server.remoteauth.ranging.RangingCapabilities.RANGING_METHOD_UWB;
+import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_INSIDE;
+import static com.android.server.remoteauth.ranging.RangingReport.PROXIMITY_STATE_OUTSIDE;
+import static com.android.server.remoteauth.ranging.SessionParameters.DEVICE_ROLE_INITIATOR;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_EWMA;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_KALMAN;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_NONE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.server.remoteauth.ranging.SessionParameters.SmoothingMethod;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/** Unit test for {@link RangingReportFilter}. */
+@RunWith(AndroidJUnit4.class)
+public class RangingReportFilterTest {
+    private static final float TEST_LOWER_PROXIMITY_BOUNDARY_M = 1.0f;
+    private static final float TEST_UPPER_PROXIMITY_BOUNDARY_M = 2.5f;
+    private static final float TEST_HYSTERESIS_M = 0.1f;
+    private static final float TEST_MIN_DISTANCE_CHANGE_M = 0.2f;
+
+    private static RangingReportFilter makeFilter(
+            @SmoothingMethod int smoothingMethod, float hysteresisM, float minDistanceChangeM) {
+        return new RangingReportFilter(
+                new SessionParameters.Builder()
+                        .setDeviceId("test_device_id")
+                        .setRangingMethod(RANGING_METHOD_UWB)
+                        .setDeviceRole(DEVICE_ROLE_INITIATOR)
+                        .setLowerProximityBoundaryM(TEST_LOWER_PROXIMITY_BOUNDARY_M)
+                        .setUpperProximityBoundaryM(TEST_UPPER_PROXIMITY_BOUNDARY_M)
+                        .setSmoothingMethod(smoothingMethod)
+                        .setProximityHysteresisM(hysteresisM)
+                        .setMinDistanceChangeM(minDistanceChangeM)
+                        .build());
+    }
+
+    @Test
+    public void testFirstMeasurement_reported() {
+        final RangingReportFilter filter =
+                makeFilter(SMOOTHING_METHOD_EWMA, TEST_HYSTERESIS_M, TEST_MIN_DISTANCE_CHANGE_M);
+
+        final RangingReport report = filter.onDistanceMeasured(1.5f);
+
+        assertNotNull(report);
+        assertEquals(1.5f, report.getDistanceM(), 0.0f);
+        assertEquals(PROXIMITY_STATE_INSIDE, report.getProximityState());
+    }
+
+    @Test
+    public void testSmallDistanceChange_notReported() {
+        final RangingReportFilter filter =
+                makeFilter(SMOOTHING_METHOD_NONE, TEST_HYSTERESIS_M, TEST_MIN_DISTANCE_CHANGE_M);
+
+        assertNotNull(filter.onDistanceMeasured(1.5f));
+        assertNull(filter.onDistanceMeasured(1.6f));
+        assertNull(filter.onDistanceMeasured(1.4f));
+        final RangingReport report = filter.onDistanceMeasured(1.8f);
+
+        assertNotNull(report);
+        assertEquals(1.8f, report.getDistanceM(), 0.0f);
+        assertEquals(4, filter.getMeasurementCount());
+        assertEquals(2, filter.getReportCount());
+    }
+
+    @Test
+    public void testProximityState_hysteresis() {
+        final RangingReportFilter filter =
+                makeFilter(SMOOTHING_METHOD_NONE, TEST_HYSTERESIS_M, /* minDistanceChangeM= */ 10f);
+
+        assertEquals(PROXIMITY_STATE_INSIDE, filter.onDistanceMeasured(2.4f).getProximityState());
+        // Within the hysteresis margin beyond the upper boundary: still inside.
+        assertNull(filter.onDistanceMeasured(2.55f));
+        assertEquals(PROXIMITY_STATE_OUTSIDE, filter.onDistanceMeasured(2.65f).getProximityState());
+        // Within the hysteresis margin inside the upper boundary: still outside.
+        assertNull(filter.onDistanceMeasured(2.45f));
+        assertEquals(PROXIMITY_STATE_INSIDE, filter.onDistanceMeasured(2.35f).getProximityState());
+    }
+
+    @Test
+    public void testEwma_smoothsDistance() {
+        final RangingReportFilter filter =
+                makeFilter(SMOOTHING_METHOD_EWMA, TEST_HYSTERESIS_M, /* minDistanceChangeM= */ 0f);
+
+        filter.onDistanceMeasured(1.0f);
+        final RangingReport report = filter.onDistanceMeasured(2.0f);
+
+        assertEquals(1.0f + RangingReportFilter.EWMA_ALPHA, report.getDistanceM(), 1e-6f);
+    }
+
+    @Test
+    public void testKalman_smoothsDistance() {
+        final RangingReportFilter filter =
+                makeFilter(
+                        SMOOTHING_METHOD_KALMAN, TEST_HYSTERESIS_M, /* minDistanceChangeM= */ 0f);
+
+        filter.onDistanceMeasured(1.0f);
+        final RangingReport report = filter.onDistanceMeasured(2.0f);
+
+        final float predictedVariance =
+                RangingReportFilter.KALMAN_MEASUREMENT_NOISE
+                        + RangingReportFilter.KALMAN_PROCESS_NOISE;
+        final float gain =
+                predictedVariance
+                        / (predictedVariance + RangingReportFilter.KALMAN_MEASUREMENT_NOISE);
+        assertEquals(1.0f + gain, report.getDistanceM(), 1e-6f);
+    }
+
+    @Test
+    public void testReset_nextMeasurementReported() {
+        final RangingReportFilter filter =
+                makeFilter(SMOOTHING_METHOD_EWMA, TEST_HYSTERESIS_M, TEST_MIN_DISTANCE_CHANGE_M);
+
+        assertNotNull(filter.onDistanceMeasured(1.5f));
+        assertNull(filter.onDistanceMeasured(1.5f));
+        filter.reset();
+
+        assertNotNull(filter.onDistanceMeasured(1.5f));
+    }
+
+    @Test
+    public void testTrace_ewma() {
+        runTrace(SMOOTHING_METHOD_EWMA);
+    }
+
+    @Test
+    public void testTrace_kalman() {
+        runTrace(SMOOTHING_METHOD_KALMAN);
+    }
+
+    /**
+     * Replays a noisy trace of a device approaching, staying close and leaving, and checks that
+     * the filter reports few measurements and exactly two proximity transitions.
+     */
+    private static void runTrace(@SmoothingMethod int smoothingMethod) {
+        final float[] trace = makeTrace();
+        final RangingReportFilter filter =
+                makeFilter(smoothingMethod, TEST_HYSTERESIS_M, TEST_MIN_DISTANCE_CHANGE_M);
+
+        int transitions = 0;
+        int lastState = RangingReport.PROXIMITY_STATE_UNKNOWN;
+        for (float distanceM : trace) {
+            final RangingReport report = filter.onDistanceMeasured(distanceM);
+            if (report == null) continue;
+            if (lastState != RangingReport.PROXIMITY_STATE_UNKNOWN
+                    && report.getProximityState() != lastState) {
+                transitions++;
+            }
+            lastState = report.getProximityState();
+        }
+        assertEquals(2, transitions);
+        assertEquals(PROXIMITY_STATE_OUTSIDE, lastState);
+        assertTrue(filter.getReportCount() < trace.length / 4);
+    }
+
+    // Distances of a device moving from 4m to 1.5m, staying there, then moving back to 4m, with
+    // gaussian noise similar to UWB measurements.
+    private static float[] makeTrace() {
+        final int steps = 200;
+        final float[] trace = new float[3 * steps];
+        final Random random = new Random(42);
+        for (int i = 0; i < steps; i++) {
+            final float distanceM = 4.0f - 2.5f * i / steps;
+            trace[i] = distanceM;
+            trace[steps + i] = 1.5f;
+            trace[3 * steps - 1 - i] = distanceM;
+        }
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] += (float) (random.nextGaussian() * 0.1);
+        }
+        return trace;
+    }
+}
@@ -17,7 +17,11 @@
 package com.android.server.remoteauth.ranging;
 
 import static com.android.server.remoteauth.ranging.RangingCapabilities.RANGING_METHOD_UWB;
+import static com.android.server.remoteauth.ranging.SessionParameters.DEFAULT_MIN_DISTANCE_CHANGE_M;
+import static com.android.server.remoteauth.ranging.SessionParameters.DEFAULT_PROXIMITY_HYSTERESIS_M;
 import static com.android.server.remoteauth.ranging.SessionParameters.DEVICE_ROLE_INITIATOR;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_EWMA;
+import static com.android.server.remoteauth.ranging.SessionParameters.SMOOTHING_METHOD_KALMAN;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -232,4 +236,64 @@ public class SessionParametersTest {
 
         assertThrows(IllegalArgumentException.class, () -> builder.build());
     }
+
+    @Test
+    public void testBuildingSessionParameters_defaultFilterParameters() {
+        final SessionParameters sessionParameters =
+                new SessionParameters.Builder()
+                        .setDeviceId(TEST_DEVICE_ID)
+                        .setRangingMethod(TEST_RANGING_METHOD)
+                        .setDeviceRole(TEST_DEVICE_ROLE)
+                        .setLowerProximityBoundaryM(TEST_LOWER_PROXIMITY_BOUNDARY_M)
+                        .setUpperProximityBoundaryM(TEST_UPPER_PROXIMITY_BOUNDARY_M)
+                        .build();
+
+        assertEquals(sessionParameters.getSmoothingMethod(), SMOOTHING_METHOD_EWMA);
+        assertEquals(
+                sessionParameters.getProximityHysteresisM(), DEFAULT_PROXIMITY_HYSTERESIS_M, 0.0f);
+        assertEquals(
+                sessionParameters.getMinDistanceChangeM(), DEFAULT_MIN_DISTANCE_CHANGE_M, 0.0f);
+    }
+
+    @Test
+    public void testBuildingSessionParameters_invalidSmoothingMethod() {
+        final SessionParameters.Builder builder =
+                new SessionParameters.Builder()
+                        .setDeviceId(TEST_DEVICE_ID)
+                        .setRangingMethod(TEST_RANGING_METHOD)
+                        .setDeviceRole(TEST_DEVICE_ROLE)
+                        .setLowerProximityBoundaryM(TEST_LOWER_PROXIMITY_BOUNDARY_M)
+                        .setUpperProximityBoundaryM(TEST_UPPER_PROXIMITY_BOUNDARY_M)
+                        .setSmoothingMethod(SMOOTHING_METHOD_KALMAN + 1);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.build());
+    }
+
+    @Test
+    public void testBuildingSessionParameters_invalidProximityHysteresisM() {
+        final SessionParameters.Builder builder =
+                new SessionParameters.Builder()
+                        .setDeviceId(TEST_DEVICE_ID)
+                        .setRangingMethod(TEST_RANGING_METHOD)
+                        .setDeviceRole(TEST_DEVICE_ROLE)
+                        .setLowerProximityBoundaryM(TEST_LOWER_PROXIMITY_BOUNDARY_M)
+                        .setUpperProximityBoundaryM(TEST_UPPER_PROXIMITY_BOUNDARY_M)
+                        .setProximityHysteresisM(-0.1f);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.build());
+    }
+
+    @Test
+    public void testBuildingSessionParameters_invalidMinDistanceChangeM() {
+        final SessionParameters.Builder builder =
+                new SessionParameters.Builder()
+                        .setDeviceId(TEST_DEVICE_ID)
+                        .setRangingMethod(TEST_RANGING_METHOD)
+                        .setDeviceRole(TEST_DEVICE_ROLE)
+                        .setLowerProximityBoundaryM(TEST_LOWER_PROXIMITY_BOUNDARY_M)
+                        .setUpperProximityBoundaryM(TEST_UPPER_PROXIMITY_BOUNDARY_M)
+                        .setMinDistanceChangeM(-0.1f);
+
+        assertThrows(IllegalArgumentException.class, () -> builder.build());
+    }
 }
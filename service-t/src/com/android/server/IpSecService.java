@@ -497,6 +497,13 @@ public class IpSecService extends IIpSecService.Stub {
 
     @VisibleForTesting final UserResourceTracker mUserResourceTracker = new UserResourceTracker();
 
+    /** Remove a deleted SA from the SA dump cached by the XFRM controller. */
+    private void removeSaFromCache(String destinationAddress, int spi) {
+        mIpSecXfrmCtrl.removeSaFromCache(
+                InetAddresses.parseNumericAddress(destinationAddress),
+                Integer.toUnsignedLong(spi));
+    }
+
     /**
      * The OwnedResourceRecord class provides a facility to cleanly and reliably track system
      * resources. It relies on a provided resourceId that should uniquely identify the kernel
@@ -702,6 +709,7 @@ public class IpSecService extends IIpSecService.Stub {
             } catch (RemoteException | ServiceSpecificException e) {
                 Log.e(TAG, "Failed to delete SA with ID: " + mResourceId, e);
             }
+            removeSaFromCache(mConfig.getDestinationAddress(), spi);
 
             getResourceTracker().give();
         }
@@ -765,6 +773,7 @@ public class IpSecService extends IIpSecService.Stub {
             } catch (ServiceSpecificException | RemoteException e) {
                 Log.e(TAG, "Failed to delete SPI reservation with ID: " + mResourceId, e);
             }
+            if (!mOwnedByTransform) removeSaFromCache(mDestinationAddress, mSpi);
 
             mSpi = IpSecManager.INVALID_SECURITY_PARAMETER_INDEX;
 
@@ -1768,6 +1777,8 @@ public class IpSecService extends IIpSecService.Stub {
                 encapLocalPort,
                 encapRemotePort,
                 c.getXfrmInterfaceId());
+        // A cached SA dump would not contain the new SA.
+        mIpSecXfrmCtrl.invalidateSaDumpCache();
     }
 
     /**
@@ -1908,6 +1919,50 @@ public class IpSecService extends IIpSecService.Stub {
             throw new IllegalStateException("Failed to get IpSecTransformState");
         }
 
+        return makeIpSecTransformState(xfrmNewSaMsg);
+    }
+
+    @Override
+    public synchronized IpSecTransformState[] getTransformStates(int[] transformIds)
+            throws IllegalStateException, RemoteException {
+        mContext.enforceCallingOrSelfPermission(
+                android.Manifest.permission.ACCESS_NETWORK_STATE,
+                "IpsecService#getTransformStates");
+
+        final UserRecord userRecord = mUserResourceTracker.getUserRecord(Binder.getCallingUid());
+        final List<IpSecXfrmController.SaId> saIds = new ArrayList<>(transformIds.length);
+        for (int transformId : transformIds) {
+            if (transformId == INVALID_RESOURCE_ID) {
+                throw new IllegalStateException("This transform is already closed");
+            }
+            final TransformRecord transformInfo =
+                    userRecord.mTransformRecords.getResourceOrThrow(transformId);
+            saIds.add(new IpSecXfrmController.SaId(
+                    InetAddresses.parseNumericAddress(
+                            transformInfo.getConfig().getDestinationAddress()),
+                    Integer.toUnsignedLong(transformInfo.getSpiRecord().getSpi())));
+        }
+        Log.d(TAG, "getTransformStates for " + saIds.size() + " transforms");
+
+        // Fetch all SAs with a single netlink dump
+        final List<XfrmNetlinkNewSaMessage> xfrmNewSaMsgs;
+        try {
+            xfrmNewSaMsgs = mIpSecXfrmCtrl.ipSecGetSas(saIds);
+        } catch (ErrnoException | IOException e) {
+            Log.e(TAG, "getTransformStates: failed to get IpSecTransformState" + e.toString());
+            throw new IllegalStateException("Failed to get IpSecTransformState", e);
+        }
+
+        final IpSecTransformState[] states = new IpSecTransformState[xfrmNewSaMsgs.size()];
+        for (int i = 0; i < states.length; i++) {
+            final XfrmNetlinkNewSaMessage xfrmNewSaMsg = xfrmNewSaMsgs.get(i);
+            states[i] = (xfrmNewSaMsg == null) ? null : makeIpSecTransformState(xfrmNewSaMsg);
+        }
+        return states;
+    }
+
+    private static IpSecTransformState makeIpSecTransformState(
+            @NonNull XfrmNetlinkNewSaMessage xfrmNewSaMsg) {
         return new IpSecTransformState.Builder()
                 .setTxHighestSequenceNumber(xfrmNewSaMsg.getTxSequenceNumber())
                 .setRxHighestSequenceNumber(xfrmNewSaMsg.getRxSequenceNumber())
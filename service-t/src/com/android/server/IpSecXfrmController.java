@@ -22,7 +22,10 @@ import static com.android.net.module.util.netlink.xfrm.XfrmNetlinkMessage.XFRM_M
 
 import android.annotation.TargetApi;
 import android.os.Build;
+import android.os.SystemClock;
 import android.system.ErrnoException;
+import android.system.NetlinkSocketAddress;
+import android.system.Os;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -35,8 +38,10 @@ import com.android.net.module.util.netlink.NetlinkConstants;
 import com.android.net.module.util.netlink.NetlinkErrorMessage;
 import com.android.net.module.util.netlink.NetlinkMessage;
 import com.android.net.module.util.netlink.NetlinkUtils;
+import com.android.net.module.util.netlink.StructNlMsgHdr;
 import com.android.net.module.util.netlink.xfrm.XfrmNetlinkGetSaMessage;
 import com.android.net.module.util.netlink.xfrm.XfrmNetlinkMessage;
+import com.android.net.module.util.netlink.xfrm.StructXfrmUsersaInfo;
 import com.android.net.module.util.netlink.xfrm.XfrmNetlinkNewSaMessage;
 
 import libcore.io.IoUtils;
@@ -47,6 +52,10 @@ import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * This class handles IPSec XFRM commands between IpSecService and the Linux kernel
@@ -62,8 +71,53 @@ public class IpSecXfrmController {
     private static final int TIMEOUT_MS = 500;
     private static final int DEFAULT_RECV_BUFSIZE = 8 * 1024;
 
+    // How long the result of an SA dump is used to answer batched queries. Callers polling the
+    // state of many SAs get consistent counters without dumping the SAD once per SA.
+    @VisibleForTesting
+    static final long SA_DUMP_CACHE_TTL_MS = 1000;
+
     @NonNull private final Dependencies mDependencies;
     @Nullable private FileDescriptor mNetlinkSocket;
+    // Port ID of mNetlinkSocket, which the kernel sets as the nlmsg_pid of its replies.
+    private int mNetlinkPortId;
+    // Sequence number of the last request, used to ignore replies to earlier requests.
+    private int mLastSeq;
+
+    @GuardedBy("this")
+    private final HashMap<SaId, XfrmNetlinkNewSaMessage> mSaDumpCache = new HashMap<>();
+    @GuardedBy("this")
+    private long mSaDumpTimeMs;
+    @GuardedBy("this")
+    private boolean mSaDumpCacheValid;
+
+    /** Identifies an ESP SA by its destination address and SPI. */
+    public static final class SaId {
+        @NonNull public final InetAddress destAddress;
+        public final long spi;
+
+        public SaId(@NonNull InetAddress destAddress, long spi) {
+            this.destAddress = Objects.requireNonNull(destAddress);
+            this.spi = spi;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SaId)) return false;
+            final SaId that = (SaId) o;
+            return spi == that.spi && destAddress.equals(that.destAddress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(destAddress, spi);
+        }
+
+        @Override
+        public String toString() {
+            return "SaId{destAddress=" + destAddress + ", spi=" + spi + "}";
+        }
+    }
 
     @VisibleForTesting
     public IpSecXfrmController(@NonNull Dependencies dependencies) {
@@ -81,7 +135,14 @@ public class IpSecXfrmController {
      */
     public synchronized void openNetlinkSocketIfNeeded() throws ErrnoException, SocketException {
         if (mNetlinkSocket == null) {
-            mNetlinkSocket = mDependencies.newNetlinkSocket();
+            final FileDescriptor fd = mDependencies.newNetlinkSocket();
+            try {
+                mNetlinkPortId = mDependencies.getPortId(fd);
+            } catch (ErrnoException e) {
+                mDependencies.releaseNetlinkSocket(fd);
+                throw e;
+            }
+            mNetlinkSocket = fd;
         }
     }
 
@@ -91,6 +152,7 @@ public class IpSecXfrmController {
      * <p>The method is idempotent
      */
     public synchronized void closeNetlinkSocketIfNeeded() {
+        invalidateSaDumpCache();
         if (mNetlinkSocket != null) {
             mDependencies.releaseNetlinkSocket(mNetlinkSocket);
             mNetlinkSocket = null;
@@ -122,6 +184,11 @@ public class IpSecXfrmController {
             IoUtils.closeQuietly(fd);
         }
 
+        /** Get the port ID the kernel assigned to a connected netlink socket */
+        public int getPortId(FileDescriptor fd) throws ErrnoException {
+            return ((NetlinkSocketAddress) Os.getsockname(fd)).getPortId();
+        }
+
         /** Send a netlink message to a socket */
         public void sendMessage(FileDescriptor fd, byte[] bytes)
                 throws ErrnoException, InterruptedIOException {
@@ -133,36 +200,85 @@ public class IpSecXfrmController {
                 throws ErrnoException, InterruptedIOException {
             return NetlinkUtils.recvMessage(fd, DEFAULT_RECV_BUFSIZE, TIMEOUT_MS);
         }
+
+        /** Get the elapsed real time in milliseconds */
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
     }
 
     @GuardedBy("IpSecXfrmController.this")
-    private NetlinkMessage sendRequestAndGetResponse(String methodTag, byte[] req)
-            throws ErrnoException, InterruptedIOException, IOException {
-        openNetlinkSocketIfNeeded();
-
-        logD(methodTag + ":  send request " + req.length + " bytes");
-        logV(HexDump.dumpHexString(req));
-        mDependencies.sendMessage(mNetlinkSocket, req);
-
-        final ByteBuffer response = mDependencies.recvMessage(mNetlinkSocket);
-        logD(methodTag + ": receive response " + response.limit() + " bytes");
-        logV(HexDump.dumpHexString(response.array(), 0 /* offset */, response.limit()));
+    private int nextSeq() {
+        mLastSeq++;
+        // 0 is used by requests that do not expect a matching reply.
+        if (mLastSeq == 0) mLastSeq++;
+        return mLastSeq;
+    }
 
-        final NetlinkMessage msg = XfrmNetlinkMessage.parse(response, NETLINK_XFRM);
+    /**
+     * Parse the next message of a response.
+     *
+     * @return the message, or null if it is not a reply to the request with the given sequence
+     *     number, e.g. a late reply to an earlier request that timed out.
+     */
+    @GuardedBy("IpSecXfrmController.this")
+    @Nullable
+    private NetlinkMessage parseResponse(String methodTag, ByteBuffer response, int seq)
+            throws ErrnoException, IOException {
+        final NetlinkMessage msg;
+        try {
+            msg = XfrmNetlinkMessage.parse(response, NETLINK_XFRM);
+        } catch (IllegalArgumentException exception) {
+            // Maybe thrown from Struct.parse
+            throw new IOException("Failed to parse the response " + exception);
+        }
         if (msg == null) {
             throw new IOException("Fail to parse the response message");
         }
 
-        final int msgType = msg.getHeader().nlmsg_type;
-        if (msgType == NetlinkConstants.NLMSG_ERROR) {
+        final StructNlMsgHdr hdr = msg.getHeader();
+        if (hdr.nlmsg_seq != seq || hdr.nlmsg_pid != mNetlinkPortId) {
+            logD(methodTag + ": ignore message seq=" + hdr.nlmsg_seq + " pid=" + hdr.nlmsg_pid
+                    + ", expected seq=" + seq + " pid=" + mNetlinkPortId);
+            return null;
+        }
+
+        if (hdr.nlmsg_type == NetlinkConstants.NLMSG_ERROR) {
             final NetlinkErrorMessage errorMsg = (NetlinkErrorMessage) msg;
             final int errorCode = errorMsg.getNlMsgError().error;
             throw new ErrnoException(methodTag, errorCode);
         }
-
         return msg;
     }
 
+    @GuardedBy("IpSecXfrmController.this")
+    private NetlinkMessage sendRequestAndGetResponse(String methodTag, byte[] req, int seq)
+            throws ErrnoException, InterruptedIOException, IOException {
+        openNetlinkSocketIfNeeded();
+
+        logD(methodTag + ":  send request " + req.length + " bytes");
+        logV(HexDump.dumpHexString(req));
+        try {
+            mDependencies.sendMessage(mNetlinkSocket, req);
+
+            while (true) {
+                final ByteBuffer response = mDependencies.recvMessage(mNetlinkSocket);
+                logD(methodTag + ": receive response " + response.limit() + " bytes");
+                logV(HexDump.dumpHexString(response.array(), 0 /* offset */, response.limit()));
+
+                while (response.remaining() > 0) {
+                    final NetlinkMessage msg = parseResponse(methodTag, response, seq);
+                    if (msg != null) return msg;
+                }
+            }
+        } catch (ErrnoException | IOException e) {
+            // Replies to this request may still be queued on the socket. Reopen it on the next
+            // request instead of reading them as replies to that request.
+            closeNetlinkSocketIfNeeded();
+            throw e;
+        }
+    }
+
     /** Get the state of an IPsec SA */
     @NonNull
     public synchronized XfrmNetlinkNewSaMessage ipSecGetSa(
@@ -170,21 +286,93 @@ public class IpSecXfrmController {
             throws ErrnoException, InterruptedIOException, IOException {
         logD("ipSecGetSa: destAddress=" + destAddress + " spi=" + spi);
 
+        final int seq = nextSeq();
         final byte[] req =
                 XfrmNetlinkGetSaMessage.newXfrmNetlinkGetSaMessage(
-                        destAddress, spi, (short) IPPROTO_ESP);
+                        destAddress, spi, (short) IPPROTO_ESP, seq);
+        final NetlinkMessage msg = sendRequestAndGetResponse("ipSecGetSa", req, seq);
+
+        final int messageType = msg.getHeader().nlmsg_type;
+        if (messageType != XFRM_MSG_NEWSA) {
+            throw new IOException("unexpected response type " + messageType);
+        }
+
+        return (XfrmNetlinkNewSaMessage) msg;
+    }
+
+    /**
+     * Get the state of several IPsec SAs.
+     *
+     * <p>All ESP SAs are fetched with a single XFRM_MSG_GETSA dump, whose result is reused by
+     * subsequent calls for {@link #SA_DUMP_CACHE_TTL_MS}.
+     *
+     * @return the state of each requested SA, in order, or null for SAs that do not exist.
+     */
+    @NonNull
+    public synchronized List<XfrmNetlinkNewSaMessage> ipSecGetSas(@NonNull List<SaId> saIds)
+            throws ErrnoException, InterruptedIOException, IOException {
+        final long now = mDependencies.elapsedRealtime();
+        if (!mSaDumpCacheValid || now - mSaDumpTimeMs >= SA_DUMP_CACHE_TTL_MS) {
+            dumpSas();
+            mSaDumpTimeMs = now;
+            mSaDumpCacheValid = true;
+        }
+
+        final List<XfrmNetlinkNewSaMessage> result = new ArrayList<>(saIds.size());
+        for (SaId saId : saIds) {
+            result.add(mSaDumpCache.get(saId));
+        }
+        return result;
+    }
+
+    /** Remove a deleted SA from the cached SA dump. */
+    public synchronized void removeSaFromCache(@NonNull InetAddress destAddress, long spi) {
+        mSaDumpCache.remove(new SaId(destAddress, spi));
+    }
+
+    /** Drop the cached SA dump, e.g. after SAs are added. */
+    public synchronized void invalidateSaDumpCache() {
+        mSaDumpCache.clear();
+        mSaDumpCacheValid = false;
+    }
+
+    @GuardedBy("IpSecXfrmController.this")
+    private void dumpSas() throws ErrnoException, InterruptedIOException, IOException {
+        openNetlinkSocketIfNeeded();
+        mSaDumpCache.clear();
+        mSaDumpCacheValid = false;
+
+        final int seq = nextSeq();
+        final byte[] req = XfrmNetlinkGetSaMessage.newXfrmNetlinkGetSaDumpMessage(seq);
+        logD("dumpSas: send request " + req.length + " bytes");
         try {
-            final NetlinkMessage msg = sendRequestAndGetResponse("ipSecGetSa", req);
+            mDependencies.sendMessage(mNetlinkSocket, req);
 
-            final int messageType = msg.getHeader().nlmsg_type;
-            if (messageType != XFRM_MSG_NEWSA) {
-                throw new IOException("unexpected response type " + messageType);
-            }
+            while (true) {
+                final ByteBuffer response = mDependencies.recvMessage(mNetlinkSocket);
+                logV(HexDump.dumpHexString(response.array(), 0 /* offset */, response.limit()));
+                while (response.remaining() > 0) {
+                    final NetlinkMessage msg = parseResponse("dumpSas", response, seq);
+                    if (msg == null) continue;
 
-            return (XfrmNetlinkNewSaMessage) msg;
-        } catch (IllegalArgumentException exception) {
-            // Maybe thrown from Struct.parse
-            throw new IOException("Failed to parse the response " + exception);
+                    final int msgType = msg.getHeader().nlmsg_type;
+                    if (msgType == NetlinkConstants.NLMSG_DONE) {
+                        logD("dumpSas: received " + mSaDumpCache.size() + " SAs");
+                        return;
+                    }
+                    if (msgType != XFRM_MSG_NEWSA) continue;
+
+                    final XfrmNetlinkNewSaMessage newSaMsg = (XfrmNetlinkNewSaMessage) msg;
+                    final StructXfrmUsersaInfo info = newSaMsg.getXfrmUsersaInfo();
+                    if (info.getProto() != IPPROTO_ESP) continue;
+                    mSaDumpCache.put(new SaId(info.getDestAddress(), info.getSpi()), newSaMsg);
+                }
+            }
+        } catch (ErrnoException | IOException e) {
+            // The rest of the dump may still be queued on the socket. Reopen it on the next
+            // request instead of reading it as the reply to that request.
+            closeNetlinkSocketIfNeeded();
+            throw e;
         }
     }
 
@@ -354,6 +354,7 @@ import com.android.net.module.util.PermissionUtils;
 import com.android.net.module.util.RoutingCoordinatorService;
 import com.android.net.module.util.TcUtils;
 import com.android.net.module.util.netlink.InetDiagMessage;
+import com.android.net.module.util.netlink.InetDiagSocketDestroyer;
 import com.android.networkstack.apishim.BroadcastOptionsShimImpl;
 import com.android.networkstack.apishim.ConstantsShim;
 import com.android.networkstack.apishim.common.BroadcastOptionsShim;
@@ -375,10 +376,12 @@ import com.android.server.connectivity.InvalidTagException;
 import com.android.server.connectivity.KeepaliveResourceUtil;
 import com.android.server.connectivity.KeepaliveTracker;
 import com.android.server.connectivity.LingerMonitor;
+import com.android.server.connectivity.LinkPropertiesDiff;
 import com.android.server.connectivity.MockableSystemProperties;
 import com.android.server.connectivity.MulticastRoutingCoordinatorService;
 import com.android.server.connectivity.MultinetworkPolicyTracker;
 import com.android.server.connectivity.NetworkAgentInfo;
+import com.android.server.connectivity.NetworkCapabilitiesDiff;
 import com.android.server.connectivity.NetworkDiagnostics;
 import com.android.server.connectivity.NetworkNotificationManager;
 import com.android.server.connectivity.NetworkNotificationManager.NotificationType;
@@ -386,6 +389,7 @@ import com.android.server.connectivity.NetworkOffer;
 import com.android.server.connectivity.NetworkPreferenceList;
 import com.android.server.connectivity.NetworkRanker;
 import com.android.server.connectivity.NetworkRequestStateStatsMetrics;
+import com.android.server.connectivity.NetworkUpdateStats;
 import com.android.server.connectivity.PermissionMonitor;
 import com.android.server.connectivity.ProfileNetworkPreferenceInfo;
 import com.android.server.connectivity.ProxyTracker;
@@ -1031,6 +1035,19 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
     private final AutomaticOnOffKeepaliveTracker mKeepaliveTracker;
     private final QosCallbackTracker mQosCallbackTracker;
+
+    // Redacted capabilities sent to the callbacks during a notifyNetworkCallbacks fan-out, see
+    // capabilitiesForCallback. Only accessed on the handler thread.
+    private final ArrayMap<CallbackRedactionKey, NetworkCapabilities> mCallbackCapabilities =
+            new ArrayMap<>();
+    @Nullable
+    private NetworkCapabilities mCallbackCapabilitiesSource;
+
+    // Cost of processing LinkProperties and NetworkCapabilities updates, for dumpsys.
+    private final NetworkUpdateStats mLinkPropertiesUpdateStats =
+            new NetworkUpdateStats("LinkProperties updates");
+    private final NetworkUpdateStats mCapabilitiesUpdateStats =
+            new NetworkUpdateStats("NetworkCapabilities updates");
     private final NetworkNotificationManager mNotifier;
     private final LingerMonitor mLingerMonitor;
     private final SatelliteAccessController mSatelliteAccessController;
@@ -1464,10 +1481,23 @@ public class ConnectivityService extends IConnectivityManager.Stub {
      */
     @VisibleForTesting
     public static class Dependencies {
+        // Kept across calls so that its netlink socket is not recreated every time sockets are
+        // destroyed. Called from both the handler and binder threads, so guarded by itself.
+        private final InetDiagSocketDestroyer mSocketDestroyer = new InetDiagSocketDestroyer();
+
         public int getCallingUid() {
             return Binder.getCallingUid();
         }
 
+        /**
+         * Whether the callbacks registered by a process receive their own copy of the objects
+         * sent to them. Callbacks in the system server are not parceled, so they receive the
+         * objects themselves.
+         */
+        public boolean callbacksReceiveCopies(int pid) {
+            return pid != Process.myPid();
+        }
+
         public boolean isAtLeastS() {
             return SdkLevel.isAtLeastS();
         }
@@ -1798,7 +1828,8 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         }
 
         /**
-         * Call {@link InetDiagMessage#destroyLiveTcpSockets(Set, Set)}
+         * Destroy live TCP sockets like {@link InetDiagMessage#destroyLiveTcpSockets(Set, Set)},
+         * reusing the same netlink socket across calls.
          *
          * @param ranges target uid ranges
          * @param exemptUids uids to skip close socket
@@ -1806,17 +1837,25 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         public void destroyLiveTcpSockets(@NonNull final Set<Range<Integer>> ranges,
                 @NonNull final Set<Integer> exemptUids)
                 throws SocketException, InterruptedIOException, ErrnoException {
-            InetDiagMessage.destroyLiveTcpSockets(ranges, exemptUids);
+            synchronized (mSocketDestroyer) {
+                mSocketDestroyer.addUidRanges(ranges, exemptUids);
+                mSocketDestroyer.run();
+            }
         }
 
         /**
-         * Call {@link InetDiagMessage#destroyLiveTcpSocketsByOwnerUids(Set)}
+         * Destroy live TCP sockets like
+         * {@link InetDiagMessage#destroyLiveTcpSocketsByOwnerUids(Set)}, reusing the same
+         * netlink socket across calls.
          *
          * @param ownerUids target uids to close sockets
          */
         public void destroyLiveTcpSocketsByOwnerUids(final Set<Integer> ownerUids)
                 throws SocketException, InterruptedIOException, ErrnoException {
-            InetDiagMessage.destroyLiveTcpSocketsByOwnerUids(ownerUids);
+            synchronized (mSocketDestroyer) {
+                mSocketDestroyer.addOwnerUids(ownerUids);
+                mSocketDestroyer.run();
+            }
         }
 
         /**
@@ -4248,18 +4287,13 @@ public class ConnectivityService extends IConnectivityManager.Stub {
      * Reads the network specific MTU size from resources.
      * and set it on it's iface.
      */
-    private void updateMtu(@NonNull LinkProperties newLp, @Nullable LinkProperties oldLp) {
+    private void updateMtu(@NonNull LinkProperties newLp) {
         final String iface = newLp.getInterfaceName();
         final int mtu = newLp.getMtu();
         if (mtu == 0) {
             // Silently ignore unset MTU value.
             return;
         }
-        if (oldLp != null && newLp.isIdenticalMtu(oldLp)
-                && TextUtils.equals(oldLp.getInterfaceName(), iface)) {
-            if (VDBG) log("identical MTU and iface - not setting");
-            return;
-        }
         // Cannot set MTU without interface name
         if (TextUtils.isEmpty(iface)) {
             if (VDBG) log("Setting MTU size with null iface.");
@@ -4457,6 +4491,13 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
         mLegacyTypeTracker.dump(pw);
 
+        pw.println();
+        pw.println("Network update stats:");
+        pw.increaseIndent();
+        mLinkPropertiesUpdateStats.dump(pw);
+        mCapabilitiesUpdateStats.dump(pw);
+        pw.decreaseIndent();
+
         pw.println();
         mKeepaliveTracker.dump(pw);
 
@@ -4546,6 +4587,14 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         mNetworkActivityTracker.dump(pw);
         pw.decreaseIndent();
 
+        if (mL2capNetworkProvider != null) {
+            pw.println();
+            pw.println("L2CAP networks:");
+            pw.increaseIndent();
+            mL2capNetworkProvider.dump(pw);
+            pw.decreaseIndent();
+        }
+
         pw.println();
         pw.println("Close QUIC connection: " + mCloseQuicConnection);
         if (mCloseQuicConnection) {
@@ -5368,7 +5417,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         // in order to restart a validation pass from within netd.
         final PrivateDnsConfig cfg = mDnsManager.getPrivateDnsConfig();
         if (cfg.inOpportunisticMode()) {
-            updateDnses(nai.linkProperties, null, nai.network.getNetId());
+            updateDnses(nai.linkProperties, nai.network.getNetId());
         }
     }
 
@@ -5401,7 +5450,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
     private void updatePrivateDns(NetworkAgentInfo nai, PrivateDnsConfig newCfg) {
         mDnsManager.updatePrivateDns(nai.network, newCfg);
-        updateDnses(nai.linkProperties, null, nai.network.getNetId());
+        updateDnses(nai.linkProperties, nai.network.getNetId());
     }
 
     private void handlePrivateDnsValidationUpdate(PrivateDnsValidationUpdate update) {
@@ -8438,7 +8487,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         }
 
         @Override
-        public synchronized void incrementCountOrThrow(int uid) {
+        public void incrementCountOrThrow(int uid) {
             try {
                 super.incrementCountOrThrow(uid);
             } catch (IllegalStateException e) {
@@ -8449,11 +8498,11 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         }
 
         @Override
-        public synchronized void decrementCountOrThrow(int uid) {
+        public void decrementCountOrThrow(int uid) {
             throw new UnsupportedOperationException("Use decrementCount instead.");
         }
 
-        public synchronized void decrementCount(int uid) {
+        public void decrementCount(int uid) {
             try {
                 super.decrementCountOrThrow(uid);
             } catch (IllegalStateException e) {
@@ -9736,6 +9785,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
     private void updateLinkProperties(NetworkAgentInfo networkAgent, @NonNull LinkProperties newLp,
             @Nullable LinkProperties oldLp) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
         int netId = networkAgent.network.getNetId();
 
         // The NetworkAgent does not know whether clatd is running on its network or not, or whether
@@ -9743,15 +9793,27 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         // the LinkProperties for the network are accurate.
         networkAgent.clatd.fixupLinkProperties(oldLp, newLp);
 
-        updateInterfaces(newLp, oldLp, netId, networkAgent);
+        // Compare the link properties once, and let each of the updates below only act on what
+        // changed.
+        final LinkPropertiesDiff lpDiff = new LinkPropertiesDiff(oldLp, newLp);
+
+        updateInterfaces(newLp, oldLp, lpDiff.interfaces, netId, networkAgent);
 
         // update filtering rules, need to happen after the interface update so netd knows about the
         // new interface (the interface name -> index map becomes initialized)
         updateVpnFiltering(newLp, oldLp, networkAgent);
 
-        updateIngressToVpnAddressFiltering(newLp, oldLp, networkAgent);
+        // The rules only depend on the addresses and interface name of this network, as the other
+        // networks keep their current link properties.
+        if (lpDiff.addressesChanged() || lpDiff.interfaceNameChanged) {
+            updateIngressToVpnAddressFiltering(newLp, oldLp, networkAgent);
+        }
 
-        updateMtu(newLp, oldLp);
+        if (lpDiff.mtuChanged || lpDiff.interfaceNameChanged) {
+            updateMtu(newLp);
+        } else if (VDBG) {
+            log("identical MTU and iface - not setting");
+        }
         // TODO - figure out what to do for clat
 //        for (LinkProperties lp : newLp.getStackedLinks()) {
 //            updateMtu(lp, null);
@@ -9761,8 +9823,10 @@ public class ConnectivityService extends IConnectivityManager.Stub {
             updateTcpBufferSizes(newLp.getTcpBufferSizes());
         }
 
-        updateRoutes(newLp, oldLp, netId);
-        updateDnses(newLp, oldLp, netId);
+        updateRoutes(lpDiff.routes, netId);
+        if (lpDiff.dnsChanged) {
+            updateDnses(newLp, netId);
+        }
         // Make sure LinkProperties represents the latest private DNS status.
         // This does not need to be done before updateDnses because the
         // LinkProperties are not the source of the private DNS configuration.
@@ -9792,9 +9856,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
             networkAgent.clatd.update();
             // Notify NSS when relevant events happened. Currently, NSS only cares about
             // interface changed to update clat interfaces accounting.
-            final boolean interfacesChanged = oldLp == null
-                    || !Objects.equals(newLp.getAllInterfaceNames(), oldLp.getAllInterfaceNames());
-            if (interfacesChanged) {
+            if (oldLp == null || lpDiff.interfacesChanged()) {
                 notifyIfacesChangedForNetworkStats();
             }
             networkAgent.networkMonitor().notifyLinkPropertiesChanged(
@@ -9803,6 +9865,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         }
 
         mKeepaliveTracker.handleCheckKeepalivesStillValid(networkAgent);
+        mLinkPropertiesUpdateStats.record(SystemClock.elapsedRealtimeNanos() - startNanos);
     }
 
     private void applyInitialLinkProperties(@NonNull NetworkAgentInfo nai) {
@@ -9901,10 +9964,9 @@ public class ConnectivityService extends IConnectivityManager.Stub {
     }
 
     private void updateInterfaces(final @NonNull LinkProperties newLp,
-            final @Nullable LinkProperties oldLp, final int netId,
+            final @Nullable LinkProperties oldLp,
+            final @NonNull CompareResult<String> interfaceDiff, final int netId,
             final @NonNull NetworkAgentInfo nai) {
-        final CompareResult<String> interfaceDiff = new CompareResult<>(
-                oldLp != null ? oldLp.getAllInterfaceNames() : null, newLp.getAllInterfaceNames());
         if (!interfaceDiff.added.isEmpty()) {
             for (final String iface : interfaceDiff.added) {
                 try {
@@ -9922,7 +9984,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
         // The local network addresses needs to be updated before interfaces are removed because
         // modifying bpf map local_net_access requires mapping interface name to index.
-        updateLocalNetworkAddresses(newLp, oldLp);
+        updateLocalNetworkAddresses(newLp, oldLp, interfaceDiff);
 
         for (final String iface : interfaceDiff.removed) {
             try {
@@ -9943,16 +10005,26 @@ public class ConnectivityService extends IConnectivityManager.Stub {
      */
     private void updateLocalNetworkAddresses(@Nullable final LinkProperties newLp,
             @NonNull final LinkProperties oldLp) {
+        updateLocalNetworkAddresses(newLp, oldLp, new CompareResult<>(
+                oldLp != null ? oldLp.getAllInterfaceNames() : null,
+                newLp != null ? newLp.getAllInterfaceNames() : null));
+    }
+
+    /**
+     * Update Local Network Addresses to LocalNetAccess BPF map.
+     * @param newLp new link properties
+     * @param oldLp old link properties
+     * @param interfaceDiff the interfaces added and removed between oldLp and newLp
+     */
+    private void updateLocalNetworkAddresses(@Nullable final LinkProperties newLp,
+            @Nullable final LinkProperties oldLp,
+            @NonNull final CompareResult<String> interfaceDiff) {
 
         // The maps are available only after 25Q2 release
         if (!BpfNetMaps.isAtLeast25Q2()) {
             return;
         }
 
-        final CompareResult<String> interfaceDiff = new CompareResult<>(
-                oldLp != null ? oldLp.getAllInterfaceNames() : null,
-                newLp != null ? newLp.getAllInterfaceNames() : null);
-
         for (final String iface : interfaceDiff.added) {
             addLocalAddressesToBpfMap(iface, MULTICAST_AND_BROADCAST_PREFIXES, newLp);
         }
@@ -10145,17 +10217,10 @@ public class ConnectivityService extends IConnectivityManager.Stub {
 
     /**
      * Have netd update routes from oldLp to newLp.
-     * @return true if routes changed between oldLp and newLp
+     * @param routeDiff the routes added, removed and updated between oldLp and newLp
      */
-    private boolean updateRoutes(@NonNull LinkProperties newLp, @Nullable LinkProperties oldLp,
-            int netId) {
-        // compare the route diff to determine which routes have been updated
-        final CompareOrUpdateResult<RouteInfo.RouteKey, RouteInfo> routeDiff =
-                new CompareOrUpdateResult<>(
-                        oldLp != null ? oldLp.getAllRoutes() : null,
-                        newLp.getAllRoutes(),
-                        (r) -> r.getRouteKey());
-
+    private void updateRoutes(
+            @NonNull CompareOrUpdateResult<RouteInfo.RouteKey, RouteInfo> routeDiff, int netId) {
         // add routes before removing old in case it helps with continuous connectivity
 
         // do this twice, adding non-next-hop routes first, then routes they are dependent on
@@ -10199,16 +10264,9 @@ public class ConnectivityService extends IConnectivityManager.Stub {
                 loge("Exception in updateRoute: " + e);
             }
         }
-        return !routeDiff.added.isEmpty() || !routeDiff.removed.isEmpty()
-                || !routeDiff.updated.isEmpty();
     }
 
-    private void updateDnses(@NonNull LinkProperties newLp, @Nullable LinkProperties oldLp,
-            int netId) {
-        if (oldLp != null && newLp.isIdenticalDnses(oldLp)) {
-            return;  // no updating necessary
-        }
-
+    private void updateDnses(@NonNull LinkProperties newLp, int netId) {
         if (DBG) {
             final Collection<InetAddress> dnses = newLp.getDnsServers();
             log("Setting DNS servers for network " + netId + " to " + dnses);
@@ -10576,6 +10634,7 @@ public class ConnectivityService extends IConnectivityManager.Stub {
      */
     private void updateCapabilities(final FullScore oldScore, @NonNull final NetworkAgentInfo nai,
             @NonNull final NetworkCapabilities nc) {
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
         NetworkCapabilities newNc = mixInCapabilities(nai, nc);
         if (Objects.equals(nai.networkCapabilities, newNc)) return;
         final String differences = newNc.describeCapsDifferencesFrom(nai.networkCapabilities);
@@ -10584,12 +10643,17 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         }
         updateNetworkPermissions(nai, newNc);
         final NetworkCapabilities prevNc = nai.getAndSetNetworkCapabilities(newNc);
+        final NetworkCapabilitiesDiff ncDiff = new NetworkCapabilitiesDiff(prevNc, newNc);
 
-        updateVpnUids(nai, prevNc, newNc);
-        updateAllowedUids(nai, prevNc, newNc);
+        if (ncDiff.uidRangesChanged) {
+            updateVpnUids(nai, prevNc, newNc);
+        }
+        if (ncDiff.allowedUidsChanged) {
+            updateAllowedUids(nai, prevNc, newNc);
+        }
         nai.updateScoreForNetworkAgentUpdate();
 
-        if (nai.getScore().equals(oldScore) && newNc.equalRequestableCapabilities(prevNc)) {
+        if (nai.getScore().equals(oldScore) && ncDiff.requestableCapabilitiesEqual) {
             // If the requestable capabilities haven't changed, and the score hasn't changed, then
             // the change we're processing can't affect any requests, it can only affect the listens
             // on this network. We might have been called by rematchNetworkAndRequests when a
@@ -10601,33 +10665,31 @@ public class ConnectivityService extends IConnectivityManager.Stub {
             rematchAllNetworksAndRequests();
             notifyNetworkCallbacks(nai, CALLBACK_CAP_CHANGED);
         }
-        updateNetworkInfoForRoamingAndSuspended(nai, prevNc, newNc);
+        if (ncDiff.suspendedChanged() || ncDiff.roamingChanged()) {
+            updateNetworkInfoForRoamingAndSuspended(nai, prevNc, newNc);
+        }
 
-        final boolean oldMetered = prevNc.isMetered();
-        final boolean newMetered = newNc.isMetered();
-        final boolean meteredChanged = oldMetered != newMetered;
+        final boolean meteredChanged = ncDiff.meteredChanged();
 
         if (meteredChanged) {
-            maybeNotifyNetworkBlocked(nai, oldMetered, newMetered,
+            maybeNotifyNetworkBlocked(nai, prevNc.isMetered(), newNc.isMetered(),
                     mVpnBlockedUidRanges, mVpnBlockedUidRanges);
         }
 
-        final boolean roamingChanged = prevNc.hasCapability(NET_CAPABILITY_NOT_ROAMING)
-                != newNc.hasCapability(NET_CAPABILITY_NOT_ROAMING);
-
         // Report changes that are interesting for network statistics tracking.
-        if (meteredChanged || roamingChanged) {
+        if (meteredChanged || ncDiff.roamingChanged()) {
             notifyIfacesChangedForNetworkStats();
         }
 
         // This network might have been underlying another network. Propagate its capabilities.
         propagateUnderlyingNetworkCapabilities(nai.network);
 
-        if (meteredChanged || !newNc.equalsTransportTypes(prevNc)) {
+        if (meteredChanged || ncDiff.transportsChanged) {
             mDnsManager.updateCapabilitiesForNetwork(nai.network.getNetId(), newNc);
         }
 
         maybeSendProxyBroadcast(nai, prevNc, newNc);
+        mCapabilitiesUpdateStats.record(SystemClock.elapsedRealtimeNanos() - startNanos);
     }
 
     /** Convenience method to update the capabilities for a given network. */
@@ -11204,13 +11266,8 @@ public class ConnectivityService extends IConnectivityManager.Stub {
                 break;
             }
             case CALLBACK_AVAILABLE: {
-                final NetworkCapabilities nc =
-                        createWithLocationInfoSanitizedIfNecessaryWhenParceled(
-                                networkCapabilitiesRestrictedForCallerPermissions(
-                                        networkAgent.networkCapabilities, nri.mPid, nri.mUid),
-                                includeLocationSensitiveInfo, nri.mPid, nri.mUid,
-                                nrForCallback.getRequestorPackageName(),
-                                nri.mCallingAttributionTag);
+                final NetworkCapabilities nc = capabilitiesForCallback(nri,
+                        networkAgent.networkCapabilities, includeLocationSensitiveInfo);
                 putParcelable(bundle, nc);
                 putParcelable(bundle, linkPropertiesRestrictedForCallerPermissions(
                         networkAgent.linkProperties, nri.mPid, nri.mUid));
@@ -11222,15 +11279,8 @@ public class ConnectivityService extends IConnectivityManager.Stub {
             }
             case CALLBACK_CAP_CHANGED: {
                 // networkAgent can't be null as it has been accessed a few lines above.
-                final NetworkCapabilities netCap =
-                        networkCapabilitiesRestrictedForCallerPermissions(
-                                networkAgent.networkCapabilities, nri.mPid, nri.mUid);
-                putParcelable(
-                        bundle,
-                        createWithLocationInfoSanitizedIfNecessaryWhenParceled(
-                                netCap, includeLocationSensitiveInfo, nri.mPid, nri.mUid,
-                                nrForCallback.getRequestorPackageName(),
-                                nri.mCallingAttributionTag));
+                putParcelable(bundle, capabilitiesForCallback(nri,
+                        networkAgent.networkCapabilities, includeLocationSensitiveInfo));
                 break;
             }
             case CALLBACK_IP_CHANGED: {
@@ -11254,6 +11304,82 @@ public class ConnectivityService extends IConnectivityManager.Stub {
         callCallbackForRequest(nri, notificationType, bundle, arg1);
     }
 
+    /**
+     * The callers for which a redacted view of some capabilities was computed. The view only
+     * depends on the permissions of the caller and on whether it asked for location sensitive
+     * info, so requests from the same app share it.
+     */
+    private static final class CallbackRedactionKey {
+        private final int mPid;
+        private final int mUid;
+        @NonNull private final String mPackageName;
+        @Nullable private final String mAttributionTag;
+        private final boolean mIncludeLocationSensitiveInfo;
+
+        CallbackRedactionKey(int pid, int uid, @NonNull String packageName,
+                @Nullable String attributionTag, boolean includeLocationSensitiveInfo) {
+            mPid = pid;
+            mUid = uid;
+            mPackageName = packageName;
+            mAttributionTag = attributionTag;
+            mIncludeLocationSensitiveInfo = includeLocationSensitiveInfo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CallbackRedactionKey)) return false;
+            final CallbackRedactionKey that = (CallbackRedactionKey) o;
+            return mPid == that.mPid
+                    && mUid == that.mUid
+                    && mIncludeLocationSensitiveInfo == that.mIncludeLocationSensitiveInfo
+                    && mPackageName.equals(that.mPackageName)
+                    && Objects.equals(mAttributionTag, that.mAttributionTag);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mPid, mUid, mPackageName, mAttributionTag,
+                    mIncludeLocationSensitiveInfo);
+        }
+    }
+
+    /**
+     * Returns the capabilities to send to the callback of the passed request.
+     *
+     * While notifyNetworkCallbacks fans out an update, the views are memoized by caller, so the
+     * permission checks and copies are done once per app instead of once per request. Views
+     * sent to callbacks in the system server are not shared, as they are not parceled and the
+     * receivers could modify them.
+     */
+    @NonNull
+    private NetworkCapabilities capabilitiesForCallback(@NonNull NetworkRequestInfo nri,
+            @NonNull NetworkCapabilities nc, boolean includeLocationSensitiveInfo) {
+        final String packageName = nri.getNetworkRequestForCallback().getRequestorPackageName();
+        final boolean cacheable = nc == mCallbackCapabilitiesSource
+                && mDeps.callbacksReceiveCopies(nri.mPid);
+        final CallbackRedactionKey key = cacheable ? new CallbackRedactionKey(nri.mPid, nri.mUid,
+                packageName, nri.mCallingAttributionTag, includeLocationSensitiveInfo) : null;
+        if (cacheable) {
+            final NetworkCapabilities cached = mCallbackCapabilities.get(key);
+            if (cached != null) return cached;
+        }
+        final NetworkCapabilities redacted = createWithLocationInfoSanitizedIfNecessaryWhenParceled(
+                networkCapabilitiesRestrictedForCallerPermissions(nc, nri.mPid, nri.mUid),
+                includeLocationSensitiveInfo, nri.mPid, nri.mUid, packageName,
+                nri.mCallingAttributionTag);
+        if (cacheable) {
+            mCallbackCapabilities.put(key, redacted);
+        }
+        return redacted;
+    }
+
+    @VisibleForTesting
+    int getCallbackCapabilitiesCacheSize() {
+        ensureRunningOnConnectivityServiceThread();
+        return mCallbackCapabilities.size();
+    }
+
     private void callCallbackForRequest(@NonNull final NetworkRequestInfo nri, int notificationType,
             Bundle bundle, int arg1) {
         Message msg = Message.obtain();
@@ -12516,15 +12642,25 @@ public class ConnectivityService extends IConnectivityManager.Stub {
             String notification = ConnectivityManager.getCallbackName(notifyType);
             log("notifyType " + notification + " for " + networkAgent.toShortString());
         }
-        for (int i = 0; i < networkAgent.numNetworkRequests(); i++) {
-            NetworkRequest nr = networkAgent.requestAt(i);
-            NetworkRequestInfo nri = mNetworkRequests.get(nr);
-            if (VDBG) log(" sending notification for " + nr);
-            if (nri.mPendingIntent == null) {
-                callCallbackForRequest(nri, networkAgent, notifyType, arg1);
-            } else {
-                sendPendingIntentForRequest(nri, networkAgent, notifyType);
+        // The capabilities can't change while the callbacks are being sent, so the redacted
+        // views can be shared between the requests. Permissions may change between updates, so
+        // the views are not kept after this method returns.
+        mCallbackCapabilitiesSource = networkAgent.networkCapabilities;
+        mCallbackCapabilities.clear();
+        try {
+            for (int i = 0; i < networkAgent.numNetworkRequests(); i++) {
+                NetworkRequest nr = networkAgent.requestAt(i);
+                NetworkRequestInfo nri = mNetworkRequests.get(nr);
+                if (VDBG) log(" sending notification for " + nr);
+                if (nri.mPendingIntent == null) {
+                    callCallbackForRequest(nri, networkAgent, notifyType, arg1);
+                } else {
+                    sendPendingIntentForRequest(nri, networkAgent, notifyType);
+                }
             }
+        } finally {
+            mCallbackCapabilitiesSource = null;
+            mCallbackCapabilities.clear();
         }
     }
 
@@ -29,9 +29,6 @@ import static android.net.NetworkCapabilities.NET_CAPABILITY_NOT_VCN_MANAGED;
 import static android.net.NetworkCapabilities.NET_CAPABILITY_NOT_VPN;
 import static android.net.NetworkCapabilities.RES_ID_MATCH_ALL_RESERVATIONS;
 import static android.net.NetworkCapabilities.TRANSPORT_BLUETOOTH;
-import static android.system.OsConstants.F_GETFL;
-import static android.system.OsConstants.F_SETFL;
-import static android.system.OsConstants.O_NONBLOCK;
 
 import android.annotation.Nullable;
 import android.bluetooth.BluetoothAdapter;
@@ -51,14 +48,16 @@ import android.net.NetworkScore;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.ParcelFileDescriptor;
-import android.system.Os;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.net.module.util.DeviceConfigUtils;
 import com.android.net.module.util.HandlerUtils;
 import com.android.net.module.util.ServiceConnectivityJni;
+import com.android.server.net.HeaderCompressionContext;
 import com.android.server.net.L2capNetwork;
 import com.android.server.net.L2capNetwork.L2capIpClient;
 import com.android.server.net.L2capPacketForwarder;
@@ -97,6 +96,8 @@ public class L2capNetworkProvider {
     @Nullable
     private BluetoothManager mBluetoothManager;
 
+    private static final long DUMP_TIMEOUT_MS = 1000;
+
     // Note: IFNAMSIZ is 16.
     private static final String TUN_IFNAME = "l2cap-tun";
     private static int sTunIndex = 0;
@@ -615,7 +616,11 @@ public class L2capNetworkProvider {
             return thread;
         }
 
-        /** Create a tun interface configured for blocking i/o */
+        /**
+         * Create a tun interface.
+         *
+         * The L2capPacketForwarder puts the fd in non-blocking mode to drain queued packets.
+         */
         @Nullable
         public ParcelFileDescriptor createTunInterface(String ifname) {
             final ParcelFileDescriptor fd;
@@ -626,10 +631,6 @@ public class L2capNetworkProvider {
                         true /*setIffMulticast*/,
                         ifname));
                 ServiceConnectivityJni.bringUpInterface(ifname);
-                // TODO: consider adding a parameter to createTunTap() (or the Builder that should
-                // be added) to configure i/o blocking.
-                final int flags = Os.fcntlInt(fd.getFileDescriptor(), F_GETFL, 0);
-                Os.fcntlInt(fd.getFileDescriptor(), F_SETFL, flags & ~O_NONBLOCK);
             } catch (Exception e) {
                 // Note: createTunTap currently throws an IllegalStateException on failure.
                 // TODO: native functions should throw ErrnoException.
@@ -639,11 +640,25 @@ public class L2capNetworkProvider {
             return fd;
         }
 
-        /** Create an L2capPacketForwarder and start forwarding */
+        /**
+         * Create an L2capPacketForwarder and start forwarding.
+         *
+         * @param compressionContext the contexts to use for full IPHC compression, or null to
+         *        use the original stateless compressor.
+         */
         public L2capPacketForwarder createL2capPacketForwarder(Handler handler,
                 ParcelFileDescriptor tunFd, BluetoothSocket socket, boolean compressHeaders,
+                @Nullable HeaderCompressionContext compressionContext,
                 L2capPacketForwarder.ICallback cb) {
-            return new L2capPacketForwarder(handler, tunFd, socket, compressHeaders, cb);
+            return new L2capPacketForwarder(handler, tunFd, socket, compressHeaders,
+                    compressionContext, L2capPacketForwarder.DEFAULT_BATCH_SIZE, cb);
+        }
+
+        /**
+         * @see DeviceConfigUtils#isTetheringFeatureEnabled
+         */
+        public boolean isFeatureEnabled(Context context, String name) {
+            return DeviceConfigUtils.isTetheringFeatureEnabled(context, name);
         }
 
         /** Create an L2capIpClient */
@@ -690,4 +705,24 @@ public class L2capNetworkProvider {
                     ClientOffer.CAPABILITIES, mHandler::post, mClientOffer);
         });
     }
+
+    /**
+     * Dump the forwarding counters of the L2CAP networks.
+     *
+     * Called on CS Handler thread.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        if (!HandlerUtils.runWithScissorsForDump(mHandler, () -> {
+            for (ReservedServerOffer offer : mReservedServerOffers) {
+                for (L2capNetwork network : offer.mL2capNetworks) {
+                    network.dump(pw);
+                }
+            }
+            for (ClientOffer.ClientRequestInfo cri : mClientOffer.mClientNetworkRequests.values()) {
+                if (cri.network != null) cri.network.dump(pw);
+            }
+        }, DUMP_TIMEOUT_MS)) {
+            pw.println("dump timeout");
+        }
+    }
 }
@@ -90,6 +90,11 @@ public class AutomaticOnOffKeepaliveTracker {
     private static final int[] ADDRESS_FAMILIES = new int[] {AF_INET6, AF_INET};
     private static final long LOW_TCP_POLLING_INTERVAL_MS = 1_000L;
     private static final int ADJUST_TCP_POLLING_DELAY_MS = 2000;
+    // How long the socket census of a network can answer the polls of the other keepalives on
+    // that network. Must be well below ADJUST_TCP_POLLING_DELAY_MS, so that a suspended
+    // keepalive still resumes in time.
+    @VisibleForTesting
+    static final long TCP_SOCKET_CENSUS_MAX_AGE_MS = 1_000L;
     private static final String AUTOMATIC_ON_OFF_KEEPALIVE_DISABLE_FLAG =
             "automatic_on_off_keepalive_disable_flag";
     public static final long METRICS_COLLECTION_DURATION_MS = 24 * 60 * 60 * 1_000L;
@@ -182,6 +187,39 @@ public class AutomaticOnOffKeepaliveTracker {
 
     private final long mMetricsWriteTimeBase;
 
+    /**
+     * The result of dumping the TCP sockets of a network.
+     *
+     * The polling alarms are not wakeup alarms, so the alarms of all the keepalives on a network
+     * tend to be delivered together when the device wakes up. The census taken by the first one
+     * answers the others, instead of dumping all the sockets of the device again for each of
+     * them.
+     */
+    private static class TcpSocketCensus {
+        final long mTimeMs;
+        final boolean mAnySocketConnected;
+        // The callback of the keepalive that took the census. Its own next poll always takes a
+        // new census.
+        @NonNull
+        final IBinder mOwner;
+
+        TcpSocketCensus(long timeMs, boolean anySocketConnected, @NonNull IBinder owner) {
+            mTimeMs = timeMs;
+            mAnySocketConnected = anySocketConnected;
+            mOwner = owner;
+        }
+    }
+
+    /**
+     * The last socket census of each network, keyed by netId.
+     * This should only be accessed in the connectivity service handler thread.
+     */
+    private final SparseArray<TcpSocketCensus> mTcpSocketCensus = new SparseArray<>();
+    private long mTcpSocketCensusCount;
+    private long mTcpSocketCensusHitCount;
+    private long mTcpSocketCensusTotalNanos;
+    private long mTcpSocketCensusMaxNanos;
+
     /**
      * Information about a managed keepalive.
      *
@@ -391,7 +429,7 @@ public class AutomaticOnOffKeepaliveTracker {
         if (STATE_ALWAYS_ON == ki.mAutomaticOnOffState) {
             throw new IllegalStateException("Should not monitor non-auto keepalive");
         }
-        if (!isAnyTcpSocketConnected(vpnNetId)) {
+        if (!isAnyTcpSocketConnectedFromCensus(ki, vpnNetId)) {
             // No TCP socket exists. Stop keepalive if ENABLED, and remain SUSPENDED if currently
             // SUSPENDED.
             if (ki.mAutomaticOnOffState == STATE_ENABLED) {
@@ -714,6 +752,12 @@ public class AutomaticOnOffKeepaliveTracker {
         mEventLog.reverseDump(pw);
         pw.decreaseIndent();
 
+        pw.println("TCP socket census: count=" + mTcpSocketCensusCount
+                + " hits=" + mTcpSocketCensusHitCount
+                + " avgUs=" + (mTcpSocketCensusCount == 0
+                        ? 0 : mTcpSocketCensusTotalNanos / mTcpSocketCensusCount / 1000)
+                + " maxUs=" + mTcpSocketCensusMaxNanos / 1000);
+
         pw.println();
         mKeepaliveStatsTracker.dump(pw);
     }
@@ -742,6 +786,40 @@ public class AutomaticOnOffKeepaliveTracker {
         }
     }
 
+    /**
+     * Returns whether any TCP socket is connected on the network, reusing the census taken for
+     * another keepalive on the same network if it is recent enough.
+     */
+    @VisibleForTesting
+    boolean isAnyTcpSocketConnectedFromCensus(@NonNull AutomaticOnOffKeepalive ki, int netId) {
+        ensureRunningOnHandlerThread(mConnectivityServiceHandler);
+        final IBinder owner = ki.mCallback.asBinder();
+        final long now = mDependencies.getElapsedRealtime();
+        final TcpSocketCensus census = mTcpSocketCensus.get(netId);
+        if (census != null && census.mOwner != owner
+                && now - census.mTimeMs < TCP_SOCKET_CENSUS_MAX_AGE_MS) {
+            mTcpSocketCensusHitCount++;
+            return census.mAnySocketConnected;
+        }
+
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        final boolean anySocketConnected = isAnyTcpSocketConnected(netId);
+        final long durationNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        mTcpSocketCensusCount++;
+        mTcpSocketCensusTotalNanos += durationNanos;
+        mTcpSocketCensusMaxNanos = Math.max(mTcpSocketCensusMaxNanos, durationNanos);
+
+        // Drop the censuses that are too old to be used, so that networks that went away are
+        // not kept.
+        for (int i = mTcpSocketCensus.size() - 1; i >= 0; i--) {
+            if (now - mTcpSocketCensus.valueAt(i).mTimeMs >= TCP_SOCKET_CENSUS_MAX_AGE_MS) {
+                mTcpSocketCensus.removeAt(i);
+            }
+        }
+        mTcpSocketCensus.put(netId, new TcpSocketCensus(now, anySocketConnected, owner));
+        return anySocketConnected;
+    }
+
     @VisibleForTesting
     boolean isAnyTcpSocketConnected(int netId) {
         FileDescriptor fd = null;
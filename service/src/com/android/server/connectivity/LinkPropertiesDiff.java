@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.connectivity;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.RouteInfo;
+import android.text.TextUtils;
+
+import com.android.net.module.util.LinkPropertiesUtils.CompareOrUpdateResult;
+import com.android.net.module.util.LinkPropertiesUtils.CompareResult;
+
+/**
+ * The differences between two {@link LinkProperties} of a network, computed once per update so
+ * that the consumers of the update do not each compare the full objects.
+ *
+ * Either side may be null, e.g. when a network connects or disconnects, in which case
+ * everything in the other side is considered added or removed.
+ * @hide
+ */
+public class LinkPropertiesDiff {
+    /** Interfaces of the base link and of the stacked links. */
+    @NonNull
+    public final CompareResult<String> interfaces;
+    /** Routes of the base link and of the stacked links, keyed by {@link RouteInfo.RouteKey}. */
+    @NonNull
+    public final CompareOrUpdateResult<RouteInfo.RouteKey, RouteInfo> routes;
+    /** Addresses of the base link and of the stacked links. */
+    @NonNull
+    public final CompareResult<LinkAddress> addresses;
+    /** Whether the DNS servers or search domains changed. */
+    public final boolean dnsChanged;
+    /** Whether the MTU changed. */
+    public final boolean mtuChanged;
+    /** Whether the name of the base interface changed. */
+    public final boolean interfaceNameChanged;
+
+    public LinkPropertiesDiff(@Nullable LinkProperties oldLp, @Nullable LinkProperties newLp) {
+        interfaces = new CompareResult<>(
+                oldLp != null ? oldLp.getAllInterfaceNames() : null,
+                newLp != null ? newLp.getAllInterfaceNames() : null);
+        routes = new CompareOrUpdateResult<>(
+                oldLp != null ? oldLp.getAllRoutes() : null,
+                newLp != null ? newLp.getAllRoutes() : null,
+                (r) -> r.getRouteKey());
+        addresses = new CompareResult<>(
+                oldLp != null ? oldLp.getAllLinkAddresses() : null,
+                newLp != null ? newLp.getAllLinkAddresses() : null);
+        if (oldLp == null || newLp == null) {
+            dnsChanged = true;
+            mtuChanged = true;
+            interfaceNameChanged = true;
+        } else {
+            dnsChanged = !newLp.isIdenticalDnses(oldLp);
+            mtuChanged = !newLp.isIdenticalMtu(oldLp);
+            interfaceNameChanged =
+                    !TextUtils.equals(oldLp.getInterfaceName(), newLp.getInterfaceName());
+        }
+    }
+
+    /** Returns whether interfaces were added to or removed from the network. */
+    public boolean interfacesChanged() {
+        return !interfaces.added.isEmpty() || !interfaces.removed.isEmpty();
+    }
+
+    /** Returns whether routes were added, removed or updated. */
+    public boolean routesChanged() {
+        return !routes.added.isEmpty() || !routes.removed.isEmpty()
+                || !routes.updated.isEmpty();
+    }
+
+    /** Returns whether addresses were added or removed. */
+    public boolean addressesChanged() {
+        return !addresses.added.isEmpty() || !addresses.removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "LinkPropertiesDiff{"
+                + "interfaces={" + interfaces + "}"
+                + ", routes={" + routes + "}"
+                + ", addresses={" + addresses + "}"
+                + ", dnsChanged=" + dnsChanged
+                + ", mtuChanged=" + mtuChanged
+                + ", interfaceNameChanged=" + interfaceNameChanged
+                + "}";
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.connectivity;
+
+import static android.net.NetworkCapabilities.NET_CAPABILITY_NOT_METERED;
+import static android.net.NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING;
+import static android.net.NetworkCapabilities.NET_CAPABILITY_NOT_SUSPENDED;
+
+import android.annotation.NonNull;
+import android.net.NetworkCapabilities;
+
+/**
+ * The differences between two {@link NetworkCapabilities} of a network, computed once per
+ * update so that the consumers of the update do not each compare the full objects.
+ * @hide
+ */
+public class NetworkCapabilitiesDiff {
+    /** Capabilities present in the new capabilities only, as a bitmask of NET_CAPABILITY_*. */
+    public final long capabilitiesAdded;
+    /** Capabilities present in the old capabilities only, as a bitmask of NET_CAPABILITY_*. */
+    public final long capabilitiesRemoved;
+    /** Whether the transport types changed. */
+    public final boolean transportsChanged;
+    /** Whether the UID ranges, as used by VPNs, changed. */
+    public final boolean uidRangesChanged;
+    /** Whether the allowed UIDs changed. */
+    public final boolean allowedUidsChanged;
+    /** Whether the capabilities that can be requested by network requests are the same. */
+    public final boolean requestableCapabilitiesEqual;
+
+    public NetworkCapabilitiesDiff(@NonNull NetworkCapabilities oldNc,
+            @NonNull NetworkCapabilities newNc) {
+        final long oldCaps = oldNc.getCapabilitiesInternal();
+        final long newCaps = newNc.getCapabilitiesInternal();
+        capabilitiesAdded = newCaps & ~oldCaps;
+        capabilitiesRemoved = oldCaps & ~newCaps;
+        transportsChanged = !newNc.equalsTransportTypes(oldNc);
+        uidRangesChanged = !newNc.equalsUids(oldNc);
+        allowedUidsChanged = !newNc.getAllowedUidsNoCopy().equals(oldNc.getAllowedUidsNoCopy());
+        requestableCapabilitiesEqual = newNc.equalRequestableCapabilities(oldNc);
+    }
+
+    /** Returns whether the capability was added or removed. */
+    public boolean capabilityChanged(@NetworkCapabilities.NetCapability int capability) {
+        return ((capabilitiesAdded | capabilitiesRemoved) & (1L << capability)) != 0;
+    }
+
+    /** Returns whether the network became metered or unmetered. */
+    public boolean meteredChanged() {
+        return capabilityChanged(NET_CAPABILITY_NOT_METERED);
+    }
+
+    /** Returns whether the network started or stopped roaming. */
+    public boolean roamingChanged() {
+        return capabilityChanged(NET_CAPABILITY_NOT_ROAMING);
+    }
+
+    /** Returns whether the network was suspended or resumed. */
+    public boolean suspendedChanged() {
+        return capabilityChanged(NET_CAPABILITY_NOT_SUSPENDED);
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkCapabilitiesDiff{"
+                + "capabilitiesAdded=0x" + Long.toHexString(capabilitiesAdded)
+                + ", capabilitiesRemoved=0x" + Long.toHexString(capabilitiesRemoved)
+                + ", transportsChanged=" + transportsChanged
+                + ", uidRangesChanged=" + uidRangesChanged
+                + ", allowedUidsChanged=" + allowedUidsChanged
+                + ", requestableCapabilitiesEqual=" + requestableCapabilitiesEqual
+                + "}";
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.connectivity;
+
+import android.annotation.NonNull;
+import android.util.IndentingPrintWriter;
+
+/**
+ * Cost of processing one kind of network update, e.g. a LinkProperties update from a
+ * NetworkAgent. Updates are recorded on the ConnectivityService handler thread and dumped from
+ * binder threads.
+ * @hide
+ */
+public class NetworkUpdateStats {
+    @NonNull
+    private final String mName;
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    public NetworkUpdateStats(@NonNull String name) {
+        mName = name;
+    }
+
+    /** Records an update that took the given time to process. */
+    public synchronized void record(long durationNanos) {
+        mCount++;
+        mTotalNanos += durationNanos;
+        mMaxNanos = Math.max(mMaxNanos, durationNanos);
+    }
+
+    /** Returns the number of recorded updates. */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /** Returns the total processing time of the recorded updates. */
+    public synchronized long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /** Returns the longest processing time of a recorded update. */
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /** Dumps the stats on a single line. */
+    public synchronized void dump(@NonNull IndentingPrintWriter pw) {
+        final long avgMicros = mCount == 0 ? 0 : mTotalNanos / mCount / 1000;
+        pw.println(mName + ": count=" + mCount + " avg=" + avgMicros + "us max="
+                + (mMaxNanos / 1000) + "us");
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.net;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.IpPrefix;
+
+import java.net.Inet6Address;
+
+/**
+ * The 6lowpan (rfc6282) compression contexts of a single link.
+ *
+ * A context maps a 4-bit context identifier (CID) to an IPv6 prefix, so that addresses covered
+ * by the prefix can be elided from the IPHC header. A /64 context typically holds the network
+ * prefix, while a /128 context holds the full address of a peer, which allows the address to be
+ * elided entirely.
+ *
+ * Both ends of the link must be configured with the same contexts; packets that reference a
+ * context that is not configured cannot be decompressed.
+ *
+ * This class is thread-safe: contexts may be updated while packets are being compressed and
+ * decompressed on the forwarding threads.
+ */
+public class HeaderCompressionContext {
+    /** Number of contexts that can be referenced by the 4-bit SCI and DCI fields. */
+    public static final int MAX_CONTEXTS = 16;
+
+    /** An immutable context entry. */
+    static final class Entry {
+        final byte[] prefix;
+        final int prefixLength;
+
+        Entry(byte[] prefix, int prefixLength) {
+            this.prefix = prefix;
+            this.prefixLength = prefixLength;
+        }
+
+        /** Returns whether the context covers the first prefixLength bits of the address. */
+        boolean matches(byte[] bytes, int off) {
+            return prefixBitsEqual(prefix, 0, bytes, off, prefixLength);
+        }
+
+        /** Overwrite the bits of the address covered by the context. */
+        void apply(byte[] address) {
+            final int fullBytes = prefixLength / 8;
+            System.arraycopy(prefix, 0, address, 0, fullBytes);
+            final int remainingBits = prefixLength % 8;
+            if (remainingBits != 0) {
+                final int mask = (0xff << (8 - remainingBits)) & 0xff;
+                address[fullBytes] =
+                        (byte) ((prefix[fullBytes] & mask) | (address[fullBytes] & ~mask));
+            }
+        }
+    }
+
+    // Copy-on-write, replaced under the lock of this object.
+    private volatile Entry[] mEntries = new Entry[MAX_CONTEXTS];
+
+    static boolean prefixBitsEqual(byte[] a, int aOff, byte[] b, int bOff, int bits) {
+        final int fullBytes = bits / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            if (a[aOff + i] != b[bOff + i]) return false;
+        }
+        final int remainingBits = bits % 8;
+        if (remainingBits == 0) return true;
+        final int mask = (0xff << (8 - remainingBits)) & 0xff;
+        return ((a[aOff + fullBytes] ^ b[bOff + fullBytes]) & mask) == 0;
+    }
+
+    private static void checkCid(int cid) {
+        if (cid < 0 || cid >= MAX_CONTEXTS) {
+            throw new IllegalArgumentException("Invalid context identifier: " + cid);
+        }
+    }
+
+    /**
+     * Set the prefix of a context.
+     *
+     * @param cid the context identifier, between 0 and {@link #MAX_CONTEXTS} - 1.
+     * @param prefix an IPv6 prefix. Use a /128 prefix to elide a full address.
+     */
+    public synchronized void setContext(int cid, @NonNull IpPrefix prefix) {
+        checkCid(cid);
+        if (!(prefix.getAddress() instanceof Inet6Address)) {
+            throw new IllegalArgumentException("Context prefix must be IPv6: " + prefix);
+        }
+        final Entry[] entries = mEntries.clone();
+        entries[cid] = new Entry(prefix.getRawAddress(), prefix.getPrefixLength());
+        mEntries = entries;
+    }
+
+    /** Remove a context. Packets referencing it can no longer be decompressed. */
+    public synchronized void removeContext(int cid) {
+        checkCid(cid);
+        final Entry[] entries = mEntries.clone();
+        entries[cid] = null;
+        mEntries = entries;
+    }
+
+    /** Get the prefix of a context, or null if the context is not configured. */
+    @Nullable
+    public IpPrefix getContext(int cid) {
+        checkCid(cid);
+        final Entry entry = mEntries[cid];
+        return entry == null ? null : new IpPrefix(entry.prefix, entry.prefixLength);
+    }
+
+    /** Returns a snapshot of the contexts, indexed by context identifier. */
+    @NonNull
+    Entry[] getEntries() {
+        return mEntries;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.server.net;
 
+import android.annotation.Nullable;
 import android.util.Log;
 
 import java.io.IOException;
@@ -73,6 +74,32 @@ public class HeaderCompressionUtils {
         return address;
     }
 
+    private static byte[] decodeContextIpv6Address(ByteBuffer buffer, int mode,
+            @Nullable HeaderCompressionContext.Entry context) throws IOException {
+        final byte[] address = new byte[16];
+        // The unspecified address :: does not depend on the context.
+        if (mode == 0b00) return address;
+        if (context == null) throw new IOException("Unknown compression context");
+        switch (mode) {
+            case 0b01: // 64 bits. Bits not covered by the context are carried in-line.
+                buffer.get(address, 8 /*off*/, 8 /*len*/);
+                break;
+            case 0b10: // 16 bits. Bits not covered by the context are ::ff:fe00:XXXX.
+                address[11] = (byte) 0xff;
+                address[12] = (byte) 0xfe;
+                buffer.get(address, 14 /*off*/, 2 /*len*/);
+                break;
+            case 0b11: // 0 bits. Only supported if the context covers the full address, since
+                // the BLE MAC address is not available.
+                if (context.prefixLength != 128) {
+                    throw new IOException("Address cannot be fully elided");
+                }
+                break;
+        }
+        context.apply(address);
+        return address;
+    }
+
     /**
      * Performs 6lowpan header decompression in place.
      *
@@ -86,6 +113,24 @@ public class HeaderCompressionUtils {
      */
     public static int decompress6lowpan(byte[] bytes, int len)
             throws BufferUnderflowException, IOException {
+        return decompress6lowpan(bytes, len, null /* context */);
+    }
+
+    /**
+     * Performs 6lowpan header decompression in place, using the contexts of the link for
+     * context-based (stateful) address compression.
+     *
+     * @param bytes The buffer containing the packet.
+     * @param len The size of the packet
+     * @param context The compression contexts of the link, or null if context-based compression
+     *                is not supported.
+     * @return decompressed size or zero
+     * @throws BufferUnderflowException if an illegal packet is encountered.
+     * @throws IOException if an unsupported option or unknown context is encountered.
+     */
+    public static int decompress6lowpan(byte[] bytes, int len,
+            @Nullable HeaderCompressionContext context)
+            throws BufferUnderflowException, IOException {
         // Note that ByteBuffer's default byte order is big endian.
         final ByteBuffer inBuffer = ByteBuffer.wrap(bytes);
         inBuffer.limit(len);
@@ -114,6 +159,14 @@ public class HeaderCompressionUtils {
 
         final ByteBuffer ipv6Header = ByteBuffer.allocate(IPV6_HEADER_SIZE);
 
+        if ((cid || sac || dac) && context == null) {
+            throw new IOException("Context based compression not supported");
+        }
+        // The context identifier extension immediately follows the IPHC base encoding.
+        final int contextIds = cid ? inBuffer.get() & 0xff : 0;
+        final HeaderCompressionContext.Entry[] contexts =
+                context == null ? null : context.getEntries();
+
         final int trafficClass;
         final int flowLabel;
         switch (tf) {
@@ -183,15 +236,21 @@ public class HeaderCompressionUtils {
         }
         ipv6Header.put(hopLimit);
 
-        if (cid) throw new IOException("Context based compression not supported");
-        if (sac) throw new IOException("Context based compression not supported");
-        if (dac) throw new IOException("Context based compression not supported");
-
         // Write source address
-        ipv6Header.put(decodeIpv6Address(inBuffer, sam, false /* isMulticast */));
+        if (sac) {
+            ipv6Header.put(decodeContextIpv6Address(inBuffer, sam, contexts[contextIds >> 4]));
+        } else {
+            ipv6Header.put(decodeIpv6Address(inBuffer, sam, false /* isMulticast */));
+        }
 
         // Write destination address
-        ipv6Header.put(decodeIpv6Address(inBuffer, dam, m));
+        if (dac) {
+            // Unicast-prefix-based multicast address compression is not supported.
+            if (m) throw new IOException("Context based multicast compression not supported");
+            ipv6Header.put(decodeContextIpv6Address(inBuffer, dam, contexts[contextIds & 0xf]));
+        } else {
+            ipv6Header.put(decodeIpv6Address(inBuffer, dam, m));
+        }
 
         // Go back and fix up payloadLength
         final short payloadLength = (short) inBuffer.remaining();
@@ -272,4 +331,236 @@ public class HeaderCompressionUtils {
         // of the packet did not change.
         return len;
     }
+
+    // Inline sizes of the address modes, indexed by SAM / DAM.
+    private static final int[] ADDRESS_MODE_SIZES = { 16, 8, 2, 0 };
+
+    private static boolean isZero(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /** Returns the stateless address mode for the address at bytes[off]. */
+    private static int statelessAddressMode(byte[] bytes, int off) {
+        // fe80::/64 link-local prefix.
+        if (bytes[off] != (byte) 0xfe || bytes[off + 1] != (byte) 0x80
+                || !isZero(bytes, off + 2, off + 8)) {
+            return 0b00;
+        }
+        // fe80::ff:fe00:XXXX
+        if (isZero(bytes, off + 8, off + 11) && bytes[off + 11] == (byte) 0xff
+                && bytes[off + 12] == (byte) 0xfe && bytes[off + 13] == 0) {
+            return 0b10;
+        }
+        return 0b01;
+    }
+
+    /** Returns the multicast address mode for the multicast address at bytes[off]. */
+    private static int multicastAddressMode(byte[] bytes, int off) {
+        // ff02::00XX
+        if (bytes[off + 1] == 0x02 && isZero(bytes, off + 2, off + 15)) return 0b11;
+        // ffXX::00XX:XXXX
+        if (isZero(bytes, off + 2, off + 13)) return 0b10;
+        // ffXX::00XX:XXXX:XXXX
+        if (isZero(bytes, off + 2, off + 11)) return 0b01;
+        return 0b00;
+    }
+
+    /**
+     * Returns the context address mode for the address at bytes[off], or -1 if the context
+     * cannot be used to compress it.
+     */
+    private static int contextAddressMode(byte[] bytes, int off,
+            @Nullable HeaderCompressionContext.Entry context) {
+        if (context == null || !context.matches(bytes, off)) return -1;
+        if (context.prefixLength == 128) return 0b11;
+        // Bits not covered by the context must match ::ff:fe00:XXXX or ::XXXX:XXXX:XXXX:XXXX.
+        final byte[] template = new byte[16];
+        template[11] = (byte) 0xff;
+        template[12] = (byte) 0xfe;
+        System.arraycopy(bytes, off + 14, template, 14, 2);
+        context.apply(template);
+        if (HeaderCompressionContext.prefixBitsEqual(template, 0, bytes, off, 128)) return 0b10;
+
+        Arrays.fill(template, (byte) 0);
+        System.arraycopy(bytes, off + 8, template, 8, 8);
+        context.apply(template);
+        if (HeaderCompressionContext.prefixBitsEqual(template, 0, bytes, off, 128)) return 0b01;
+        return -1;
+    }
+
+    /**
+     * Returns the context identifier that compresses the address at bytes[off] the most, or -1
+     * if no context compresses it better than the given inline size.
+     */
+    private static int findBestContext(byte[] bytes, int off,
+            @Nullable HeaderCompressionContext.Entry[] contexts, int inlineSize) {
+        if (contexts == null) return -1;
+        int bestCid = -1;
+        int bestSize = inlineSize;
+        for (int cid = 0; cid < contexts.length; cid++) {
+            final int mode = contextAddressMode(bytes, off, contexts[cid]);
+            if (mode < 0) continue;
+            // A non-zero context identifier costs an extra byte, which is shared between the
+            // source and the destination; account for it conservatively here.
+            final int size = ADDRESS_MODE_SIZES[mode] + (cid == 0 ? 0 : 1);
+            if (size < bestSize) {
+                bestSize = size;
+                bestCid = cid;
+            }
+        }
+        return bestCid;
+    }
+
+    /**
+     * Performs rfc6282 6lowpan header compression in place, eliding every field that can be
+     * derived by the receiver.
+     *
+     * Unlike {@link #compress6lowpan(byte[], int)}, which carries all fields in-line, this elides
+     * the traffic class, flow label and hop limit when they take common values, and compresses
+     * link-local and multicast addresses. If contexts are passed, addresses covered by a context
+     * are compressed against it; the peer must be configured with the same contexts.
+     *
+     * @param bytes The buffer containing the packet.
+     * @param len The size of the packet
+     * @param context The compression contexts of the link, or null to only use stateless
+     *                compression.
+     * @return compressed size or zero
+     * @throws BufferUnderflowException if an illegal packet is encountered.
+     * @throws IOException if an unsupported option is encountered.
+     */
+    public static int compress6lowpan(byte[] bytes, final int len,
+            @Nullable HeaderCompressionContext context)
+            throws BufferUnderflowException, IOException {
+        // Compression only happens on egress, i.e. the packet is read from the tun fd.
+        // This means that this code can be a bit more lenient.
+        if (len < IPV6_HEADER_SIZE) {
+            Log.wtf(TAG, "Encountered short (<40 byte) packet");
+            return 0;
+        }
+
+        // Note that ByteBuffer's default byte order is big endian.
+        final ByteBuffer inBuffer = ByteBuffer.wrap(bytes);
+        inBuffer.limit(len);
+
+        // Check that the packet is an IPv6 packet
+        final int versionTcFlowLabel = inBuffer.getInt();
+        if ((versionTcFlowLabel >>> 28) != 6) {
+            return 0;
+        }
+
+        // Check that the payload length matches the packet length - 40.
+        final int payloadLength = inBuffer.getShort() & 0xffff;
+        if (payloadLength != len - IPV6_HEADER_SIZE) {
+            throw new IOException("Encountered packet with payload length mismatch");
+        }
+        final byte nextHeader = inBuffer.get();
+        final int hopLimit = inBuffer.get() & 0xff;
+        final int srcOff = 8;
+        final int dstOff = 24;
+
+        final int trafficClass = (versionTcFlowLabel >> 20) & 0xff;
+        final int flowLabel = versionTcFlowLabel & 0xfffff;
+        // The traffic class is encoded the same way decompress6lowpan() decodes it.
+        final int tf;
+        if (trafficClass == 0 && flowLabel == 0) {
+            tf = 0b11;
+        } else if (flowLabel == 0) {
+            tf = 0b10;
+        } else if ((trafficClass & ~0x3) == 0) {
+            tf = 0b01;
+        } else {
+            tf = 0b00;
+        }
+
+        final int hlim;
+        switch (hopLimit) {
+            case 1: hlim = 0b01; break;
+            case 64: hlim = 0b10; break;
+            case 255: hlim = 0b11; break;
+            default: hlim = 0b00;
+        }
+
+        final HeaderCompressionContext.Entry[] contexts =
+                context == null ? null : context.getEntries();
+
+        // Source address
+        int sam = statelessAddressMode(bytes, srcOff);
+        final int sci = findBestContext(bytes, srcOff, contexts, ADDRESS_MODE_SIZES[sam]);
+        final boolean sac = sci >= 0;
+        if (sac) sam = contextAddressMode(bytes, srcOff, contexts[sci]);
+
+        // Destination address
+        final boolean m = bytes[dstOff] == (byte) 0xff;
+        int dam = m ? multicastAddressMode(bytes, dstOff) : statelessAddressMode(bytes, dstOff);
+        final int dci = m ? -1 : findBestContext(bytes, dstOff, contexts, ADDRESS_MODE_SIZES[dam]);
+        final boolean dac = dci >= 0;
+        if (dac) dam = contextAddressMode(bytes, dstOff, contexts[dci]);
+
+        final boolean cid = (sac && sci != 0) || (dac && dci != 0);
+
+        // Build the compressed header. Its size never exceeds the 40-byte IPv6 header, since
+        // contexts are only used when they save more than the context identifier extension.
+        final ByteBuffer header = ByteBuffer.allocate(IPV6_HEADER_SIZE);
+        header.put((byte) (0x60 | (tf << 3) | hlim));
+        header.put((byte) ((cid ? 0x80 : 0) | (sac ? 0x40 : 0) | (sam << 4)
+                | (m ? 0x08 : 0) | (dac ? 0x04 : 0) | dam));
+        if (cid) header.put((byte) (((sac ? sci : 0) << 4) | (dac ? dci : 0)));
+
+        switch (tf) {
+            case 0b00:
+                header.put((byte) trafficClass);
+                header.put((byte) (flowLabel >> 16));
+                header.putShort((short) flowLabel);
+                break;
+            case 0b01:
+                header.put((byte) ((trafficClass << 6) | (flowLabel >> 16)));
+                header.putShort((short) flowLabel);
+                break;
+            case 0b10:
+                header.put((byte) trafficClass);
+                break;
+            default:
+                break;
+        }
+        header.put(nextHeader);
+        if (hlim == 0b00) header.put((byte) hopLimit);
+
+        final int srcSize = ADDRESS_MODE_SIZES[sam];
+        header.put(bytes, srcOff + 16 - srcSize, srcSize);
+
+        if (m) {
+            switch (dam) {
+                case 0b00:
+                    header.put(bytes, dstOff, 16);
+                    break;
+                case 0b01:
+                    header.put(bytes[dstOff + 1]);
+                    header.put(bytes, dstOff + 11, 5);
+                    break;
+                case 0b10:
+                    header.put(bytes[dstOff + 1]);
+                    header.put(bytes, dstOff + 13, 3);
+                    break;
+                case 0b11:
+                    header.put(bytes[dstOff + 15]);
+                    break;
+            }
+        } else {
+            final int dstSize = ADDRESS_MODE_SIZES[dam];
+            header.put(bytes, dstOff + 16 - dstSize, dstSize);
+        }
+
+        // Move the payload forward and copy the compressed header in front of it.
+        final int headerLength = header.position();
+        if (headerLength > IPV6_HEADER_SIZE) {
+            // This indicates a bug in our code -> crash.
+            throw new IllegalStateException("Compressed header exceeds 40 bytes");
+        }
+        System.arraycopy(bytes, IPV6_HEADER_SIZE, bytes, headerLength, payloadLength);
+        System.arraycopy(header.array(), 0, bytes, 0, headerLength);
+        return headerLength + payloadLength;
+    }
 }
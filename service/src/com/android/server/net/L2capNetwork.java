@@ -38,9 +38,19 @@ import android.os.Handler;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.L2capNetworkProvider;
 
 public class L2capNetwork {
+    /**
+     * Flag to compress headers with full IPHC instead of the original stateless compressor.
+     *
+     * The two encodings are not compatible, so this must only be enabled on devices whose peers
+     * also use full IPHC.
+     */
+    @VisibleForTesting
+    public static final String KEY_L2CAP_FULL_IPHC_VERSION = "l2cap_full_iphc_version";
     private static final NetworkScore NETWORK_SCORE = new NetworkScore.Builder().build();
     private final String mLogTag;
     private final Handler mHandler;
@@ -124,9 +134,15 @@ public class L2capNetwork {
 
         final L2capNetworkSpecifier spec = (L2capNetworkSpecifier) nc.getNetworkSpecifier();
         final boolean compressHeaders = spec.getHeaderCompression() == HEADER_COMPRESSION_6LOWPAN;
+        // The network only uses IPv6 link-local addresses, which full IPHC compresses without
+        // contexts, so no context is configured: contexts would need to be agreed on with the
+        // peer.
+        final HeaderCompressionContext compressionContext =
+                compressHeaders && deps.isFeatureEnabled(context, KEY_L2CAP_FULL_IPHC_VERSION)
+                        ? new HeaderCompressionContext() : null;
 
         mForwarder = deps.createL2capPacketForwarder(handler, tunFd, socket, compressHeaders,
-                () -> {
+                compressionContext, () -> {
             // TODO: add a check that this callback is invoked on the handler thread.
             cb.onError(L2capNetwork.this);
         });
@@ -169,6 +185,15 @@ public class L2capNetwork {
         return mNetworkCapabilities;
     }
 
+    /** Dump the forwarding counters of this network */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println(mLogTag + ":");
+        pw.increaseIndent();
+        pw.println("ingress: " + mForwarder.getIngressStats());
+        pw.println("egress: " + mForwarder.getEgressStats());
+        pw.decreaseIndent();
+    }
+
     /** Tear down the network and associated resources */
     public void tearDown() {
         mNetworkAgent.unregister();
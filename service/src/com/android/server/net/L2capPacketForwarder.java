@@ -19,12 +19,15 @@ package com.android.server.net;
 import static com.android.server.net.HeaderCompressionUtils.compress6lowpan;
 import static com.android.server.net.HeaderCompressionUtils.decompress6lowpan;
 
+import android.annotation.Nullable;
 import android.bluetooth.BluetoothSocket;
 import android.os.Handler;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
+import android.system.StructPollfd;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -33,6 +36,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.BufferUnderflowException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Forwards packets from a BluetoothSocket of type L2CAP to a tun fd and vice versa.
@@ -49,12 +53,19 @@ public class L2capPacketForwarder {
     // MTU determines the value of the read buffers, so use the larger of the two.
     @VisibleForTesting
     public static final int MTU = 1528;
+    // Number of packets drained per batch in batched mode. A batch size of 1 forwards one packet
+    // at a time.
+    public static final int DEFAULT_BATCH_SIZE = 16;
     private final Handler mHandler;
     private final IReadWriteFd mTunFd;
     private final IReadWriteFd mL2capFd;
     private final L2capThread mIngressThread;
     private final L2capThread mEgressThread;
     private final ICallback mCallback;
+    // Compression contexts of the link, shared by the ingress and egress threads. Null if full
+    // IPHC compression is not used.
+    @Nullable
+    private final HeaderCompressionContext mCompressionContext;
 
     public interface ICallback {
         /** Called when an error is encountered; should tear down forwarding. */
@@ -74,6 +85,15 @@ public class L2capPacketForwarder {
          * bytes[] must be of size >= off + len.
          */
         void write(byte[] bytes, int off, int len) throws IOException;
+        /**
+         * Read a packet into bytes[off] if one is already queued, without blocking.
+         *
+         * Used to drain packets in batched mode. Implementations that cannot read without
+         * blocking must return -1.
+         *
+         * @return the bytes actually read, or -1 if no packet is queued.
+         */
+        int readIfAvailable(byte[] bytes, int off, int len) throws IOException;
         /** Disallow further receptions, shutdown(fd, SHUT_RD) */
         void shutdownRead();
         /** Disallow further transmissions, shutdown(fd, SHUT_WR) */
@@ -124,6 +144,13 @@ public class L2capPacketForwarder {
             mOutputStream.write(bytes, off, len);
         }
 
+        @Override
+        public int readIfAvailable(byte[] bytes, int off, int len) {
+            // InputStream#available() does not account for packet boundaries on L2CAP sockets, so
+            // packets are always read one at a time.
+            return -1;
+        }
+
         @Override
         public void shutdownRead() {
             // BluetoothSocket does not expose methods to shutdown read / write individually;
@@ -165,13 +192,33 @@ public class L2capPacketForwarder {
 
         public FdWrapper(ParcelFileDescriptor fd) {
             mFd = fd;
+            // The fd is used in non-blocking mode, so that queued packets can be drained by
+            // reading until EAGAIN instead of polling before each read. Blocking reads and writes
+            // poll only when the fd is not ready.
+            try {
+                final int flags = Os.fcntlInt(fd.getFileDescriptor(), OsConstants.F_GETFL, 0);
+                Os.fcntlInt(fd.getFileDescriptor(), OsConstants.F_SETFL,
+                        flags | OsConstants.O_NONBLOCK);
+            } catch (ErrnoException e) {
+                throw new IllegalStateException("Failed to set O_NONBLOCK", e);
+            }
+        }
+
+        private void waitFor(short events) throws ErrnoException {
+            final StructPollfd pollfd = new StructPollfd();
+            pollfd.fd = mFd.getFileDescriptor();
+            pollfd.events = events;
+            Os.poll(new StructPollfd[] { pollfd }, -1 /* timeoutMs */);
         }
 
         @Override
         public int read(byte[] bytes, int off, int len) throws IOException {
             try {
-                // Note: EINTR is handled internally and automatically triggers a retry loop.
-                return Os.read(mFd.getFileDescriptor(), bytes, off, len);
+                while (true) {
+                    final int bytesRead = readIfAvailable(bytes, off, len);
+                    if (bytesRead >= 0) return bytesRead;
+                    waitFor((short) OsConstants.POLLIN);
+                }
             } catch (ErrnoException e) {
                 throw new IOException(e);
             }
@@ -182,10 +229,30 @@ public class L2capPacketForwarder {
          */
         @Override
         public void write(byte[] bytes, int off, int len) throws IOException {
+            try {
+                while (true) {
+                    try {
+                        // Note: EINTR is handled internally and automatically triggers a retry
+                        // loop.
+                        Os.write(mFd.getFileDescriptor(), bytes, off, len);
+                        return;
+                    } catch (ErrnoException e) {
+                        if (e.errno != OsConstants.EAGAIN) throw e;
+                    }
+                    waitFor((short) OsConstants.POLLOUT);
+                }
+            } catch (ErrnoException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public int readIfAvailable(byte[] bytes, int off, int len) throws IOException {
             try {
                 // Note: EINTR is handled internally and automatically triggers a retry loop.
-                Os.write(mFd.getFileDescriptor(), bytes, off, len);
+                return Os.read(mFd.getFileDescriptor(), bytes, off, len);
             } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EAGAIN) return -1;
                 throw new IOException(e);
             }
         }
@@ -220,9 +287,45 @@ public class L2capPacketForwarder {
         }
     }
 
+    /** A snapshot of the forwarding counters of one direction. */
+    public static final class ForwardingStats {
+        /** Number of packets written. */
+        public final long packets;
+        /** Number of bytes written, after header (de)compression. */
+        public final long bytes;
+        /** Number of packets dropped because they were empty or exceeded MTU. */
+        public final long droppedPackets;
+        /** Number of batches read. */
+        public final long batches;
+        /** Largest number of packets read in a single batch. */
+        public final long maxBatchSize;
+        /** Total time spent processing and writing batches after they were read. */
+        public final long totalLatencyNs;
+
+        ForwardingStats(long packets, long bytes, long droppedPackets, long batches,
+                long maxBatchSize, long totalLatencyNs) {
+            this.packets = packets;
+            this.bytes = bytes;
+            this.droppedPackets = droppedPackets;
+            this.batches = batches;
+            this.maxBatchSize = maxBatchSize;
+            this.totalLatencyNs = totalLatencyNs;
+        }
+
+        @Override
+        public String toString() {
+            return "ForwardingStats{packets=" + packets + ", bytes=" + bytes
+                    + ", droppedPackets=" + droppedPackets + ", batches=" + batches
+                    + ", maxBatchSize=" + maxBatchSize + ", totalLatencyNs=" + totalLatencyNs
+                    + "}";
+        }
+    }
+
     private class L2capThread extends Thread {
-        // Set mBuffer length to MTU + 1 to catch read() overflows.
-        private final byte[] mBuffer = new byte[MTU + 1];
+        // Preallocated buffers that packets are drained into. Set the length of each buffer to
+        // MTU + 1 to catch read() overflows.
+        private final byte[][] mBuffers;
+        private final int[] mLengths;
         private volatile boolean mIsRunning = true;
 
         private final String mLogTag;
@@ -231,14 +334,24 @@ public class L2capPacketForwarder {
         private final boolean mIsIngress;
         private final boolean mCompressHeaders;
 
+        // Counters are only updated by this thread, but may be read from any thread.
+        private final AtomicLong mPackets = new AtomicLong();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final AtomicLong mDroppedPackets = new AtomicLong();
+        private final AtomicLong mBatches = new AtomicLong();
+        private final AtomicLong mMaxBatchSize = new AtomicLong();
+        private final AtomicLong mTotalLatencyNs = new AtomicLong();
+
         L2capThread(IReadWriteFd readFd, IReadWriteFd writeFd, boolean isIngress,
-                boolean compressHeaders) {
+                boolean compressHeaders, int batchSize) {
             super("L2capNetworkProvider-ForwarderThread");
             mLogTag = isIngress ? "L2capForwarderThread-Ingress" : "L2capForwarderThread-Egress";
             mReadFd = readFd;
             mWriteFd = writeFd;
             mIsIngress = isIngress;
             mCompressHeaders = compressHeaders;
+            mBuffers = new byte[batchSize][MTU + 1];
+            mLengths = new int[batchSize];
         }
 
         private void postOnError() {
@@ -248,31 +361,74 @@ public class L2capPacketForwarder {
             });
         }
 
+        /**
+         * Block until a packet is read, then drain packets that are already queued, up to the
+         * number of buffers.
+         *
+         * @return the number of packets read.
+         */
+        private int readBatch() throws IOException {
+            final int readBytes = mReadFd.read(mBuffers[0], 0 /*off*/, mBuffers[0].length);
+            // No bytes to write.
+            if (readBytes <= 0) {
+                Log.w(mLogTag, "Zero-byte read encountered: " + readBytes);
+                return 0;
+            }
+            mLengths[0] = readBytes;
+
+            int count = 1;
+            while (count < mBuffers.length) {
+                final byte[] buffer = mBuffers[count];
+                final int drainedBytes = mReadFd.readIfAvailable(buffer, 0 /*off*/, buffer.length);
+                // Nothing queued or end of stream, stop draining. End of stream is reported by
+                // the next blocking read.
+                if (drainedBytes <= 0) break;
+                mLengths[count++] = drainedBytes;
+            }
+            return count;
+        }
+
+        private int maybeCompressHeaders(byte[] buffer, int len) {
+            if (!mCompressHeaders) return len;
+            // Full IPHC compression produces a different encoding than the original compressor,
+            // so it is only used when both ends of the link support it.
+            if (mCompressionContext == null) {
+                return mIsIngress
+                        ? decompress6lowpan(buffer, len)
+                        : compress6lowpan(buffer, len);
+            }
+            return mIsIngress
+                    ? decompress6lowpan(buffer, len, mCompressionContext)
+                    : compress6lowpan(buffer, len, mCompressionContext);
+        }
+
         @Override
         public void run() {
             while (mIsRunning) {
                 try {
-                    int readBytes = mReadFd.read(mBuffer, 0 /*off*/, mBuffer.length);
-                    // No bytes to write, continue.
-                    if (readBytes <= 0) {
-                        Log.w(mLogTag, "Zero-byte read encountered: " + readBytes);
-                        continue;
-                    }
-
-                    if (mCompressHeaders) {
-                        if (mIsIngress) {
-                            readBytes = decompress6lowpan(mBuffer, readBytes);
-                        } else {
-                            readBytes = compress6lowpan(mBuffer, readBytes);
+                    final int count = readBatch();
+                    if (count == 0) continue;
+
+                    final long startNs = SystemClock.elapsedRealtimeNanos();
+                    for (int i = 0; i < count; i++) {
+                        final byte[] buffer = mBuffers[i];
+                        final int len = maybeCompressHeaders(buffer, mLengths[i]);
+
+                        // If the packet is 0-length post de/compression or exceeds MTU, drop it.
+                        // Note that a large read on BluetoothSocket throws an IOException to tear
+                        // down the network.
+                        if (len <= 0 || len > MTU) {
+                            mDroppedPackets.incrementAndGet();
+                            continue;
                         }
-                    }
 
-                    // If the packet is 0-length post de/compression or exceeds MTU, drop it.
-                    // Note that a large read on BluetoothSocket throws an IOException to tear down
-                    // the network.
-                    if (readBytes <= 0 || readBytes > MTU) continue;
-
-                    mWriteFd.write(mBuffer, 0 /*off*/, readBytes);
+                        mWriteFd.write(buffer, 0 /*off*/, len);
+                        mPackets.incrementAndGet();
+                        mBytes.addAndGet(len);
+                    }
+                    mTotalLatencyNs.addAndGet(SystemClock.elapsedRealtimeNanos() - startNs);
+                    mBatches.incrementAndGet();
+                    if (count > mMaxBatchSize.get()) mMaxBatchSize.set(count);
                 } catch (IOException|BufferUnderflowException e) {
                     Log.e(mLogTag, "L2capThread exception", e);
                     // Tear down the network on any error.
@@ -283,6 +439,11 @@ public class L2capPacketForwarder {
             }
         }
 
+        public ForwardingStats getStats() {
+            return new ForwardingStats(mPackets.get(), mBytes.get(), mDroppedPackets.get(),
+                    mBatches.get(), mMaxBatchSize.get(), mTotalLatencyNs.get());
+        }
+
         public void tearDown() {
             mIsRunning = false;
             mReadFd.shutdownRead();
@@ -292,24 +453,74 @@ public class L2capPacketForwarder {
 
     public L2capPacketForwarder(Handler handler, ParcelFileDescriptor tunFd, BluetoothSocket socket,
             boolean compressHdrs, ICallback cb) {
-        this(handler, new FdWrapper(tunFd), new BluetoothSocketWrapper(socket), compressHdrs, cb);
+        this(handler, tunFd, socket, compressHdrs, null /* compressionContext */,
+                1 /* batchSize */, cb);
+    }
+
+    /**
+     * Create an L2capPacketForwarder in batched mode.
+     *
+     * Each forwarding thread drains up to batchSize packets that are already queued on its read
+     * side into preallocated buffers before processing and writing them. A batchSize of 1 reads
+     * and writes one packet at a time.
+     *
+     * If compressHdrs is true and compressionContext is not null, headers are compressed with
+     * full IPHC compression using the contexts of compressionContext. This encoding is not
+     * understood by peers that only support the original compressor.
+     */
+    public L2capPacketForwarder(Handler handler, ParcelFileDescriptor tunFd, BluetoothSocket socket,
+            boolean compressHdrs, @Nullable HeaderCompressionContext compressionContext,
+            int batchSize, ICallback cb) {
+        this(handler, new FdWrapper(tunFd), new BluetoothSocketWrapper(socket), compressHdrs,
+                compressionContext, batchSize, cb);
     }
 
     @VisibleForTesting
     L2capPacketForwarder(Handler handler, IReadWriteFd tunFd, IReadWriteFd l2capFd,
             boolean compressHeaders, ICallback cb) {
+        this(handler, tunFd, l2capFd, compressHeaders, null /* compressionContext */,
+                1 /* batchSize */, cb);
+    }
+
+    @VisibleForTesting
+    L2capPacketForwarder(Handler handler, IReadWriteFd tunFd, IReadWriteFd l2capFd,
+            boolean compressHeaders, int batchSize, ICallback cb) {
+        this(handler, tunFd, l2capFd, compressHeaders, null /* compressionContext */, batchSize,
+                cb);
+    }
+
+    @VisibleForTesting
+    L2capPacketForwarder(Handler handler, IReadWriteFd tunFd, IReadWriteFd l2capFd,
+            boolean compressHeaders, @Nullable HeaderCompressionContext compressionContext,
+            int batchSize, ICallback cb) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
         mHandler = handler;
         mTunFd = tunFd;
         mL2capFd = l2capFd;
         mCallback = cb;
+        mCompressionContext = compressionContext;
 
-        mIngressThread = new L2capThread(l2capFd, tunFd, true /*isIngress*/, compressHeaders);
-        mEgressThread = new L2capThread(tunFd, l2capFd, false /*isIngress*/, compressHeaders);
+        mIngressThread = new L2capThread(l2capFd, tunFd, true /*isIngress*/, compressHeaders,
+                batchSize);
+        mEgressThread = new L2capThread(tunFd, l2capFd, false /*isIngress*/, compressHeaders,
+                batchSize);
 
         mIngressThread.start();
         mEgressThread.start();
     }
 
+    /** Get the counters of packets forwarded from the BluetoothSocket to the tun fd. */
+    public ForwardingStats getIngressStats() {
+        return mIngressThread.getStats();
+    }
+
+    /** Get the counters of packets forwarded from the tun fd to the BluetoothSocket. */
+    public ForwardingStats getEgressStats() {
+        return mEgressThread.getStats();
+    }
+
     /**
      * Tear down the L2capPacketForwarder.
      *
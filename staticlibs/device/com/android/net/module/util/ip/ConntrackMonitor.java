@@ -16,6 +16,8 @@
 
 package com.android.net.module.util.ip;
 
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_STATUS;
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_TIMEOUT;
 import static com.android.net.module.util.netlink.ConntrackMessage.DYING_MASK;
 import static com.android.net.module.util.netlink.ConntrackMessage.ESTABLISHED_MASK;
 
@@ -28,7 +30,10 @@ import com.android.net.module.util.SharedLog;
 import com.android.net.module.util.netlink.ConntrackMessage;
 import com.android.net.module.util.netlink.NetlinkConstants;
 import com.android.net.module.util.netlink.NetlinkMessage;
+import com.android.net.module.util.netlink.NetlinkMessageCursor;
+import com.android.net.module.util.netlink.StructNfGenMsg;
 
+import java.nio.ByteOrder;
 import java.util.Objects;
 
 
@@ -185,6 +190,43 @@ public class ConntrackMonitor extends NetlinkMonitor {
         mConsumer = cb;
     }
 
+    private static int getBe32AttributeOrZero(@NonNull NetlinkMessageCursor cursor, short type) {
+        final int attr = cursor.findAttribute(StructNfGenMsg.STRUCT_SIZE, type);
+        if (attr < 0 || cursor.getAttributePayloadLength(attr) < Integer.BYTES) return 0;
+        return cursor.getAttributeInt(attr, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Returns whether a conntrack message may be an established or dying NAT session, by only
+     * looking at its type, status and timeout. See ConntrackEvent#isEstablishedNatSession and
+     * ConntrackEvent#isDyingNatSession, which are still checked on the parsed message.
+     */
+    @VisibleForTesting
+    static boolean mayBeNatSessionEvent(@NonNull NetlinkMessageCursor cursor) {
+        final short msgType = (short) (cursor.getType()
+                & ~(NetlinkConstants.NFNL_SUBSYS_CTNETLINK << 8));
+        final int status = getBe32AttributeOrZero(cursor, CTA_STATUS);
+        final int timeoutSec = getBe32AttributeOrZero(cursor, CTA_TIMEOUT);
+        switch (msgType) {
+            case NetlinkConstants.IPCTNL_MSG_CT_NEW:
+                return timeoutSec != 0 && (status & ESTABLISHED_MASK) == ESTABLISHED_MASK;
+            case NetlinkConstants.IPCTNL_MSG_CT_DELETE:
+                return timeoutSec == 0 && (status & DYING_MASK) == DYING_MASK;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void processNetlinkMessage(NetlinkMessageCursor cursor, final long whenMs) {
+        // Most notifications are updates of sessions that are neither newly established nor
+        // dying. Skip them without parsing the tuples.
+        final boolean isConntrack =
+                (cursor.getType() >> 8) == NetlinkConstants.NFNL_SUBSYS_CTNETLINK;
+        if (isConntrack && !mayBeNatSessionEvent(cursor)) return;
+        super.processNetlinkMessage(cursor, whenMs);
+    }
+
     @Override
     public void processNetlinkMessage(NetlinkMessage nlMsg, final long whenMs) {
         if (!(nlMsg instanceof ConntrackMessage)) {
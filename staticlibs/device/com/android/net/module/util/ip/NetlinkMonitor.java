@@ -25,6 +25,7 @@ import static android.system.OsConstants.SO_RCVBUF;
 
 import static com.android.net.module.util.SocketUtils.closeSocketQuietly;
 import static com.android.net.module.util.SocketUtils.makeNetlinkSocketAddress;
+import static com.android.net.module.util.netlink.NetlinkConstants.NLMSG_ERROR;
 import static com.android.net.module.util.netlink.NetlinkConstants.hexify;
 
 import android.annotation.NonNull;
@@ -36,8 +37,8 @@ import android.util.Log;
 
 import com.android.net.module.util.PacketReader;
 import com.android.net.module.util.SharedLog;
-import com.android.net.module.util.netlink.NetlinkErrorMessage;
 import com.android.net.module.util.netlink.NetlinkMessage;
+import com.android.net.module.util.netlink.NetlinkMessageCursor;
 import com.android.net.module.util.netlink.NetlinkUtils;
 
 import java.io.FileDescriptor;
@@ -53,6 +54,10 @@ import java.nio.ByteOrder;
  * from the event loop of the passed-in {@link Handler}, and calls the subclass-defined
  * {@link #processNetlinkMessage} method on the handler thread for each netlink message that
  * arrives. Currently ignores all netlink errors.
+ *
+ * Received messages are read in place with a {@link NetlinkMessageCursor}. Subclasses that only
+ * care about some messages can override {@link #processNetlinkMessage(NetlinkMessageCursor, long)}
+ * to filter them before they are parsed.
  * @hide
  */
 public class NetlinkMonitor extends PacketReader {
@@ -61,6 +66,9 @@ public class NetlinkMonitor extends PacketReader {
     private final int mFamily;
     private final int mBindGroups;
     private final int mSockRcvbufSize;
+    private final NetlinkMessageCursor mCursor;
+    // Wrapper around the receive buffer, which PacketReader reuses for every packet.
+    private ByteBuffer mRecvBuffer;
 
     private static final boolean DBG = false;
 
@@ -88,6 +96,7 @@ public class NetlinkMonitor extends PacketReader {
         mFamily = family;
         mBindGroups = bindGroups;
         mSockRcvbufSize = sockRcvbufSize;
+        mCursor = new NetlinkMessageCursor(family);
     }
 
     public NetlinkMonitor(@NonNull Handler h, @NonNull SharedLog log, @NonNull String tag,
@@ -127,29 +136,31 @@ public class NetlinkMonitor extends PacketReader {
     @Override
     protected void handlePacket(byte[] recvbuf, int length) {
         final long whenMs = SystemClock.elapsedRealtime();
-        final ByteBuffer byteBuffer = ByteBuffer.wrap(recvbuf, 0, length);
-        byteBuffer.order(ByteOrder.nativeOrder());
+        if (mRecvBuffer == null || mRecvBuffer.array() != recvbuf) {
+            mRecvBuffer = ByteBuffer.wrap(recvbuf);
+            mRecvBuffer.order(ByteOrder.nativeOrder());
+        }
+        mRecvBuffer.clear();
+        mRecvBuffer.limit(length);
 
-        while (byteBuffer.remaining() > 0) {
+        mCursor.reset(mRecvBuffer);
+        while (mCursor.next()) {
             try {
-                final int position = byteBuffer.position();
-                final NetlinkMessage nlMsg = NetlinkMessage.parse(byteBuffer, mFamily);
-                if (nlMsg == null || nlMsg.getHeader() == null) {
-                    byteBuffer.position(position);
-                    mLog.e("unparsable netlink msg: " + hexify(byteBuffer));
-                    break;
-                }
-
-                if (nlMsg instanceof NetlinkErrorMessage) {
-                    mLog.e("netlink error: " + nlMsg);
+                if (mCursor.getType() == NLMSG_ERROR) {
+                    mLog.e("netlink error: " + mCursor.materialize());
                     continue;
                 }
 
-                processNetlinkMessage(nlMsg, whenMs);
+                processNetlinkMessage(mCursor, whenMs);
             } catch (Exception e) {
                 mLog.e("Error handling netlink message", e);
             }
         }
+
+        if (mCursor.isMalformed()) {
+            mRecvBuffer.position(mCursor.getMessageOffset());
+            mLog.e("unparsable netlink msg: " + hexify(mRecvBuffer));
+        }
     }
 
     @Override
@@ -178,6 +189,24 @@ public class NetlinkMonitor extends PacketReader {
         return true;
     }
 
+    /**
+     * Processes one netlink message read in place. The default implementation parses the message
+     * and passes it to {@link #processNetlinkMessage(NetlinkMessage, long)}; subclasses can
+     * override it to skip uninteresting messages without parsing them.
+     *
+     * @param cursor the cursor positioned on the message. Only valid during this call.
+     * @param whenMs the timestamp, as measured by {@link SystemClock#elapsedRealtime}, when the
+     *               message was received.
+     */
+    protected void processNetlinkMessage(NetlinkMessageCursor cursor, long whenMs) {
+        final NetlinkMessage nlMsg = cursor.materialize();
+        if (nlMsg == null) {
+            mLog.e("unparsable netlink msg of type " + cursor.getType());
+            return;
+        }
+        processNetlinkMessage(nlMsg, whenMs);
+    }
+
     /**
      * Processes one netlink message. Must be overridden by subclasses.
      * @param nlMsg the message to process.
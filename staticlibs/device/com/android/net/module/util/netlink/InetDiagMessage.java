@@ -19,7 +19,6 @@ package com.android.net.module.util.netlink;
 import static android.os.Process.INVALID_UID;
 import static android.system.OsConstants.AF_INET;
 import static android.system.OsConstants.AF_INET6;
-import static android.system.OsConstants.ENOENT;
 import static android.system.OsConstants.IPPROTO_TCP;
 import static android.system.OsConstants.IPPROTO_UDP;
 import static android.system.OsConstants.NETLINK_INET_DIAG;
@@ -27,8 +26,6 @@ import static android.system.OsConstants.NETLINK_INET_DIAG;
 import static com.android.net.module.util.netlink.NetlinkConstants.SOCK_DESTROY;
 import static com.android.net.module.util.netlink.NetlinkConstants.SOCK_DIAG_BY_FAMILY;
 import static com.android.net.module.util.netlink.NetlinkConstants.SOCKDIAG_MSG_HEADER_SIZE;
-import static com.android.net.module.util.netlink.NetlinkConstants.stringForAddressFamily;
-import static com.android.net.module.util.netlink.NetlinkConstants.stringForProtocol;
 import static com.android.net.module.util.netlink.NetlinkUtils.DEFAULT_RECV_BUFSIZE;
 import static com.android.net.module.util.netlink.NetlinkUtils.IO_TIMEOUT_MS;
 import static com.android.net.module.util.netlink.NetlinkUtils.SOCKET_RECV_BUFSIZE;
@@ -39,7 +36,6 @@ import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_REQUEST;
 
 import android.net.util.SocketUtils;
 import android.os.Process;
-import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.util.Log;
 import android.util.Range;
@@ -62,9 +58,6 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
 
 /**
  * A NetlinkMessage subclass for netlink inet_diag messages.
@@ -326,42 +319,6 @@ public class InetDiagMessage extends NetlinkMessage {
         NetlinkUtils.receiveNetlinkAck(fd);
     }
 
-    private static byte [] makeNetlinkDumpRequest(int proto, int states, int family) {
-        return InetDiagMessage.inetDiagReqV2(
-                proto,
-                null /* id */,
-                family,
-                SOCK_DIAG_BY_FAMILY,
-                (short) (StructNlMsgHdr.NLM_F_REQUEST | StructNlMsgHdr.NLM_F_DUMP),
-                0 /* pad */,
-                0 /* idiagExt */,
-                states);
-    }
-
-    private static int processNetlinkDumpAndDestroySockets(byte[] dumpReq,
-            FileDescriptor destroyFd, int proto, Predicate<InetDiagMessage> filter)
-            throws SocketException, InterruptedIOException, ErrnoException {
-        AtomicInteger destroyedSockets = new AtomicInteger(0);
-        Consumer<InetDiagMessage> handleNlDumpMsg = (diagMsg) -> {
-            if (filter.test(diagMsg)) {
-                try {
-                    sendNetlinkDestroyRequest(destroyFd, proto, diagMsg.inetDiagMsg.id,
-                            diagMsg.inetDiagMsg.idiag_family, 1 << diagMsg.inetDiagMsg.idiag_state);
-                    destroyedSockets.getAndIncrement();
-                } catch (InterruptedIOException | ErrnoException e) {
-                    if (!(e instanceof ErrnoException
-                            && ((ErrnoException) e).errno == ENOENT)) {
-                        Log.e(TAG, "Failed to destroy socket: diagMsg=" + diagMsg + ", " + e);
-                    }
-                }
-            }
-        };
-
-        NetlinkUtils.<InetDiagMessage>getAndProcessNetlinkDumpMessages(dumpReq,
-                NETLINK_INET_DIAG, InetDiagMessage.class, handleNlDumpMsg);
-        return destroyedSockets.get();
-    }
-
     /**
      * Returns whether the InetDiagMessage is for adb socket or not
      */
@@ -415,34 +372,6 @@ public class InetDiagMessage extends NetlinkMessage {
                 || srcAddr.equals(dstAddr);
     }
 
-    private static void destroySockets(int proto, int states, Predicate<InetDiagMessage> filter)
-            throws ErrnoException, SocketException, InterruptedIOException {
-        FileDescriptor destroyFd = null;
-
-        try {
-            destroyFd = NetlinkUtils.createNetLinkInetDiagSocket();
-            connectToKernel(destroyFd);
-
-            for (int family : List.of(AF_INET, AF_INET6)) {
-                byte[] req = makeNetlinkDumpRequest(proto, states, family);
-
-                try {
-                    final int destroyedSockets = processNetlinkDumpAndDestroySockets(
-                            req, destroyFd, proto, filter);
-                    Log.d(TAG, "Destroyed " + destroyedSockets + " sockets"
-                        + ", proto=" + stringForProtocol(proto)
-                        + ", family=" + stringForAddressFamily(family)
-                        + ", states=" + states);
-                } catch (SocketException | InterruptedIOException | ErrnoException e) {
-                    Log.e(TAG, "Failed to send netlink dump request or receive messages: " + e);
-                    continue;
-                }
-            }
-        } finally {
-            closeSocketQuietly(destroyFd);
-        }
-    }
-
     /**
      * Close tcp sockets that match the following condition
      *  1. TCP status is one of TCP_ESTABLISHED, TCP_SYN_SENT, and TCP_SYN_RECV
@@ -451,20 +380,20 @@ public class InetDiagMessage extends NetlinkMessage {
      *  4. Socket is not loopback
      *  5. Socket is not adb socket
      *
+     * This creates a netlink socket for each call. Callers destroying sockets repeatedly should
+     * keep an {@link InetDiagSocketDestroyer} instead, which also destroys sockets for several
+     * sets of uids with a single socket dump.
+     *
      * @param ranges target uid ranges
      * @param exemptUids uids to skip close socket
      */
     public static void destroyLiveTcpSockets(Set<Range<Integer>> ranges, Set<Integer> exemptUids)
             throws SocketException, InterruptedIOException, ErrnoException {
-        final long startTimeMs = SystemClock.elapsedRealtime();
-        destroySockets(IPPROTO_TCP, TCP_ALIVE_STATE_FILTER,
-                (diagMsg) -> !exemptUids.contains(diagMsg.inetDiagMsg.idiag_uid)
-                        && containsUid(diagMsg, ranges)
-                        && !isLoopback(diagMsg)
-                        && !isAdbSocket(diagMsg));
-        final long durationMs = SystemClock.elapsedRealtime() - startTimeMs;
-        Log.d(TAG, "Destroyed live tcp sockets for uids=" + ranges + " exemptUids=" + exemptUids
-                + " in " + durationMs + "ms");
+        try (InetDiagSocketDestroyer destroyer = new InetDiagSocketDestroyer()) {
+            destroyer.addUidRanges(ranges, exemptUids);
+            destroyer.run();
+        }
+        Log.d(TAG, "Destroyed live tcp sockets for uids=" + ranges + " exemptUids=" + exemptUids);
     }
 
     /**
@@ -474,17 +403,17 @@ public class InetDiagMessage extends NetlinkMessage {
      *  3. Socket is not loopback
      *  4. Socket is not adb socket
      *
+     * Like {@link #destroyLiveTcpSockets}, this creates a netlink socket for each call.
+     *
      * @param ownerUids target uids to close sockets
      */
     public static void destroyLiveTcpSocketsByOwnerUids(Set<Integer> ownerUids)
             throws SocketException, InterruptedIOException, ErrnoException {
-        final long startTimeMs = SystemClock.elapsedRealtime();
-        destroySockets(IPPROTO_TCP, TCP_ALIVE_STATE_FILTER,
-                (diagMsg) -> ownerUids.contains(diagMsg.inetDiagMsg.idiag_uid)
-                        && !isLoopback(diagMsg)
-                        && !isAdbSocket(diagMsg));
-        final long durationMs = SystemClock.elapsedRealtime() - startTimeMs;
-        Log.d(TAG, "Destroyed live tcp sockets for uids=" + ownerUids + " in " + durationMs + "ms");
+        try (InetDiagSocketDestroyer destroyer = new InetDiagSocketDestroyer()) {
+            destroyer.addOwnerUids(ownerUids);
+            destroyer.run();
+        }
+        Log.d(TAG, "Destroyed live tcp sockets for uids=" + ownerUids);
     }
 
     /**
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static android.system.OsConstants.AF_INET;
+import static android.system.OsConstants.AF_INET6;
+import static android.system.OsConstants.ENOENT;
+import static android.system.OsConstants.IPPROTO_TCP;
+import static android.system.OsConstants.NETLINK_INET_DIAG;
+
+import static com.android.net.module.util.netlink.NetlinkConstants.SOCK_DESTROY;
+import static com.android.net.module.util.netlink.NetlinkConstants.SOCK_DIAG_BY_FAMILY;
+import static com.android.net.module.util.netlink.NetlinkUtils.DEFAULT_RECV_BUFSIZE;
+import static com.android.net.module.util.netlink.NetlinkUtils.IO_TIMEOUT_MS;
+import static com.android.net.module.util.netlink.NetlinkUtils.SOCKET_DUMP_RECV_BUFSIZE;
+import static com.android.net.module.util.netlink.NetlinkUtils.TCP_ALIVE_STATE_FILTER;
+
+import android.net.util.SocketUtils;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.util.Log;
+import android.util.Range;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Destroys live TCP sockets matching uid filters, reusing one netlink socket across runs.
+ *
+ * Filters are added with {@link #addUidRanges} and {@link #addOwnerUids}. {@link #run} dumps the
+ * live TCP sockets of each address family, matches every socket against the filters added since
+ * the last run, and sends the SOCK_DESTROY messages for the matched sockets in batches. The
+ * socket state filter is applied by the kernel; the uid filters are applied here since inet_diag
+ * bytecode has no uid condition.
+ *
+ * The netlink socket is kept open across runs until {@link #close} is called, so callers that
+ * destroy sockets repeatedly should keep one instance. This class is not thread-safe.
+ *
+ * @hide
+ */
+public class InetDiagSocketDestroyer implements AutoCloseable {
+    private static final String TAG = InetDiagSocketDestroyer.class.getSimpleName();
+
+    /** Maximum number of SOCK_DESTROY messages sent in a single sendmsg. */
+    @VisibleForTesting
+    public static final int DESTROY_BATCH_SIZE = 32;
+
+    private static final int[] FAMILIES = {AF_INET, AF_INET6};
+
+    /** A set of uid ranges supporting O(log n) lookups. */
+    @VisibleForTesting
+    public static final class UidRangeSet {
+        // Sorted, non-overlapping and non-adjacent ranges.
+        private final int[] mStarts;
+        private final int[] mEnds;
+
+        public UidRangeSet(@NonNull Set<Range<Integer>> ranges) {
+            final List<Range<Integer>> sorted = new ArrayList<>(ranges);
+            sorted.sort((a, b) -> Integer.compare(a.getLower(), b.getLower()));
+            final int[] starts = new int[sorted.size()];
+            final int[] ends = new int[sorted.size()];
+            int count = 0;
+            for (final Range<Integer> range : sorted) {
+                final int lower = range.getLower();
+                final int upper = range.getUpper();
+                if (count > 0 && (long) lower <= (long) ends[count - 1] + 1) {
+                    ends[count - 1] = Math.max(ends[count - 1], upper);
+                } else {
+                    starts[count] = lower;
+                    ends[count] = upper;
+                    count++;
+                }
+            }
+            mStarts = Arrays.copyOf(starts, count);
+            mEnds = Arrays.copyOf(ends, count);
+        }
+
+        /** Returns whether the uid is in any of the ranges. */
+        public boolean contains(int uid) {
+            int index = Arrays.binarySearch(mStarts, uid);
+            if (index < 0) {
+                // Index of the last range starting before the uid.
+                index = -index - 2;
+                if (index < 0) return false;
+            }
+            return uid <= mEnds[index];
+        }
+    }
+
+    /** Counters for one {@link #run}. */
+    public static final class RunStats {
+        public int requests;
+        public int socketsDumped;
+        public int socketsMatched;
+        public int socketsDestroyed;
+        public int destroyBatches;
+        public long durationMs;
+
+        @Override
+        public String toString() {
+            return "RunStats{requests=" + requests
+                    + ", dumped=" + socketsDumped
+                    + ", matched=" + socketsMatched
+                    + ", destroyed=" + socketsDestroyed
+                    + ", batches=" + destroyBatches
+                    + ", duration=" + durationMs + "ms}";
+        }
+    }
+
+    private static final class Request {
+        // Null means all uids.
+        @Nullable
+        final UidRangeSet ranges;
+        @NonNull
+        final Set<Integer> uids;
+        // If true, uids lists the uids to exempt; otherwise it lists the uids to match.
+        final boolean uidsAreExempt;
+
+        Request(@Nullable UidRangeSet ranges, @NonNull Set<Integer> uids, boolean uidsAreExempt) {
+            this.ranges = ranges;
+            this.uids = uids;
+            this.uidsAreExempt = uidsAreExempt;
+        }
+
+        boolean matches(int uid) {
+            if (uidsAreExempt) {
+                return !uids.contains(uid) && (ranges == null || ranges.contains(uid));
+            }
+            return uids.contains(uid);
+        }
+    }
+
+    private final ArrayList<Request> mPendingRequests = new ArrayList<>();
+    @Nullable
+    private FileDescriptor mFd;
+    private int mSeq;
+    @NonNull
+    private RunStats mLastRunStats = new RunStats();
+
+    /**
+     * Request to destroy live TCP sockets owned by a uid in the ranges and not in exemptUids.
+     * See {@link InetDiagMessage#destroyLiveTcpSockets}.
+     */
+    public void addUidRanges(@NonNull Set<Range<Integer>> ranges,
+            @NonNull Set<Integer> exemptUids) {
+        mPendingRequests.add(new Request(new UidRangeSet(ranges), exemptUids,
+                true /* uidsAreExempt */));
+    }
+
+    /**
+     * Request to destroy live TCP sockets owned by any of the ownerUids.
+     * See {@link InetDiagMessage#destroyLiveTcpSocketsByOwnerUids}.
+     */
+    public void addOwnerUids(@NonNull Set<Integer> ownerUids) {
+        mPendingRequests.add(new Request(null /* ranges */, ownerUids,
+                false /* uidsAreExempt */));
+    }
+
+    /** Returns whether there are requests waiting for {@link #run}. */
+    public boolean hasPendingRequests() {
+        return !mPendingRequests.isEmpty();
+    }
+
+    /** Returns the counters of the last {@link #run}. */
+    @NonNull
+    public RunStats getLastRunStats() {
+        return mLastRunStats;
+    }
+
+    private boolean matchesAnyRequest(@NonNull InetDiagMessage msg) {
+        final int uid = msg.inetDiagMsg.idiag_uid;
+        boolean matched = false;
+        for (int i = 0; i < mPendingRequests.size() && !matched; i++) {
+            matched = mPendingRequests.get(i).matches(uid);
+        }
+        // Loopback and adb sockets are never destroyed, see InetDiagMessage#destroySockets.
+        return matched && !InetDiagMessage.isLoopback(msg) && !InetDiagMessage.isAdbSocket(msg);
+    }
+
+    /**
+     * Destroy the sockets matching any pending request, and clear the pending requests.
+     * Failures to dump or destroy sockets are logged; only failures to create the netlink socket
+     * are thrown.
+     *
+     * @return the number of destroyed sockets.
+     */
+    public int run() throws ErrnoException, SocketException, InterruptedIOException {
+        final RunStats stats = new RunStats();
+        mLastRunStats = stats;
+        if (mPendingRequests.isEmpty()) return 0;
+
+        final long startTimeMs = SystemClock.elapsedRealtime();
+        stats.requests = mPendingRequests.size();
+        try {
+            if (mFd == null) {
+                mFd = NetlinkUtils.netlinkSocketForProto(NETLINK_INET_DIAG,
+                        SOCKET_DUMP_RECV_BUFSIZE);
+            }
+            for (int family : FAMILIES) {
+                final ArrayList<StructInetDiagMsg> matched = new ArrayList<>();
+                try {
+                    NetlinkUtils.<InetDiagMessage>getAndProcessNetlinkDumpMessagesWithFd(mFd,
+                            makeDumpRequest(family), NETLINK_INET_DIAG, InetDiagMessage.class,
+                            (msg) -> {
+                                stats.socketsDumped++;
+                                if (matchesAnyRequest(msg)) matched.add(msg.inetDiagMsg);
+                            });
+                } catch (SocketException | InterruptedIOException | ErrnoException e) {
+                    Log.e(TAG, "Failed to dump sockets, family="
+                            + NetlinkConstants.stringForAddressFamily(family) + ": " + e);
+                    // The socket may hold a partial dump, do not reuse it.
+                    closeSocket();
+                    mFd = NetlinkUtils.netlinkSocketForProto(NETLINK_INET_DIAG,
+                            SOCKET_DUMP_RECV_BUFSIZE);
+                    continue;
+                }
+                stats.socketsMatched += matched.size();
+                for (int i = 0; i < matched.size(); i += DESTROY_BATCH_SIZE) {
+                    stats.destroyBatches++;
+                    try {
+                        stats.socketsDestroyed += destroyBatch(matched.subList(i,
+                                Math.min(i + DESTROY_BATCH_SIZE, matched.size())));
+                    } catch (InterruptedIOException | ErrnoException e) {
+                        Log.e(TAG, "Failed to destroy sockets: " + e);
+                        // Acks may still be pending on the socket, do not reuse it.
+                        closeSocket();
+                        mFd = NetlinkUtils.netlinkSocketForProto(NETLINK_INET_DIAG,
+                                SOCKET_DUMP_RECV_BUFSIZE);
+                    }
+                }
+            }
+        } catch (ErrnoException | SocketException | InterruptedIOException e) {
+            closeSocket();
+            throw e;
+        } finally {
+            mPendingRequests.clear();
+            stats.durationMs = SystemClock.elapsedRealtime() - startTimeMs;
+            Log.d(TAG, "Destroyed live tcp sockets: " + stats);
+        }
+        return stats.socketsDestroyed;
+    }
+
+    /**
+     * Build one buffer containing a SOCK_DESTROY request for each socket, with sequence numbers
+     * starting at firstSeq.
+     */
+    @VisibleForTesting
+    public static byte[] makeDestroyBatch(@NonNull List<StructInetDiagMsg> sockets,
+            int firstSeq) {
+        final int msgLen = StructNlMsgHdr.STRUCT_SIZE + StructInetDiagReqV2.STRUCT_SIZE;
+        final byte[] bytes = new byte[msgLen * sockets.size()];
+        final ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.order(ByteOrder.nativeOrder());
+        for (int i = 0; i < sockets.size(); i++) {
+            final StructInetDiagMsg socket = sockets.get(i);
+            final StructNlMsgHdr hdr = new StructNlMsgHdr(StructInetDiagReqV2.STRUCT_SIZE,
+                    SOCK_DESTROY,
+                    (short) (StructNlMsgHdr.NLM_F_REQUEST | StructNlMsgHdr.NLM_F_ACK),
+                    firstSeq + i);
+            hdr.pack(buf);
+            new StructInetDiagReqV2(IPPROTO_TCP, socket.id, socket.idiag_family, 0 /* pad */,
+                    0 /* idiagExt */, 1 << socket.idiag_state).pack(buf);
+        }
+        return bytes;
+    }
+
+    private int destroyBatch(@NonNull List<StructInetDiagMsg> sockets)
+            throws ErrnoException, InterruptedIOException {
+        final byte[] batch = makeDestroyBatch(sockets, mSeq);
+        mSeq += sockets.size();
+        NetlinkUtils.sendMessage(mFd, batch, 0, batch.length, IO_TIMEOUT_MS);
+
+        // The kernel acks every message in the batch, in order.
+        int acks = 0;
+        int destroyed = 0;
+        while (acks < sockets.size()) {
+            final ByteBuffer buf = NetlinkUtils.recvMessage(mFd, DEFAULT_RECV_BUFSIZE,
+                    IO_TIMEOUT_MS);
+            while (buf.remaining() > 0) {
+                final NetlinkMessage msg = NetlinkMessage.parse(buf, NETLINK_INET_DIAG);
+                if (msg == null) break;
+                if (!(msg instanceof NetlinkErrorMessage)) continue;
+                acks++;
+                final StructNlMsgErr err = ((NetlinkErrorMessage) msg).getNlMsgError();
+                final int errno = (err == null) ? 0 : Math.abs(err.error);
+                if (errno == 0) {
+                    destroyed++;
+                } else if (errno != ENOENT) {
+                    // ENOENT means the socket was closed since the dump.
+                    Log.e(TAG, "Failed to destroy socket: " + msg);
+                }
+            }
+        }
+        return destroyed;
+    }
+
+    private static byte[] makeDumpRequest(int family) {
+        return InetDiagMessage.inetDiagReqV2(
+                IPPROTO_TCP,
+                null /* id */,
+                family,
+                SOCK_DIAG_BY_FAMILY,
+                (short) (StructNlMsgHdr.NLM_F_REQUEST | StructNlMsgHdr.NLM_F_DUMP),
+                0 /* pad */,
+                0 /* idiagExt */,
+                TCP_ALIVE_STATE_FILTER);
+    }
+
+    private void closeSocket() {
+        if (mFd == null) return;
+        try {
+            SocketUtils.closeSocket(mFd);
+        } catch (IOException ignored) {
+        }
+        mFd = null;
+    }
+
+    /** Close the netlink socket. Pending requests are kept. */
+    @Override
+    public void close() {
+        closeSocket();
+    }
+}
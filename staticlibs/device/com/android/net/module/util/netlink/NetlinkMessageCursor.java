@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static com.android.net.module.util.netlink.StructNlAttr.NLA_F_NESTED;
+import static com.android.net.module.util.netlink.StructNlAttr.NLA_HEADERLEN;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable, allocation-free reader over a buffer of netlink messages.
+ *
+ * Unlike {@link NetlinkMessage#parse}, which allocates a struct for every header and attribute
+ * and copies attribute payloads, the cursor reads headers in place and returns attributes as
+ * offsets into the underlying buffer. A typed {@link NetlinkMessage} is only built when
+ * {@link #materialize} is called, so consumers can cheaply skip messages they are not interested
+ * in.
+ *
+ * Usage:
+ * <pre>
+ *     cursor.reset(buffer);
+ *     while (cursor.next()) {
+ *         if (cursor.getType() != RTM_NEWNEIGH) continue;
+ *         final int attr = cursor.findAttribute(StructNdMsg.STRUCT_SIZE, NDA_DST);
+ *         ...
+ *     }
+ * </pre>
+ *
+ * Offsets returned by this class are only valid until the underlying buffer is reused. This
+ * class is not thread-safe.
+ *
+ * @hide
+ */
+public final class NetlinkMessageCursor {
+    // See NLA_TYPE_MASK in include/uapi/linux/netlink.h.
+    private static final int NLA_TYPE_MASK = ~(NLA_F_NESTED | (1 << 14)) & 0xffff;
+
+    private final int mFamily;
+    private ByteBuffer mBuffer;
+    // Offset of the current message, or -1 before the first call to next().
+    private int mStart;
+    // Offset of the next message.
+    private int mNext;
+    // End of the current message, i.e. mStart + nlmsg_len.
+    private int mEnd;
+    private boolean mMalformed;
+
+    /**
+     * @param nlFamily the netlink family of the messages, used by {@link #materialize}.
+     */
+    public NetlinkMessageCursor(int nlFamily) {
+        mFamily = nlFamily;
+    }
+
+    /**
+     * Start reading the messages between the position and the limit of the buffer. The buffer
+     * must be in native byte order, and must not be modified while the cursor reads it.
+     */
+    public void reset(@NonNull ByteBuffer buffer) {
+        mBuffer = buffer;
+        mStart = -1;
+        mNext = buffer.position();
+        mEnd = mNext;
+        mMalformed = false;
+    }
+
+    /**
+     * Move to the next message.
+     *
+     * @return false if there are no more messages, or if the next message is malformed or
+     *         truncated (see {@link #isMalformed}).
+     */
+    public boolean next() {
+        if (mBuffer == null || mMalformed) return false;
+        final int limit = mBuffer.limit();
+        if (mNext >= limit) return false;
+        if (limit - mNext < StructNlMsgHdr.STRUCT_SIZE) {
+            mMalformed = true;
+            return false;
+        }
+
+        final int len = mBuffer.getInt(mNext);
+        if (len < StructNlMsgHdr.STRUCT_SIZE || len > limit - mNext) {
+            mMalformed = true;
+            return false;
+        }
+        mStart = mNext;
+        mEnd = mStart + len;
+        mNext = Math.min(limit, mStart + NetlinkConstants.alignedLengthOf(len));
+        return true;
+    }
+
+    /** Returns whether reading stopped at a malformed or truncated message. */
+    public boolean isMalformed() {
+        return mMalformed;
+    }
+
+    /**
+     * Returns the offset of the current message, or of the malformed message if
+     * {@link #isMalformed} is true.
+     */
+    public int getMessageOffset() {
+        return mMalformed ? mNext : mStart;
+    }
+
+    /** Returns the nlmsg_len of the current message. */
+    public int getMessageLength() {
+        return mEnd - mStart;
+    }
+
+    /** Returns the nlmsg_type of the current message. */
+    public short getType() {
+        return mBuffer.getShort(mStart + 4);
+    }
+
+    /** Returns the nlmsg_flags of the current message. */
+    public short getFlags() {
+        return mBuffer.getShort(mStart + 6);
+    }
+
+    /** Returns the nlmsg_seq of the current message. */
+    public int getSeq() {
+        return mBuffer.getInt(mStart + 8);
+    }
+
+    /** Returns the nlmsg_pid of the current message. */
+    public int getPid() {
+        return mBuffer.getInt(mStart + 12);
+    }
+
+    /** Returns the offset of the payload of the current message, i.e. after the nlmsghdr. */
+    public int getPayloadOffset() {
+        return mStart + StructNlMsgHdr.STRUCT_SIZE;
+    }
+
+    /** Returns the buffer the cursor reads from, for reading at the returned offsets. */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Find a top-level attribute of the current message.
+     *
+     * @param fixedHeaderLength length of the family header following the nlmsghdr, e.g.
+     *                          {@link StructNdMsg#STRUCT_SIZE}.
+     * @param type the attribute type. The NLA_F_NESTED and NLA_F_NET_BYTEORDER flags are
+     *             ignored when matching.
+     * @return the offset of the attribute header, or -1 if not found.
+     */
+    public int findAttribute(int fixedHeaderLength, short type) {
+        final int start = getPayloadOffset() + NetlinkConstants.alignedLengthOf(fixedHeaderLength);
+        return findAttributeInRange(start, mEnd, type);
+    }
+
+    /**
+     * Find an attribute nested in the given attribute.
+     *
+     * @param attrOffset the offset of the enclosing attribute header.
+     * @param type the attribute type.
+     * @return the offset of the attribute header, or -1 if not found.
+     */
+    public int findNestedAttribute(int attrOffset, short type) {
+        return findAttributeInRange(getAttributePayloadOffset(attrOffset),
+                attrOffset + getAttributeLength(attrOffset), type);
+    }
+
+    private int findAttributeInRange(int start, int end, short type) {
+        int offset = start;
+        while (end - offset >= NLA_HEADERLEN) {
+            final int len = getAttributeLength(offset);
+            if (len < NLA_HEADERLEN || len > end - offset) return -1;
+            if ((mBuffer.getShort(offset + 2) & NLA_TYPE_MASK) == (type & NLA_TYPE_MASK)) {
+                return offset;
+            }
+            offset += NetlinkConstants.alignedLengthOf(len);
+        }
+        return -1;
+    }
+
+    private int getAttributeLength(int attrOffset) {
+        return mBuffer.getShort(attrOffset) & 0xffff;
+    }
+
+    /** Returns the offset of the payload of the attribute at attrOffset. */
+    public int getAttributePayloadOffset(int attrOffset) {
+        return attrOffset + NLA_HEADERLEN;
+    }
+
+    /** Returns the payload length of the attribute at attrOffset. */
+    public int getAttributePayloadLength(int attrOffset) {
+        return getAttributeLength(attrOffset) - NLA_HEADERLEN;
+    }
+
+    /**
+     * Returns the 32-bit payload of the attribute at attrOffset, in the given byte order.
+     * Netfilter attributes are in network byte order, most other attributes are in host order.
+     */
+    public int getAttributeInt(int attrOffset, @NonNull ByteOrder order) {
+        final int value = mBuffer.getInt(getAttributePayloadOffset(attrOffset));
+        return (order == mBuffer.order()) ? value : Integer.reverseBytes(value);
+    }
+
+    /**
+     * Returns the 16-bit payload of the attribute at attrOffset, in the given byte order.
+     */
+    public short getAttributeShort(int attrOffset, @NonNull ByteOrder order) {
+        final short value = mBuffer.getShort(getAttributePayloadOffset(attrOffset));
+        return (order == mBuffer.order()) ? value : Short.reverseBytes(value);
+    }
+
+    /**
+     * Parse the current message into a typed {@link NetlinkMessage}.
+     *
+     * @return the parsed message, or null if it could not be parsed.
+     */
+    @Nullable
+    public NetlinkMessage materialize() {
+        final int position = mBuffer.position();
+        final int limit = mBuffer.limit();
+        try {
+            mBuffer.limit(mNext);
+            mBuffer.position(mStart);
+            return NetlinkMessage.parse(mBuffer, mFamily);
+        } finally {
+            mBuffer.limit(limit);
+            mBuffer.position(position);
+        }
+    }
+}
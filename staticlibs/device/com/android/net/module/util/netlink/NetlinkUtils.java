@@ -336,7 +336,7 @@ public class NetlinkUtils {
 
     private NetlinkUtils() {}
 
-    private static <T extends NetlinkMessage> void getAndProcessNetlinkDumpMessagesWithFd(
+    static <T extends NetlinkMessage> void getAndProcessNetlinkDumpMessagesWithFd(
             FileDescriptor fd, byte[] dumpRequestMessage, int nlFamily, Class<T> msgClass,
             Consumer<T> func)
             throws SocketException, InterruptedIOException, ErrnoException {
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static android.system.OsConstants.EIO;
+import static android.system.OsConstants.ETIMEDOUT;
+import static android.system.OsConstants.NETLINK_ROUTE;
+
+import static com.android.net.module.util.netlink.NetlinkUtils.DEFAULT_RECV_BUFSIZE;
+import static com.android.net.module.util.netlink.NetlinkUtils.IO_TIMEOUT_MS;
+import static com.android.net.module.util.netlink.NetlinkUtils.SOCKET_RECV_BUFSIZE;
+import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_ACK;
+
+import android.net.util.SocketUtils;
+import android.system.ErrnoException;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A NETLINK_ROUTE socket that sends several requests at once.
+ *
+ * <p>Requests are queued with the add* methods, and {@link #commit} sends them to the kernel in
+ * as few writes as possible, then waits for the acknowledgement of each of them. The kernel
+ * processes each request of a write independently, so a failing request does not prevent the
+ * following ones from being applied.
+ *
+ * <p>The socket stays open until {@link #close} is called, so the same session can be used for
+ * several commits. This class is not thread-safe.
+ *
+ * @hide
+ */
+public class RtNetlinkSession implements AutoCloseable {
+    private static final String TAG = "RtNetlinkSession";
+
+    // Maximum size of a single write. The kernel rejects writes larger than the send buffer of
+    // the socket, and the acknowledgement of failed requests contains the whole request, so keep
+    // batches well below the receive buffer size too.
+    @VisibleForTesting
+    static final int MAX_BATCH_BYTES = 8 * 1024;
+
+    // Offsets of the fields of struct nlmsghdr.
+    private static final int NLMSG_FLAGS_OFFSET = 6;
+    private static final int NLMSG_SEQ_OFFSET = 8;
+
+    @NonNull
+    private final FileDescriptor mFd;
+    private final List<byte[]> mPendingMessages = new ArrayList<>();
+    // Sequence number of the first pending message. Pending messages have consecutive sequence
+    // numbers.
+    private int mFirstPendingSeq = 1;
+
+    @VisibleForTesting
+    RtNetlinkSession(@NonNull FileDescriptor fd) {
+        mFd = Objects.requireNonNull(fd);
+    }
+
+    /**
+     * Open a new session.
+     *
+     * @throws ErrnoException if the netlink socket could not be created or connected
+     */
+    @NonNull
+    public static RtNetlinkSession open() throws ErrnoException {
+        final FileDescriptor fd =
+                NetlinkUtils.netlinkSocketForProto(NETLINK_ROUTE, SOCKET_RECV_BUFSIZE);
+        try {
+            NetlinkUtils.connectToKernel(fd);
+        } catch (ErrnoException | SocketException e) {
+            closeSocketQuietly(fd);
+            if (e instanceof ErrnoException) throw (ErrnoException) e;
+            throw new ErrnoException("Error connecting netlink socket", EIO, e);
+        }
+        return new RtNetlinkSession(fd);
+    }
+
+    /**
+     * Queue an RTM_NEWADDR request to add or update an IP address.
+     *
+     * @see NetlinkUtils#sendRtmNewAddressRequest
+     * @return the index of the request in the array returned by {@link #commit}.
+     */
+    public int addNewAddress(int ifIndex, @NonNull final InetAddress ip, short prefixlen,
+            int flags, byte scope, long preferred, long valid) {
+        Objects.requireNonNull(ip, "IP address to be added should not be null.");
+        return addMessage(RtNetlinkAddressMessage.newRtmNewAddressMessage(0 /* seqNo */, ip,
+                prefixlen, flags, scope, ifIndex, preferred, valid));
+    }
+
+    /**
+     * Queue an RTM_DELADDR request to delete an IP address.
+     *
+     * @see NetlinkUtils#sendRtmDelAddressRequest
+     * @return the index of the request in the array returned by {@link #commit}.
+     */
+    public int addDelAddress(int ifIndex, @NonNull final InetAddress ip, short prefixlen) {
+        Objects.requireNonNull(ip, "IP address to be deleted should not be null.");
+        return addMessage(RtNetlinkAddressMessage.newRtmDelAddressMessage(0 /* seqNo */, ip,
+                prefixlen, ifIndex));
+    }
+
+    /**
+     * Queue a request, e.g. an RTM_NEWROUTE message.
+     *
+     * The sequence number of the message is overwritten, and the NLM_F_ACK flag is set so that
+     * the outcome of the request is known.
+     *
+     * @param msg the raw bytes of a single netlink message, in native byte order.
+     * @return the index of the request in the array returned by {@link #commit}.
+     */
+    public int addMessage(@NonNull byte[] msg) {
+        if (msg.length < StructNlMsgHdr.STRUCT_SIZE) {
+            throw new IllegalArgumentException("Message too short: " + msg.length);
+        }
+        final ByteBuffer buf = ByteBuffer.wrap(msg).order(ByteOrder.nativeOrder());
+        buf.putShort(NLMSG_FLAGS_OFFSET, (short) (buf.getShort(NLMSG_FLAGS_OFFSET) | NLM_F_ACK));
+        buf.putInt(NLMSG_SEQ_OFFSET, mFirstPendingSeq + mPendingMessages.size());
+        mPendingMessages.add(msg);
+        return mPendingMessages.size() - 1;
+    }
+
+    /** Returns the number of requests that were queued since the last commit. */
+    public int getPendingCount() {
+        return mPendingMessages.size();
+    }
+
+    /**
+     * Send the queued requests to the kernel and wait for their acknowledgements.
+     *
+     * The queue is emptied even if this method throws.
+     *
+     * @return for each request in the order they were queued, 0 if it succeeded or the
+     *         (positive) errno of its failure.
+     * @throws ErrnoException if the requests could not be sent, or an acknowledgement was not
+     *         received in time.
+     */
+    @NonNull
+    public int[] commit() throws ErrnoException {
+        final int count = mPendingMessages.size();
+        final int[] errnos = new int[count];
+        final boolean[] acked = new boolean[count];
+        try {
+            int start = 0;
+            while (start < count) {
+                final int end = packBatchEnd(start);
+                final byte[] batch = packBatch(start, end);
+                NetlinkUtils.sendMessage(mFd, batch, 0, batch.length, IO_TIMEOUT_MS);
+                int remaining = end - start;
+                while (remaining > 0) {
+                    final ByteBuffer bytes =
+                            NetlinkUtils.recvMessage(mFd, DEFAULT_RECV_BUFSIZE, IO_TIMEOUT_MS);
+                    remaining -= parseAcks(bytes, mFirstPendingSeq, errnos, acked);
+                }
+                start = end;
+            }
+        } catch (InterruptedIOException e) {
+            throw new ErrnoException("Timeout waiting for netlink acks", ETIMEDOUT, e);
+        } finally {
+            mFirstPendingSeq += count;
+            mPendingMessages.clear();
+        }
+        return errnos;
+    }
+
+    // Returns the index after the last message of the batch starting at start.
+    private int packBatchEnd(int start) {
+        int end = start;
+        int length = 0;
+        while (end < mPendingMessages.size()) {
+            final int msgLength =
+                    NetlinkConstants.alignedLengthOf(mPendingMessages.get(end).length);
+            if (end > start && length + msgLength > MAX_BATCH_BYTES) break;
+            length += msgLength;
+            end++;
+        }
+        return end;
+    }
+
+    @VisibleForTesting
+    byte[] packBatch(int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            length += NetlinkConstants.alignedLengthOf(mPendingMessages.get(i).length);
+        }
+        final byte[] batch = new byte[length];
+        int offset = 0;
+        for (int i = start; i < end; i++) {
+            final byte[] msg = mPendingMessages.get(i);
+            System.arraycopy(msg, 0, batch, offset, msg.length);
+            offset += NetlinkConstants.alignedLengthOf(msg.length);
+        }
+        return batch;
+    }
+
+    /**
+     * Parse the acknowledgements in the buffer.
+     *
+     * @param firstSeq the sequence number of the request at index 0.
+     * @param errnos receives the errno of each acknowledged request.
+     * @param acked tracks which requests were acknowledged; acknowledgements of unknown or
+     *              already acknowledged requests are ignored.
+     * @return the number of requests that were newly acknowledged.
+     */
+    @VisibleForTesting
+    static int parseAcks(@NonNull ByteBuffer bytes, int firstSeq, @NonNull int[] errnos,
+            @NonNull boolean[] acked) {
+        int newlyAcked = 0;
+        while (NetlinkUtils.enoughBytesRemainForValidNlMsg(bytes)) {
+            final int start = bytes.position();
+            final StructNlMsgHdr header = StructNlMsgHdr.parse(bytes);
+            if (header == null || header.nlmsg_len < StructNlMsgHdr.STRUCT_SIZE) {
+                // Malformed message. Pretend the buffer was consumed.
+                bytes.position(bytes.limit());
+                break;
+            }
+            final int end = Math.min(
+                    start + NetlinkConstants.alignedLengthOf(header.nlmsg_len), bytes.limit());
+            if (header.nlmsg_type == NetlinkConstants.NLMSG_ERROR) {
+                final StructNlMsgErr err = StructNlMsgErr.parse(bytes);
+                final int index = header.nlmsg_seq - firstSeq;
+                if (err != null && index >= 0 && index < acked.length && !acked[index]) {
+                    acked[index] = true;
+                    // Convert kernel errnos (negative) into userspace errnos (positive).
+                    errnos[index] = Math.abs(err.error);
+                    newlyAcked++;
+                }
+            } else {
+                Log.w(TAG, "Unexpected netlink message: " + header);
+            }
+            bytes.position(end);
+        }
+        return newlyAcked;
+    }
+
+    @Override
+    public void close() {
+        closeSocketQuietly(mFd);
+    }
+
+    private static void closeSocketQuietly(final FileDescriptor fd) {
+        try {
+            SocketUtils.closeSocket(fd);
+        } catch (IOException e) {
+            // Nothing we can do here
+        }
+    }
+}
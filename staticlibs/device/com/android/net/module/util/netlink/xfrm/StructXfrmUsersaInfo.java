@@ -208,6 +208,11 @@ public class StructXfrmUsersaInfo extends Struct {
         return mXfrmId.spi;
     }
 
+    /** Return the IPsec protocol */
+    public short getProto() {
+        return mXfrmId.proto;
+    }
+
     /** Return the current lifetime */
     public StructXfrmLifetimeCur getCurrentLifetime() {
         return mXfrmCurrentLifetime;
@@ -16,6 +16,7 @@
 
 package com.android.net.module.util.netlink.xfrm;
 
+import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_DUMP;
 import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_REQUEST;
 import static com.android.net.module.util.netlink.xfrm.XfrmNetlinkMessage.XFRM_MSG_GETSA;
 
@@ -97,10 +98,16 @@ public class XfrmNetlinkGetSaMessage extends XfrmNetlinkMessage {
     /** A convenient method to create a XFRM_MSG_GETSA message. */
     public static byte[] newXfrmNetlinkGetSaMessage(
             @NonNull final InetAddress destAddress, long spi, short proto) {
+        return newXfrmNetlinkGetSaMessage(destAddress, spi, proto, 0 /* seq */);
+    }
+
+    /** A convenient method to create a XFRM_MSG_GETSA message with a sequence number. */
+    public static byte[] newXfrmNetlinkGetSaMessage(
+            @NonNull final InetAddress destAddress, long spi, short proto, int seq) {
         final int payloadLen = StructXfrmUsersaId.STRUCT_SIZE;
 
         final StructNlMsgHdr nlmsghdr =
-                new StructNlMsgHdr(payloadLen, XFRM_MSG_GETSA, NLM_F_REQUEST, 0);
+                new StructNlMsgHdr(payloadLen, XFRM_MSG_GETSA, NLM_F_REQUEST, seq);
         final XfrmNetlinkGetSaMessage message =
                 new XfrmNetlinkGetSaMessage(nlmsghdr, destAddress, spi, proto);
 
@@ -110,6 +117,31 @@ public class XfrmNetlinkGetSaMessage extends XfrmNetlinkMessage {
         return byteBuffer.array();
     }
 
+    /**
+     * A convenient method to create a XFRM_MSG_GETSA dump request, which returns all SAs as
+     * XFRM_MSG_NEWSA messages.
+     */
+    public static byte[] newXfrmNetlinkGetSaDumpMessage() {
+        return newXfrmNetlinkGetSaDumpMessage(0 /* seq */);
+    }
+
+    /** A convenient method to create a XFRM_MSG_GETSA dump request with a sequence number. */
+    public static byte[] newXfrmNetlinkGetSaDumpMessage(int seq) {
+        final int payloadLen = StructXfrmUsersaId.STRUCT_SIZE;
+
+        final StructNlMsgHdr nlmsghdr = new StructNlMsgHdr(payloadLen, XFRM_MSG_GETSA,
+                (short) (NLM_F_REQUEST | NLM_F_DUMP), seq);
+        // The kernel ignores the xfrm_usersa_id of a dump request, but requires it to be present.
+        final XfrmNetlinkGetSaMessage message = new XfrmNetlinkGetSaMessage(nlmsghdr,
+                new StructXfrmUsersaId(new byte[StructXfrmAddressT.STRUCT_SIZE], 0 /* spi */,
+                        0 /* family */, (short) 0 /* proto */));
+
+        final ByteBuffer byteBuffer = newNlMsgByteBuffer(payloadLen);
+        message.pack(byteBuffer);
+
+        return byteBuffer.array();
+    }
+
     public StructXfrmUsersaId getStructXfrmUsersaId() {
         return mXfrmUsersaId;
     }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util;
+
+import static android.net.DnsResolver.TYPE_A;
+import static android.net.DnsResolver.TYPE_AAAA;
+
+import static com.android.net.module.util.DnsPacket.DnsRecord.MAXNAMESIZE;
+import static com.android.net.module.util.DnsPacket.DnsRecord.NAME_COMPRESSION;
+import static com.android.net.module.util.DnsPacket.DnsRecord.NAME_NORMAL;
+import static com.android.net.module.util.DnsPacket.ARSECTION;
+import static com.android.net.module.util.DnsPacket.QDSECTION;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.net.module.util.DnsPacket.DnsHeader;
+import com.android.net.module.util.DnsPacket.DnsRecord;
+import com.android.net.module.util.DnsPacket.ParseException;
+import com.android.net.module.util.DnsPacket.RecordType;
+import com.android.net.module.util.DnsPacketUtils.DnsRecordParser;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A read-only view of a DNS packet which decodes its records lazily.
+ *
+ * {@link DnsPacket} decodes every record of every section into a {@link DnsRecord}, including
+ * its name, when it is constructed. This class only walks the packet once on construction to
+ * check its structure and index the offset of each record. Names, TTLs and rdata are decoded
+ * when they are accessed, so callers that only need a few fields, like the addresses of an A or
+ * AAAA answer, do not pay for decoding the rest.
+ *
+ * Names are not validated on construction: {@link #getName} throws a {@link ParseException} if
+ * the name of a record is invalid. The data must not be modified while the view is in use.
+ *
+ * @hide
+ */
+public final class DnsPacketView {
+    private static final int NUM_SECTIONS = ARSECTION + 1;
+    private static final int HEADER_SIZE = 12;
+    // Size of the type and class of a question.
+    private static final int QUESTION_FIELDS_SIZE = 4;
+    // Size of the type, class, TTL and rdata length of a resource record.
+    private static final int RECORD_FIELDS_SIZE = 10;
+    private static final int MAX_LABEL_COUNT = 128;
+
+    @NonNull
+    private final byte[] mData;
+    @NonNull
+    private final DnsHeader mHeader;
+    // Index in mNameOffsets and mFieldsOffsets of the first record of each section, followed by
+    // the total number of records.
+    private final int[] mSectionStarts = new int[NUM_SECTIONS + 1];
+    // Offset of the name of each record.
+    private final int[] mNameOffsets;
+    // Offset of the fields following the name of each record.
+    private final int[] mFieldsOffsets;
+
+    public DnsPacketView(@NonNull byte[] data) throws ParseException {
+        if (null == data) {
+            throw new ParseException("Parse header failed, null input data");
+        }
+        mData = data;
+        try {
+            mHeader = new DnsHeader(ByteBuffer.wrap(data));
+        } catch (BufferUnderflowException e) {
+            throw new ParseException("Parse Header fail, bad input data", e);
+        }
+
+        int recordCount = 0;
+        for (int i = 0; i < NUM_SECTIONS; ++i) {
+            mSectionStarts[i] = recordCount;
+            recordCount += mHeader.getRecordCount(i);
+        }
+        mSectionStarts[NUM_SECTIONS] = recordCount;
+        // Each record takes at least a one-byte root name and its fields. Check that the packet
+        // can hold that many records before allocating the offset arrays from untrusted counts.
+        final int questionCount = mHeader.getRecordCount(QDSECTION);
+        final int minSize = questionCount * (1 + QUESTION_FIELDS_SIZE)
+                + (recordCount - questionCount) * (1 + RECORD_FIELDS_SIZE);
+        if (minSize > data.length - HEADER_SIZE) {
+            throw new ParseException("Parse record fail, record count exceeds packet size");
+        }
+        mNameOffsets = new int[recordCount];
+        mFieldsOffsets = new int[recordCount];
+
+        int pos = HEADER_SIZE;
+        for (int i = 0; i < NUM_SECTIONS; ++i) {
+            for (int j = mSectionStarts[i]; j < mSectionStarts[i + 1]; ++j) {
+                mNameOffsets[j] = pos;
+                pos = skipName(pos);
+                mFieldsOffsets[j] = pos;
+                if (i == QDSECTION) {
+                    pos += QUESTION_FIELDS_SIZE;
+                } else {
+                    checkAvailable(pos, RECORD_FIELDS_SIZE);
+                    pos += RECORD_FIELDS_SIZE + readUnsignedShort(pos + 8);
+                }
+                checkAvailable(pos, 0);
+            }
+        }
+    }
+
+    /**
+     * Get the header of the packet.
+     */
+    @NonNull
+    public DnsHeader getHeader() {
+        return mHeader;
+    }
+
+    /**
+     * Get the number of records in a section.
+     */
+    public int getRecordCount(@RecordType int section) {
+        return mHeader.getRecordCount(section);
+    }
+
+    /**
+     * Get the type of a record.
+     */
+    public int getNsType(@RecordType int section, int index) {
+        return readUnsignedShort(mFieldsOffsets[recordIndex(section, index)]);
+    }
+
+    /**
+     * Get the class of a record.
+     */
+    public int getNsClass(@RecordType int section, int index) {
+        return readUnsignedShort(mFieldsOffsets[recordIndex(section, index)] + 2);
+    }
+
+    /**
+     * Get the TTL of a resource record, in seconds.
+     *
+     * @throws IllegalArgumentException if {@code section} is the question section.
+     */
+    public long getTtl(@RecordType int section, int index) {
+        final int pos = resourceRecordFieldsOffset(section, index);
+        return Integer.toUnsignedLong(readUnsignedShort(pos + 4) << 16
+                | readUnsignedShort(pos + 6));
+    }
+
+    /**
+     * Get a copy of the rdata of a resource record.
+     *
+     * @throws IllegalArgumentException if {@code section} is the question section.
+     */
+    @NonNull
+    public byte[] getRdata(@RecordType int section, int index) {
+        final int pos = resourceRecordFieldsOffset(section, index);
+        final int start = pos + RECORD_FIELDS_SIZE;
+        return Arrays.copyOfRange(mData, start, start + readUnsignedShort(pos + 8));
+    }
+
+    /**
+     * Get the address in the rdata of an A or AAAA record.
+     *
+     * @return the address, or {@code null} if the record is not a well-formed A or AAAA record.
+     * @throws IllegalArgumentException if {@code section} is the question section.
+     */
+    @Nullable
+    public InetAddress getAddress(@RecordType int section, int index) {
+        final int pos = resourceRecordFieldsOffset(section, index);
+        final int nsType = readUnsignedShort(pos);
+        final int length = readUnsignedShort(pos + 8);
+        if (!(nsType == TYPE_A && length == 4) && !(nsType == TYPE_AAAA && length == 16)) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(getRdata(section, index));
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode the name of a record.
+     *
+     * @throws ParseException if the name is invalid.
+     */
+    @NonNull
+    public String getName(@RecordType int section, int index) throws ParseException {
+        final ByteBuffer buf = ByteBuffer.wrap(mData);
+        buf.position(mNameOffsets[recordIndex(section, index)]);
+        final String name;
+        try {
+            name = DnsRecordParser.parseName(buf, 0 /* Parse depth */,
+                    true /* isNameCompressionSupported */);
+        } catch (BufferUnderflowException e) {
+            throw new ParseException("Parse name fail", e);
+        }
+        if (name.length() > MAXNAMESIZE) {
+            throw new ParseException("Parse name fail, name size is too long: " + name.length());
+        }
+        return name;
+    }
+
+    private int recordIndex(@RecordType int section, int index) {
+        if (index < 0 || index >= getRecordCount(section)) {
+            throw new IndexOutOfBoundsException("Record " + index + " not found in section "
+                    + section + " of size " + getRecordCount(section));
+        }
+        return mSectionStarts[section] + index;
+    }
+
+    private int resourceRecordFieldsOffset(@RecordType int section, int index) {
+        if (section == QDSECTION) {
+            throw new IllegalArgumentException("Questions have no TTL nor rdata");
+        }
+        return mFieldsOffsets[recordIndex(section, index)];
+    }
+
+    // Returns the offset following the name at the given offset, without decoding the name.
+    private int skipName(int pos) throws ParseException {
+        for (int labelCount = 0; labelCount <= MAX_LABEL_COUNT; ++labelCount) {
+            checkAvailable(pos, 1);
+            final int len = Byte.toUnsignedInt(mData[pos]);
+            final int mask = len & NAME_COMPRESSION;
+            if (0 == len) {
+                return pos + 1;
+            } else if (mask == NAME_COMPRESSION) {
+                // The pointer ends the name, it is only followed when decoding the name.
+                checkAvailable(pos, 2);
+                return pos + 2;
+            } else if (mask != NAME_NORMAL) {
+                throw new ParseException("Parse name fail, bad label type: " + mask);
+            }
+            pos += 1 + len;
+        }
+        throw new ParseException("Failed to parse name, too many labels");
+    }
+
+    private void checkAvailable(int pos, int length) throws ParseException {
+        if (pos + length > mData.length) {
+            throw new ParseException("Parse record fail");
+        }
+    }
+
+    private int readUnsignedShort(int pos) {
+        return Byte.toUnsignedInt(mData[pos]) << 8 | Byte.toUnsignedInt(mData[pos + 1]);
+    }
+}
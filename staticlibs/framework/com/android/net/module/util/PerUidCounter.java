@@ -18,22 +18,27 @@ package com.android.net.module.util;
 
 import android.util.SparseIntArray;
 
-import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 /**
  * Keeps track of the counters under different uid, fire exception if the counter
  * exceeded the specified maximum value.
  *
+ * This class is thread-safe. The counters are spread over several independently locked shards,
+ * so that callers updating the counters of different uids concurrently, e.g. binder threads
+ * registering requests for many apps at boot, do not all serialize on the same lock.
+ *
  * @hide
  */
 public class PerUidCounter {
+    // Number of shards. Must be a power of two so that the shard of a uid is a mask of its hash.
+    @VisibleForTesting
+    static final int SHARD_COUNT = 16;
+
     private final int mMaxCountPerUid;
 
-    // Map from UID to count that UID has filed.
-    @VisibleForTesting
-    @GuardedBy("this")
-    final SparseIntArray mUidToCount = new SparseIntArray();
+    // Maps from UID to count that UID has filed, each used as the lock of its own content.
+    private final SparseIntArray[] mShards = new SparseIntArray[SHARD_COUNT];
 
     /**
      * Constructor
@@ -45,6 +50,9 @@ public class PerUidCounter {
             throw new IllegalArgumentException("Maximum counter value must be positive");
         }
         mMaxCountPerUid = maxCountPerUid;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            mShards[i] = new SparseIntArray();
+        }
     }
 
     /**
@@ -57,14 +65,17 @@ public class PerUidCounter {
      *
      * @param uid the uid that the counter was made under
      */
-    public synchronized void incrementCountOrThrow(final int uid) {
-        final long newCount = ((long) mUidToCount.get(uid, 0)) + 1;
-        if (newCount > mMaxCountPerUid) {
-            throw new IllegalStateException("Uid " + uid + " exceeded its allowed limit");
+    public void incrementCountOrThrow(final int uid) {
+        final SparseIntArray uidToCount = getShard(uid);
+        synchronized (uidToCount) {
+            final long newCount = ((long) uidToCount.get(uid, 0)) + 1;
+            if (newCount > mMaxCountPerUid) {
+                throw new IllegalStateException("Uid " + uid + " exceeded its allowed limit");
+            }
+            // Since the count cannot be greater than Integer.MAX_VALUE here since mMaxCountPerUid
+            // is an integer, it is safe to cast to int.
+            uidToCount.put(uid, (int) newCount);
         }
-        // Since the count cannot be greater than Integer.MAX_VALUE here since mMaxCountPerUid
-        // is an integer, it is safe to cast to int.
-        mUidToCount.put(uid, (int) newCount);
     }
 
     /**
@@ -76,21 +87,38 @@ public class PerUidCounter {
      *
      * @param uid the uid that the count was made under
      */
-    public synchronized void decrementCountOrThrow(final int uid) {
-        final int newCount = mUidToCount.get(uid, 0) - 1;
-        if (newCount < 0) {
-            throw new IllegalStateException("BUG: too small count " + newCount + " for UID " + uid);
-        } else if (newCount == 0) {
-            mUidToCount.delete(uid);
-        } else {
-            mUidToCount.put(uid, newCount);
+    public void decrementCountOrThrow(final int uid) {
+        final SparseIntArray uidToCount = getShard(uid);
+        synchronized (uidToCount) {
+            final int newCount = uidToCount.get(uid, 0) - 1;
+            if (newCount < 0) {
+                throw new IllegalStateException(
+                        "BUG: too small count " + newCount + " for UID " + uid);
+            } else if (newCount == 0) {
+                uidToCount.delete(uid);
+            } else {
+                uidToCount.put(uid, newCount);
+            }
         }
     }
 
     /**
      * Get the current counter value for the given uid.
      */
-    public synchronized int get(int uid) {
-        return mUidToCount.get(uid, 0);
+    public int get(int uid) {
+        final SparseIntArray uidToCount = getShard(uid);
+        synchronized (uidToCount) {
+            return uidToCount.get(uid, 0);
+        }
+    }
+
+    @VisibleForTesting
+    static int getShardIndex(int uid) {
+        // Uids of the same app in different users differ in their high bits, mix them in.
+        return (uid ^ (uid >>> 16)) & (SHARD_COUNT - 1);
+    }
+
+    private SparseIntArray getShard(int uid) {
+        return mShards[getShardIndex(uid)];
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util;
+
+import static com.android.net.module.util.DnsPacket.ANSECTION;
+import static com.android.net.module.util.DnsPacket.ARSECTION;
+import static com.android.net.module.util.DnsPacket.NSSECTION;
+import static com.android.net.module.util.DnsPacket.QDSECTION;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import libcore.net.InetAddressUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DnsPacketViewTest {
+    private static final byte[] CNAME_AND_A_ANSWER = new byte[] {
+        /* Header */
+        0x55, 0x66, /* Transaction ID */
+        (byte) 0x81, (byte) 0x80, /* Flags */
+        0x00, 0x01, /* Questions */
+        0x00, 0x02, /* Answer RRs */
+        0x00, 0x00, /* Authority RRs */
+        0x00, 0x00, /* Additional RRs */
+        /* Queries */
+        0x03, 0x77, 0x77, 0x77, 0x06, 0x67, 0x6F, 0x6F, 0x67, 0x6c, 0x65,
+        0x03, 0x63, 0x6f, 0x6d, 0x00, /* Name: www.google.com */
+        0x00, 0x01, /* Type */
+        0x00, 0x01, /* Class */
+        /* Answers */
+        (byte) 0xc0, 0x0c, /* Name: www.google.com */
+        0x00, 0x05, /* Type */
+        0x00, 0x01, /* Class */
+        0x00, 0x00, 0x01, 0x2c, /* TTL */
+        0x00, 0x06, /* Data length */
+        0x03, 0x66, 0x6f, 0x6f, (byte) 0xc0, 0x10, /* Canonical name: foo.google.com */
+        (byte) 0xc0, 0x2c, /* Name: foo.google.com */
+        0x00, 0x01, /* Type */
+        0x00, 0x01, /* Class */
+        0x00, 0x00, 0x00, 0x3c, /* TTL */
+        0x00, 0x04, /* Data length */
+        (byte) 0xac, (byte) 0xd9, (byte) 0xa1, (byte) 0x84 /* Address */
+    };
+    // Offset of the name of the second answer in CNAME_AND_A_ANSWER.
+    private static final int SECOND_ANSWER_NAME_OFFSET = 50;
+
+    @Test
+    public void testView() throws Exception {
+        final DnsPacketView view = new DnsPacketView(CNAME_AND_A_ANSWER);
+
+        assertEquals(0x5566, view.getHeader().getId());
+        assertEquals(1, view.getRecordCount(QDSECTION));
+        assertEquals(2, view.getRecordCount(ANSECTION));
+        assertEquals(0, view.getRecordCount(NSSECTION));
+        assertEquals(0, view.getRecordCount(ARSECTION));
+
+        assertEquals("www.google.com", view.getName(QDSECTION, 0));
+        assertEquals(1, view.getNsType(QDSECTION, 0));
+        assertEquals(1, view.getNsClass(QDSECTION, 0));
+
+        assertEquals("www.google.com", view.getName(ANSECTION, 0));
+        assertEquals(5, view.getNsType(ANSECTION, 0));
+        assertEquals(300, view.getTtl(ANSECTION, 0));
+        assertNull(view.getAddress(ANSECTION, 0));
+
+        assertEquals("foo.google.com", view.getName(ANSECTION, 1));
+        assertEquals(1, view.getNsType(ANSECTION, 1));
+        assertEquals(60, view.getTtl(ANSECTION, 1));
+        assertEquals(InetAddressUtils.parseNumericAddress("172.217.161.132"),
+                view.getAddress(ANSECTION, 1));
+    }
+
+    @Test
+    public void testView_matchesDnsPacket() throws Exception {
+        final DnsPacketView view = new DnsPacketView(CNAME_AND_A_ANSWER);
+        final DnsPacketTest.TestDnsPacket packet =
+                new DnsPacketTest.TestDnsPacket(CNAME_AND_A_ANSWER);
+
+        assertEquals(packet.getHeader(), view.getHeader());
+        for (int section = QDSECTION; section <= ARSECTION; section++) {
+            final List<DnsPacket.DnsRecord> records = packet.getRecords(section);
+            assertEquals(records.size(), view.getRecordCount(section));
+            for (int i = 0; i < records.size(); i++) {
+                final DnsPacket.DnsRecord record = records.get(i);
+                assertEquals(record.dName, view.getName(section, i));
+                assertEquals(record.nsType, view.getNsType(section, i));
+                assertEquals(record.nsClass, view.getNsClass(section, i));
+                if (section == QDSECTION) continue;
+                assertEquals(record.ttl, view.getTtl(section, i));
+                assertArrayEquals(record.getRR(), view.getRdata(section, i));
+            }
+        }
+    }
+
+    @Test
+    public void testView_truncated_throws() {
+        for (int length = 0; length < CNAME_AND_A_ANSWER.length; length++) {
+            final byte[] truncated = Arrays.copyOf(CNAME_AND_A_ANSWER, length);
+            assertThrows(DnsPacket.ParseException.class, () -> new DnsPacketView(truncated));
+        }
+    }
+
+    @Test
+    public void testView_recordCountExceedsPacketSize_throws() {
+        // Header only, claiming 65535 questions and 65535 answers.
+        final byte[] header = new byte[] {
+                0x00, 0x01, (byte) 0x81, (byte) 0x80,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00, 0x00, 0x00, 0x00 };
+        assertThrows(DnsPacket.ParseException.class, () -> new DnsPacketView(header));
+        // A single root-name question fits in 5 bytes; a second one does not.
+        final byte[] oneQuestion = new byte[] {
+                0x00, 0x01, (byte) 0x81, (byte) 0x80, 0x00, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                0x00, 0x00, 0x01, 0x00, 0x01 };
+        assertThrows(DnsPacket.ParseException.class, () -> new DnsPacketView(oneQuestion));
+    }
+
+    @Test
+    public void testView_null_throws() {
+        assertThrows(DnsPacket.ParseException.class, () -> new DnsPacketView(null));
+    }
+
+    @Test
+    public void testGetName_invalidCompression_throws() throws Exception {
+        final byte[] data = CNAME_AND_A_ANSWER.clone();
+        // Point forward, past the name itself.
+        data[SECOND_ANSWER_NAME_OFFSET + 1] = (byte) 0x40;
+
+        // The name is only decoded when it is accessed.
+        final DnsPacketView view = new DnsPacketView(data);
+        assertEquals(1, view.getNsType(ANSECTION, 1));
+        assertThrows(DnsPacket.ParseException.class, () -> view.getName(ANSECTION, 1));
+        assertThrows(DnsPacket.ParseException.class, () -> new DnsPacket(data));
+    }
+
+    @Test
+    public void testQuestionRdata_throws() throws Exception {
+        final DnsPacketView view = new DnsPacketView(CNAME_AND_A_ANSWER);
+
+        assertThrows(IllegalArgumentException.class, () -> view.getTtl(QDSECTION, 0));
+        assertThrows(IllegalArgumentException.class, () -> view.getRdata(QDSECTION, 0));
+    }
+
+    @Test
+    public void testMissingRecord_throws() throws Exception {
+        final DnsPacketView view = new DnsPacketView(CNAME_AND_A_ANSWER);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> view.getNsType(ANSECTION, 2));
+        assertThrows(IndexOutOfBoundsException.class, () -> view.getNsType(NSSECTION, 0));
+    }
+}
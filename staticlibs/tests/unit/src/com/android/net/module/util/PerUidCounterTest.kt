@@ -18,10 +18,14 @@ package com.android.net.module.util
 
 import androidx.test.filters.SmallTest
 import androidx.test.runner.AndroidJUnit4
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
 import org.junit.Test
 import org.junit.runner.RunWith
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
+import kotlin.test.assertNotEquals
 
 @RunWith(AndroidJUnit4::class)
 @SmallTest
@@ -139,4 +143,64 @@ class PerUidCounterTest {
         }
         assertEquals(0, largeCounter[UID_A])
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testShardIndex() {
+        val shards = (0 until PerUidCounter.SHARD_COUNT).map {
+            PerUidCounter.getShardIndex(UID_A + it)
+        }.toSet()
+        assertEquals(PerUidCounter.SHARD_COUNT, shards.size)
+        // The same app in another user is not always in the same shard.
+        assertNotEquals(PerUidCounter.getShardIndex(10_000),
+                PerUidCounter.getShardIndex(1_010_000))
+    }
+
+    @Test
+    fun testConcurrentIncrement_sameUid() {
+        val limit = 1000
+        val counter = PerUidCounter(limit)
+        val successes = AtomicInteger()
+        val start = CountDownLatch(1)
+        val threads = (1..8).map {
+            thread {
+                start.await()
+                repeat(limit) {
+                    try {
+                        counter.incrementCountOrThrow(UID_A)
+                        successes.incrementAndGet()
+                    } catch (e: IllegalStateException) {
+                        // Expected once the limit is reached.
+                    }
+                }
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+
+        assertEquals(limit, successes.get())
+        assertEquals(limit, counter[UID_A])
+    }
+
+    @Test
+    fun testConcurrentIncrementDecrement_manyUids() {
+        val counter = PerUidCounter(10)
+        val uidCount = 4 * PerUidCounter.SHARD_COUNT
+        val start = CountDownLatch(1)
+        val threads = (0 until uidCount).map { uid ->
+            thread {
+                start.await()
+                repeat(100) {
+                    repeat(10) { counter.incrementCountOrThrow(uid) }
+                    repeat(10) { counter.decrementCountOrThrow(uid) }
+                }
+                repeat(uid % 10) { counter.incrementCountOrThrow(uid) }
+            }
+        }
+        start.countDown()
+        threads.forEach { it.join() }
+
+        repeat(uidCount) { uid ->
+            assertEquals(uid % 10, counter[uid])
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.android.net.module.util.ip;
 
 import static android.system.OsConstants.AF_UNIX;
 import static android.system.OsConstants.IPPROTO_TCP;
+import static android.system.OsConstants.NETLINK_NETFILTER;
 import static android.system.OsConstants.SOCK_DGRAM;
 
 import static com.android.net.module.util.netlink.ConntrackMessage.Tuple;
@@ -27,7 +28,9 @@ import static com.android.net.module.util.netlink.NetlinkConstants.IPCTNL_MSG_CT
 import static com.android.net.module.util.netlink.NetlinkConstants.IPCTNL_MSG_CT_NEW;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.timeout;
@@ -46,7 +49,9 @@ import androidx.test.runner.AndroidJUnit4;
 
 import com.android.net.module.util.SharedLog;
 import com.android.net.module.util.ip.ConntrackMonitor.ConntrackEvent;
+import com.android.net.module.util.netlink.ConntrackMessage;
 import com.android.net.module.util.netlink.NetlinkConstants;
+import com.android.net.module.util.netlink.NetlinkMessageCursor;
 import com.android.net.module.util.netlink.NetlinkUtils;
 
 import libcore.util.HexEncoding;
@@ -61,6 +66,8 @@ import org.mockito.MockitoAnnotations;
 import java.io.FileDescriptor;
 import java.io.InterruptedIOException;
 import java.net.Inet4Address;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Tests for ConntrackMonitor.
@@ -333,4 +340,26 @@ public class ConntrackMonitorTest {
         mConntrackMonitor.sendMessage(CT_V4DELETE_TCP_BYTES);
         verify(mConsumer, timeout(TIMEOUT_MS)).accept(eq(expectedEvent));
     }
+
+    private static boolean mayBeNatSessionEvent(byte[] msg) {
+        final ByteBuffer buf = ByteBuffer.wrap(msg);
+        buf.order(ByteOrder.nativeOrder());
+        final NetlinkMessageCursor cursor = new NetlinkMessageCursor(NETLINK_NETFILTER);
+        cursor.reset(buf);
+        assertTrue(cursor.next());
+        return ConntrackMonitor.mayBeNatSessionEvent(cursor);
+    }
+
+    @Test
+    public void testMayBeNatSessionEvent() throws Exception {
+        assertTrue(mayBeNatSessionEvent(CT_V4NEW_TCP_BYTES));
+        assertTrue(mayBeNatSessionEvent(CT_V4DELETE_TCP_BYTES));
+
+        // A timeout update has no status attribute, so it is skipped before parsing.
+        final byte[] update = ConntrackMessage.newIPv4TimeoutUpdateRequest(IPPROTO_TCP,
+                (Inet4Address) InetAddresses.parseNumericAddress("192.168.80.12"), 62449,
+                (Inet4Address) InetAddresses.parseNumericAddress("140.112.8.116"), 443,
+                120 /* timeoutSec */);
+        assertFalse(mayBeNatSessionEvent(update));
+    }
 }
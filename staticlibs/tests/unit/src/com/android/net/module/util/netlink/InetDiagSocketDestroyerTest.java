@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static android.system.OsConstants.AF_INET6;
+import static android.system.OsConstants.IPPROTO_TCP;
+
+import static com.android.net.module.util.netlink.NetlinkConstants.SOCK_DESTROY;
+import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_ACK;
+import static com.android.net.module.util.netlink.StructNlMsgHdr.NLM_F_REQUEST;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.InetAddresses;
+import android.util.Range;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.net.module.util.netlink.InetDiagSocketDestroyer.UidRangeSet;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class InetDiagSocketDestroyerTest {
+    @Test
+    public void testUidRangeSet() {
+        final UidRangeSet set = new UidRangeSet(Set.of(
+                new Range<>(10_000, 10_100),
+                new Range<>(10_050, 10_200),
+                new Range<>(10_201, 10_300),
+                new Range<>(20_000, 20_000),
+                new Range<>(30_000, Integer.MAX_VALUE)));
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(9_999));
+        assertTrue(set.contains(10_000));
+        assertTrue(set.contains(10_150));
+        assertTrue(set.contains(10_201));
+        assertTrue(set.contains(10_300));
+        assertFalse(set.contains(10_301));
+        assertFalse(set.contains(19_999));
+        assertTrue(set.contains(20_000));
+        assertFalse(set.contains(20_001));
+        assertTrue(set.contains(30_000));
+        assertTrue(set.contains(Integer.MAX_VALUE));
+
+        assertFalse(new UidRangeSet(Set.of()).contains(10_000));
+    }
+
+    @Test
+    public void testUidRangeSetMatchesContainsUid() {
+        final Set<Range<Integer>> ranges = Set.of(new Range<>(100, 199), new Range<>(300, 399));
+        final UidRangeSet set = new UidRangeSet(ranges);
+        final InetDiagMessage msg = new InetDiagMessage(new StructNlMsgHdr());
+        for (int uid = 0; uid < 500; uid++) {
+            msg.inetDiagMsg.idiag_uid = uid;
+            assertEquals(InetDiagMessage.containsUid(msg, ranges), set.contains(uid));
+        }
+    }
+
+    private static StructInetDiagMsg makeSocket(int localPort, short state) {
+        final StructInetDiagMsg socket = new StructInetDiagMsg();
+        socket.idiag_family = (short) AF_INET6;
+        socket.idiag_state = state;
+        socket.id = new StructInetDiagSockId(
+                new InetSocketAddress(InetAddresses.parseNumericAddress("2001:db8::1"), localPort),
+                new InetSocketAddress(InetAddresses.parseNumericAddress("2001:db8::2"), 443));
+        return socket;
+    }
+
+    @Test
+    public void testMakeDestroyBatch() {
+        final List<StructInetDiagMsg> sockets = List.of(
+                makeSocket(40001, (short) 1 /* TCP_ESTABLISHED */),
+                makeSocket(40002, (short) 2 /* TCP_SYN_SENT */));
+        final byte[] batch = InetDiagSocketDestroyer.makeDestroyBatch(sockets, 7 /* firstSeq */);
+        final int msgLen = StructNlMsgHdr.STRUCT_SIZE + StructInetDiagReqV2.STRUCT_SIZE;
+        assertEquals(2 * msgLen, batch.length);
+
+        final ByteBuffer buf = ByteBuffer.wrap(batch);
+        buf.order(ByteOrder.nativeOrder());
+        for (int i = 0; i < sockets.size(); i++) {
+            final StructNlMsgHdr hdr = StructNlMsgHdr.parse(buf);
+            assertEquals(msgLen, hdr.nlmsg_len);
+            assertEquals(SOCK_DESTROY, hdr.nlmsg_type);
+            assertEquals(NLM_F_REQUEST | NLM_F_ACK, hdr.nlmsg_flags);
+            assertEquals(7 + i, hdr.nlmsg_seq);
+            buf.position(buf.position() + StructInetDiagReqV2.STRUCT_SIZE);
+        }
+
+        // Each message is identical to a single SOCK_DESTROY request apart from its sequence.
+        final StructInetDiagMsg socket = sockets.get(1);
+        final byte[] single = InetDiagMessage.inetDiagReqV2(IPPROTO_TCP, socket.id,
+                socket.idiag_family, SOCK_DESTROY, (short) (NLM_F_REQUEST | NLM_F_ACK),
+                0 /* pad */, 0 /* idiagExt */, 1 << socket.idiag_state);
+        final ByteBuffer expected = ByteBuffer.wrap(single).order(ByteOrder.nativeOrder());
+        expected.putInt(8 /* nlmsg_seq offset */, 8);
+        final byte[] second = new byte[msgLen];
+        System.arraycopy(batch, msgLen, second, 0, msgLen);
+        assertArrayEquals(single, second);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static android.system.OsConstants.NETLINK_NETFILTER;
+
+import static com.android.net.module.util.ip.ConntrackMonitorTest.CT_V4DELETE_TCP_BYTES;
+import static com.android.net.module.util.ip.ConntrackMonitorTest.CT_V4NEW_TCP_BYTES;
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_IP_V4_SRC;
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_STATUS;
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_TUPLE_IP;
+import static com.android.net.module.util.netlink.ConntrackMessage.CTA_TUPLE_ORIG;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class NetlinkMessageCursorTest {
+    private static final short CTA_NOT_PRESENT = 100;
+
+    private static ByteBuffer concat(byte[]... messages) {
+        int length = 0;
+        for (byte[] msg : messages) length += msg.length;
+        final ByteBuffer buf = ByteBuffer.allocate(length);
+        for (byte[] msg : messages) buf.put(msg);
+        buf.flip();
+        buf.order(ByteOrder.nativeOrder());
+        return buf;
+    }
+
+    @Test
+    public void testIterateMessages() {
+        final NetlinkMessageCursor cursor = new NetlinkMessageCursor(NETLINK_NETFILTER);
+        cursor.reset(concat(CT_V4NEW_TCP_BYTES, CT_V4DELETE_TCP_BYTES));
+
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.getMessageOffset());
+        assertEquals(CT_V4NEW_TCP_BYTES.length, cursor.getMessageLength());
+        assertEquals(0x0100, cursor.getType());
+
+        assertTrue(cursor.next());
+        assertEquals(CT_V4NEW_TCP_BYTES.length, cursor.getMessageOffset());
+        assertEquals(0x0102, cursor.getType());
+        assertEquals(0, cursor.getSeq());
+
+        assertFalse(cursor.next());
+        assertFalse(cursor.isMalformed());
+    }
+
+    @Test
+    public void testFindAttributes() {
+        final NetlinkMessageCursor cursor = new NetlinkMessageCursor(NETLINK_NETFILTER);
+        cursor.reset(concat(CT_V4DELETE_TCP_BYTES));
+        assertTrue(cursor.next());
+
+        final int status = cursor.findAttribute(StructNfGenMsg.STRUCT_SIZE, CTA_STATUS);
+        assertEquals(4, cursor.getAttributePayloadLength(status));
+        assertEquals(0x39e, cursor.getAttributeInt(status, ByteOrder.BIG_ENDIAN));
+        assertEquals(-1, cursor.findAttribute(StructNfGenMsg.STRUCT_SIZE, CTA_NOT_PRESENT));
+
+        // The NLA_F_NESTED flag is ignored when matching attribute types.
+        final int tupleOrig = cursor.findAttribute(StructNfGenMsg.STRUCT_SIZE, CTA_TUPLE_ORIG);
+        final int tupleIp = cursor.findNestedAttribute(tupleOrig, CTA_TUPLE_IP);
+        final int src = cursor.findNestedAttribute(tupleIp, CTA_IP_V4_SRC);
+        assertEquals(4, cursor.getAttributePayloadLength(src));
+        assertEquals(0xC0A8500C, cursor.getAttributeInt(src, ByteOrder.BIG_ENDIAN));
+    }
+
+    @Test
+    public void testMaterialize() {
+        final ByteBuffer buf = concat(CT_V4NEW_TCP_BYTES, CT_V4DELETE_TCP_BYTES);
+        final NetlinkMessageCursor cursor = new NetlinkMessageCursor(NETLINK_NETFILTER);
+        cursor.reset(buf);
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+
+        final ConntrackMessage msg = (ConntrackMessage) cursor.materialize();
+        assertEquals(NetlinkConstants.IPCTNL_MSG_CT_DELETE, msg.getMessageType());
+        assertEquals(0x39e, msg.status);
+        // Materializing does not move the buffer or the cursor.
+        assertEquals(0, buf.position());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testTruncatedMessage() {
+        final ByteBuffer buf = concat(CT_V4NEW_TCP_BYTES, CT_V4DELETE_TCP_BYTES);
+        buf.limit(buf.limit() - 1);
+        final NetlinkMessageCursor cursor = new NetlinkMessageCursor(NETLINK_NETFILTER);
+        cursor.reset(buf);
+
+        assertTrue(cursor.next());
+        assertFalse(cursor.next());
+        assertTrue(cursor.isMalformed());
+        assertEquals(CT_V4NEW_TCP_BYTES.length, cursor.getMessageOffset());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.net.module.util.netlink;
+
+import static android.system.OsConstants.EEXIST;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.net.InetAddresses;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileDescriptor;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RtNetlinkSessionTest {
+    private static final int TEST_IFINDEX = 7;
+    private static final InetAddress TEST_ADDRESS_1 =
+            InetAddresses.parseNumericAddress("2001:db8:1::1");
+    private static final InetAddress TEST_ADDRESS_2 =
+            InetAddresses.parseNumericAddress("2001:db8:1::2");
+
+    private static StructNlMsgHdr parseHeader(byte[] bytes, int offset) {
+        final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+        buf.position(offset);
+        return StructNlMsgHdr.parse(buf);
+    }
+
+    private static void packAck(ByteBuffer buf, int seq, int error) {
+        final StructNlMsgHdr header = new StructNlMsgHdr();
+        header.nlmsg_len = StructNlMsgHdr.STRUCT_SIZE + StructNlMsgErr.STRUCT_SIZE;
+        header.nlmsg_type = NetlinkConstants.NLMSG_ERROR;
+        header.nlmsg_seq = seq;
+        header.pack(buf);
+        final StructNlMsgErr err = new StructNlMsgErr();
+        err.error = error;
+        err.msg = new StructNlMsgHdr();
+        err.msg.nlmsg_seq = seq;
+        err.pack(buf);
+    }
+
+    @Test
+    public void testPackBatch() {
+        final RtNetlinkSession session = new RtNetlinkSession(new FileDescriptor());
+        assertEquals(0, session.addNewAddress(TEST_IFINDEX, TEST_ADDRESS_1, (short) 64,
+                0 /* flags */, (byte) 0 /* scope */, 100L /* preferred */, 200L /* valid */));
+        assertEquals(1, session.addDelAddress(TEST_IFINDEX, TEST_ADDRESS_2, (short) 64));
+        assertEquals(2, session.getPendingCount());
+
+        final byte[] batch = session.packBatch(0, 2);
+        final StructNlMsgHdr first = parseHeader(batch, 0);
+        assertEquals(NetlinkConstants.RTM_NEWADDR, first.nlmsg_type);
+        assertEquals(1, first.nlmsg_seq);
+        assertTrue((first.nlmsg_flags & StructNlMsgHdr.NLM_F_ACK) != 0);
+
+        final StructNlMsgHdr second =
+                parseHeader(batch, NetlinkConstants.alignedLengthOf(first.nlmsg_len));
+        assertEquals(NetlinkConstants.RTM_DELADDR, second.nlmsg_type);
+        assertEquals(2, second.nlmsg_seq);
+        assertEquals(batch.length, NetlinkConstants.alignedLengthOf(first.nlmsg_len)
+                + NetlinkConstants.alignedLengthOf(second.nlmsg_len));
+    }
+
+    @Test
+    public void testAddMessage_setsSeqAndAck() {
+        final RtNetlinkSession session = new RtNetlinkSession(new FileDescriptor());
+        final byte[] msg = new byte[StructNlMsgHdr.STRUCT_SIZE];
+        final StructNlMsgHdr header = new StructNlMsgHdr();
+        header.nlmsg_len = msg.length;
+        header.nlmsg_type = NetlinkConstants.RTM_NEWROUTE;
+        header.nlmsg_flags = StructNlMsgHdr.NLM_F_REQUEST;
+        header.nlmsg_seq = 1234;
+        header.pack(ByteBuffer.wrap(msg).order(ByteOrder.nativeOrder()));
+
+        session.addMessage(msg);
+        final StructNlMsgHdr parsed = parseHeader(msg, 0);
+        assertEquals(1, parsed.nlmsg_seq);
+        assertEquals(StructNlMsgHdr.NLM_F_REQUEST_ACK, parsed.nlmsg_flags);
+    }
+
+    @Test
+    public void testParseAcks() {
+        final ByteBuffer buf = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+        packAck(buf, 11, 0);
+        packAck(buf, 13, -EEXIST);
+        // Unknown and duplicate acks are ignored.
+        packAck(buf, 3, 0);
+        packAck(buf, 11, -EEXIST);
+        buf.flip();
+
+        final int[] errnos = new int[3];
+        final boolean[] acked = new boolean[3];
+        assertEquals(2, RtNetlinkSession.parseAcks(buf, 11, errnos, acked));
+        assertArrayEquals(new int[] {0, 0, EEXIST}, errnos);
+        assertTrue(acked[0]);
+        assertFalse(acked[1]);
+        assertTrue(acked[2]);
+        assertFalse(buf.hasRemaining());
+
+        final ByteBuffer buf2 = ByteBuffer.allocate(1024).order(ByteOrder.nativeOrder());
+        packAck(buf2, 12, 0);
+        buf2.flip();
+        assertEquals(1, RtNetlinkSession.parseAcks(buf2, 11, errnos, acked));
+        assertTrue(acked[1]);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net.dns.benchmarktests
+
+import android.net.DnsResolver.TYPE_A
+import android.net.DnsResolver.TYPE_AAAA
+import android.util.Log
+import com.android.net.module.util.DnsPacket
+import com.android.net.module.util.DnsPacket.ANSECTION
+import com.android.net.module.util.DnsPacketView
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.net.InetAddress
+import kotlin.test.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+private const val TAG = "DnsPacketParsingTest"
+private const val ITERATIONS = 20_000
+private const val TYPE_CNAME = 5
+private const val TYPE_NS = 2
+private const val TYPE_SOA = 6
+private const val RCODE_NXDOMAIN = 3
+
+@RunWith(JUnit4::class)
+class DnsPacketParsingTest {
+    companion object {
+        // Responses shaped like the ones returned by public resolvers for popular names: CDN
+        // CNAME chains, several addresses, authority and glue records, and negative answers with
+        // a SOA record. Names in the records are compressed like real responses.
+        private val corpus = listOf(
+            response(TYPE_A, "www.example.com", 0) {
+                cname("www.example.com.cdn.example.net")
+                cname("edge-1.cdn.example.net")
+                repeat(4) {
+                    address(TYPE_A, byteArrayOf(93, -72, 216.toByte(), (34 + it).toByte()))
+                }
+            },
+            response(TYPE_AAAA, "www.example.com", 0) {
+                cname("www.example.com.cdn.example.net")
+                repeat(4) { address(TYPE_AAAA, ByteArray(16) { i -> (i + it).toByte() }) }
+            },
+            response(TYPE_A, "mail.example.org", 0) {
+                repeat(2) { address(TYPE_A, byteArrayOf(192.toByte(), 0, 2, (10 + it).toByte())) }
+                repeat(4) { authority(TYPE_NS, "ns$it.example.org") }
+                repeat(4) {
+                    val glue = byteArrayOf(198.toByte(), 51, 100, it.toByte())
+                    additional(TYPE_A, "ns$it.example.org", glue)
+                }
+            },
+            response(TYPE_AAAA, "nonexistent.example.com", RCODE_NXDOMAIN) {
+                authority(TYPE_SOA, "example.com")
+            },
+        )
+
+        private fun response(
+            qtype: Int,
+            qname: String,
+            rcode: Int,
+            build: ResponseBuilder.() -> Unit
+        ) = ResponseBuilder(qtype, qname, rcode).apply(build).build()
+    }
+
+    @Test
+    fun testParseAddresses_dnsPacket() {
+        val count = measure("DnsPacket") { data ->
+            val packet = object : DnsPacket(data) {
+                fun addresses() = mRecords[ANSECTION].mapNotNull {
+                    if (it.nsType == TYPE_A || it.nsType == TYPE_AAAA) {
+                        InetAddress.getByAddress(it.rr)
+                    } else {
+                        null
+                    }
+                }
+            }
+            packet.addresses().size
+        }
+        assertEquals(10 * ITERATIONS, count)
+    }
+
+    @Test
+    fun testParseAddresses_dnsPacketView() {
+        val count = measure("DnsPacketView") { data ->
+            val view = DnsPacketView(data)
+            var addresses = 0
+            for (i in 0 until view.getRecordCount(ANSECTION)) {
+                if (view.getAddress(ANSECTION, i) != null) addresses++
+            }
+            addresses
+        }
+        assertEquals(10 * ITERATIONS, count)
+    }
+
+    private fun measure(name: String, parse: (ByteArray) -> Int): Int {
+        var count = 0
+        val start = System.nanoTime()
+        repeat(ITERATIONS) {
+            corpus.forEach { count += parse(it) }
+        }
+        val elapsedNs = System.nanoTime() - start
+        Log.i(TAG, "$name: ${elapsedNs / (ITERATIONS * corpus.size)} ns per response")
+        return count
+    }
+
+    private class ResponseBuilder(val qtype: Int, val qname: String, val rcode: Int) {
+        private val answers = ByteArrayOutputStream()
+        private val authorities = ByteArrayOutputStream()
+        private val additionals = ByteArrayOutputStream()
+        private var answerCount = 0
+        private var authorityCount = 0
+        private var additionalCount = 0
+        // Offset of the name owning the next answer. Starts with the question name.
+        private var ownerOffset = 12
+
+        fun cname(target: String) {
+            val rdata = encodeName(target)
+            // The next record is owned by the target of this CNAME.
+            val nextOwnerOffset = 12 + questionSize() + answers.size() + 12
+            writeRecord(answers, pointer(ownerOffset), TYPE_CNAME, rdata)
+            ownerOffset = nextOwnerOffset
+            answerCount++
+        }
+
+        fun address(type: Int, address: ByteArray) {
+            writeRecord(answers, pointer(ownerOffset), type, address)
+            answerCount++
+        }
+
+        fun authority(type: Int, name: String) {
+            val rdata = if (type == TYPE_SOA) {
+                encodeName("ns0.$name") + encodeName("hostmaster.$name") + ByteArray(20)
+            } else {
+                encodeName(name)
+            }
+            writeRecord(authorities, encodeName(qname.substringAfter('.')), type, rdata)
+            authorityCount++
+        }
+
+        fun additional(type: Int, name: String, address: ByteArray) {
+            writeRecord(additionals, encodeName(name), type, address)
+            additionalCount++
+        }
+
+        fun build(): ByteArray {
+            val out = ByteArrayOutputStream()
+            DataOutputStream(out).apply {
+                writeShort(0x1234)
+                writeShort(0x8180 or rcode)
+                writeShort(1)
+                writeShort(answerCount)
+                writeShort(authorityCount)
+                writeShort(additionalCount)
+                write(encodeName(qname))
+                writeShort(qtype)
+                writeShort(1)
+                write(answers.toByteArray())
+                write(authorities.toByteArray())
+                write(additionals.toByteArray())
+            }
+            return out.toByteArray()
+        }
+
+        private fun questionSize() = encodeName(qname).size + 4
+
+        private fun writeRecord(
+            out: ByteArrayOutputStream,
+            name: ByteArray,
+            type: Int,
+            rdata: ByteArray
+        ) {
+            DataOutputStream(out).apply {
+                write(name)
+                writeShort(type)
+                writeShort(1)
+                writeInt(300)
+                writeShort(rdata.size)
+                write(rdata)
+            }
+        }
+
+        private fun pointer(offset: Int) =
+            byteArrayOf((0xc0 or (offset shr 8)).toByte(), offset.toByte())
+
+        private fun encodeName(name: String): ByteArray {
+            val out = ByteArrayOutputStream()
+            name.split('.').forEach {
+                out.write(it.length)
+                out.write(it.toByteArray())
+            }
+            out.write(0)
+            return out.toByteArray()
+        }
+    }
+}
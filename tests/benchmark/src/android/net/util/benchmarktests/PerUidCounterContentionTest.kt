@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net.util.benchmarktests
+
+import android.util.Log
+import android.util.SparseIntArray
+import com.android.net.module.util.PerUidCounter
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+private const val TAG = "PerUidCounterContentionTest"
+private const val THREAD_COUNT = 8
+private const val UIDS_PER_THREAD = 50
+private const val REQUESTS_PER_UID = 100
+private const val ROUNDS = 20
+private const val FIRST_APP_UID = 10_000
+
+/**
+ * Simulates a registration storm: binder threads registering and releasing requests for many
+ * apps at the same time, as happens at boot.
+ */
+@RunWith(JUnit4::class)
+class PerUidCounterContentionTest {
+    private interface Counter {
+        fun increment(uid: Int)
+        fun decrement(uid: Int)
+    }
+
+    // The previous implementation of PerUidCounter, with all uids behind one monitor.
+    private class SingleLockCounter(private val max: Int) : Counter {
+        private val uidToCount = SparseIntArray()
+
+        @Synchronized
+        override fun increment(uid: Int) {
+            val newCount = uidToCount.get(uid, 0) + 1
+            check(newCount <= max) { "Uid $uid exceeded its allowed limit" }
+            uidToCount.put(uid, newCount)
+        }
+
+        @Synchronized
+        override fun decrement(uid: Int) {
+            val newCount = uidToCount.get(uid, 0) - 1
+            check(newCount >= 0) { "BUG: too small count $newCount for UID $uid" }
+            if (newCount == 0) uidToCount.delete(uid) else uidToCount.put(uid, newCount)
+        }
+    }
+
+    private class ShardedCounter(max: Int) : Counter {
+        val counter = PerUidCounter(max)
+        override fun increment(uid: Int) = counter.incrementCountOrThrow(uid)
+        override fun decrement(uid: Int) = counter.decrementCountOrThrow(uid)
+    }
+
+    @Test
+    fun testRegistrationStorm_singleLock() {
+        runStorm("single lock", SingleLockCounter(REQUESTS_PER_UID))
+    }
+
+    @Test
+    fun testRegistrationStorm_perUidCounter() {
+        val counter = ShardedCounter(REQUESTS_PER_UID)
+        runStorm("PerUidCounter", counter)
+        repeat(THREAD_COUNT * UIDS_PER_THREAD) {
+            assertEquals(0, counter.counter[FIRST_APP_UID + it])
+        }
+    }
+
+    private fun runStorm(name: String, counter: Counter) {
+        val start = CountDownLatch(1)
+        val threads = (0 until THREAD_COUNT).map { t ->
+            thread {
+                start.await()
+                repeat(ROUNDS) {
+                    for (i in 0 until UIDS_PER_THREAD) {
+                        // Interleave the uids of the threads, like apps served by any binder
+                        // thread.
+                        val uid = FIRST_APP_UID + i * THREAD_COUNT + t
+                        repeat(REQUESTS_PER_UID) { counter.increment(uid) }
+                        repeat(REQUESTS_PER_UID) { counter.decrement(uid) }
+                    }
+                }
+            }
+        }
+        val startNs = System.nanoTime()
+        start.countDown()
+        threads.forEach { it.join() }
+        val elapsedNs = System.nanoTime() - startNs
+        val operations = 2L * THREAD_COUNT * ROUNDS * UIDS_PER_THREAD * REQUESTS_PER_UID
+        Log.i(TAG, "$name: ${elapsedNs / operations} ns per operation with " +
+                "$THREAD_COUNT threads")
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.net
+
+import android.net.IpPrefix
+import android.util.Log
+import com.android.net.module.util.HexDump
+import kotlin.test.assertContentEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+private const val TAG = "HeaderCompressionBenchmarkTest"
+private const val ITERATIONS = 20_000
+private const val PAYLOAD_SIZE = 1280
+
+/**
+ * Compares the cost of 6lowpan header compression with all fields carried inline and with
+ * stateful (context-based) compression.
+ */
+@RunWith(JUnit4::class)
+class HeaderCompressionBenchmarkTest {
+    private val context = HeaderCompressionContext().apply {
+        setContext(0, IpPrefix("2001:db8:1:2::/64"))
+    }
+    private val packet = HexDump.hexStringToByteArray("6000000005001140" +
+            "20010db800010002000000fffe000007" +
+            "20010db800010002000000fffe000008") + ByteArray(PAYLOAD_SIZE)
+    private val buf = ByteArray(L2capPacketForwarder.MTU + 1)
+
+    private fun benchmark(name: String, block: () -> Unit) {
+        // Warm up.
+        repeat(ITERATIONS / 10) { block() }
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { block() }
+        Log.i(TAG, "$name: ${(System.nanoTime() - start) / ITERATIONS} ns/op")
+    }
+
+    @Test
+    fun testCompression_inline() {
+        benchmark("compress (inline)") {
+            packet.copyInto(buf)
+            HeaderCompressionUtils.compress6lowpan(buf, packet.size)
+        }
+        benchmark("decompress (inline)") {
+            packet.copyInto(buf)
+            val len = HeaderCompressionUtils.compress6lowpan(buf, packet.size)
+            HeaderCompressionUtils.decompress6lowpan(buf, len)
+        }
+        assertContentEquals(packet, buf.copyOf(packet.size))
+    }
+
+    @Test
+    fun testCompression_stateful() {
+        benchmark("compress (stateful)") {
+            packet.copyInto(buf)
+            HeaderCompressionUtils.compress6lowpan(buf, packet.size, context)
+        }
+        benchmark("decompress (stateful)") {
+            packet.copyInto(buf)
+            val len = HeaderCompressionUtils.compress6lowpan(buf, packet.size, context)
+            HeaderCompressionUtils.decompress6lowpan(buf, len, context)
+        }
+        assertContentEquals(packet, buf.copyOf(packet.size))
+    }
+}
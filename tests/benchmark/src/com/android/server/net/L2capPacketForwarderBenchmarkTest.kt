@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// In the same package as L2capPacketForwarder to use its constructor taking fd wrappers.
+package com.android.server.net
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.ParcelFileDescriptor
+import android.system.Os
+import android.system.OsConstants.AF_UNIX
+import android.system.OsConstants.SOCK_SEQPACKET
+import android.system.OsConstants.SOL_SOCKET
+import android.system.OsConstants.SO_RCVTIMEO
+import android.system.StructTimeval
+import android.util.Log
+import com.android.server.net.L2capPacketForwarder.FdWrapper
+import java.io.FileDescriptor
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+private const val TAG = "L2capPacketForwarderBenchmarkTest"
+private const val NUM_PACKETS = 2000
+private const val BURST_SIZE = 64
+private const val PACKET_SIZE = 1280
+private const val STATS_TIMEOUT_MS = 1000L
+
+/**
+ * Compares the throughput of L2capPacketForwarder forwarding one packet at a time and in batches,
+ * over socketpairs standing in for the tun fd and the BluetoothSocket.
+ */
+@RunWith(JUnit4::class)
+class L2capPacketForwarderBenchmarkTest {
+    private val handlerThread = HandlerThread(TAG).apply { start() }
+    private val handler = Handler(handlerThread.looper)
+
+    @After
+    fun tearDown() {
+        handlerThread.quitSafely()
+        handlerThread.join()
+    }
+
+    @Test
+    fun testLoopback_singlePacket() {
+        runLoopback(1 /* batchSize */)
+    }
+
+    @Test
+    fun testLoopback_batched() {
+        runLoopback(L2capPacketForwarder.DEFAULT_BATCH_SIZE)
+    }
+
+    private fun runLoopback(batchSize: Int) {
+        val tun = arrayOf(FileDescriptor(), FileDescriptor())
+        val l2cap = arrayOf(FileDescriptor(), FileDescriptor())
+        Os.socketpair(AF_UNIX, SOCK_SEQPACKET, 0, tun[0], tun[1])
+        Os.socketpair(AF_UNIX, SOCK_SEQPACKET, 0, l2cap[0], l2cap[1])
+        Os.setsockoptTimeval(l2cap[1], SOL_SOCKET, SO_RCVTIMEO, StructTimeval.fromMillis(5000))
+        val forwarder = L2capPacketForwarder(
+                handler,
+                FdWrapper(ParcelFileDescriptor(tun[0])),
+                FdWrapper(ParcelFileDescriptor(l2cap[0])),
+                false /* compressHeaders */,
+                batchSize,
+                L2capPacketForwarder.ICallback { Log.e(TAG, "Forwarding error") }
+        )
+        try {
+            val readBuffer = ByteArray(PACKET_SIZE)
+            val start = System.nanoTime()
+            var sent = 0
+            while (sent < NUM_PACKETS) {
+                val burst = (0 until minOf(BURST_SIZE, NUM_PACKETS - sent)).map {
+                    Random.nextBytes(PACKET_SIZE).also { Os.write(tun[1], it, 0, it.size) }
+                }
+                burst.forEach {
+                    Os.read(l2cap[1], readBuffer, 0, readBuffer.size)
+                    assertContentEquals(it, readBuffer)
+                }
+                sent += burst.size
+            }
+            val elapsedNs = System.nanoTime() - start
+
+            // Counters are updated after a packet is written, so wait for them to settle.
+            val deadline = System.currentTimeMillis() + STATS_TIMEOUT_MS
+            var stats = forwarder.egressStats
+            while (stats.packets < NUM_PACKETS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10)
+                stats = forwarder.egressStats
+            }
+            assertEquals(NUM_PACKETS.toLong(), stats.packets)
+            Log.i(TAG, "batchSize=$batchSize: ${NUM_PACKETS * 1_000_000_000L / elapsedNs} pps, " +
+                    stats)
+        } finally {
+            forwarder.tearDown()
+            Os.close(tun[1])
+            Os.close(l2cap[1])
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+import static android.net.DnsResolver.FLAG_EMPTY;
+import static android.net.DnsResolver.FLAG_NO_RETRY;
+import static android.net.DnsResolver.TYPE_A;
+import static android.net.DnsResolver.TYPE_AAAA;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.os.Build;
+
+import com.android.testutils.DevSdkIgnoreRule;
+import com.android.testutils.DevSdkIgnoreRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(DevSdkIgnoreRunner.class)
+@DevSdkIgnoreRule.IgnoreUpTo(Build.VERSION_CODES.R)
+public final class DnsAnswerCacheTest {
+    private static final Network NETWORK = new Network(100);
+    private static final Network OTHER_NETWORK = new Network(101);
+    private static final String DOMAIN = "www.example.com";
+    private static final int RCODE_NXDOMAIN = 3;
+    private static final List<InetAddress> ADDRESSES =
+            List.of(InetAddresses.parseNumericAddress("192.0.2.1"));
+
+    private long mTimeMs = 1000;
+    private final DnsAnswerCache mCache = new DnsAnswerCache(() -> mTimeMs);
+
+    @Test
+    public void testGet_returnsCachedAnswer() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+
+        final DnsAnswerCache.Answer answer = mCache.get(NETWORK, "WWW.Example.com", TYPE_A,
+                FLAG_EMPTY);
+        assertNotNull(answer);
+        assertEquals(ADDRESSES, answer.addresses);
+        assertEquals(0, answer.rcode);
+    }
+
+    @Test
+    public void testGet_keyedByNetworkTypeAndFlags() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+
+        assertNull(mCache.get(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNull(mCache.get(NETWORK.getPrivateDnsBypassingCopy(), DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY));
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_NO_RETRY));
+    }
+
+    @Test
+    public void testGet_respectsTtl() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+
+        mTimeMs += 59_999;
+        assertNotNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+        mTimeMs += 1;
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testGet_ttlCapped() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 86400);
+
+        mTimeMs += DnsAnswerCache.MAX_TTL_MS;
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testPut_zeroTtl_notCached() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 0);
+
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testNegativeAnswer_cached() {
+        mCache.put(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY, Collections.emptyList(),
+                RCODE_NXDOMAIN, 30);
+
+        final DnsAnswerCache.Answer answer = mCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY);
+        assertNotNull(answer);
+        assertEquals(0, answer.addresses.size());
+        assertEquals(RCODE_NXDOMAIN, answer.rcode);
+    }
+
+    @Test
+    public void testEviction_leastRecentlyUsed() {
+        for (int i = 0; i < DnsAnswerCache.MAX_ENTRIES_PER_NETWORK; i++) {
+            mCache.put(NETWORK, "host" + i, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+        }
+        // Use the oldest entry so that the second oldest one is evicted.
+        assertNotNull(mCache.get(NETWORK, "host0", TYPE_A, FLAG_EMPTY));
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+
+        assertNotNull(mCache.get(NETWORK, "host0", TYPE_A, FLAG_EMPTY));
+        assertNull(mCache.get(NETWORK, "host1", TYPE_A, FLAG_EMPTY));
+        assertNotNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testInvalidate_onlyDropsNetwork() {
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+        mCache.put(NETWORK.getPrivateDnsBypassingCopy(), DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES,
+                0 /* rcode */, 60);
+        mCache.put(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60);
+
+        mCache.invalidate(NETWORK);
+
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNull(mCache.get(NETWORK.getPrivateDnsBypassingCopy(), DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNotNull(mCache.get(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testPut_afterInvalidate_notCached() {
+        final long generation = mCache.getGeneration(NETWORK);
+        final long otherGeneration = mCache.getGeneration(OTHER_NETWORK);
+        mCache.invalidate(NETWORK);
+
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60, generation);
+        mCache.put(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60,
+                otherGeneration);
+
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNotNull(mCache.get(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testPut_afterClear_notCached() {
+        final long generation = mCache.getGeneration(NETWORK);
+        mCache.invalidate(OTHER_NETWORK);
+        final long otherGeneration = mCache.getGeneration(OTHER_NETWORK);
+        mCache.clear();
+
+        mCache.put(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60, generation);
+        mCache.put(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY, ADDRESSES, 0 /* rcode */, 60,
+                otherGeneration);
+
+        assertNull(mCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+        assertNull(mCache.get(OTHER_NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+}
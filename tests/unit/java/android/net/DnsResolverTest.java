@@ -0,0 +1,515 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.net;
+
+import static android.net.DnsResolver.CLASS_IN;
+import static android.net.DnsResolver.ERROR_SYSTEM;
+import static android.net.DnsResolver.FLAG_EMPTY;
+import static android.net.DnsResolver.TYPE_A;
+import static android.net.DnsResolver.TYPE_AAAA;
+import static android.system.OsConstants.ETIMEDOUT;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.android.testutils.DevSdkIgnoreRule;
+import com.android.testutils.DevSdkIgnoreRunner;
+import com.android.testutils.HandlerUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileDescriptor;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(DevSdkIgnoreRunner.class)
+@DevSdkIgnoreRule.IgnoreUpTo(Build.VERSION_CODES.R)
+public final class DnsResolverTest {
+    private static final long TIMEOUT_MS = 2_000;
+    private static final Network NETWORK = new Network(100);
+    private static final String DOMAIN = "www.example.com";
+    private static final InetAddress V6_ADDRESS = InetAddresses.parseNumericAddress("2001:db8::1");
+    private static final InetAddress V4_ADDRESS = InetAddresses.parseNumericAddress("192.0.2.1");
+    private static final int TYPE_SOA = 6;
+    private static final int RCODE_NXDOMAIN = 3;
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private final FakeDependencies mDeps = new FakeDependencies();
+    private final TestCallback mCallback = new TestCallback();
+    private final LinkedBlockingQueue<DnsResolver.QueryMetrics> mMetrics =
+            new LinkedBlockingQueue<>();
+    private final DnsAnswerCache mAnswerCache = new DnsAnswerCache(() -> mDeps.mTimeMs);
+
+    /** A query sent to the fake resolver, answered by writing to its pipe. */
+    private static final class FakeQuery {
+        final int nsType;
+        final FileDescriptor readFd;
+        final FileDescriptor writeFd;
+        volatile DnsResolver.DnsResponse mResponse;
+        volatile ErrnoException mError;
+        volatile boolean mCancelled;
+
+        FakeQuery(int nsType, FileDescriptor[] pipe) {
+            this.nsType = nsType;
+            this.readFd = pipe[0];
+            this.writeFd = pipe[1];
+        }
+
+        void answer(@NonNull DnsResolver.DnsResponse response) throws Exception {
+            mResponse = response;
+            Os.write(writeFd, new byte[1], 0, 1);
+        }
+
+        void fail(@NonNull ErrnoException error) throws Exception {
+            mError = error;
+            Os.write(writeFd, new byte[1], 0, 1);
+        }
+    }
+
+    private static final class FakeDependencies extends DnsResolver.Dependencies {
+        final LinkedBlockingQueue<FakeQuery> mSentQueries = new LinkedBlockingQueue<>();
+        final List<FakeQuery> mAllQueries = new ArrayList<>();
+        volatile long mTimeMs = 1000;
+        volatile int mResultCount;
+
+        @Override
+        public FileDescriptor resNetworkQuery(int netId, @NonNull String dname, int nsClass,
+                int nsType, int flags) throws ErrnoException {
+            assertEquals(NETWORK.getNetIdForResolv(), netId);
+            assertEquals(DOMAIN, dname);
+            assertEquals(CLASS_IN, nsClass);
+            final FakeQuery query = new FakeQuery(nsType, Os.pipe());
+            synchronized (mAllQueries) {
+                mAllQueries.add(query);
+            }
+            mSentQueries.add(query);
+            return query.readFd;
+        }
+
+        @Override
+        public DnsResolver.DnsResponse resNetworkResult(@NonNull FileDescriptor fd)
+                throws ErrnoException {
+            mResultCount++;
+            final FakeQuery query = findQuery(fd);
+            Os.close(fd);
+            if (query.mError != null) throw query.mError;
+            return query.mResponse;
+        }
+
+        @Override
+        public void resNetworkCancel(@NonNull FileDescriptor fd) {
+            findQuery(fd).mCancelled = true;
+            closeQuietly(fd);
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mTimeMs;
+        }
+
+        FakeQuery expectQuery(int nsType) throws Exception {
+            final FakeQuery query = mSentQueries.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("No query sent", query);
+            assertEquals(nsType, query.nsType);
+            return query;
+        }
+
+        private FakeQuery findQuery(FileDescriptor fd) {
+            synchronized (mAllQueries) {
+                for (FakeQuery query : mAllQueries) {
+                    if (query.readFd == fd) return query;
+                }
+            }
+            throw new AssertionError("Unknown fd " + fd);
+        }
+
+        void closeAll() {
+            synchronized (mAllQueries) {
+                for (FakeQuery query : mAllQueries) {
+                    closeQuietly(query.readFd);
+                    closeQuietly(query.writeFd);
+                }
+            }
+        }
+    }
+
+    private static final class TestCallback implements DnsResolver.Callback<List<InetAddress>> {
+        // Either the List<InetAddress> answer or the DnsException error.
+        final LinkedBlockingQueue<Object> mResults = new LinkedBlockingQueue<>();
+        volatile int mRcode = -1;
+
+        @Override
+        public void onAnswer(@NonNull List<InetAddress> answer, int rcode) {
+            mRcode = rcode;
+            mResults.add(answer);
+        }
+
+        @Override
+        public void onError(@NonNull DnsResolver.DnsException error) {
+            mResults.add(error);
+        }
+
+        Object poll() throws Exception {
+            final Object result = mResults.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("No result delivered", result);
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<InetAddress> expectAnswer() throws Exception {
+            final Object result = poll();
+            assertTrue("Unexpected result " + result, result instanceof List);
+            return new HashSet<>((List<InetAddress>) result);
+        }
+
+        DnsResolver.DnsException expectError() throws Exception {
+            final Object result = poll();
+            assertTrue("Unexpected result " + result, result instanceof DnsResolver.DnsException);
+            return (DnsResolver.DnsException) result;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mHandlerThread = new HandlerThread("DnsResolverTest");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHandlerThread.quitSafely();
+        mHandlerThread.join();
+        mDeps.closeAll();
+    }
+
+    private static void closeQuietly(FileDescriptor fd) {
+        try {
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            // Already closed.
+        }
+    }
+
+    // Writes the header and the question of an answer to DOMAIN.
+    private static ByteBuffer makeAnswerBuffer(int nsType, int rcode, int anCount, int nsCount) {
+        final ByteBuffer buf = ByteBuffer.allocate(512);
+        // Header: ID, flags (response, recursion desired and available), counts.
+        buf.putShort((short) 0x1234).putShort((short) (0x8180 | rcode));
+        buf.putShort((short) 1).putShort((short) anCount);
+        buf.putShort((short) nsCount).putShort((short) 0);
+        // Question.
+        for (String label : DOMAIN.split("\\.")) {
+            buf.put((byte) label.length()).put(label.getBytes());
+        }
+        buf.put((byte) 0).putShort((short) nsType).putShort((short) CLASS_IN);
+        return buf;
+    }
+
+    private static byte[] toByteArray(ByteBuffer buf) {
+        final byte[] answer = new byte[buf.position()];
+        buf.flip();
+        buf.get(answer);
+        return answer;
+    }
+
+    private static byte[] makeAnswer(int nsType, @Nullable InetAddress address) {
+        final ByteBuffer buf = makeAnswerBuffer(nsType, 0 /* rcode */,
+                address == null ? 0 : 1 /* anCount */, 0 /* nsCount */);
+        if (address != null) {
+            // Answer, with its name pointing to the question.
+            buf.putShort((short) 0xc00c).putShort((short) nsType).putShort((short) CLASS_IN);
+            buf.putInt(300);
+            final byte[] addr = address.getAddress();
+            buf.putShort((short) addr.length).put(addr);
+        }
+        return toByteArray(buf);
+    }
+
+    // Makes an NXDOMAIN answer with an SOA record for the parent of DOMAIN.
+    private static DnsResolver.DnsResponse makeNxdomainResponse(int nsType, int soaTtl,
+            int soaMinimum) {
+        final ByteBuffer buf = makeAnswerBuffer(nsType, RCODE_NXDOMAIN, 0 /* anCount */,
+                1 /* nsCount */);
+        // The name points to the second label of the question, the parent of DOMAIN.
+        buf.putShort((short) 0xc010).putShort((short) TYPE_SOA).putShort((short) CLASS_IN);
+        buf.putInt(soaTtl);
+        final byte[] mname = new byte[] { 2, 'n', 's', (byte) 0xc0, 0x10 };
+        final byte[] rname = new byte[] { (byte) 0xc0, 0x10 };
+        buf.putShort((short) (mname.length + rname.length + 20));
+        buf.put(mname).put(rname);
+        // Serial, refresh, retry, expire, minimum.
+        buf.putInt(1).putInt(3600).putInt(600).putInt(86400).putInt(soaMinimum);
+        return new DnsResolver.DnsResponse(toByteArray(buf), RCODE_NXDOMAIN);
+    }
+
+    private static DnsResolver.DnsResponse makeResponse(int nsType, @Nullable InetAddress address) {
+        return new DnsResolver.DnsResponse(makeAnswer(nsType, address), 0 /* rcode */);
+    }
+
+    private DnsResolver.AddressQueryRace startRace(long secondFamilyWaitMs) {
+        return startRace(secondFamilyWaitMs, null /* answerCache */);
+    }
+
+    private DnsResolver.AddressQueryRace startRace(long secondFamilyWaitMs,
+            @Nullable DnsAnswerCache answerCache) {
+        final DnsResolver.AddressQueryRace race = new DnsResolver.AddressQueryRace(mHandler,
+                mDeps, answerCache, NETWORK, DOMAIN, FLAG_EMPTY,
+                true /* queryIpv6 */, true /* queryIpv4 */, secondFamilyWaitMs, Runnable::run,
+                null /* cancellationSignal */, mCallback, mMetrics::add);
+        mHandler.post(race::start);
+        return race;
+    }
+
+    private void assertNoResult() {
+        HandlerUtils.waitForIdle(mHandler, TIMEOUT_MS);
+        assertNull(mCallback.mResults.peek());
+    }
+
+    @Test
+    public void testBothFamiliesAnswered() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+        assertNoResult();
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+
+        assertEquals(Set.of(V6_ADDRESS, V4_ADDRESS), mCallback.expectAnswer());
+        assertEquals(0, mCallback.mRcode);
+        assertFalse(v6Query.mCancelled);
+        assertFalse(v4Query.mCancelled);
+    }
+
+    @Test
+    public void testFirstAnswerDeliveredEarly() throws Exception {
+        startRace(0 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+
+        // The IPv6 address is delivered without waiting for the A query, which is cancelled.
+        assertEquals(Set.of(V6_ADDRESS), mCallback.expectAnswer());
+        HandlerUtils.waitForIdle(mHandler, TIMEOUT_MS);
+        assertTrue(v4Query.mCancelled);
+        assertFalse(v4Query.readFd.valid());
+        assertTrue(mMetrics.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS).deliveredEarly);
+    }
+
+    @Test
+    public void testEmptyFirstAnswer_waitsForSecondFamily() throws Exception {
+        startRace(0 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        // A NODATA answer does not start the resolution delay.
+        v6Query.answer(makeResponse(TYPE_AAAA, null /* address */));
+        assertNoResult();
+        assertFalse(v4Query.mCancelled);
+
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+        assertEquals(Set.of(V4_ADDRESS), mCallback.expectAnswer());
+    }
+
+    @Test
+    public void testSecondFamilyWaitTimesOut() throws Exception {
+        final long secondFamilyWaitMs = 100;
+        startRace(secondFamilyWaitMs);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        final long answerTimeMs = SystemClock.elapsedRealtime();
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+
+        assertEquals(Set.of(V4_ADDRESS), mCallback.expectAnswer());
+        assertTrue(SystemClock.elapsedRealtime() - answerTimeMs >= secondFamilyWaitMs);
+        HandlerUtils.waitForIdle(mHandler, TIMEOUT_MS);
+        assertTrue(v6Query.mCancelled);
+        assertFalse(v6Query.readFd.valid());
+    }
+
+    @Test
+    public void testQueryTimeout_otherFamilyDelivered() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.fail(new ErrnoException("resNetworkResult", ETIMEDOUT));
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+
+        assertEquals(Set.of(V4_ADDRESS), mCallback.expectAnswer());
+        assertEquals(0, mCallback.mRcode);
+    }
+
+    @Test
+    public void testQueryTimeout_allFamilies() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.fail(new ErrnoException("resNetworkResult", ETIMEDOUT));
+        assertNoResult();
+        v4Query.fail(new ErrnoException("resNetworkResult", ETIMEDOUT));
+
+        final DnsResolver.DnsException error = mCallback.expectError();
+        assertEquals(ERROR_SYSTEM, error.code);
+        assertEquals(ETIMEDOUT, ((ErrnoException) error.getCause()).errno);
+    }
+
+    @Test
+    public void testCancel_closesFdsAndRemovesListeners() throws Exception {
+        final DnsResolver.AddressQueryRace race = startRace(-1 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        mHandler.post(race::cancel);
+        HandlerUtils.waitForIdle(mHandler, TIMEOUT_MS);
+
+        assertTrue(v6Query.mCancelled);
+        assertTrue(v4Query.mCancelled);
+        assertFalse(v6Query.readFd.valid());
+        assertFalse(v4Query.readFd.valid());
+        assertNoResult();
+        assertEquals(0, mDeps.mResultCount);
+        assertNull(mMetrics.peek());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        mDeps.mTimeMs += 10;
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+        HandlerUtils.waitForIdle(mHandler, TIMEOUT_MS);
+        mDeps.mTimeMs += 20;
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+
+        mCallback.expectAnswer();
+        final DnsResolver.QueryMetrics metrics = mMetrics.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(metrics);
+        assertEquals(10, metrics.ipv6LatencyMs);
+        assertEquals(30, metrics.ipv4LatencyMs);
+        assertEquals(30, metrics.totalLatencyMs);
+        assertFalse(metrics.deliveredEarly);
+    }
+
+    @Test
+    public void testMetrics_deliveredEarly() throws Exception {
+        startRace(0 /* secondFamilyWaitMs */);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        mDeps.expectQuery(TYPE_A);
+
+        mDeps.mTimeMs += 15;
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+
+        mCallback.expectAnswer();
+        final DnsResolver.QueryMetrics metrics = mMetrics.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull(metrics);
+        assertEquals(15, metrics.ipv6LatencyMs);
+        assertEquals(-1, metrics.ipv4LatencyMs);
+        assertEquals(15, metrics.totalLatencyMs);
+        assertTrue(metrics.deliveredEarly);
+    }
+
+    @Test
+    public void testAnswersCached() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */, mAnswerCache);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+        mCallback.expectAnswer();
+
+        assertEquals(List.of(V6_ADDRESS),
+                mAnswerCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY).addresses);
+        assertEquals(List.of(V4_ADDRESS),
+                mAnswerCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY).addresses);
+    }
+
+    @Test
+    public void testAnswersNotCachedAfterInvalidate() throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */, mAnswerCache);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        // The network changes while the queries are in flight.
+        mAnswerCache.invalidate(NETWORK);
+        v6Query.answer(makeResponse(TYPE_AAAA, V6_ADDRESS));
+        v4Query.answer(makeResponse(TYPE_A, V4_ADDRESS));
+
+        assertEquals(Set.of(V6_ADDRESS, V4_ADDRESS), mCallback.expectAnswer());
+        assertNull(mAnswerCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY));
+        assertNull(mAnswerCache.get(NETWORK, DOMAIN, TYPE_A, FLAG_EMPTY));
+    }
+
+    private void doTestNegativeAnswerTtl(int soaTtl, int soaMinimum, int expectedTtl)
+            throws Exception {
+        startRace(-1 /* secondFamilyWaitMs */, mAnswerCache);
+        final FakeQuery v6Query = mDeps.expectQuery(TYPE_AAAA);
+        final FakeQuery v4Query = mDeps.expectQuery(TYPE_A);
+
+        v6Query.answer(makeNxdomainResponse(TYPE_AAAA, soaTtl, soaMinimum));
+        v4Query.answer(makeNxdomainResponse(TYPE_A, soaTtl, soaMinimum));
+        assertEquals(Set.of(), mCallback.expectAnswer());
+        assertEquals(RCODE_NXDOMAIN, mCallback.mRcode);
+
+        mDeps.mTimeMs += expectedTtl * 1000L - 1;
+        final DnsAnswerCache.Answer answer =
+                mAnswerCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY);
+        assertNotNull(answer);
+        assertEquals(RCODE_NXDOMAIN, answer.rcode);
+        mDeps.mTimeMs += 1;
+        assertNull(mAnswerCache.get(NETWORK, DOMAIN, TYPE_AAAA, FLAG_EMPTY));
+    }
+
+    @Test
+    public void testNegativeAnswer_cachedForSoaMinimum() throws Exception {
+        doTestNegativeAnswerTtl(300 /* soaTtl */, 60 /* soaMinimum */, 60 /* expectedTtl */);
+    }
+
+    @Test
+    public void testNegativeAnswer_cachedForSoaTtl() throws Exception {
+        doTestNegativeAnswerTtl(30 /* soaTtl */, 600 /* soaMinimum */, 30 /* expectedTtl */);
+    }
+}
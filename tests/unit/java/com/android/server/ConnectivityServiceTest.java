@@ -2118,6 +2118,19 @@ public class ConnectivityServiceTest {
             }
         }
 
+        // Callbacks registered by the test run in the system server process, so they never
+        // share redacted capabilities unless this is set.
+        private volatile boolean mCallbacksReceiveCopies = false;
+
+        @Override
+        public boolean callbacksReceiveCopies(int pid) {
+            return mCallbacksReceiveCopies || super.callbacksReceiveCopies(pid);
+        }
+
+        public void setCallbacksReceiveCopies(boolean receiveCopies) {
+            mCallbacksReceiveCopies = receiveCopies;
+        }
+
         @GuardedBy("this")
         private boolean mCellular464XlatEnabled = true;
 
@@ -12788,6 +12801,86 @@ public class ConnectivityServiceTest {
         assertTrue(getTestTransportInfo(mWiFiAgent).locationRedacted);
     }
 
+    /** Records the capabilities sent to a callback, which may have flags. */
+    private static class CapabilitiesRecorder extends NetworkCallback {
+        private final LinkedBlockingQueue<NetworkCapabilities> mCaps = new LinkedBlockingQueue<>();
+
+        CapabilitiesRecorder(int flags) {
+            super(flags);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+            mCaps.add(caps);
+        }
+
+        NetworkCapabilities expectCaps(int capability) throws Exception {
+            NetworkCapabilities caps;
+            do {
+                caps = mCaps.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                assertNotNull("No capabilities with " + capability + " received", caps);
+            } while (!caps.hasCapability(capability));
+            return caps;
+        }
+    }
+
+    @Test
+    public void testTransportInfoRedactionPerCallback() throws Exception {
+        mDeps.setCallbacksReceiveCopies(true);
+        setupLocationPermissions(Build.VERSION_CODES.S, true, AppOpsManager.OPSTR_FINE_LOCATION,
+                Manifest.permission.ACCESS_FINE_LOCATION);
+        final int otherUid = Process.myUid() + 1;
+        mServiceContext.setPermission(LOCAL_MAC_ADDRESS, Process.myPid(), otherUid,
+                PERMISSION_GRANTED);
+
+        final NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(TRANSPORT_WIFI).build();
+        final CapabilitiesRecorder plainCb = new CapabilitiesRecorder(0 /* flags */);
+        final CapabilitiesRecorder samePlainCb = new CapabilitiesRecorder(0 /* flags */);
+        final CapabilitiesRecorder locationCb = new CapabilitiesRecorder(
+                NetworkCallback.FLAG_INCLUDE_LOCATION_INFO);
+        final CapabilitiesRecorder otherUidCb = new CapabilitiesRecorder(0 /* flags */);
+        mCm.registerNetworkCallback(request, plainCb);
+        mCm.registerNetworkCallback(request, samePlainCb);
+        mCm.registerNetworkCallback(request, locationCb);
+        registerNetworkCallbackAsUid(request, otherUidCb, otherUid);
+
+        final NetworkCapabilities ncTemplate = new NetworkCapabilities()
+                .addTransportType(TRANSPORT_WIFI)
+                .setTransportInfo(new TestTransportInfo());
+        mWiFiAgent = new TestNetworkAgentWrapper(TRANSPORT_WIFI, new LinkProperties(), ncTemplate);
+        mWiFiAgent.connect(false /* validated */);
+
+        // Send a capabilities update, which is fanned out to all callbacks at once.
+        mWiFiAgent.setNetworkCapabilities(
+                ncTemplate.addCapability(NET_CAPABILITY_TEMPORARILY_NOT_METERED), true);
+
+        final TestTransportInfo locationAndMacRedacted = new TestTransportInfo(
+                true /* locationRedacted */, true /* localMacAddressRedacted */,
+                true /* settingsRedacted */);
+        assertEquals(locationAndMacRedacted, getTestTransportInfo(
+                plainCb.expectCaps(NET_CAPABILITY_TEMPORARILY_NOT_METERED)));
+        assertEquals(locationAndMacRedacted, getTestTransportInfo(
+                samePlainCb.expectCaps(NET_CAPABILITY_TEMPORARILY_NOT_METERED)));
+        assertEquals(new TestTransportInfo(false /* locationRedacted */,
+                true /* localMacAddressRedacted */, true /* settingsRedacted */),
+                getTestTransportInfo(
+                        locationCb.expectCaps(NET_CAPABILITY_TEMPORARILY_NOT_METERED)));
+        assertEquals(new TestTransportInfo(true /* locationRedacted */,
+                false /* localMacAddressRedacted */, true /* settingsRedacted */),
+                getTestTransportInfo(
+                        otherUidCb.expectCaps(NET_CAPABILITY_TEMPORARILY_NOT_METERED)));
+
+        // The redacted capabilities are not kept once the callbacks have been notified.
+        assertEquals(0, (int) visibleOnHandlerThread(mCsHandlerThread.getThreadHandler(),
+                () -> mService.getCallbackCapabilitiesCacheSize()));
+
+        mCm.unregisterNetworkCallback(plainCb);
+        mCm.unregisterNetworkCallback(samePlainCb);
+        mCm.unregisterNetworkCallback(locationCb);
+        doAsUid(otherUid, () -> mCm.unregisterNetworkCallback(otherUidCb));
+    }
+
     private void setupConnectionOwnerUid(int vpnOwnerUid, @VpnManager.VpnType int vpnType)
             throws Exception {
         final Set<UidRange> vpnRange = Collections.singleton(PRIMARY_UIDRANGE);
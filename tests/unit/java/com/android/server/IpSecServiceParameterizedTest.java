@@ -60,6 +60,7 @@ import android.net.IpSecMigrateInfoParcel;
 import android.net.IpSecSpiResponse;
 import android.net.IpSecTransform;
 import android.net.IpSecTransformResponse;
+import android.net.IpSecTransformState;
 import android.net.IpSecTunnelInterfaceResponse;
 import android.net.IpSecUdpEncapResponse;
 import android.net.LinkAddress;
@@ -91,6 +92,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /** Unit tests for {@link IpSecService}. */
@@ -538,6 +540,35 @@ public class IpSecServiceParameterizedTest {
                         eq(Integer.toUnsignedLong(TEST_SPI)));
     }
 
+    @Test
+    public void getTransformStates() throws Exception {
+        XfrmNetlinkNewSaMessage mockXfrmNewSaMsg = mock(XfrmNetlinkNewSaMessage.class);
+        when(mockXfrmNewSaMsg.getBitmap()).thenReturn(new byte[512]);
+        when(mMockXfrmCtrl.ipSecGetSas(any()))
+                .thenReturn(Arrays.asList(mockXfrmNewSaMsg));
+
+        // Create transform
+        IpSecConfig ipSecConfig = new IpSecConfig();
+        addDefaultSpisAndRemoteAddrToIpSecConfig(ipSecConfig);
+        addAuthAndCryptToIpSecConfig(ipSecConfig);
+
+        IpSecTransformResponse createTransformResp =
+                mIpSecService.createTransform(ipSecConfig, new Binder(), BLESSED_PACKAGE);
+        assertEquals(IpSecManager.Status.OK, createTransformResp.status);
+
+        // Get transform states
+        final IpSecTransformState[] states =
+                mIpSecService.getTransformStates(new int[] {createTransformResp.resourceId});
+        assertEquals(1, states.length);
+        assertNotNull(states[0]);
+
+        // Verifications
+        verify(mMockXfrmCtrl).ipSecGetSas(eq(List.of(new IpSecXfrmController.SaId(
+                InetAddresses.parseNumericAddress(mDestinationAddr),
+                Integer.toUnsignedLong(TEST_SPI)))));
+        verify(mMockXfrmCtrl, never()).ipSecGetSa(any(), anyLong());
+    }
+
     @Test
     public void testReleaseOwnedSpi() throws Exception {
         IpSecConfig ipSecConfig = new IpSecConfig();
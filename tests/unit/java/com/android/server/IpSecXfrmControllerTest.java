@@ -22,11 +22,14 @@ import static com.android.server.IpSecXfrmControllerTestHex.XFRM_NEW_SA_HEX;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -36,7 +39,9 @@ import android.system.ErrnoException;
 import androidx.test.filters.SmallTest;
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.net.module.util.netlink.NetlinkConstants;
 import com.android.net.module.util.netlink.NetlinkMessage;
+import com.android.net.module.util.netlink.StructNlMsgHdr;
 import com.android.net.module.util.netlink.xfrm.XfrmNetlinkNewSaMessage;
 
 import org.junit.Before;
@@ -48,9 +53,11 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.FileDescriptor;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.List;
 
 @RunWith(AndroidJUnit4.class)
 @SmallTest
@@ -59,9 +66,12 @@ public class IpSecXfrmControllerTest {
             InetAddresses.parseNumericAddress("2001:db8::111");
     private static final long SPI = 0xaabbccddL;
     private static final int ESRCH = -3;
+    private static final int PORT_ID = 1234;
 
     private IpSecXfrmController mXfrmController;
     private FileDescriptor mDummyNetlinkSocket;
+    // Sequence number of the last request sent by mXfrmController.
+    private int mLastRequestSeq;
 
     @Mock private IpSecXfrmController.Dependencies mMockDeps;
 
@@ -73,6 +83,13 @@ public class IpSecXfrmControllerTest {
         mDummyNetlinkSocket = new FileDescriptor();
 
         when(mMockDeps.newNetlinkSocket()).thenReturn(mDummyNetlinkSocket);
+        when(mMockDeps.getPortId(any())).thenReturn(PORT_ID);
+        doAnswer(inv -> {
+            final ByteBuffer req = ByteBuffer.wrap(inv.getArgument(1));
+            req.order(ByteOrder.nativeOrder());
+            mLastRequestSeq = StructNlMsgHdr.parse(req).nlmsg_seq;
+            return null;
+        }).when(mMockDeps).sendMessage(any(), any());
         mXfrmController = new IpSecXfrmController(mMockDeps);
     }
 
@@ -88,12 +105,25 @@ public class IpSecXfrmControllerTest {
         assertNull(mXfrmController.getNetlinkSocket());
     }
 
-    private static void injectRxMessage(IpSecXfrmController.Dependencies mockDeps, byte[] bytes)
-            throws Exception {
-        final ByteBuffer buff = ByteBuffer.wrap(bytes);
+    /** Returns a copy of the given netlink messages with their nlmsg_seq and nlmsg_pid set. */
+    private static ByteBuffer withSeqAndPid(byte[] bytes, int seq, int pid) {
+        final ByteBuffer buff = ByteBuffer.wrap(bytes.clone());
         buff.order(ByteOrder.nativeOrder());
+        int pos = 0;
+        while (pos < bytes.length) {
+            final int len = buff.getInt(pos);
+            buff.putInt(pos + 8, seq);
+            buff.putInt(pos + 12, pid);
+            pos += (len + 3) & ~3;
+        }
+        return buff;
+    }
 
-        when(mockDeps.recvMessage(any(FileDescriptor.class))).thenReturn(buff);
+    /** Makes the kernel reply to the last request with the given messages. */
+    private void injectRxMessage(IpSecXfrmController.Dependencies mockDeps, byte[] bytes)
+            throws Exception {
+        when(mockDeps.recvMessage(any(FileDescriptor.class))).thenAnswer(
+                inv -> withSeqAndPid(bytes, mLastRequestSeq, PORT_ID));
     }
 
     @Test
@@ -126,4 +156,125 @@ public class IpSecXfrmControllerTest {
             assertEquals(ESRCH, e.errno);
         }
     }
+
+    private static byte[] appendNlMsgDone(byte[] bytes) {
+        final int doneLen = StructNlMsgHdr.STRUCT_SIZE + Integer.BYTES;
+        final ByteBuffer buff = ByteBuffer.allocate(bytes.length + doneLen);
+        buff.order(ByteOrder.nativeOrder());
+        buff.put(bytes);
+        new StructNlMsgHdr(Integer.BYTES, NetlinkConstants.NLMSG_DONE,
+                StructNlMsgHdr.NLM_F_MULTI, 0 /* seq */).pack(buff);
+        buff.putInt(0 /* error */);
+        return buff.array();
+    }
+
+    @Test
+    public void testIpSecGetSas() throws Exception {
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        final IpSecXfrmController.SaId saId = new IpSecXfrmController.SaId(DEST_ADDRESS, SPI);
+        final IpSecXfrmController.SaId unknownSaId =
+                new IpSecXfrmController.SaId(DEST_ADDRESS, SPI + 1);
+
+        final List<XfrmNetlinkNewSaMessage> result =
+                mXfrmController.ipSecGetSas(List.of(saId, unknownSaId));
+        assertEquals(2, result.size());
+        assertEquals(SPI, result.get(0).getXfrmUsersaInfo().getSpi());
+        assertEquals(DEST_ADDRESS, result.get(0).getXfrmUsersaInfo().getDestAddress());
+        assertNull(result.get(1));
+
+        verify(mMockDeps).sendMessage(eq(mDummyNetlinkSocket), mRequestByteArrayCaptor.capture());
+        final ByteBuffer request = ByteBuffer.wrap(mRequestByteArrayCaptor.getValue());
+        request.order(ByteOrder.nativeOrder());
+        final StructNlMsgHdr hdr = StructNlMsgHdr.parse(request);
+        assertEquals(StructNlMsgHdr.NLM_F_REQUEST | StructNlMsgHdr.NLM_F_DUMP, hdr.nlmsg_flags);
+
+        // Within the TTL, the dump is reused.
+        when(mMockDeps.elapsedRealtime()).thenReturn(IpSecXfrmController.SA_DUMP_CACHE_TTL_MS - 1);
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        assertNotNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+        verify(mMockDeps, times(1)).sendMessage(any(), any());
+
+        // After the TTL or an invalidation, SAs are dumped again.
+        when(mMockDeps.elapsedRealtime()).thenReturn(IpSecXfrmController.SA_DUMP_CACHE_TTL_MS);
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        assertNotNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+        verify(mMockDeps, times(2)).sendMessage(any(), any());
+
+        mXfrmController.invalidateSaDumpCache();
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        assertNotNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+        verify(mMockDeps, times(3)).sendMessage(any(), any());
+    }
+
+    @Test
+    public void testIpSecGetSa_ignoresOtherReplies() throws Exception {
+        when(mMockDeps.recvMessage(any(FileDescriptor.class))).thenAnswer(
+                // A late reply to an earlier request.
+                inv -> withSeqAndPid(XFRM_ESRCH_HEX, mLastRequestSeq - 1, PORT_ID)
+        ).thenAnswer(
+                // A reply to another socket.
+                inv -> withSeqAndPid(XFRM_ESRCH_HEX, mLastRequestSeq, PORT_ID + 1)
+        ).thenAnswer(
+                inv -> withSeqAndPid(XFRM_NEW_SA_HEX, mLastRequestSeq, PORT_ID));
+
+        final XfrmNetlinkNewSaMessage message = mXfrmController.ipSecGetSa(DEST_ADDRESS, SPI);
+
+        assertEquals(SPI, message.getXfrmUsersaInfo().getSpi());
+        verify(mMockDeps, times(3)).recvMessage(eq(mDummyNetlinkSocket));
+    }
+
+    @Test
+    public void testIpSecGetSa_requestsUseNewSeq() throws Exception {
+        injectRxMessage(mMockDeps, XFRM_NEW_SA_HEX);
+
+        mXfrmController.ipSecGetSa(DEST_ADDRESS, SPI);
+        final int firstSeq = mLastRequestSeq;
+        mXfrmController.ipSecGetSa(DEST_ADDRESS, SPI);
+
+        assertEquals(firstSeq + 1, mLastRequestSeq);
+    }
+
+    @Test
+    public void testIpSecGetSas_errorClosesSocket() throws Exception {
+        final IpSecXfrmController.SaId saId = new IpSecXfrmController.SaId(DEST_ADDRESS, SPI);
+        // The dump times out after its first part, the rest of it stays queued on the socket.
+        when(mMockDeps.recvMessage(any(FileDescriptor.class))).thenAnswer(
+                inv -> withSeqAndPid(XFRM_NEW_SA_HEX, mLastRequestSeq, PORT_ID)
+        ).thenThrow(new InterruptedIOException());
+
+        assertThrows(InterruptedIOException.class,
+                () -> mXfrmController.ipSecGetSas(List.of(saId)));
+        verify(mMockDeps).releaseNetlinkSocket(eq(mDummyNetlinkSocket));
+        assertNull(mXfrmController.getNetlinkSocket());
+
+        // The next request uses a new socket, and the partial dump is not used.
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        assertNotNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+        verify(mMockDeps, times(2)).newNetlinkSocket();
+        verify(mMockDeps, times(2)).sendMessage(any(), any());
+    }
+
+    @Test
+    public void testIpSecGetSa_errorClosesSocket() throws Exception {
+        when(mMockDeps.recvMessage(any(FileDescriptor.class)))
+                .thenThrow(new InterruptedIOException());
+
+        assertThrows(InterruptedIOException.class,
+                () -> mXfrmController.ipSecGetSa(DEST_ADDRESS, SPI));
+        verify(mMockDeps).releaseNetlinkSocket(eq(mDummyNetlinkSocket));
+        assertNull(mXfrmController.getNetlinkSocket());
+    }
+
+    @Test
+    public void testRemoveSaFromCache() throws Exception {
+        final IpSecXfrmController.SaId saId = new IpSecXfrmController.SaId(DEST_ADDRESS, SPI);
+        injectRxMessage(mMockDeps, appendNlMsgDone(XFRM_NEW_SA_HEX));
+        assertNotNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+
+        mXfrmController.removeSaFromCache(DEST_ADDRESS, SPI);
+
+        // The deleted SA is not returned, and the rest of the dump is still used.
+        assertNull(mXfrmController.ipSecGetSas(List.of(saId)).get(0));
+        verify(mMockDeps, times(1)).sendMessage(any(), any());
+    }
 }
@@ -41,6 +41,7 @@ import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -426,6 +427,43 @@ public class AutomaticOnOffKeepaliveTrackerTest {
                 () -> mAOOKeepaliveTracker.isAnyTcpSocketConnected(TEST_NETID)));
     }
 
+    @Test
+    public void testIsAnyTcpSocketConnectedFromCensus_sharedBetweenKeepalives() throws Exception {
+        final TestKeepaliveInfo testInfo1 = doStartNattKeepalive();
+        final TestKeepaliveInfo testInfo2 = doStartNattKeepalive();
+        final AutomaticOnOffKeepalive autoKi1 = getAutoKiForBinder(testInfo1.binder);
+        final AutomaticOnOffKeepalive autoKi2 = getAutoKiForBinder(testInfo2.binder);
+        setupResponseWithSocketExisting();
+        clearInvocations(mDependencies);
+
+        assertTrue(visibleOnHandlerThread(mTestHandler,
+                () -> mAOOKeepaliveTracker.isAnyTcpSocketConnectedFromCensus(
+                        autoKi1, TEST_NETID)));
+        verify(mDependencies).createConnectedNetlinkSocket();
+
+        // The census taken for the first keepalive answers the second one.
+        assertTrue(visibleOnHandlerThread(mTestHandler,
+                () -> mAOOKeepaliveTracker.isAnyTcpSocketConnectedFromCensus(
+                        autoKi2, TEST_NETID)));
+        verify(mDependencies).createConnectedNetlinkSocket();
+
+        // The next poll of the first keepalive takes a new census.
+        setupResponseWithoutSocketExisting();
+        assertFalse(visibleOnHandlerThread(mTestHandler,
+                () -> mAOOKeepaliveTracker.isAnyTcpSocketConnectedFromCensus(
+                        autoKi1, TEST_NETID)));
+        verify(mDependencies, times(2)).createConnectedNetlinkSocket();
+
+        // Censuses expire.
+        doReturn(AutomaticOnOffKeepaliveTracker.TCP_SOCKET_CENSUS_MAX_AGE_MS)
+                .when(mDependencies).getElapsedRealtime();
+        setupResponseWithSocketExisting();
+        assertTrue(visibleOnHandlerThread(mTestHandler,
+                () -> mAOOKeepaliveTracker.isAnyTcpSocketConnectedFromCensus(
+                        autoKi2, TEST_NETID)));
+        verify(mDependencies, times(3)).createConnectedNetlinkSocket();
+    }
+
     private void triggerEventKeepalive(int slot, int reason) {
         visibleOnHandlerThread(
                 mTestHandler,
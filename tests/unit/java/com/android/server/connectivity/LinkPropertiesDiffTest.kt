@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.connectivity
+
+import android.net.InetAddresses.parseNumericAddress
+import android.net.IpPrefix
+import android.net.LinkAddress
+import android.net.LinkProperties
+import android.net.RouteInfo
+import android.os.Build
+import androidx.test.filters.SmallTest
+import com.android.testutils.DevSdkIgnoreRule
+import com.android.testutils.DevSdkIgnoreRunner
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+@RunWith(DevSdkIgnoreRunner::class)
+@SmallTest
+@DevSdkIgnoreRule.IgnoreUpTo(Build.VERSION_CODES.R)
+class LinkPropertiesDiffTest {
+    private fun makeLp() = LinkProperties().apply {
+        interfaceName = "wlan0"
+        addLinkAddress(LinkAddress("192.0.2.2/24"))
+        addRoute(RouteInfo(IpPrefix("0.0.0.0/0"), parseNumericAddress("192.0.2.1"), "wlan0"))
+        addDnsServer(parseNumericAddress("192.0.2.53"))
+        mtu = 1500
+    }
+
+    @Test
+    fun testIdentical() {
+        val diff = LinkPropertiesDiff(makeLp(), makeLp())
+        assertFalse(diff.interfacesChanged())
+        assertFalse(diff.routesChanged())
+        assertFalse(diff.addressesChanged())
+        assertFalse(diff.dnsChanged)
+        assertFalse(diff.mtuChanged)
+        assertFalse(diff.interfaceNameChanged)
+    }
+
+    @Test
+    fun testNullOldLp() {
+        val diff = LinkPropertiesDiff(null, makeLp())
+        assertEquals(listOf("wlan0"), diff.interfaces.added)
+        assertEquals(1, diff.routes.added.size)
+        assertEquals(listOf(LinkAddress("192.0.2.2/24")), diff.addresses.added)
+        assertTrue(diff.dnsChanged)
+        assertTrue(diff.mtuChanged)
+        assertTrue(diff.interfaceNameChanged)
+    }
+
+    @Test
+    fun testChanges() {
+        val newLp = makeLp().apply {
+            removeLinkAddress(LinkAddress("192.0.2.2/24"))
+            addLinkAddress(LinkAddress("192.0.2.3/24"))
+            addDnsServer(parseNumericAddress("192.0.2.54"))
+            mtu = 1280
+            addStackedLink(LinkProperties().apply { interfaceName = "v4-wlan0" })
+        }
+        val diff = LinkPropertiesDiff(makeLp(), newLp)
+        assertEquals(listOf("v4-wlan0"), diff.interfaces.added)
+        assertTrue(diff.interfaces.removed.isEmpty())
+        assertEquals(listOf(LinkAddress("192.0.2.3/24")), diff.addresses.added)
+        assertEquals(listOf(LinkAddress("192.0.2.2/24")), diff.addresses.removed)
+        assertFalse(diff.routesChanged())
+        assertTrue(diff.dnsChanged)
+        assertTrue(diff.mtuChanged)
+        assertFalse(diff.interfaceNameChanged)
+    }
+
+    @Test
+    fun testRouteUpdated() {
+        val newLp = makeLp().apply {
+            addRoute(RouteInfo(IpPrefix("0.0.0.0/0"), parseNumericAddress("192.0.2.1"), "wlan0",
+                    RouteInfo.RTN_UNICAST, 1400 /* mtu */))
+        }
+        val diff = LinkPropertiesDiff(makeLp(), newLp)
+        assertTrue(diff.routes.added.isEmpty())
+        assertTrue(diff.routes.removed.isEmpty())
+        assertEquals(1, diff.routes.updated.size)
+        assertTrue(diff.routesChanged())
+    }
+}
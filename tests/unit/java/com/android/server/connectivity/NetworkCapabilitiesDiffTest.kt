@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.connectivity
+
+import android.net.NetworkCapabilities
+import android.net.NetworkCapabilities.NET_CAPABILITY_INTERNET
+import android.net.NetworkCapabilities.NET_CAPABILITY_NOT_METERED
+import android.net.NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING
+import android.net.NetworkCapabilities.NET_CAPABILITY_NOT_SUSPENDED
+import android.net.NetworkCapabilities.NET_CAPABILITY_VALIDATED
+import android.net.NetworkCapabilities.TRANSPORT_CELLULAR
+import android.net.NetworkCapabilities.TRANSPORT_WIFI
+import android.os.Build
+import android.util.ArraySet
+import android.util.Range
+import androidx.test.filters.SmallTest
+import com.android.testutils.DevSdkIgnoreRule
+import com.android.testutils.DevSdkIgnoreRunner
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+@RunWith(DevSdkIgnoreRunner::class)
+@SmallTest
+@DevSdkIgnoreRule.IgnoreUpTo(Build.VERSION_CODES.R)
+class NetworkCapabilitiesDiffTest {
+    private fun makeNc() = NetworkCapabilities.Builder()
+            .addTransportType(TRANSPORT_WIFI)
+            .addCapability(NET_CAPABILITY_INTERNET)
+            .addCapability(NET_CAPABILITY_NOT_ROAMING)
+            .addCapability(NET_CAPABILITY_NOT_SUSPENDED)
+            .build()
+
+    @Test
+    fun testIdentical() {
+        val diff = NetworkCapabilitiesDiff(makeNc(), makeNc())
+        assertEquals(0L, diff.capabilitiesAdded)
+        assertEquals(0L, diff.capabilitiesRemoved)
+        assertFalse(diff.transportsChanged)
+        assertFalse(diff.uidRangesChanged)
+        assertFalse(diff.allowedUidsChanged)
+        assertTrue(diff.requestableCapabilitiesEqual)
+        assertFalse(diff.meteredChanged())
+        assertFalse(diff.roamingChanged())
+        assertFalse(diff.suspendedChanged())
+    }
+
+    @Test
+    fun testCapabilityChanges() {
+        val newNc = NetworkCapabilities.Builder(makeNc())
+                .addCapability(NET_CAPABILITY_NOT_METERED)
+                .addCapability(NET_CAPABILITY_VALIDATED)
+                .removeCapability(NET_CAPABILITY_NOT_ROAMING)
+                .build()
+        val diff = NetworkCapabilitiesDiff(makeNc(), newNc)
+        assertEquals((1L shl NET_CAPABILITY_NOT_METERED) or (1L shl NET_CAPABILITY_VALIDATED),
+                diff.capabilitiesAdded)
+        assertEquals(1L shl NET_CAPABILITY_NOT_ROAMING, diff.capabilitiesRemoved)
+        assertTrue(diff.meteredChanged())
+        assertTrue(diff.roamingChanged())
+        assertFalse(diff.suspendedChanged())
+        assertTrue(diff.capabilityChanged(NET_CAPABILITY_VALIDATED))
+        assertFalse(diff.capabilityChanged(NET_CAPABILITY_INTERNET))
+        assertFalse(diff.requestableCapabilitiesEqual)
+    }
+
+    @Test
+    fun testTransportsAndUids() {
+        val newNc = NetworkCapabilities(makeNc()).apply {
+            addTransportType(TRANSPORT_CELLULAR)
+            setUids(setOf(Range(10000, 10100)))
+            setAllowedUids(ArraySet(listOf(10001)))
+        }
+        val diff = NetworkCapabilitiesDiff(makeNc(), newNc)
+        assertTrue(diff.transportsChanged)
+        assertTrue(diff.uidRangesChanged)
+        assertTrue(diff.allowedUidsChanged)
+
+        val sameUids = NetworkCapabilities(newNc).apply {
+            setUids(setOf(Range(10000, 10100)))
+        }
+        val sameDiff = NetworkCapabilitiesDiff(newNc, sameUids)
+        assertFalse(sameDiff.uidRangesChanged)
+        assertFalse(sameDiff.allowedUidsChanged)
+    }
+}
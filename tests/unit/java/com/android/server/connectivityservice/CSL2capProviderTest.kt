@@ -41,6 +41,7 @@ import android.os.Build
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.ParcelFileDescriptor
+import com.android.server.net.L2capNetwork
 import com.android.server.net.L2capNetwork.L2capIpClient
 import com.android.server.net.L2capPacketForwarder
 import com.android.testutils.DevSdkIgnoreRule.IgnoreUpTo
@@ -64,6 +65,7 @@ import org.junit.runner.RunWith
 import org.mockito.ArgumentCaptor
 import org.mockito.ArgumentMatchers.eq
 import org.mockito.ArgumentMatchers.isNull
+import org.mockito.ArgumentMatchers.notNull
 import org.mockito.Mockito.doAnswer
 import org.mockito.Mockito.doReturn
 import org.mockito.Mockito.doThrow
@@ -125,7 +127,7 @@ class CSL2capProviderTest : CSTest() {
         doReturn(handlerThread).`when`(providerDeps).getHandlerThread()
         doReturn(tunInterface).`when`(providerDeps).createTunInterface(any())
         doReturn(packetForwarder).`when`(providerDeps)
-                .createL2capPacketForwarder(any(), any(), any(), any(), any())
+                .createL2capPacketForwarder(any(), any(), any(), any(), any(), any())
         doReturn(l2capIpClient).`when`(providerDeps).createL2capIpClient(any(), any(), any())
 
         val lp = LinkProperties()
@@ -293,8 +295,7 @@ class CSL2capProviderTest : CSTest() {
         cb2.assertNoCallback()
     }
 
-    @Test
-    fun testServerNetwork() {
+    private fun startServerNetwork() {
         val specifier = L2capNetworkSpecifier.Builder()
                 .setRole(ROLE_SERVER)
                 .setHeaderCompression(HEADER_COMPRESSION_6LOWPAN)
@@ -309,9 +310,27 @@ class CSL2capProviderTest : CSTest() {
 
         cb.expectAvailableCallbacks(anyNetwork(), validated = false)
         cb.assertNoCallback()
-        // Verify that packet forwarding was started.
+    }
+
+    @Test
+    fun testServerNetwork() {
+        startServerNetwork()
+
+        // Verify that packet forwarding was started with the original header compression.
         // TODO: stop mocking L2capPacketForwarder.
-        verify(providerDeps).createL2capPacketForwarder(any(), any(), any(), any(), any())
+        verify(providerDeps).createL2capPacketForwarder(
+                any(), any(), any(), eq(true), isNull(), any())
+    }
+
+    @Test
+    fun testServerNetwork_fullIphcEnabled() {
+        doReturn(true).`when`(providerDeps)
+                .isFeatureEnabled(any(), eq(L2capNetwork.KEY_L2CAP_FULL_IPHC_VERSION))
+
+        startServerNetwork()
+
+        verify(providerDeps).createL2capPacketForwarder(
+                any(), any(), any(), eq(true), notNull(), any())
     }
 
     @Test
@@ -416,7 +435,7 @@ class CSL2capProviderTest : CSTest() {
         val handlerCaptor = ArgumentCaptor.forClass(Handler::class.java)
         val forwarderCbCaptor = ArgumentCaptor.forClass(L2capPacketForwarder.ICallback::class.java)
         verify(providerDeps).createL2capPacketForwarder(
-                handlerCaptor.capture(), any(), any(), any(), forwarderCbCaptor.capture())
+                handlerCaptor.capture(), any(), any(), any(), any(), forwarderCbCaptor.capture())
         val handler = handlerCaptor.value
         val forwarderCb = forwarderCbCaptor.value
 
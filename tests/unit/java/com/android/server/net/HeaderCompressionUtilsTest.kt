@@ -16,6 +16,7 @@
 
 package com.android.server.net
 
+import android.net.IpPrefix
 import android.os.Build
 import com.android.internal.util.HexDump
 import com.android.testutils.ConnectivityModuleTest
@@ -268,4 +269,143 @@ class HeaderCompressionUtilsTest {
         val output = "60000102030411fffe800000000000000000000000000001fe800000000000000000000000000002"
         assertThat(compressHex(input)).isEqualTo(output.decodeHex())
     }
+
+    private fun compressHex(hex: String, context: HeaderCompressionContext): ByteArray {
+        val buf = HexDump.hexStringToByteArray(hex)
+        val newLen = HeaderCompressionUtils.compress6lowpan(buf, buf.size, context)
+        return buf.copyOf(newLen)
+    }
+
+    private fun decompress(bytes: ByteArray, context: HeaderCompressionContext): ByteArray {
+        val buf = bytes.copyOf(1500)
+        val newLen = HeaderCompressionUtils.decompress6lowpan(buf, bytes.size, context)
+        return buf.copyOf(newLen)
+    }
+
+    private fun assertRoundTrip(
+        hex: String,
+        context: HeaderCompressionContext,
+        expectedCompressed: String
+    ) {
+        val compressed = compressHex(hex, context)
+        assertThat(compressed).isEqualTo(expectedCompressed.decodeHex())
+        assertThat(decompress(compressed, context)).isEqualTo(hex.decodeHex())
+    }
+
+    @Test
+    fun testHeaderCompression_stateless() {
+        val context = HeaderCompressionContext()
+        // Link-local unicast, hop limit 64, traffic class and flow label are zero.
+        var input  = "6000000000021140" +
+                     "fe80000000000000123456789abcdef0" + // source
+                     "fe80000000000000000000fffe001234" + // dest
+                     "abcd"                               // payload
+        // TF: 11, NH: 0, HLIM: 10, CID: 0, SAC: 0, SAM: 01, M: 0, DAC: 0, DAM: 10
+        var output = "7a12" +
+                     "11" +                               // next header
+                     "123456789abcdef0" +                 // source
+                     "1234" +                             // dest
+                     "abcd"                               // payload
+        assertRoundTrip(input, context, output)
+
+        // Multicast, hop limit 255, ECN only with flow label.
+        input  = "6012345600023aff" +
+                 "fe80000000000000000000fffe000001" +     // source
+                 "ff020000000000000000000000000001" +     // dest
+                 "abcd"                                   // payload
+        // TF: 01, NH: 0, HLIM: 11, CID: 0, SAC: 0, SAM: 10, M: 1, DAC: 0, DAM: 11
+        output = "6b2b" +
+                 "423456" +                               // ECN + flow label
+                 "3a" +                                   // next header
+                 "0001" +                                 // source
+                 "01" +                                   // dest
+                 "abcd"                                   // payload
+        assertRoundTrip(input, context, output)
+
+        // Global addresses without contexts are carried in-line.
+        input  = "6b80000000020611" +
+                 "20010db8000100020000000000000001" +     // source
+                 "20010db8000100020000000000000002" +     // dest
+                 "abcd"                                   // payload
+        // TF: 10, NH: 0, HLIM: 00, CID: 0, SAC: 0, SAM: 00, M: 0, DAC: 0, DAM: 00
+        output = "7000" +
+                 "b8" +                                   // traffic class
+                 "06" +                                   // next header
+                 "11" +                                   // hop limit
+                 "20010db8000100020000000000000001" +     // source
+                 "20010db8000100020000000000000002" +     // dest
+                 "abcd"                                   // payload
+        assertRoundTrip(input, context, output)
+    }
+
+    @Test
+    fun testHeaderCompression_stateful() {
+        val context = HeaderCompressionContext()
+        context.setContext(0, IpPrefix("2001:db8:1:2::/64"))
+        context.setContext(3, IpPrefix("2001:db8::99/128"))
+
+        // Source is covered by the /64 context 0, destination by the /128 context 3.
+        val input  = "6000000000021140" +
+                     "20010db800010002000000fffe000007" + // source
+                     "20010db8000000000000000000000099" + // dest
+                     "abcd"                               // payload
+        // TF: 11, NH: 0, HLIM: 10, CID: 1, SAC: 1, SAM: 10, M: 0, DAC: 1, DAM: 11
+        val output = "7ae7" +
+                     "03" +                               // SCI: 0, DCI: 3
+                     "11" +                               // next header
+                     "0007" +                             // source
+                     "abcd"                               // payload
+        assertRoundTrip(input, context, output)
+
+        // Without the contexts, the peer cannot decompress the packet.
+        val compressed = compressHex(input, context)
+        assertFailsWith(IOException::class) {
+            decompress(compressed, HeaderCompressionContext())
+        }
+        assertFailsWith(IOException::class) {
+            HeaderCompressionUtils.decompress6lowpan(compressed.copyOf(1500), compressed.size)
+        }
+
+        // Once a context is removed, addresses are no longer compressed against it.
+        context.removeContext(3)
+        assertThat(context.getContext(3)).isNull()
+        assertThat(decompress(compressHex(input, context), context)).isEqualTo(input.decodeHex())
+        assertThat(compressHex(input, context).size).isEqualTo(compressed.size + 15)
+    }
+
+    @Test
+    fun testHeaderCompressionContext_invalid() {
+        val context = HeaderCompressionContext()
+        assertFailsWith(IllegalArgumentException::class) {
+            context.setContext(HeaderCompressionContext.MAX_CONTEXTS, IpPrefix("2001:db8::/64"))
+        }
+        assertFailsWith(IllegalArgumentException::class) {
+            context.setContext(0, IpPrefix("192.0.2.0/24"))
+        }
+    }
+
+    @Test
+    fun testHeaderCompression_overhead() {
+        val context = HeaderCompressionContext()
+        context.setContext(0, IpPrefix("2001:db8:1:2::/64"))
+        val payload = ByteArray(1280) { it.toByte() }
+        val packet = ("6000000005001140" +
+                "20010db800010002000000fffe000007" +
+                "20010db800010002000000fffe000008").decodeHex() + payload
+
+        // Inline: the IPHC replaces the payload length, so the 40-byte header is kept.
+        val buf = packet.copyOf(1500)
+        val inlineLen = HeaderCompressionUtils.compress6lowpan(buf, packet.size)
+        assertThat(inlineLen - payload.size).isEqualTo(40)
+        assertThat(HeaderCompressionUtils.decompress6lowpan(buf, inlineLen)).isEqualTo(packet.size)
+        assertThat(buf.copyOf(packet.size)).isEqualTo(packet)
+
+        // Stateful: IPHC (2) + next header (1) + 16-bit source and destination IIDs (2 + 2).
+        val compressed = packet.copyOf().let {
+            it.copyOf(HeaderCompressionUtils.compress6lowpan(it, it.size, context))
+        }
+        assertThat(compressed.size - payload.size).isEqualTo(7)
+        assertThat(inlineLen - compressed.size).isEqualTo(33)
+        assertThat(decompress(compressed, context)).isEqualTo(packet)
+    }
 }
@@ -43,6 +43,7 @@ import java.io.OutputStream
 import java.nio.ByteBuffer
 import kotlin.arrayOf
 import kotlin.random.Random
+import kotlin.test.assertFailsWith
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
@@ -245,4 +246,92 @@ class L2capPacketForwarderTest {
         sendPacket(l2capFds[1], L2capPacketForwarder.MTU + 1)
         verify(callback, timeout(TIMEOUT)).onError()
     }
+
+    /** Counters are updated after a packet is written, so wait for them to settle. */
+    private fun waitForStats(
+        getStats: () -> L2capPacketForwarder.ForwardingStats,
+        packets: Long,
+        batches: Long = 0
+    ): L2capPacketForwarder.ForwardingStats {
+        val deadline = System.currentTimeMillis() + TIMEOUT
+        var stats = getStats()
+        while ((stats.packets < packets || stats.batches < batches) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+            stats = getStats()
+        }
+        return stats
+    }
+
+    @Test
+    fun testStats() {
+        val packet = sendPacket(l2capFds[1])
+        assertPacketReceived(tunFds[1], packet)
+        // Dropped: exceeds MTU.
+        sendPacket(tunFds[1], L2capPacketForwarder.MTU + 1)
+        val packet2 = sendPacket(tunFds[1], 1000)
+        assertPacketReceived(l2capFds[1], packet2)
+
+        val ingress = waitForStats({ forwarder.ingressStats }, 1)
+        assertThat(ingress.packets).isEqualTo(1)
+        assertThat(ingress.bytes).isEqualTo(1280)
+        assertThat(ingress.droppedPackets).isEqualTo(0)
+        assertThat(ingress.maxBatchSize).isEqualTo(1)
+
+        val egress = waitForStats({ forwarder.egressStats }, 1)
+        assertThat(egress.packets).isEqualTo(1)
+        assertThat(egress.bytes).isEqualTo(1000)
+        assertThat(egress.droppedPackets).isEqualTo(1)
+        assertThat(egress.batches).isEqualTo(2)
+    }
+
+    @Test
+    fun testInvalidBatchSize() {
+        assertFailsWith<IllegalArgumentException> {
+            L2capPacketForwarder(
+                    handler,
+                    FdWrapper(ParcelFileDescriptor(tunFds[1])),
+                    FdWrapper(ParcelFileDescriptor(l2capFds[1])),
+                    false /* compressHeaders */,
+                    0 /* batchSize */,
+                    callback
+            )
+        }
+    }
+
+    @Test
+    fun testForwarding_batched() {
+        val tun = arrayOf(FileDescriptor(), FileDescriptor())
+        val l2cap = arrayOf(FileDescriptor(), FileDescriptor())
+        Os.socketpair(AF_UNIX, SOCK_SEQPACKET, 0, tun[0], tun[1])
+        Os.socketpair(AF_UNIX, SOCK_SEQPACKET, 0, l2cap[0], l2cap[1])
+        Os.setsockoptTimeval(l2cap[1], SOL_SOCKET, SO_RCVTIMEO, StructTimeval.fromMillis(5000))
+        // Queue the packets before the forwarder starts, so that they are all pending when it
+        // first wakes up.
+        val batchSize = L2capPacketForwarder.DEFAULT_BATCH_SIZE
+        val packets = (0 until 2 * batchSize).map { sendPacket(tun[1]) }
+        val batchedForwarder = L2capPacketForwarder(
+                handler,
+                FdWrapper(ParcelFileDescriptor(tun[0])),
+                FdWrapper(ParcelFileDescriptor(l2cap[0])),
+                false /* compressHeaders */,
+                batchSize,
+                callback
+        )
+        try {
+            packets.forEach { assertPacketReceived(l2cap[1], it) }
+
+            val stats = waitForStats({ batchedForwarder.egressStats }, packets.size.toLong(),
+                    batches = 2)
+            assertThat(stats.packets).isEqualTo(packets.size)
+            assertThat(stats.droppedPackets).isEqualTo(0)
+            // Each wakeup forwarded a full batch.
+            assertThat(stats.batches).isEqualTo(2)
+            assertThat(stats.maxBatchSize).isEqualTo(batchSize)
+        } finally {
+            batchedForwarder.tearDown()
+            Os.close(tun[1])
+            Os.close(l2cap[1])
+        }
+    }
 }
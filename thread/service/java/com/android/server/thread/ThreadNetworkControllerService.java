@@ -188,6 +188,11 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
     // The channel mask that indicates all channels from channel 11 to channel 24
     private static final int CHANNEL_MASK_11_TO_24 = 0x1FFF800;
 
+    // The window in which address and prefix changes from ot-daemon are merged before being
+    // applied to the TUN interface and sent to the NetworkAgent. ot-daemon typically reports
+    // several changes in a burst when attaching to a network or when a router reboots
+    @VisibleForTesting static final long LINK_UPDATE_COALESCE_DELAY_MS = 50;
+
     // Below member fields can be accessed from both the binder and handler threads
 
     private final Context mContext;
@@ -233,6 +238,14 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
 
     private InfraLinkState mInfraLinkState;
 
+    // The latest address and prefix lists received from ot-daemon which are not yet applied, or
+    // null if the list didn't change since the last update was applied
+    @Nullable private List<Ipv6AddressInfo> mPendingAddressInfoList;
+    @Nullable private List<OnMeshPrefixConfig> mPendingOnMeshPrefixConfigList;
+    private final Runnable mApplyPendingLinkUpdates = this::applyPendingLinkUpdates;
+    private int mLinkUpdateEventsReceived;
+    private int mLinkUpdatesApplied;
+
     @VisibleForTesting
     ThreadNetworkControllerService(
             Context context,
@@ -482,6 +495,8 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
         mOtDaemonCallbackProxy.onOtDaemonDied();
         mTunIfController.onOtDaemonDied();
         mNsdPublisher.onOtDaemonDied();
+        // The addresses and prefixes reported by the dead ot-daemon are no longer valid
+        cancelPendingLinkUpdates();
         mOtDaemon = null;
         maybeInitializeOtDaemon();
     }
@@ -1510,6 +1525,8 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
     }
 
     private void handleThreadInterfaceStateChanged(boolean isUp) {
+        // Address and prefix changes reported before the state change must be applied first
+        flushPendingLinkUpdates();
         try {
             mTunIfController.setInterfaceUp(isUp);
             LOG.i("Thread TUN interface becomes " + (isUp ? "up" : "down"));
@@ -1519,6 +1536,8 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
     }
 
     private void handleDeviceRoleChanged(@DeviceRole int deviceRole) {
+        // Register or unregister the network with the addresses and prefixes reported so far
+        flushPendingLinkUpdates();
         if (ThreadNetworkController.isAttached(deviceRole)) {
             LOG.i("Attached to the Thread network");
 
@@ -1537,23 +1556,84 @@ final class ThreadNetworkControllerService extends IThreadNetworkController.Stub
     private void handleAddressChanged(List<Ipv6AddressInfo> addressInfoList) {
         checkOnHandlerThread();
 
-        mTunIfController.updateAddresses(addressInfoList);
-
-        // The OT daemon can send link property updates before the networkAgent is
-        // registered
-        maybeSendLinkProperties();
+        // Each event carries the full list of addresses, so only the latest one matters
+        mPendingAddressInfoList = addressInfoList;
+        onLinkUpdateEventReceived();
     }
 
     private void handlePrefixChanged(List<OnMeshPrefixConfig> onMeshPrefixConfigList) {
         checkOnHandlerThread();
 
-        mTunIfController.updatePrefixes(onMeshPrefixConfigList);
+        // Each event carries the full list of prefixes, so only the latest one matters
+        mPendingOnMeshPrefixConfigList = onMeshPrefixConfigList;
+        onLinkUpdateEventReceived();
+    }
+
+    private void onLinkUpdateEventReceived() {
+        mLinkUpdateEventsReceived++;
+        if (!mHandler.hasCallbacks(mApplyPendingLinkUpdates)) {
+            mHandler.postDelayed(mApplyPendingLinkUpdates, LINK_UPDATE_COALESCE_DELAY_MS);
+        }
+    }
+
+    /**
+     * Applies the address and prefix changes received in the last {@link
+     * #LINK_UPDATE_COALESCE_DELAY_MS} to the TUN interface and sends the resulting {@link
+     * LinkProperties} once.
+     */
+    private void applyPendingLinkUpdates() {
+        checkOnHandlerThread();
+
+        if (mPendingAddressInfoList != null) {
+            mTunIfController.updateAddresses(mPendingAddressInfoList);
+            mPendingAddressInfoList = null;
+        }
+        if (mPendingOnMeshPrefixConfigList != null) {
+            mTunIfController.updatePrefixes(mPendingOnMeshPrefixConfigList);
+            mPendingOnMeshPrefixConfigList = null;
+        }
+        mLinkUpdatesApplied++;
+        LOG.v(
+                "Applied link updates (events received: "
+                        + mLinkUpdateEventsReceived
+                        + ", updates applied: "
+                        + mLinkUpdatesApplied
+                        + ")");
 
         // The OT daemon can send link property updates before the networkAgent is
         // registered
         maybeSendLinkProperties();
     }
 
+    /** Applies the pending address and prefix changes now, if any. */
+    private void flushPendingLinkUpdates() {
+        if (!mHandler.hasCallbacks(mApplyPendingLinkUpdates)) return;
+        mHandler.removeCallbacks(mApplyPendingLinkUpdates);
+        applyPendingLinkUpdates();
+    }
+
+    private void cancelPendingLinkUpdates() {
+        mHandler.removeCallbacks(mApplyPendingLinkUpdates);
+        mPendingAddressInfoList = null;
+        mPendingOnMeshPrefixConfigList = null;
+    }
+
+    @VisibleForTesting
+    int getLinkUpdateEventsReceived() {
+        return mLinkUpdateEventsReceived;
+    }
+
+    @VisibleForTesting
+    int getLinkUpdatesApplied() {
+        return mLinkUpdatesApplied;
+    }
+
+    /** Returns the callback which receives events from ot-daemon. */
+    @VisibleForTesting
+    IOtDaemonCallback getOtDaemonCallback() {
+        return mOtDaemonCallbackProxy;
+    }
+
     private void maybeSendLinkProperties() {
         if (mNetworkAgent == null) {
             return;
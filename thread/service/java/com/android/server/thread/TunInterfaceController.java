@@ -43,6 +43,7 @@ import com.android.net.module.util.HexDump;
 import com.android.net.module.util.LinkPropertiesUtils.CompareResult;
 import com.android.net.module.util.SharedLog;
 import com.android.net.module.util.netlink.NetlinkUtils;
+import com.android.net.module.util.netlink.RtNetlinkSession;
 import com.android.net.module.util.netlink.StructIfinfoMsg;
 import com.android.net.module.util.netlink.StructNlAttr;
 import com.android.net.module.util.netlink.StructNlMsgHdr;
@@ -80,6 +81,9 @@ public class TunInterfaceController {
     private final List<InetAddress> mMulticastAddresses = new ArrayList<>();
     private final List<RouteInfo> mNetDataPrefixes = new ArrayList<>();
 
+    // Kept open to program the addresses of the interface, see updateInterfaceAddresses.
+    @Nullable private RtNetlinkSession mRtNetlinkSession;
+
     private ParcelFileDescriptor mParcelTunFd;
     private NetworkInterface mNetworkInterface;
 
@@ -131,6 +135,7 @@ public class TunInterfaceController {
         }
         mParcelTunFd = null;
         mNetworkInterface = null;
+        closeRtNetlinkSession();
     }
 
     /** Returns the FD of the tunnel interface. */
@@ -144,9 +149,7 @@ public class TunInterfaceController {
     /** Sets the interface up or down according to {@code isUp}. */
     public void setInterfaceUp(boolean isUp) throws IOException {
         if (!isUp) {
-            for (LinkAddress address : mLinkProperties.getAllLinkAddresses()) {
-                removeAddress(address);
-            }
+            updateInterfaceAddresses(mLinkProperties.getAllLinkAddresses(), List.of());
             for (RouteInfo route : mLinkProperties.getAllRoutes()) {
                 mLinkProperties.removeRoute(route);
             }
@@ -157,69 +160,115 @@ public class TunInterfaceController {
 
     private native void nativeSetInterfaceUp(String interfaceName, boolean isUp) throws IOException;
 
-    /** Adds a new address to the interface. */
-    public void addAddress(LinkAddress address) {
-        if (!(address.getAddress() instanceof Inet6Address)) {
-            return;
+    /**
+     * Removes and adds addresses of the interface.
+     *
+     * <p>All the changes are sent to the kernel in a single netlink write, since Thread network
+     * changes typically update several addresses at once.
+     */
+    private void updateInterfaceAddresses(List<LinkAddress> removed, List<LinkAddress> added) {
+        final List<LinkAddress> toRemove = new ArrayList<>();
+        final List<LinkAddress> toAdd = new ArrayList<>();
+        // Only apply to Ipv6 address
+        for (LinkAddress address : removed) {
+            if (address.getAddress() instanceof Inet6Address) toRemove.add(address);
         }
-        LOG.v("Adding address " + address + " with flags: " + address.getFlags());
-
-        long preferredLifetimeSeconds;
-        long validLifetimeSeconds;
-
-        if (address.getDeprecationTime() == LinkAddress.LIFETIME_PERMANENT
-                || address.getDeprecationTime() == LinkAddress.LIFETIME_UNKNOWN) {
-            preferredLifetimeSeconds = INFINITE_LIFETIME;
-        } else {
-            preferredLifetimeSeconds =
-                    Math.max(
-                            (address.getDeprecationTime() - SystemClock.elapsedRealtime()) / 1000L,
-                            0L);
+        for (LinkAddress address : added) {
+            if (address.getAddress() instanceof Inet6Address) toAdd.add(address);
         }
+        if (toRemove.isEmpty() && toAdd.isEmpty()) return;
 
-        if (address.getExpirationTime() == LinkAddress.LIFETIME_PERMANENT
-                || address.getExpirationTime() == LinkAddress.LIFETIME_UNKNOWN) {
-            validLifetimeSeconds = INFINITE_LIFETIME;
-        } else {
-            validLifetimeSeconds =
-                    Math.max(
-                            (address.getExpirationTime() - SystemClock.elapsedRealtime()) / 1000L,
-                            0L);
-        }
-        // Only apply to Ipv6 address
-        if (!NetlinkUtils.sendRtmNewAddressRequest(
-                Os.if_nametoindex(mIfName),
-                address.getAddress(),
-                (short) address.getPrefixLength(),
-                address.getFlags(),
-                (byte) address.getScope(),
-                preferredLifetimeSeconds,
-                validLifetimeSeconds)) {
-            LOG.w("Failed to add address " + address.getAddress().getHostAddress());
+        final int ifIndex = Os.if_nametoindex(mIfName);
+        final RtNetlinkSession session;
+        try {
+            session = getRtNetlinkSession();
+        } catch (ErrnoException e) {
+            LOG.e("Failed to open netlink session", e);
+            // Addresses removed from ot-daemon are still removed, see below.
+            for (LinkAddress address : toRemove) {
+                removeFromLinkProperties(address);
+            }
             return;
         }
-        mLinkProperties.addLinkAddress(address);
-        mLinkProperties.addRoute(getRouteForAddress(address));
-    }
 
-    /** Removes an address from the interface. */
-    public void removeAddress(LinkAddress address) {
-        if (!(address.getAddress() instanceof Inet6Address)) {
+        for (LinkAddress address : toRemove) {
+            LOG.v("Removing address " + address);
+            // Intentionally update the mLinkProperties before send netlink message because the
+            // address is already removed from ot-daemon and apps can't reach to the address even
+            // when the netlink request below fails
+            removeFromLinkProperties(address);
+            session.addDelAddress(
+                    ifIndex, address.getAddress(), (short) address.getPrefixLength());
+        }
+        for (LinkAddress address : toAdd) {
+            LOG.v("Adding address " + address + " with flags: " + address.getFlags());
+            session.addNewAddress(
+                    ifIndex,
+                    address.getAddress(),
+                    (short) address.getPrefixLength(),
+                    address.getFlags(),
+                    (byte) address.getScope(),
+                    toLifetimeSeconds(address.getDeprecationTime()),
+                    toLifetimeSeconds(address.getExpirationTime()));
+        }
+
+        final int[] errnos;
+        try {
+            errnos = session.commit();
+        } catch (ErrnoException e) {
+            LOG.e("Failed to update addresses", e);
+            closeRtNetlinkSession();
             return;
         }
-        LOG.v("Removing address " + address);
+        for (int i = 0; i < toRemove.size(); i++) {
+            if (errnos[i] != 0) {
+                LOG.w("Failed to remove address " + toRemove.get(i).getAddress().getHostAddress()
+                        + ": " + Os.strerror(errnos[i]));
+            }
+        }
+        for (int i = 0; i < toAdd.size(); i++) {
+            final LinkAddress address = toAdd.get(i);
+            final int errno = errnos[toRemove.size() + i];
+            if (errno != 0) {
+                LOG.w("Failed to add address " + address.getAddress().getHostAddress()
+                        + ": " + Os.strerror(errno));
+                continue;
+            }
+            mLinkProperties.addLinkAddress(address);
+            mLinkProperties.addRoute(getRouteForAddress(address));
+        }
+    }
 
-        // Intentionally update the mLinkProperties before send netlink message because the
-        // address is already removed from ot-daemon and apps can't reach to the address even
-        // when the netlink request below fails
+    private void removeFromLinkProperties(LinkAddress address) {
         mLinkProperties.removeLinkAddress(address);
         mLinkProperties.removeRoute(getRouteForAddress(address));
-        // Only apply to Ipv6 address
-        if (!NetlinkUtils.sendRtmDelAddressRequest(
-                Os.if_nametoindex(mIfName),
-                (Inet6Address) address.getAddress(),
-                (short) address.getPrefixLength())) {
-            LOG.w("Failed to remove address " + address.getAddress().getHostAddress());
+    }
+
+    /** Converts a {@link LinkAddress} deprecation or expiration time to a netlink lifetime. */
+    private static long toLifetimeSeconds(long timeMillis) {
+        if (timeMillis == LinkAddress.LIFETIME_PERMANENT
+                || timeMillis == LinkAddress.LIFETIME_UNKNOWN) {
+            return INFINITE_LIFETIME;
+        }
+        return Math.max((timeMillis - SystemClock.elapsedRealtime()) / 1000L, 0L);
+    }
+
+    /** Returns the netlink session, opening it if needed. */
+    private RtNetlinkSession getRtNetlinkSession() throws ErrnoException {
+        if (mRtNetlinkSession == null) {
+            mRtNetlinkSession = RtNetlinkSession.open();
+        }
+        return mRtNetlinkSession;
+    }
+
+    /**
+     * Closes the netlink session after an I/O error, so that late acks from the failed commit
+     * are not read by the next one.
+     */
+    private void closeRtNetlinkSession() {
+        if (mRtNetlinkSession != null) {
+            mRtNetlinkSession.close();
+            mRtNetlinkSession = null;
         }
     }
 
@@ -246,12 +295,7 @@ public class TunInterfaceController {
 
         final CompareResult<LinkAddress> addressDiff =
                 new CompareResult<>(mLinkProperties.getAllLinkAddresses(), newLinkAddresses);
-        for (LinkAddress linkAddress : addressDiff.removed) {
-            removeAddress(linkAddress);
-        }
-        for (LinkAddress linkAddress : addressDiff.added) {
-            addAddress(linkAddress);
-        }
+        updateInterfaceAddresses(addressDiff.removed, addressDiff.added);
 
         final CompareResult<InetAddress> multicastAddressDiff =
                 new CompareResult<>(mMulticastAddresses, newMulticastAddresses);
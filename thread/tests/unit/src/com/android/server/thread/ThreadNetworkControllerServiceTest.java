@@ -25,6 +25,7 @@ import static android.net.NetworkCapabilities.TRANSPORT_ETHERNET;
 import static android.net.NetworkCapabilities.TRANSPORT_THREAD;
 import static android.net.NetworkCapabilities.TRANSPORT_WIFI;
 import static android.net.thread.ActiveOperationalDataset.CHANNEL_PAGE_24_GHZ;
+import static android.net.thread.ThreadNetworkController.DEVICE_ROLE_DETACHED;
 import static android.net.thread.ThreadNetworkController.STATE_DISABLED;
 import static android.net.thread.ThreadNetworkController.STATE_ENABLED;
 import static android.net.thread.ThreadNetworkException.ERROR_FAILED_PRECONDITION;
@@ -34,6 +35,7 @@ import static android.net.thread.ThreadNetworkManager.DISALLOW_THREAD_NETWORK;
 import static android.net.thread.ThreadNetworkManager.PERMISSION_THREAD_NETWORK_PRIVILEGED;
 import static android.net.thread.ThreadNetworkManager.PERMISSION_THREAD_NETWORK_TESTING;
 
+import static com.android.server.thread.ThreadNetworkControllerService.LINK_UPDATE_COALESCE_DELAY_MS;
 import static com.android.server.thread.ThreadNetworkControllerService.getMeshcopTxtAttributes;
 import static com.android.server.thread.ThreadNetworkCountryCode.DEFAULT_COUNTRY_CODE;
 import static com.android.server.thread.ThreadPersistentSettings.KEY_THREAD_ENABLED;
@@ -102,8 +104,12 @@ import com.android.net.module.util.RoutingCoordinatorManager;
 import com.android.server.connectivity.ConnectivityResources;
 import com.android.server.connectivity.MockableSystemProperties;
 import com.android.server.thread.openthread.DnsTxtAttribute;
+import com.android.server.thread.openthread.IOtDaemonCallback;
 import com.android.server.thread.openthread.IOtStatusReceiver;
+import com.android.server.thread.openthread.Ipv6AddressInfo;
 import com.android.server.thread.openthread.MeshcopTxtAttributes;
+import com.android.server.thread.openthread.OnMeshPrefixConfig;
+import com.android.server.thread.openthread.OtDaemonState;
 import com.android.server.thread.openthread.testing.FakeOtDaemon;
 
 import org.junit.After;
@@ -1071,4 +1077,67 @@ public final class ThreadNetworkControllerServiceTest {
 
         verify(mockReceiver, times(1)).onSuccess();
     }
+
+    @Test
+    public void onAddressAndPrefixChanged_burstOfEvents_coalescedIntoOneUpdate() throws Exception {
+        mService.initialize();
+        mTestLooper.dispatchAll();
+        clearInvocations(mMockTunIfController);
+        final int eventsReceived = mService.getLinkUpdateEventsReceived();
+        final int updatesApplied = mService.getLinkUpdatesApplied();
+        final IOtDaemonCallback callback = mService.getOtDaemonCallback();
+        final List<Ipv6AddressInfo> addresses1 = List.of(new Ipv6AddressInfo());
+        final List<Ipv6AddressInfo> addresses2 =
+                List.of(new Ipv6AddressInfo(), new Ipv6AddressInfo());
+        final List<OnMeshPrefixConfig> prefixes = List.of(new OnMeshPrefixConfig());
+
+        callback.onAddressChanged(addresses1);
+        callback.onPrefixChanged(prefixes);
+        callback.onAddressChanged(addresses2);
+        mTestLooper.dispatchAll();
+
+        verify(mMockTunIfController, never()).updateAddresses(any());
+        verify(mMockTunIfController, never()).updatePrefixes(any());
+
+        mTestLooper.moveTimeForward(LINK_UPDATE_COALESCE_DELAY_MS);
+        mTestLooper.dispatchAll();
+
+        verify(mMockTunIfController, never()).updateAddresses(addresses1);
+        verify(mMockTunIfController, times(1)).updateAddresses(addresses2);
+        verify(mMockTunIfController, times(1)).updatePrefixes(prefixes);
+        assertThat(mService.getLinkUpdateEventsReceived()).isEqualTo(eventsReceived + 3);
+        assertThat(mService.getLinkUpdatesApplied()).isEqualTo(updatesApplied + 1);
+    }
+
+    @Test
+    public void onStateChanged_pendingLinkUpdates_appliedBeforeInterfaceStateChange()
+            throws Exception {
+        mService.initialize();
+        mTestLooper.dispatchAll();
+        clearInvocations(mMockTunIfController);
+        final IOtDaemonCallback callback = mService.getOtDaemonCallback();
+        final List<Ipv6AddressInfo> addresses = List.of(new Ipv6AddressInfo());
+        final List<OnMeshPrefixConfig> prefixes = List.of(new OnMeshPrefixConfig());
+        final OtDaemonState state = new OtDaemonState();
+        state.isInterfaceUp = true;
+        state.deviceRole = DEVICE_ROLE_DETACHED;
+        state.activeDatasetTlvs = new byte[0];
+        state.pendingDatasetTlvs = new byte[0];
+
+        callback.onAddressChanged(addresses);
+        callback.onPrefixChanged(prefixes);
+        callback.onStateChanged(state, -1L /* listenerId */);
+        mTestLooper.dispatchAll();
+
+        // The link updates are applied without waiting for the coalescing delay, and only once
+        InOrder inOrder = Mockito.inOrder(mMockTunIfController);
+        inOrder.verify(mMockTunIfController, times(1)).updateAddresses(addresses);
+        inOrder.verify(mMockTunIfController, times(1)).setInterfaceUp(true);
+        verify(mMockTunIfController, times(1)).updatePrefixes(prefixes);
+
+        mTestLooper.moveTimeForward(LINK_UPDATE_COALESCE_DELAY_MS);
+        mTestLooper.dispatchAll();
+        verify(mMockTunIfController, times(1)).updateAddresses(any());
+        verify(mMockTunIfController, times(1)).updatePrefixes(any());
+    }
 }